@@ -0,0 +1,205 @@
+package de.sebastianhesse.pbf.benchmark;
+
+import de.sebastianhesse.pbf.reader.Accessor;
+import de.sebastianhesse.pbf.reader.SimpleNodeEdgeReader;
+import de.sebastianhesse.pbf.routing.Dijkstra;
+import de.sebastianhesse.pbf.routing.DijkstraOptions;
+import de.sebastianhesse.pbf.routing.DijkstraResult;
+import de.sebastianhesse.pbf.routing.FibonacciHeap;
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.routing.queues.QueueType;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.GraphSnapshot;
+import de.sebastianhesse.pbf.storage.StronglyConnectedComponents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Compares the priority queues of {@link QueueType} with the former {@link FibonacciHeap}. First the queue
+ * operations of a search are replayed without a graph, then random routes are calculated on a real graph with each
+ * queue, which also logs the bytes allocated per route if the JVM can measure them. Usage:
+ * <pre>
+ * java -cp osm-routing.jar de.sebastianhesse.pbf.benchmark.QueueBenchmark osm_data.osm.pbf [queries]
+ * </pre>
+ * The file can also be a graph snapshot.
+ */
+public class QueueBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueBenchmark.class);
+    private static final int OPERATIONS = 2000000;
+    private static final int ROUNDS = 5;
+    private static final long SEED = 42;
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: QueueBenchmark <osm file or snapshot> [queries]");
+            System.exit(1);
+        }
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Graph graph = loadGraph(args[0]);
+        benchmarkOperations(graph.getNodesSize());
+        benchmarkQueries(graph, queries);
+    }
+
+
+    static Graph loadGraph(String file) throws Exception {
+        if (GraphSnapshot.isSnapshot(new File(file))) {
+            return GraphSnapshot.read(new File(file));
+        }
+        return new SimpleNodeEdgeReader(file).importData().getGraph();
+    }
+
+
+    /**
+     * Replays pushes, decrease-keys and polls like a search: each polled node pushes a few random nodes which have not
+     * been polled yet with a higher weight.
+     */
+    private static void benchmarkOperations(int nodes) {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (QueueType type : QueueType.values()) {
+                NodeQueue queue = type.create(nodes);
+                long start = System.nanoTime();
+                long checksum = replay(queue, nodes);
+                logOperations(type.name(), round, System.nanoTime() - start, checksum);
+            }
+
+            long start = System.nanoTime();
+            long checksum = replayWithFibonacciHeap(nodes);
+            logOperations("FIBONACCI_HEAP", round, System.nanoTime() - start, checksum);
+        }
+    }
+
+
+    private static long replay(NodeQueue queue, int nodes) {
+        Random random = new Random(SEED);
+        double[] weights = new double[nodes];
+        Arrays.fill(weights, Double.MAX_VALUE);
+        boolean[] polled = new boolean[nodes];
+        long checksum = 0;
+        queue.push(0, 0);
+        for (int i = 0; i < OPERATIONS && !queue.isEmpty(); i++) {
+            double weight = queue.peekWeight();
+            int node = queue.poll();
+            polled[node] = true;
+            checksum = checksum * 31 + node;
+            for (int j = 0; j < 3; j++) {
+                push(queue, random.nextInt(nodes), weight + random.nextDouble() * 100, weights, polled);
+            }
+        }
+        return checksum;
+    }
+
+
+    private static void push(NodeQueue queue, int node, double weight, double[] weights, boolean[] polled) {
+        if (!polled[node] && weight < weights[node]) {
+            weights[node] = weight;
+            queue.push(node, weight);
+        }
+    }
+
+
+    /**
+     * Same as {@link #replay(NodeQueue, int)}, but like the former Dijkstra without decrease-key: a node is added
+     * again and outdated entries are skipped when they're polled.
+     */
+    private static long replayWithFibonacciHeap(int nodes) {
+        Random random = new Random(SEED);
+        double[] weights = new double[nodes];
+        Arrays.fill(weights, Double.MAX_VALUE);
+        boolean[] polled = new boolean[nodes];
+        long checksum = 0;
+        FibonacciHeap<Integer> queue = new FibonacciHeap<>();
+        queue.enqueue(0, 0);
+        for (int i = 0; i < OPERATIONS && !queue.isEmpty(); ) {
+            FibonacciHeap.Entry<Integer> entry = queue.dequeueMin();
+            int node = entry.getValue();
+            if (polled[node]) {
+                continue;
+            }
+            polled[node] = true;
+            i++;
+            checksum = checksum * 31 + node;
+            for (int j = 0; j < 3; j++) {
+                int neighbour = random.nextInt(nodes);
+                double weight = entry.getPriority() + random.nextDouble() * 100;
+                if (!polled[neighbour] && weight < weights[neighbour]) {
+                    weights[neighbour] = weight;
+                    queue.enqueue(neighbour, weight);
+                }
+            }
+        }
+        return checksum;
+    }
+
+
+    private static void logOperations(String queue, int round, long nanos, long checksum) {
+        logger.info("Round {}: {} replayed the search in {} ms (checksum {}).", round, queue, nanos / 1000000,
+                checksum);
+    }
+
+
+    /**
+     * Calculates the same random routes between nodes of the largest component with each queue.
+     */
+    private static void benchmarkQueries(Graph graph, int queries) {
+        StronglyConnectedComponents components = graph.getComponents(Accessor.CAR);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (QueueType type : QueueType.values()) {
+                Random random = new Random(SEED);
+                DijkstraOptions options = new DijkstraOptions(Accessor.CAR, CalculationType.FASTEST, type);
+                double distances = 0;
+                long allocatedBefore = getAllocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    int source = getRandomNode(graph, components, random);
+                    int target = getRandomNode(graph, components, random);
+                    Dijkstra dijkstra = new Dijkstra(graph, graph.getNode(source), graph.getNode(target), options);
+                    // runs the search in this thread
+                    dijkstra.run();
+                    DijkstraResult result = dijkstra.retrieveShortestPath();
+                    distances += result.distance;
+                }
+                long nanos = System.nanoTime() - start;
+                long allocatedAfter = getAllocatedBytes();
+                logger.info("Round {}: {} calculated {} routes in {} ms, {} ms per route (total distance {} m).",
+                        round, type, queries, nanos / 1000000, nanos / 1000000.0 / queries, Math.round(distances));
+                if (allocatedBefore >= 0) {
+                    logger.info("Round {}: {} allocated {} KB per route.", round, type,
+                            (allocatedAfter - allocatedBefore) / 1024 / queries);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return bytes allocated by the current thread so far or -1 if the JVM doesn't support measuring them
+     */
+    static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+
+    static int getRandomNode(Graph graph, StronglyConnectedComponents components, Random random) {
+        while (true) {
+            int node = random.nextInt(graph.getNodesSize());
+            if (components.isInLargestComponent(node)) {
+                return node;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.sebastianhesse.pbf.benchmark;
+
+import de.sebastianhesse.pbf.reader.Accessor;
+import de.sebastianhesse.pbf.routing.Dijkstra;
+import de.sebastianhesse.pbf.routing.DijkstraOptions;
+import de.sebastianhesse.pbf.routing.DijkstraResult;
+import de.sebastianhesse.pbf.routing.RoutingAlgorithm;
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.QueueType;
+import de.sebastianhesse.pbf.storage.ContractionHierarchy;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.StronglyConnectedComponents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+
+/**
+ * Compares the {@link RoutingAlgorithm}s on the same random car routes between nodes of the largest component. Logs
+ * the time and the settled nodes per route and counts the routes whose distance or time differs from the route found
+ * by {@link RoutingAlgorithm#DIJKSTRA}. Usage:
+ * <pre>
+ * java -cp osm-routing.jar de.sebastianhesse.pbf.benchmark.RoutingBenchmark osm_data.osm.pbf [queries] [mode]
+ * </pre>
+ * The file can also be a graph snapshot, the mode is fastest (default) or shortest.
+ */
+public class RoutingBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingBenchmark.class);
+    private static final int ROUNDS = 3;
+    private static final long SEED = 42;
+    private static final int LANDMARKS = 16;
+    // max. difference of distance and time which is still considered equal, they are summed up in a different order
+    private static final double EPSILON = 1e-3;
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RoutingBenchmark <osm file or snapshot> [queries] [fastest|shortest]");
+            System.exit(1);
+        }
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        CalculationType calculationType = args.length > 2 ?
+                CalculationType.valueOf(args[2].toUpperCase()) : CalculationType.FASTEST;
+
+        Graph graph = QueueBenchmark.loadGraph(args[0]);
+        if (!graph.hasReverseEdges()) {
+            // needed by the backward search of the bidirectional algorithm
+            graph.buildReverseEdges();
+        }
+        CostProfile profile = CostProfile.get(Accessor.CAR, calculationType == CalculationType.FASTEST);
+        if (graph.getContractionHierarchy(profile) == null) {
+            // needed by the contraction hierarchy query, the preprocessing time is logged by the builder
+            graph.setContractionHierarchy(ContractionHierarchy.build(graph, profile));
+        }
+        if (graph.getLandmarks(profile) == null) {
+            // needed by the landmark search
+            graph.buildLandmarks(LANDMARKS);
+        }
+        if (graph.getPartition() == null) {
+            // needed by the overlay query, the customization time is logged for each profile
+            graph.buildPartition();
+        }
+        StronglyConnectedComponents components = graph.getComponents(Accessor.CAR);
+        int[] sources = new int[queries];
+        int[] targets = new int[queries];
+        Random random = new Random(SEED);
+        for (int i = 0; i < queries; i++) {
+            sources[i] = QueueBenchmark.getRandomNode(graph, components, random);
+            targets[i] = QueueBenchmark.getRandomNode(graph, components, random);
+        }
+
+        DijkstraResult[] expected = new DijkstraResult[queries];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (RoutingAlgorithm algorithm : RoutingAlgorithm.values()) {
+                DijkstraOptions options = new DijkstraOptions(Accessor.CAR, calculationType, QueueType.DARY_HEAP,
+                        algorithm);
+                long settledNodes = 0;
+                int mismatches = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    Dijkstra dijkstra = algorithm.create(graph, graph.getNode(sources[i]), graph.getNode(targets[i]),
+                            options);
+                    // runs the search in this thread
+                    dijkstra.run();
+                    DijkstraResult result = dijkstra.retrieveShortestPath();
+                    settledNodes += dijkstra.getSettledNodes();
+                    if (algorithm == RoutingAlgorithm.DIJKSTRA) {
+                        expected[i] = result;
+                    } else if (!isEqual(expected[i], result)) {
+                        mismatches++;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                logger.info("Round {}: {} calculated {} routes in {} ms, {} ms and {} settled nodes per route, " +
+                                "{} routes differ.", round, algorithm, queries, nanos / 1000000,
+                        nanos / 1000000.0 / queries, settledNodes / queries, mismatches);
+            }
+        }
+    }
+
+
+    private static boolean isEqual(DijkstraResult expected, DijkstraResult actual) {
+        return Math.abs(expected.distance - actual.distance) <= EPSILON &&
+                Math.abs(expected.timeInSeconds - actual.timeInSeconds) <= EPSILON &&
+                expected.path.size() == actual.path.size();
+    }
+}
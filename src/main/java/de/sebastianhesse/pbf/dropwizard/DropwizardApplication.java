@@ -1,5 +1,8 @@
 package de.sebastianhesse.pbf.dropwizard;
 
+import com.codahale.metrics.Gauge;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
+import de.sebastianhesse.pbf.dropwizard.commands.SnapshotCommand;
 import de.sebastianhesse.pbf.dropwizard.healtchecks.GraphHealthCheck;
 import de.sebastianhesse.pbf.dropwizard.healtchecks.StrategyHealthCheck;
 import de.sebastianhesse.pbf.dropwizard.resources.HelloWorldResource;
@@ -7,19 +10,21 @@ import de.sebastianhesse.pbf.dropwizard.resources.MetaResource;
 import de.sebastianhesse.pbf.dropwizard.resources.PoiResource;
 import de.sebastianhesse.pbf.dropwizard.resources.RoutingResource;
 import de.sebastianhesse.pbf.dropwizard.resources.TrafficResource;
+import de.sebastianhesse.pbf.dropwizard.tasks.ReloadGraphTask;
 import de.sebastianhesse.pbf.reader.NodeEdgeReader;
 import de.sebastianhesse.pbf.reader.OptimizedNodeEdgeReader;
 import de.sebastianhesse.pbf.reader.SimpleNodeEdgeReader;
-import de.sebastianhesse.pbf.storage.Graph;
-import de.sebastianhesse.pbf.storage.traffic.TrafficHandler;
+import de.sebastianhesse.pbf.routing.SearchStatePool;
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.List;
 
 
 /**
@@ -44,6 +49,12 @@ public class DropwizardApplication extends Application<DropwizardConfiguration>
 
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "snapshot".equals(args[0])) {
+            // the snapshot command parses its own arguments
+            new DropwizardApplication("", "", "", "").run(args);
+            return;
+        }
+
         // strip out the osm file path, otherwise Dropwizard complains about an unknown parameter;
         // the unknown parameter could be addressed by adding a custom command, but it's okay for this use case
         String[] argsWithoutOsmFile = Arrays.copyOfRange(args, 0, 2);
@@ -67,6 +78,7 @@ public class DropwizardApplication extends Application<DropwizardConfiguration>
         bootstrap.addBundle(new AssetsBundle("/assets/css", "/css", null, "css"));
         bootstrap.addBundle(new AssetsBundle("/assets/js", "/js", null, "js"));
         bootstrap.addBundle(new AssetsBundle("/assets/fonts", "/fonts", null, "fonts"));
+        bootstrap.addCommand(new SnapshotCommand());
     }
 
 
@@ -76,50 +88,85 @@ public class DropwizardApplication extends Application<DropwizardConfiguration>
         // set url pattern for resources, i.e. they can be accessed by /api/{resourcePath}
         environment.jersey().setUrlPattern("/api/*");
         environment.jersey().register(new HelloWorldResource());
+        SearchStatePool.setCapacity(configuration.getSearchStatePoolSize());
 
-        // import OSM data and register routing resource
-        NodeEdgeReader reader = getNodeEdgeReader(configuration);
-        Graph graph = null;
-        TrafficHandler trafficHandler = null;
+        // import OSM data (or map an existing graph snapshot), it can be replaced later by the reload-graph task
+        final GraphHolder graphHolder = new GraphHolder(configuration, locationListPath, eventListPath,
+                tmcDataDirectory);
+        environment.lifecycle().manage(graphHolder);
+        environment.admin().addTask(new ReloadGraphTask(graphHolder));
 
         try {
-            reader.importData();
-            graph = reader.getGraph();
-            trafficHandler = reader.getTrafficHandler();
-            trafficHandler.setGraph(graph);
+            graphHolder.load(osmFile);
         } catch (Exception e) {
             logger.info("Something went wrong while reading OSM data. See error log.");
             logger.error("", e);
         }
 
-        final RoutingResource routingResource = new RoutingResource(graph);
+        final RoutingResource routingResource = new RoutingResource(graphHolder, configuration.isSnapToLargestComponent());
         environment.jersey().register(routingResource);
 
-        final PoiResource poiResource = new PoiResource(graph);
+        final PoiResource poiResource = new PoiResource(graphHolder);
         environment.jersey().register(poiResource);
 
-        final MetaResource metaResource = new MetaResource(configuration, osmFile, graph);
+        final MetaResource metaResource = new MetaResource(configuration, graphHolder);
         environment.jersey().register(metaResource);
 
-        final TrafficResource trafficResource = new TrafficResource(trafficHandler);
+        final TrafficResource trafficResource = new TrafficResource(graphHolder);
         environment.jersey().register(trafficResource);
 
+        registerMemoryGauges(environment, graphHolder);
+
         // health checks
-        environment.healthChecks().register("GraphHealthCheck", new GraphHealthCheck(graph));
+        environment.healthChecks().register("GraphHealthCheck", new GraphHealthCheck(graphHolder));
         environment.healthChecks().register("ReaderStrategyHealthCheck", new StrategyHealthCheck(configuration));
     }
 
 
-    private NodeEdgeReader getNodeEdgeReader(DropwizardConfiguration configuration) {
+    private void registerMemoryGauges(Environment environment, GraphHolder graphHolder) {
+        // the estimate is calculated for each read, so it always belongs to the current graph; it only sums up the
+        // sizes of the columns and the sizes of the POIs and traffic data which are kept when they change
+        environment.metrics().register("memory.heapBytes", (Gauge<Long>) () -> {
+            try (GraphVersion version = graphHolder.acquire()) {
+                return version.estimateMemory().getHeapBytes();
+            }
+        });
+        environment.metrics().register("memory.offHeapBytes", (Gauge<Long>) () -> {
+            try (GraphVersion version = graphHolder.acquire()) {
+                return version.estimateMemory().getOffHeapBytes();
+            }
+        });
+        environment.metrics().register("memory.bytesPerNode", (Gauge<Double>) () -> {
+            try (GraphVersion version = graphHolder.acquire()) {
+                int nodes = version.getGraph() != null ? version.getGraph().getNodesSize() : 0;
+                return version.estimateMemory().getBytesPer("graph.nodes.", nodes);
+            }
+        });
+        environment.metrics().register("memory.bytesPerEdge", (Gauge<Double>) () -> {
+            try (GraphVersion version = graphHolder.acquire()) {
+                int edges = version.getGraph() != null ? version.getGraph().getEdgesSize() : 0;
+                return version.estimateMemory().getBytesPer("graph.edges.", edges);
+            }
+        });
+    }
+
+
+    /**
+     * @param osmFile path of an OSM file or comma separated paths of several OSM files which are merged into one graph
+     */
+    public static NodeEdgeReader createNodeEdgeReader(DropwizardConfiguration.ReaderStrategy strategy, String osmFile,
+                                                      String locationListPath, String eventListPath,
+                                                      String tmcDataDirectory) {
         NodeEdgeReader reader;
+        List<String> osmFiles = Arrays.asList(StringUtils.split(osmFile, ','));
 
-        switch (configuration.getReaderStrategy()) {
+        switch (strategy) {
             case OPTIMIZED:
-                reader = new OptimizedNodeEdgeReader(osmFile, locationListPath, eventListPath, tmcDataDirectory);
+                reader = new OptimizedNodeEdgeReader(osmFiles, locationListPath, eventListPath, tmcDataDirectory);
                 break;
             case SIMPLE:
             default:
-                reader = new SimpleNodeEdgeReader(osmFile, locationListPath, eventListPath, tmcDataDirectory);
+                reader = new SimpleNodeEdgeReader(osmFiles, locationListPath, eventListPath, tmcDataDirectory);
                 break;
         }
 
@@ -1,15 +1,66 @@
 package de.sebastianhesse.pbf.dropwizard;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import de.sebastianhesse.pbf.routing.SearchStatePool;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.GraphSnapshot;
 import io.dropwizard.Configuration;
 
 
 /**
- * Configuration class for {@link DropwizardApplication}. Currently only supports setting the {@link ReaderStrategy}.
+ * Configuration class for {@link DropwizardApplication}. Supports setting the {@link ReaderStrategy}, whether
+ * the edges of the graph should be compressed, whether incoming edges should be indexed, whether snapshots are tiled,
+ * whether the graph is stored off heap, the cell size of the grid to find nodes and POIs and the number of pooled
+ * search states.
  */
 public class DropwizardConfiguration extends Configuration {
 
     private ReaderStrategy readerStrategy = ReaderStrategy.SIMPLE;
+    /**
+     * if true, the edges are stored compressed which needs less memory, but routing is a bit slower
+     */
+    private boolean compressEdges = false;
+    /**
+     * if true, an index of the incoming edges is built which is needed for backward searches
+     */
+    private boolean reverseEdges = false;
+    /**
+     * if true, a contraction hierarchy is built for each vehicle and mode, or read from the files next to a snapshot
+     */
+    private boolean contractionHierarchies = false;
+    /**
+     * number of landmarks per vehicle and mode for the ALT search, e.g. 16; no landmarks are selected if it's 0
+     */
+    private int landmarks = 0;
+    /**
+     * if true, the graph is partitioned into cells and their overlay is customized for each vehicle and mode again
+     * whenever the traffic changes
+     */
+    private boolean customizableRoutePlanning = false;
+    /**
+     * if true, the snapshot command writes the edges in tiles which are loaded on demand by the server
+     */
+    private boolean tileEdges = false;
+    /**
+     * max. size in MB of the edge tiles kept in memory if the server is started with a tiled snapshot
+     */
+    private long tileCacheSize = GraphSnapshot.DEFAULT_TILE_CACHE_SIZE / (1024 * 1024);
+    /**
+     * if true, the graph is moved into direct buffers outside of the heap after it has been loaded
+     */
+    private boolean offHeap = false;
+    /**
+     * size of a grid cell in degrees; smaller cells speed up searching nodes and POIs within a small distance
+     */
+    private double gridCellSize = Graph.DEFAULT_GRID_CELL_SIZE;
+    /**
+     * if true, positions of a route are only snapped to nodes of the largest component of the vehicle
+     */
+    private boolean snapToLargestComponent = false;
+    /**
+     * max. number of idle search states kept for the next routes, usually the number of concurrent route requests
+     */
+    private int searchStatePoolSize = SearchStatePool.getCapacity();
 
     @JsonProperty
     public ReaderStrategy getReaderStrategy() {
@@ -28,6 +79,138 @@ public class DropwizardConfiguration extends Configuration {
     }
 
 
+    @JsonProperty
+    public boolean isCompressEdges() {
+        return compressEdges;
+    }
+
+
+    @JsonProperty
+    public void setCompressEdges(boolean compressEdges) {
+        this.compressEdges = compressEdges;
+    }
+
+
+    @JsonProperty
+    public boolean isReverseEdges() {
+        return reverseEdges;
+    }
+
+
+    @JsonProperty
+    public void setReverseEdges(boolean reverseEdges) {
+        this.reverseEdges = reverseEdges;
+    }
+
+
+    @JsonProperty
+    public boolean isContractionHierarchies() {
+        return contractionHierarchies;
+    }
+
+
+    @JsonProperty
+    public void setContractionHierarchies(boolean contractionHierarchies) {
+        this.contractionHierarchies = contractionHierarchies;
+    }
+
+
+    @JsonProperty
+    public int getLandmarks() {
+        return landmarks;
+    }
+
+
+    @JsonProperty
+    public void setLandmarks(int landmarks) {
+        this.landmarks = landmarks;
+    }
+
+
+    @JsonProperty
+    public boolean isCustomizableRoutePlanning() {
+        return customizableRoutePlanning;
+    }
+
+
+    @JsonProperty
+    public void setCustomizableRoutePlanning(boolean customizableRoutePlanning) {
+        this.customizableRoutePlanning = customizableRoutePlanning;
+    }
+
+
+    @JsonProperty
+    public boolean isTileEdges() {
+        return tileEdges;
+    }
+
+
+    @JsonProperty
+    public void setTileEdges(boolean tileEdges) {
+        this.tileEdges = tileEdges;
+    }
+
+
+    @JsonProperty
+    public long getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+
+    @JsonProperty
+    public void setTileCacheSize(long tileCacheSize) {
+        this.tileCacheSize = tileCacheSize;
+    }
+
+
+    @JsonProperty
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+
+    @JsonProperty
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+
+    @JsonProperty
+    public double getGridCellSize() {
+        return gridCellSize;
+    }
+
+
+    @JsonProperty
+    public void setGridCellSize(double gridCellSize) {
+        this.gridCellSize = gridCellSize;
+    }
+
+
+    @JsonProperty
+    public boolean isSnapToLargestComponent() {
+        return snapToLargestComponent;
+    }
+
+
+    @JsonProperty
+    public void setSnapToLargestComponent(boolean snapToLargestComponent) {
+        this.snapToLargestComponent = snapToLargestComponent;
+    }
+
+
+    @JsonProperty
+    public int getSearchStatePoolSize() {
+        return searchStatePoolSize;
+    }
+
+
+    @JsonProperty
+    public void setSearchStatePoolSize(int searchStatePoolSize) {
+        this.searchStatePoolSize = searchStatePoolSize;
+    }
+
+
     public enum ReaderStrategy {
         SIMPLE, OPTIMIZED
     }
@@ -0,0 +1,336 @@
+package de.sebastianhesse.pbf.dropwizard;
+
+import de.sebastianhesse.pbf.reader.AbstractNodeEdgeReader;
+import de.sebastianhesse.pbf.reader.NodeEdgeReader;
+import de.sebastianhesse.pbf.storage.ContractionHierarchy;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.GraphSnapshot;
+import de.sebastianhesse.pbf.storage.Landmarks;
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
+import de.sebastianhesse.pbf.storage.traffic.TrafficHandler;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Holds the graph which is currently used by the server and replaces it without a restart. Resources acquire the
+ * current {@link GraphVersion} for each request and release it afterwards, so a request uses the same graph from
+ * start to end. A new OSM file or snapshot is loaded in the background and swapped in atomically. Requests which are
+ * still running finish on the old version and the old graph is closed as soon as the last of them released it.
+ */
+public class GraphHolder implements Managed {
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphHolder.class);
+
+    private final DropwizardConfiguration configuration;
+    private final String locationListPath;
+    private final String eventListPath;
+    private final String tmcDataDirectory;
+    private final AtomicReference<GraphVersion> current;
+    private final AtomicInteger lastVersion = new AtomicInteger(0);
+    private final AtomicBoolean reloading = new AtomicBoolean(false);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "graph-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    public GraphHolder(DropwizardConfiguration configuration, String locationListPath, String eventListPath,
+                       String tmcDataDirectory) {
+        this.configuration = configuration;
+        this.locationListPath = locationListPath;
+        this.eventListPath = eventListPath;
+        this.tmcDataDirectory = tmcDataDirectory;
+        this.current = new AtomicReference<>(new GraphVersion(0, "", null, null));
+    }
+
+
+    /**
+     * @return the current version, must be released by {@link GraphVersion#close()} after it has been used
+     */
+    public GraphVersion acquire() {
+        while (true) {
+            GraphVersion version = this.current.get();
+            // fails only if the version has been swapped out and drained in the meantime
+            if (version.retain()) {
+                return version;
+            }
+        }
+    }
+
+
+    /**
+     * Loads an OSM file or a graph snapshot and makes it the current version.
+     *
+     * @param file path of an OSM file or a graph snapshot
+     * @return the new version
+     * @throws Exception if the file can't be read or imported
+     */
+    public GraphVersion load(String file) throws Exception {
+        long start = System.currentTimeMillis();
+        Graph graph;
+        TrafficHandler trafficHandler;
+        if (GraphSnapshot.isSnapshot(new File(file))) {
+            graph = GraphSnapshot.read(new File(file), this.configuration.getTileCacheSize() * 1024 * 1024,
+                    this.configuration.isOffHeap());
+            trafficHandler = AbstractNodeEdgeReader.importTrafficData(this.locationListPath, this.eventListPath,
+                    this.tmcDataDirectory);
+        } else {
+            NodeEdgeReader reader = DropwizardApplication.createNodeEdgeReader(this.configuration.getReaderStrategy(),
+                    file, this.locationListPath, this.eventListPath, this.tmcDataDirectory);
+            reader.importData();
+            graph = reader.getGraph();
+            trafficHandler = reader.getTrafficHandler();
+            if (this.configuration.isCompressEdges()) {
+                graph.compressEdges();
+            }
+        }
+        if (this.configuration.isReverseEdges()) {
+            graph.buildReverseEdges();
+        }
+        graph.setGridCellSize(this.configuration.getGridCellSize());
+        trafficHandler.setGraph(graph);
+        // traffic data of the current graph would get lost, hence it's applied to the new graph before it's used;
+        // the overlays are customized with it, hierarchies and landmarks don't depend on it
+        applyCurrentTraffic(trafficHandler);
+        if (this.configuration.isContractionHierarchies()) {
+            addContractionHierarchies(graph, new File(file));
+        }
+        if (this.configuration.getLandmarks() > 0) {
+            addLandmarks(graph, new File(file), this.configuration.getLandmarks());
+        }
+        if (this.configuration.isCustomizableRoutePlanning()) {
+            graph.buildPartition();
+        }
+        if (this.configuration.isOffHeap()) {
+            graph.moveOffHeap();
+        }
+
+        GraphVersion version = new GraphVersion(this.lastVersion.incrementAndGet(), file, graph, trafficHandler);
+        swap(version);
+        logger.info("Loaded graph version {} from {} in {} ms.", version.getVersion(), file,
+                System.currentTimeMillis() - start);
+        return version;
+    }
+
+
+    /**
+     * Applies the traffic of the hour which is used by the current version, if any, to a new graph.
+     */
+    private void applyCurrentTraffic(TrafficHandler trafficHandler) {
+        TrafficHandler currentHandler = this.current.get().getTrafficHandler();
+        short lastHour = currentHandler != null ? currentHandler.getLastHour() : -1;
+        if (lastHour > -1) {
+            try {
+                trafficHandler.updateTraffic(lastHour);
+            } catch (IOException e) {
+                logger.warn("Could not apply traffic data of hour {} to the new graph.", lastHour, e);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the contraction hierarchy of each profile from its file next to the graph file. A hierarchy is built
+     * instead if there's no such file or if it doesn't match the graph anymore, e.g. because the snapshot has been
+     * created again. Traffic doesn't matter, the hierarchies are built without it.
+     */
+    private static void addContractionHierarchies(Graph graph, File file) {
+        for (CostProfile profile : CostProfile.values()) {
+            File hierarchyFile = ContractionHierarchy.getFile(file, profile);
+            if (hierarchyFile.exists()) {
+                try {
+                    graph.setContractionHierarchy(ContractionHierarchy.read(hierarchyFile));
+                    continue;
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.warn("Could not use contraction hierarchy {}, building it again.", hierarchyFile, e);
+                }
+            }
+            graph.setContractionHierarchy(ContractionHierarchy.build(graph, profile));
+        }
+    }
+
+
+    /**
+     * Reads the landmarks of each profile from the file next to the graph file, see
+     * {@link Landmarks#getFile(File, CostProfile)}. They are selected again if there's no such file, if it has another
+     * number of landmarks or if it doesn't match the graph anymore.
+     */
+    private static void addLandmarks(Graph graph, File file, int count) {
+        for (CostProfile profile : CostProfile.values()) {
+            File landmarksFile = Landmarks.getFile(file, profile);
+            if (landmarksFile.exists()) {
+                try {
+                    Landmarks landmarks = Landmarks.read(landmarksFile);
+                    if (landmarks.getCount() == count) {
+                        graph.setLandmarks(landmarks);
+                        continue;
+                    }
+                    logger.info("Landmarks {} have {} landmarks instead of {}, selecting them again.", landmarksFile,
+                            landmarks.getCount(), count);
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.warn("Could not use landmarks {}, selecting them again.", landmarksFile, e);
+                }
+            }
+            graph.setLandmarks(Landmarks.build(graph, profile, count));
+        }
+    }
+
+
+    /**
+     * Loads an OSM file or a graph snapshot in the background, see {@link #load(String)}. The current version is
+     * used until the new one is loaded completely. Only one file is loaded at a time.
+     *
+     * @param file path of an OSM file or a graph snapshot
+     * @return true if loading has been started, false if another file is loaded right now
+     */
+    public boolean reloadInBackground(String file) {
+        if (!this.reloading.compareAndSet(false, true)) {
+            return false;
+        }
+        this.executor.execute(() -> {
+            try {
+                load(file);
+            } catch (Exception e) {
+                logger.error("Could not reload the graph from {}, keeping the current version.", file, e);
+            } finally {
+                this.reloading.set(false);
+            }
+        });
+        return true;
+    }
+
+
+    public boolean isReloading() {
+        return this.reloading.get();
+    }
+
+
+    private void swap(GraphVersion version) {
+        GraphVersion old = this.current.getAndSet(version);
+        // the holder's own reference, the old graph is closed after all requests released it
+        old.close();
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        // the first graph is loaded while the application starts, so there is nothing to do
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        this.executor.shutdownNow();
+        this.current.getAndSet(new GraphVersion(0, "", null, null)).close();
+    }
+
+
+    /**
+     * A graph and its traffic handler which are used together. The version counts the references of requests
+     * which are using it, the holder keeps one reference as long as the version is the current one.
+     */
+    public static class GraphVersion implements AutoCloseable {
+
+        private final int version;
+        private final String file;
+        private final Graph graph;
+        private final TrafficHandler trafficHandler;
+        private final long loadedAt = System.currentTimeMillis();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+
+        GraphVersion(int version, String file, Graph graph, TrafficHandler trafficHandler) {
+            this.version = version;
+            this.file = file;
+            this.graph = graph;
+            this.trafficHandler = trafficHandler;
+        }
+
+
+        /**
+         * @return false if the version has been released completely, i.e. it must not be used anymore
+         */
+        boolean retain() {
+            while (true) {
+                int references = this.references.get();
+                if (references <= 0) {
+                    return false;
+                }
+                if (this.references.compareAndSet(references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+
+        /**
+         * Releases this version; the graph is closed when the last reference has been released.
+         */
+        @Override
+        public void close() {
+            if (this.references.decrementAndGet() == 0 && this.graph != null) {
+                try {
+                    this.graph.close();
+                    logger.info("Released graph version {} from {}.", this.version, this.file);
+                } catch (IOException e) {
+                    logger.warn("Could not close graph version {}.", this.version, e);
+                }
+            }
+        }
+
+
+        public int getVersion() {
+            return version;
+        }
+
+
+        public String getFile() {
+            return file;
+        }
+
+
+        /**
+         * @return the graph or null if no graph has been loaded yet
+         */
+        public Graph getGraph() {
+            return graph;
+        }
+
+
+        public TrafficHandler getTrafficHandler() {
+            return trafficHandler;
+        }
+
+
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+
+        /**
+         * @return estimated memory of the graph and traffic data, prefixed with "graph." resp. "traffic."
+         */
+        public MemoryEstimate estimateMemory() {
+            MemoryEstimate estimate = new MemoryEstimate();
+            if (this.graph != null) {
+                estimate.addAll("graph.", this.graph.estimateMemory());
+            }
+            if (this.trafficHandler != null) {
+                estimate.addAll("traffic.", this.trafficHandler.estimateMemory());
+            }
+            return estimate;
+        }
+    }
+}
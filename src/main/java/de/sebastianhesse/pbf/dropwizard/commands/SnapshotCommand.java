@@ -0,0 +1,73 @@
+package de.sebastianhesse.pbf.dropwizard.commands;
+
+import de.sebastianhesse.pbf.dropwizard.DropwizardApplication;
+import de.sebastianhesse.pbf.dropwizard.DropwizardConfiguration;
+import de.sebastianhesse.pbf.reader.NodeEdgeReader;
+import de.sebastianhesse.pbf.storage.ContractionHierarchy;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.GraphSnapshot;
+import de.sebastianhesse.pbf.storage.Landmarks;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.io.File;
+
+
+/**
+ * Command to import an OSM file once and write the resulting graph into a {@link GraphSnapshot}. The snapshot file
+ * can be used instead of the OSM file to start the server, which then skips the import. Usage:
+ * <pre>
+ * java -jar osm-routing.jar snapshot config.yml osm_data.osm.pbf osm_data.graph
+ * </pre>
+ * If contractionHierarchies is set, the hierarchies are written next to the snapshot, e.g. into
+ * osm_data.graph.car_fastest.ch, and read by the server instead of building them again. The same applies to landmarks,
+ * e.g. osm_data.graph.car_fastest.landmarks, if landmarks is greater than 0.
+ */
+public class SnapshotCommand extends ConfiguredCommand<DropwizardConfiguration> {
+
+    public SnapshotCommand() {
+        super("snapshot", "Imports an OSM file and writes the graph into a snapshot file for a fast server start.");
+    }
+
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("osmFile").help("OSM file to import, several files can be separated by commas");
+        subparser.addArgument("snapshotFile").help("file to write the graph snapshot to");
+    }
+
+
+    @Override
+    protected void run(Bootstrap<DropwizardConfiguration> bootstrap, Namespace namespace,
+                       DropwizardConfiguration configuration) throws Exception {
+        NodeEdgeReader reader = DropwizardApplication.createNodeEdgeReader(configuration.getReaderStrategy(),
+                namespace.getString("osmFile"), "", "", "");
+        reader.importData();
+        Graph graph = reader.getGraph();
+        if (configuration.isCompressEdges()) {
+            graph.compressEdges();
+        }
+        if (configuration.isReverseEdges()) {
+            graph.buildReverseEdges();
+        }
+        graph.setGridCellSize(configuration.getGridCellSize());
+        File snapshotFile = new File(namespace.getString("snapshotFile"));
+        GraphSnapshot.write(graph, snapshotFile, configuration.isTileEdges());
+        if (configuration.isContractionHierarchies()) {
+            graph.buildContractionHierarchies();
+            for (CostProfile profile : CostProfile.values()) {
+                graph.getContractionHierarchy(profile).write(ContractionHierarchy.getFile(snapshotFile, profile));
+            }
+        }
+        if (configuration.getLandmarks() > 0) {
+            graph.buildLandmarks(configuration.getLandmarks());
+            for (CostProfile profile : CostProfile.values()) {
+                graph.getLandmarks(profile).write(Landmarks.getFile(snapshotFile, profile));
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package de.sebastianhesse.pbf.dropwizard.healtchecks;
 
 import com.codahale.metrics.health.HealthCheck;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
 import de.sebastianhesse.pbf.storage.Graph;
 
 
@@ -9,18 +11,21 @@ import de.sebastianhesse.pbf.storage.Graph;
  */
 public class GraphHealthCheck extends HealthCheck {
 
-    private Graph graph;
+    private GraphHolder graphHolder;
 
 
-    public GraphHealthCheck(Graph graph) {
-        this.graph = graph;
+    public GraphHealthCheck(GraphHolder graphHolder) {
+        this.graphHolder = graphHolder;
     }
 
 
     @Override
     protected Result check() throws Exception {
-        if (this.graph != null && this.graph.getEdges().length > 0 && this.graph.getNodes().length > 0) {
-            return Result.healthy();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            if (graph != null && graph.getEdgesSize() > 0 && graph.getNodesSize() > 0) {
+                return Result.healthy("Graph version %d from %s", version.getVersion(), version.getFile());
+            }
         }
         return Result.unhealthy("Graph is either not initialized or has zero nodes/edges.");
     }
@@ -1,6 +1,9 @@
 package de.sebastianhesse.pbf.dropwizard.resources;
 
 import de.sebastianhesse.pbf.dropwizard.DropwizardConfiguration;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
+import de.sebastianhesse.pbf.dropwizard.resources.dto.MemoryDto;
 import de.sebastianhesse.pbf.dropwizard.resources.dto.MetaDto;
 import de.sebastianhesse.pbf.storage.Graph;
 import org.apache.commons.lang3.StringUtils;
@@ -21,14 +24,12 @@ import java.io.File;
 public class MetaResource {
 
     private DropwizardConfiguration configuration;
-    private String osmFile;
-    private Graph graph;
+    private GraphHolder graphHolder;
 
 
-    public MetaResource(DropwizardConfiguration configuration, String osmFile, Graph graph) {
+    public MetaResource(DropwizardConfiguration configuration, GraphHolder graphHolder) {
         this.configuration = configuration;
-        this.osmFile = getFileName(osmFile);
-        this.graph = graph;
+        this.graphHolder = graphHolder;
     }
 
 
@@ -36,7 +37,15 @@ public class MetaResource {
     @Path("/system")
     public Response getMetaData() {
         String readerStrategy = this.configuration.getReaderStrategy().toString();
-        return Response.ok(new MetaDto(osmFile, readerStrategy, graph.getEdgesSize(), graph.getNodesSize())).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            MetaDto meta = new MetaDto(getFileName(version.getFile()), readerStrategy, graph.getEdgesSize(),
+                    graph.getNodesSize());
+            meta.graphVersion = version.getVersion();
+            meta.graphLoadedAt = version.getLoadedAt();
+            meta.graphReloading = this.graphHolder.isReloading();
+            return Response.ok(meta).build();
+        }
     }
 
 
@@ -46,10 +55,27 @@ public class MetaResource {
     }
 
 
+    /**
+     * @return estimated memory usage of the graph and traffic data, see {@link MemoryDto}
+     */
+    @GET
+    @Path("/memory")
+    public Response getMemoryUsage() {
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            int nodes = graph != null ? graph.getNodesSize() : 0;
+            int edges = graph != null ? graph.getEdgesSize() : 0;
+            return Response.ok(new MemoryDto(version.estimateMemory(), nodes, edges)).build();
+        }
+    }
+
+
     @GET
     @Path("/graph")
     @Produces(MediaType.TEXT_PLAIN)
     public Response getGraphSampleData() {
-        return Response.ok(this.graph.toSampleString()).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            return Response.ok(version.getGraph().toSampleString()).build();
+        }
     }
 }
@@ -1,5 +1,7 @@
 package de.sebastianhesse.pbf.dropwizard.resources;
 
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
 import de.sebastianhesse.pbf.dropwizard.resources.dto.PoiSearchDto;
 import de.sebastianhesse.pbf.storage.Graph;
 import de.sebastianhesse.pbf.storage.Node;
@@ -24,11 +26,11 @@ import java.util.Optional;
 @Produces(MediaType.APPLICATION_JSON)
 public class PoiResource {
 
-    private Graph graph;
+    private GraphHolder graphHolder;
 
 
-    public PoiResource(Graph graph) {
-        this.graph = graph;
+    public PoiResource(GraphHolder graphHolder) {
+        this.graphHolder = graphHolder;
     }
 
 
@@ -38,19 +40,25 @@ public class PoiResource {
                             @QueryParam("maxDistance") @DefaultValue("10") short maxDistance,
                             @QueryParam("typeKey") String typeKey, @QueryParam("typeValue") String typeValue) {
         int pointId = getIdAsInt(pid);
-        Optional<Node> source = this.graph.findClosestNode(pointId, lat, lon);
-        if (source.isPresent()) {
-            List<Node> pois = graph.getPoisAround(source.get(), maxDistance, new ImmutablePair<>(typeKey, typeValue));
-            return Response.ok(new PoiSearchDto(source.get(), pois)).build();
-        } else {
-            return Response.status(Response.Status.BAD_REQUEST).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            Optional<Node> source = graph.findClosestNode(pointId, lat, lon);
+            if (source.isPresent()) {
+                List<Node> pois = graph.getPoisAround(source.get(), maxDistance,
+                        new ImmutablePair<>(typeKey, typeValue));
+                return Response.ok(new PoiSearchDto(source.get(), pois)).build();
+            } else {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
         }
     }
 
 
     @OPTIONS
     public Response retrieveOptions() {
-        return Response.ok(this.graph.getPoiTypes()).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            return Response.ok(version.getGraph().getPoiTypes()).build();
+        }
     }
 
 
@@ -1,15 +1,19 @@
 package de.sebastianhesse.pbf.dropwizard.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
 import de.sebastianhesse.pbf.dropwizard.resources.dto.SingleRouteDto;
 import de.sebastianhesse.pbf.reader.Accessor;
 import de.sebastianhesse.pbf.routing.Dijkstra;
 import de.sebastianhesse.pbf.routing.DijkstraOptions;
 import de.sebastianhesse.pbf.routing.DijkstraResult;
+import de.sebastianhesse.pbf.routing.RoutingAlgorithm;
 import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.QueueType;
 import de.sebastianhesse.pbf.storage.Graph;
 import de.sebastianhesse.pbf.storage.Node;
-import de.sebastianhesse.pbf.util.GraphUtil;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,7 +24,6 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,11 +37,18 @@ public class RoutingResource {
 
     private static final Logger logger = LoggerFactory.getLogger(RoutingResource.class);
 
-    private Graph graph;
+    private GraphHolder graphHolder;
+    private boolean snapToLargestComponent;
 
 
-    public RoutingResource(Graph graph) {
-        this.graph = graph;
+    /**
+     * @param graphHolder            holder of the current graph
+     * @param snapToLargestComponent if true, positions are only snapped to nodes of the largest component of the
+     *                               vehicle, see {@link Graph#findClosestNode(double, double, Accessor)}
+     */
+    public RoutingResource(GraphHolder graphHolder, boolean snapToLargestComponent) {
+        this.graphHolder = graphHolder;
+        this.snapToLargestComponent = snapToLargestComponent;
     }
 
 
@@ -46,34 +56,37 @@ public class RoutingResource {
     @Path("/points")
     public Response getLocalPoints(@QueryParam("lat") double lat, @QueryParam("lon") double lon,
                                    @QueryParam("dist") @DefaultValue("10") int maxDistance) {
-        Optional<Node> closestNode = this.graph.findClosestNode(lat, lon);
-        if (closestNode.isPresent()) {
-            List<Node> nodes = new ArrayList<>();
-            Node node = closestNode.get();
-            for (Node tmpNode : this.graph.getNodes()) {
-                double distance = GraphUtil.getDistance(node, tmpNode);
-                if (distance < maxDistance) {
-                    nodes.add(tmpNode);
-                }
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            Optional<Node> closestNode = graph.findClosestNode(lat, lon);
+            if (closestNode.isPresent()) {
+                Node node = closestNode.get();
+                List<Node> nodes = graph.findNodesWithin(node.getLat(), node.getLon(), maxDistance);
+                return Response.ok(new SingleRouteDto(nodes)).build();
             }
-
-            return Response.ok(new SingleRouteDto(nodes)).build();
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
-        return Response.status(Response.Status.BAD_REQUEST).build();
     }
 
 
     /**
      * Calculates a path for a certain vehicle between two points (lat1,lon1) and (lat2,lon2).
+     * Instead of a position, a point can also be given by the OSM id of a node. Then it's not snapped to the closest
+     * node, hence the node must have been imported.
      * Calculation depends on vehicle type and path mode, e.g. fastest or shortest.
      * @param lat1 latitude for point 1
      * @param lon1 longitude for point 1
      * @param lat2 latitude for point 2
      * @param lon2 latitude for point 2
+     * @param osmId1 optional OSM id of point 1, takes precedence over the position
+     * @param osmId2 optional OSM id of point 2, takes precedence over the position
      * @param vehicle vehicle type
      * @param mode calculation mode
+     * @param algorithm optional algorithm, Dijkstra by default, see {@link RoutingAlgorithm}
      * @return 200 if a path could be found; response body contains list of points, see {@link SingleRouteDto}
-     *         409 if points can not be found in graph OR if there is now way between them
+     *         409 if points can not be found in graph OR if there is now way between them OR if the algorithm
+     *         needs the incoming edges, landmarks, a contraction hierarchy or a partition, but they haven't been
+     *         built
      *         500 if something unexpected happens while retrieving the path
      * @see DijkstraOptions for vehicle and mode
      */
@@ -83,27 +96,50 @@ public class RoutingResource {
                                       @QueryParam("pid1") @DefaultValue("-1") String pid1,
                                       @QueryParam("lat2") double lat2, @QueryParam("lon2") double lon2,
                                       @QueryParam("pid2") @DefaultValue("-1") String pid2,
-                                      @QueryParam("vehicle") String vehicle, @QueryParam("mode") String mode) {
+                                      @QueryParam("osmId1") String osmId1, @QueryParam("osmId2") String osmId2,
+                                      @QueryParam("vehicle") String vehicle, @QueryParam("mode") String mode,
+                                      @QueryParam("algorithm") @DefaultValue("dijkstra") String algorithm) {
         long startTime = System.currentTimeMillis();
         Accessor accessor = Accessor.valueOf(vehicle.toUpperCase());
         CalculationType calculationType = CalculationType.valueOf(mode.toUpperCase());
-        DijkstraOptions dijkstraOptions = new DijkstraOptions(accessor, calculationType);
+        DijkstraOptions dijkstraOptions = new DijkstraOptions(accessor, calculationType, QueueType.DARY_HEAP,
+                RoutingAlgorithm.valueOf(algorithm.toUpperCase()));
 
         int node1Id = getIdAsInt(pid1);
         int node2Id = getIdAsInt(pid2);
 
-        Optional<Node> startNodeOptional = graph.findClosestNode(node1Id, lat1, lon1);
-        Optional<Node> endNodeOptional = graph.findClosestNode(node2Id, lat2, lon2);
-
-        if (startNodeOptional.isPresent() && endNodeOptional.isPresent()) {
-            Node startNode = startNodeOptional.get();
-            Node endNode = endNodeOptional.get();
-            logger.info("It took {} ms to prepare Dijkstra algorithm.", (System.currentTimeMillis() - startTime));
-            return getShortestPathWithDijkstra(dijkstraOptions, startNode, endNode, startTime);
-        } else {
-            return Response.status(Response.Status.CONFLICT)
-                    .entity("Can not locate start or end node with given values.")
-                    .build();
+        // the whole request uses the same graph, even if a new graph is swapped in meanwhile
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            Graph graph = version.getGraph();
+            Optional<Node> startNodeOptional = findNode(graph, accessor, osmId1, node1Id, lat1, lon1);
+            Optional<Node> endNodeOptional = findNode(graph, accessor, osmId2, node2Id, lat2, lon2);
+
+            if (startNodeOptional.isPresent() && endNodeOptional.isPresent()) {
+                Node startNode = startNodeOptional.get();
+                Node endNode = endNodeOptional.get();
+                logger.info("It took {} ms to prepare Dijkstra algorithm.", (System.currentTimeMillis() - startTime));
+                return getShortestPathWithDijkstra(graph, dijkstraOptions, startNode, endNode, startTime);
+            } else {
+                return Response.status(Response.Status.CONFLICT)
+                        .entity("Can not locate start or end node with given values.")
+                        .build();
+            }
+        }
+    }
+
+
+    private Optional<Node> findNode(Graph graph, Accessor accessor, String osmId, int nodeId, double lat,
+                                    double lon) {
+        if (StringUtils.isBlank(osmId)) {
+            if (this.snapToLargestComponent && (nodeId < 0 || nodeId >= graph.getNodesSize())) {
+                return graph.findClosestNode(lat, lon, accessor);
+            }
+            return graph.findClosestNode(nodeId, lat, lon);
+        }
+        try {
+            return graph.findNodeByOsmId(Long.parseLong(osmId.trim()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
         }
     }
 
@@ -122,8 +158,16 @@ public class RoutingResource {
     }
 
 
-    private Response getShortestPathWithDijkstra(DijkstraOptions dijkstraOptions, Node startNode, Node endNode, long startTime) {
-        Dijkstra dijkstra = new Dijkstra(graph, startNode, endNode, dijkstraOptions);
+    private Response getShortestPathWithDijkstra(Graph graph, DijkstraOptions dijkstraOptions, Node startNode,
+                                                 Node endNode, long startTime) {
+        Dijkstra dijkstra;
+        try {
+            // the algorithm checks and keeps its hierarchy, landmarks or overlay when it's created, so a traffic
+            // update can't replace them between the check and the search
+            dijkstra = dijkstraOptions.getAlgorithm().create(graph, startNode, endNode, dijkstraOptions);
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+        }
         dijkstra.start();
         try {
             dijkstra.join();
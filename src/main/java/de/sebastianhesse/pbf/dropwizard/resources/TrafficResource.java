@@ -1,5 +1,7 @@
 package de.sebastianhesse.pbf.dropwizard.resources;
 
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder.GraphVersion;
 import de.sebastianhesse.pbf.dropwizard.resources.dto.TrafficWaysDto;
 import de.sebastianhesse.pbf.storage.Node;
 import de.sebastianhesse.pbf.storage.traffic.TrafficHandler;
@@ -27,17 +29,20 @@ public class TrafficResource {
 
     private static final Logger logger = LoggerFactory.getLogger(TrafficResource.class);
 
-    private TrafficHandler trafficHandler;
+    private GraphHolder graphHolder;
 
 
-    public TrafficResource(TrafficHandler trafficHandler) {
-        this.trafficHandler = trafficHandler;
+    public TrafficResource(GraphHolder graphHolder) {
+        this.graphHolder = graphHolder;
     }
 
 
     @GET
     public Response getCurrentTrafficHour() {
-        return Response.ok(new TrafficWaysDto(trafficHandler.getLastHour(), trafficHandler.getLastUpdatedWays())).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            TrafficHandler trafficHandler = version.getTrafficHandler();
+            return Response.ok(new TrafficWaysDto(trafficHandler.getLastHour(), trafficHandler.getLastUpdatedWays())).build();
+        }
     }
 
 
@@ -45,17 +50,21 @@ public class TrafficResource {
     @Path("/{hour}")
     public Response readTrafficForHour(@PathParam("hour") short hour) throws Exception {
         long start = System.currentTimeMillis();
-        List<Pair<Node, Node>> updatedWays = this.trafficHandler.updateTraffic(hour);
-        TrafficWaysDto entity = new TrafficWaysDto(hour, updatedWays);
-        logger.info("Complete time to update traffic data and build response: {} ms", (System.currentTimeMillis() - start));
-        return Response.ok(entity).build();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            List<Pair<Node, Node>> updatedWays = version.getTrafficHandler().updateTraffic(hour);
+            TrafficWaysDto entity = new TrafficWaysDto(hour, updatedWays);
+            logger.info("Complete time to update traffic data and build response: {} ms", (System.currentTimeMillis() - start));
+            return Response.ok(entity).build();
+        }
     }
 
 
     @DELETE
     public Response removeTrafficData() {
         long start = System.currentTimeMillis();
-        this.trafficHandler.removeTrafficData();
+        try (GraphVersion version = this.graphHolder.acquire()) {
+            version.getTrafficHandler().removeTrafficData();
+        }
         logger.info("Complete time to delete traffic data: {} ms", (System.currentTimeMillis() - start));
         return Response.ok().build();
     }
@@ -0,0 +1,29 @@
+package de.sebastianhesse.pbf.dropwizard.resources.dto;
+
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
+
+import java.util.Map;
+
+
+/**
+ * DTO to transport the estimated memory usage of the graph and traffic data, see {@link MemoryEstimate}.
+ */
+public class MemoryDto {
+
+    public long heapBytes;
+    public long offHeapBytes;
+    public double bytesPerNode;
+    public double bytesPerEdge;
+    public Map<String, Long> heap;
+    public Map<String, Long> offHeap;
+
+
+    public MemoryDto(MemoryEstimate estimate, int nodes, int edges) {
+        this.heapBytes = estimate.getHeapBytes();
+        this.offHeapBytes = estimate.getOffHeapBytes();
+        this.bytesPerNode = estimate.getBytesPer("graph.nodes.", nodes);
+        this.bytesPerEdge = estimate.getBytesPer("graph.edges.", edges);
+        this.heap = estimate.getHeap();
+        this.offHeap = estimate.getOffHeap();
+    }
+}
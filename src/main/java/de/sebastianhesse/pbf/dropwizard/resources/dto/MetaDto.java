@@ -9,6 +9,10 @@ public class MetaDto {
     public String importStrategy;
     public int nodes;
     public int edges;
+    // changes whenever a new graph is loaded without a restart
+    public int graphVersion;
+    public long graphLoadedAt;
+    public boolean graphReloading;
 
 
     public MetaDto(String osmFile, String importStrategy, int nodes, int edges) {
@@ -26,13 +26,8 @@ public class SingleRouteDto {
                 .map(node -> new Double[] {node.getLat(), node.getLon(), Long.valueOf(node.getId()).doubleValue()})
                 .collect(Collectors.toList());
 
-        if (this.points.size() >= 2) {
-            Double[] last = this.points.get(0);
-            for (int i = 1; i < this.points.size(); i++) {
-                Double[] current = this.points.get(i);
-                this.distance += GraphUtil.getDistance(new Node(last[0], last[1]), new Node(current[0], current[1]));
-                last = current;
-            }
+        for (int i = 1; i < nodes.size(); i++) {
+            this.distance += GraphUtil.getDistance(nodes.get(i - 1), nodes.get(i));
         }
     }
 
@@ -0,0 +1,50 @@
+package de.sebastianhesse.pbf.dropwizard.tasks;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMultimap;
+import de.sebastianhesse.pbf.dropwizard.GraphHolder;
+import io.dropwizard.servlets.tasks.Task;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.PrintWriter;
+
+
+/**
+ * Admin task to load a new OSM file or graph snapshot in the background and swap it in without downtime, see
+ * {@link GraphHolder}. Without a file parameter, the current file is loaded again. Usage:
+ * <pre>
+ * curl -X POST 'http://localhost:8081/tasks/reload-graph?file=osm_data.graph'
+ * </pre>
+ */
+public class ReloadGraphTask extends Task {
+
+    private GraphHolder graphHolder;
+
+
+    public ReloadGraphTask(GraphHolder graphHolder) {
+        super("reload-graph");
+        this.graphHolder = graphHolder;
+    }
+
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        ImmutableCollection<String> files = parameters.get("file");
+        String file;
+        if (files.isEmpty()) {
+            try (GraphHolder.GraphVersion version = this.graphHolder.acquire()) {
+                file = version.getFile();
+            }
+        } else {
+            file = files.iterator().next();
+        }
+
+        if (StringUtils.isBlank(file)) {
+            output.println("No graph has been loaded yet, please specify a file.");
+        } else if (this.graphHolder.reloadInBackground(file)) {
+            output.println("Loading graph from " + file + " in the background.");
+        } else {
+            output.println("Another graph is loaded right now, please try again later.");
+        }
+    }
+}
@@ -10,40 +10,60 @@ import de.sebastianhesse.pbf.reader.traffic.LocationListImporter;
 import de.sebastianhesse.pbf.reader.traffic.TmcEventMessagesImporter;
 import de.sebastianhesse.pbf.storage.Edge;
 import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
 import de.sebastianhesse.pbf.storage.Node;
 import de.sebastianhesse.pbf.storage.traffic.EventList;
 import de.sebastianhesse.pbf.storage.traffic.LocationList;
 import de.sebastianhesse.pbf.storage.traffic.TmcMessageMap;
 import de.sebastianhesse.pbf.storage.traffic.TrafficHandler;
-import de.sebastianhesse.pbf.util.GraphUtil;
 import gnu.trove.list.TLongList;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Abstract class to read an OSM file into a {@link Graph} object which contains nodes and edges.
+ * <p>
+ * Several OSM files, e.g. extracts of neighbouring regions, can be merged into one graph. They are read concurrently
+ * by one thread per file, see {@link #processFile(String, ItemHandler)}. Nodes, ways and POIs contained in more than
+ * one file, e.g. at the borders of the regions, are only imported once by their OSM id.
  */
 public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractNodeEdgeReader.class);
+    // number of elements handed over at once by the thread reading a file
+    private static final int BATCH_SIZE = 10000;
+    // max. number of batches of a file which are read ahead
+    private static final int QUEUED_BATCHES = 8;
 
     protected TLongIntMap nodeCounter = new TLongIntHashMap();
     protected TLongIntMap osmIdMapping;
     protected List<Object> ways = new ArrayList<>();
+    // OSM ids of the imported ways and POIs, so they are not imported twice if they're part of several files
+    protected TLongSet wayIds = new TLongHashSet();
+    protected TLongSet poiIds = new TLongHashSet();
     protected ReaderWayValidator validator = new ReaderWayValidator();
     protected Graph graph;
     protected TrafficHandler trafficHandler;
-    protected File osmFile = null;
+    protected List<File> osmFiles;
     protected String locationListPath = null;
     protected String eventListPath = null;
     protected String tmcDataDirectory = null;
@@ -51,17 +71,42 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
 
 
     public AbstractNodeEdgeReader(String osmFile, String locationList, String eventList, String tmcDataDirectory) {
-        this(osmFile);
+        this(Collections.singletonList(osmFile), locationList, eventList, tmcDataDirectory);
+    }
+
+
+    public AbstractNodeEdgeReader(String osmFile) {
+        this(Collections.singletonList(osmFile));
+    }
+
+
+    /**
+     * @param osmFiles OSM files which are merged into one graph
+     */
+    public AbstractNodeEdgeReader(List<String> osmFiles, String locationList, String eventList,
+                                  String tmcDataDirectory) {
+        this(osmFiles);
         this.locationListPath = locationList;
         this.eventListPath = eventList;
         this.tmcDataDirectory = tmcDataDirectory;
     }
 
 
-    public AbstractNodeEdgeReader(String osmFile) {
-        this.osmFile = new File(osmFile);
-        if (!this.osmFile.exists()) {
-            throw new IllegalArgumentException("You must provide an existing file containing OSM data.");
+    /**
+     * @param osmFiles OSM files which are merged into one graph
+     */
+    public AbstractNodeEdgeReader(List<String> osmFiles) {
+        if (osmFiles.isEmpty()) {
+            throw new IllegalArgumentException("You must provide at least one file containing OSM data.");
+        }
+        this.osmFiles = new ArrayList<>(osmFiles.size());
+        for (String osmFile : osmFiles) {
+            File file = new File(osmFile);
+            if (!file.exists()) {
+                throw new IllegalArgumentException("You must provide an existing file containing OSM data, but " +
+                        osmFile + " does not exist.");
+            }
+            this.osmFiles.add(file);
         }
     }
 
@@ -83,7 +128,7 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
 
 
     /**
-     * Imports the data fromm the given {@link #osmFile} if it exists.
+     * Imports the data fromm the given {@link #osmFiles} if they exist.
      * First the ways are imported and optimized, i.e. areas are kicked out as well as other unnecessary data.
      * Then nodes and edges are imported and the graph is built up.
      *
@@ -91,7 +136,7 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
      * @throws Exception in case of IO problems
      */
     public NodeEdgeReader importData() throws Exception {
-        if (this.osmFile != null && this.osmFile.exists()) {
+        if (this.osmFiles.stream().allMatch(File::exists)) {
             logger.info("--------------------------- PREPARE IMPORT -------------------");
             prepareImport();
             logger.info("--------------------------- PREPARE TRAFFIC HANDLING ---------");
@@ -118,6 +163,7 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
 
             logger.info("--------------------------- FINISHED IMPORT ------------------");
             logger.info("It took " + (System.currentTimeMillis() - start) / 1000 + " seconds to import the data.");
+            logMemoryUsage();
         } else {
             logger.error("Could not start the task, because the OSM file does not exist.");
         }
@@ -126,21 +172,41 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
     }
 
 
+    private void logMemoryUsage() {
+        MemoryEstimate memory = new MemoryEstimate()
+                .addAll("graph.", this.graph.estimateMemory())
+                .addAll("traffic.", this.trafficHandler.estimateMemory());
+        logger.info("Estimated memory usage: {} bytes per node, {} bytes per edge, {}",
+                Math.round(memory.getBytesPer("graph.nodes.", this.graph.getNodesSize())),
+                Math.round(memory.getBytesPer("graph.edges.", this.graph.getEdgesSize())), memory);
+    }
+
+
     private void importTrafficData() {
-        TmcEventMessagesImporter tmcEventMessagesImporter = new TmcEventMessagesImporter(this.tmcDataDirectory);
+        this.trafficHandler = importTrafficData(this.locationListPath, this.eventListPath, this.tmcDataDirectory);
+    }
+
+
+    /**
+     * Imports TMC event and location data independent of any OSM data, e.g. if a graph is loaded from a snapshot.
+     *
+     * @return a traffic handler without a graph
+     */
+    public static TrafficHandler importTrafficData(String locationListPath, String eventListPath,
+                                                   String tmcDataDirectory) {
+        TmcEventMessagesImporter tmcEventMessagesImporter = new TmcEventMessagesImporter(tmcDataDirectory);
         TmcMessageMap tmcMessageMap = new TmcMessageMap(tmcEventMessagesImporter);
 
-        LocationListImporter locationListImporter = new LocationListImporter(this.locationListPath);
+        LocationListImporter locationListImporter = new LocationListImporter(locationListPath);
         LocationList locationList = locationListImporter.importLocationList();
         logger.debug("Finished import: imported {} entries for location list.", locationList.size());
 
-        EventListImporter eventListImporter = new EventListImporter(this.eventListPath);
+        EventListImporter eventListImporter = new EventListImporter(eventListPath);
         EventList eventList = eventListImporter.importEventList();
         logger.debug("Finished import: imported {} entries for event list.", eventList.size());
 
-        this.trafficHandler = new TrafficHandler(locationList, eventList, tmcMessageMap);
-
         logger.info("Finished preparation: imported TMC event and location data.");
+        return new TrafficHandler(locationList, eventList, tmcMessageMap);
     }
 
 
@@ -168,7 +234,8 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
                     ReaderWay readerWay = (ReaderWay) item;
                     final TLongList nodeList = readerWay.getNodes();
 
-                    if (this.validator.isValidWay(readerWay) && nodeList.size() > 1) {
+                    if (this.validator.isValidWay(readerWay) && nodeList.size() > 1 &&
+                            this.wayIds.add(readerWay.getId())) {
                         processWayNodes(nodeList);
                         Way way = new WayBuilder().setOriginalWay(readerWay).build();
                         this.ways.add(way);
@@ -204,7 +271,9 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
                     ReaderNode readerNode = (ReaderNode) item;
 
                     // only import a node if it is used by a way (this was evaluated when the ways have been imported)
-                    if (this.nodeCounter.containsKey(readerNode.getId())) {
+                    // and it has not been imported from another file yet
+                    if (this.nodeCounter.containsKey(readerNode.getId()) &&
+                            !this.osmIdMapping.containsKey(readerNode.getId())) {
                         final Node node = new Node(readerNode.getLat(), readerNode.getLon());
                         node.setId(readerNode.getId());
                         node.setCrossing(this.nodeCounter.get(readerNode.getId()) > 1);
@@ -221,9 +290,9 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
 
 
     protected void sortNodes() {
-        Node[] nodes = this.graph.sortNodesAndSetGraphBoundaries().getNodes();
-        for (int i = 0; i < nodes.length; i++) {
-            this.osmIdMapping.put(nodes[i].getId(), i);
+        this.graph.sortNodesAndSetGraphBoundaries();
+        for (int i = 0; i < this.graph.getNodesSize(); i++) {
+            this.osmIdMapping.put(this.graph.getOsmId(i), i);
         }
         logger.info("Sorted nodes according to latitude/longitude.");
     }
@@ -234,8 +303,8 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
             switch (item.getType()) {
                 case ReaderElement.NODE:
                     ReaderNode readerNode = (ReaderNode) item;
-                    if (!readerNode.hasTags()) {
-                        // if the node has no tags, it doesn't make sense to investigate it
+                    if (!readerNode.hasTags() || this.poiIds.contains(readerNode.getId())) {
+                        // if the node has no tags or has been imported already, it doesn't make sense to investigate it
                         return false;
                     }
 
@@ -247,6 +316,7 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
                             Node node = new Node(readerNode.getLat(), readerNode.getLon());
                             node.setPoi(true);
                             node.setType(key, readerNode.getTag(key));
+                            this.poiIds.add(readerNode.getId());
                             if (this.osmIdMapping.containsKey(readerNode.getId())) {
                                 this.graph.addPoi(node, this.osmIdMapping.get(readerNode.getId()));
                             } else {
@@ -284,9 +354,7 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
     protected Edge getEdge(Way way, int sourceNodeIndex, int targetNodeIndex, long crossingId) {
         Edge edge = new Edge(way.getType(), sourceNodeIndex, targetNodeIndex);
 
-        Node source = this.graph.getNodes()[sourceNodeIndex];
-        Node target = this.graph.getNodes()[targetNodeIndex];
-        edge.setDistance(GraphUtil.getDistance(source, target));
+        edge.setDistance(this.graph.getDistance(sourceNodeIndex, targetNodeIndex));
         edge.setSpeed(way.getMaxSpeed());
         edge.setAccess(way.getAccess());
         if (crossingId > -1 && this.osmIdMapping.containsKey(crossingId)) {
@@ -311,23 +379,104 @@ public abstract class AbstractNodeEdgeReader implements NodeEdgeReader {
         this.nodeCounter.clear();
         this.osmIdMapping.clear();
         this.ways.clear();
+        this.wayIds.clear();
+        this.poiIds.clear();
 
         logger.info("Finished cleaning up memory.");
     }
 
 
+    /**
+     * Reads all OSM files and passes their elements to the handler. Each file is read by its own thread, the
+     * elements are handed over in batches which are handled round robin by the calling thread. So the handler is never
+     * called concurrently and the order of the elements doesn't depend on the speed of the threads.
+     */
     protected void processFile(String type, ItemHandler itemHandler) throws Exception {
-        final OSMInputFile osmInputFile = new OSMInputFile(this.osmFile).setWorkerThreads(2).open();
-        int counter = 0;
-        ReaderElement item = null;
-        while ((item = osmInputFile.getNext()) != null) {
-            boolean handled = itemHandler.handle(item);
-
-            if (handled && ++counter % 100000 == 0) {
-                logger.debug("Imported " + counter + " objects of type " + type);
+        int files = this.osmFiles.size();
+        int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / files);
+        ExecutorService executor = Executors.newFixedThreadPool(files);
+        try {
+            List<BlockingQueue<List<ReaderElement>>> queues = new ArrayList<>(files);
+            List<Future<?>> readers = new ArrayList<>(files);
+            for (File file : this.osmFiles) {
+                BlockingQueue<List<ReaderElement>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+                queues.add(queue);
+                readers.add(executor.submit(() -> {
+                    readBatches(file, workerThreads, queue);
+                    return null;
+                }));
+            }
+
+            int counter = 0;
+            boolean[] finished = new boolean[files];
+            for (int remaining = files; remaining > 0; ) {
+                for (int i = 0; i < files; i++) {
+                    if (finished[i]) {
+                        continue;
+                    }
+                    List<ReaderElement> batch = takeBatch(queues.get(i), readers.get(i));
+                    if (batch.isEmpty()) {
+                        finished[i] = true;
+                        remaining--;
+                        continue;
+                    }
+                    for (ReaderElement item : batch) {
+                        boolean handled = itemHandler.handle(item);
+
+                        if (handled && ++counter % 100000 == 0) {
+                            logger.debug("Imported " + counter + " objects of type " + type);
+                        }
+                    }
+                }
+            }
+
+            logger.info("Finished import: Imported " + counter + " objects of type " + type + " from " + files +
+                    " file(s)");
+        } finally {
+            // stops the readers if the handler failed
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static void readBatches(File file, int workerThreads, BlockingQueue<List<ReaderElement>> queue)
+            throws Exception {
+        try (OSMInputFile osmInputFile = new OSMInputFile(file).setWorkerThreads(workerThreads).open()) {
+            List<ReaderElement> batch = new ArrayList<>(BATCH_SIZE);
+            ReaderElement item;
+            while ((item = osmInputFile.getNext()) != null) {
+                batch.add(item);
+                if (batch.size() == BATCH_SIZE) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.put(batch);
             }
+            // an empty batch marks the end of the file
+            queue.put(Collections.emptyList());
         }
+    }
+
 
-        logger.info("Finished import: Imported " + counter + " objects of type " + type);
+    private static List<ReaderElement> takeBatch(BlockingQueue<List<ReaderElement>> queue, Future<?> reader)
+            throws Exception {
+        while (true) {
+            List<ReaderElement> batch = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                return batch;
+            }
+            if (reader.isDone()) {
+                // the end of the file might have been queued just before the reader finished
+                batch = queue.poll();
+                if (batch != null) {
+                    return batch;
+                }
+                // throws the exception of the reader
+                reader.get();
+                throw new IllegalStateException("The reader of an OSM file finished without reading all elements.");
+            }
+        }
     }
 }
\ No newline at end of file
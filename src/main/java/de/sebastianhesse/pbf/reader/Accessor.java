@@ -5,6 +5,21 @@ package de.sebastianhesse.pbf.reader;
  */
 public enum Accessor {
 
-    CAR,
-    PEDESTRIAN
+    CAR((short) 130),
+    PEDESTRIAN((short) 7);
+
+    private final short maxSpeed;
+
+
+    Accessor(short maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+
+    /**
+     * @return max. speed of the vehicle in km/h, faster ways are travelled with this speed
+     */
+    public short getMaxSpeed() {
+        return this.maxSpeed;
+    }
 }
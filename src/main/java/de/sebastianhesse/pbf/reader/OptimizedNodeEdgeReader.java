@@ -7,6 +7,8 @@ import gnu.trove.map.hash.TLongIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 
 /**
  * Reads an OSM file into a {@link Graph} object which contains nodes and edges.
@@ -31,6 +33,12 @@ public class OptimizedNodeEdgeReader extends AbstractNodeEdgeReader {
     }
 
 
+    public OptimizedNodeEdgeReader(List<String> osmFiles, String locationListPath, String eventListPath,
+                                   String tmcDataDirectory) {
+        super(osmFiles, locationListPath, eventListPath, tmcDataDirectory);
+    }
+
+
     protected void optimizeWays() {
         logger.info("Before optimization: " + this.nodeCounter.size() + " nodes have to be imported.");
 
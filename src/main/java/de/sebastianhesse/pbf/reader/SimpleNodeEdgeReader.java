@@ -1,12 +1,13 @@
 package de.sebastianhesse.pbf.reader;
 
 import de.sebastianhesse.pbf.storage.Graph;
-import de.sebastianhesse.pbf.storage.Node;
 import gnu.trove.list.TLongList;
 import gnu.trove.map.hash.TLongIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 
 /**
  * Reads an OSM file into a {@link Graph} object which contains nodes and edges. Does no optimization,
@@ -30,6 +31,12 @@ public class SimpleNodeEdgeReader extends AbstractNodeEdgeReader {
     }
 
 
+    public SimpleNodeEdgeReader(List<String> osmFiles, String locationListPath, String eventListPath,
+                                String tmcDataDirectory) {
+        super(osmFiles, locationListPath, eventListPath, tmcDataDirectory);
+    }
+
+
     protected void optimizeWays() {
         logger.info("Before optimization: " + this.nodeCounter.size() + " nodes have to be imported.");
 
@@ -72,8 +79,7 @@ public class SimpleNodeEdgeReader extends AbstractNodeEdgeReader {
 
             long[] crossings = new long[oldNodesSize];
             for (int i = 0; i < oldNodesSize; i++) {
-                Node node = this.graph.getNodes()[this.osmIdMapping.get(oldNodes.get(i))];
-                if (node.isCrossing()) {
+                if (this.graph.isCrossing(this.osmIdMapping.get(oldNodes.get(i)))) {
                     crossings[i] = oldNodes.get(i);
                 } else {
                     crossings[i] = -1;
@@ -0,0 +1,64 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.Node;
+
+
+/**
+ * A* search: like {@link Dijkstra}, but the nodes are settled in the order of their weight plus a lower bound of the
+ * remaining weight to the target. The lower bound is the straight distance to the target, divided by the max. speed
+ * of the vehicle for the fastest way. Hence the search expands towards the target and settles less nodes.
+ * <p>
+ * The search ends when the target or one of its next crossings is settled. Therefore the distance of the farthest of
+ * these crossings to the target is subtracted from the straight distance, so none of these nodes has a lower bound
+ * above 0 and the first one settled is the same as in {@link Dijkstra}, i.e. both find the same path. The lower bound
+ * of each node is only calculated once per search and kept in the {@link SearchState}.
+ */
+public class AStar extends Dijkstra {
+
+    // reduces the lower bound a bit, because distances of edges are rounded and may be a bit shorter than the
+    // straight distance between their nodes
+    private static final double SAFETY_FACTOR = 0.999;
+
+    private final int targetId;
+    // max. straight distance from the target to one of its next crossings
+    private final double targetRadius;
+    // lower bound of the weight per meter of straight distance
+    private final double weightPerMeter;
+
+
+    public AStar(Graph graph, Node source, Node target, DijkstraOptions options) {
+        super(graph, source, target, options);
+        this.targetId = (int) target.getId();
+        double radius = 0;
+        for (int targetNode : getTargetNodes()) {
+            radius = Math.max(radius, graph.getDistance(this.targetId, targetNode));
+        }
+        this.targetRadius = radius;
+        if (options.getCalculationType() == CalculationType.FASTEST) {
+            // the costs of an edge are at least its length divided by the max. speed in meter per seconds
+            this.weightPerMeter = SAFETY_FACTOR * 3.6 / options.getAccessor().getMaxSpeed();
+        } else {
+            this.weightPerMeter = SAFETY_FACTOR;
+        }
+    }
+
+
+    @Override
+    protected double getPriority(int node, double weight) {
+        if (!this.state.hasLowerBound(node)) {
+            this.state.setLowerBound(node, getLowerBound(node));
+        }
+        return weight + this.state.getLowerBound(node);
+    }
+
+
+    /**
+     * @return the min. weight of a path from the node to the target or one of its next crossings
+     */
+    private double getLowerBound(int node) {
+        double distance = this.graph.getDistance(node, this.targetId) - this.targetRadius;
+        return Math.max(0, distance) * this.weightPerMeter;
+    }
+}
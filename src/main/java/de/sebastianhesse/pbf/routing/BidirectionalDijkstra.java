@@ -0,0 +1,252 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.storage.EdgeDirection;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.Node;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Bidirectional Dijkstra: a forward search from the source and a backward search from the target and its next
+ * crossings over the incoming edges. Both searches settle the node with the lower weight of both queues next, and each
+ * edge which connects a node of the forward search with a node of the backward search is a candidate for the shortest
+ * path. The search ends as soon as the sum of the min. weights of both queues isn't lower than the best candidate,
+ * because no path through an unsettled node can be shorter anymore. Hence both searches only cover about the half of
+ * the distance and settle less nodes than {@link Dijkstra}.
+ * <p>
+ * The forward search uses the shortcuts of an edge to its next crossing like {@link Dijkstra}. The backward search
+ * uses the same shortcuts in reverse: the shortcuts to a crossing start at all nodes of the simple ways before it, so
+ * it follows the incoming edges whose next crossing is this crossing back until another crossing. {@link Dijkstra}
+ * ends at the first settled node of the target and its next crossings, thus the backward search starts at all of
+ * them with the weight 0 and the path ends at the one which is the closest to the source.
+ * <p>
+ * Needs the incoming edges of the graph, see {@link Graph#buildReverseEdges()}.
+ */
+public class BidirectionalDijkstra extends Dijkstra {
+
+    private static final Logger logger = LoggerFactory.getLogger(BidirectionalDijkstra.class);
+
+    private int targetId;
+    private EdgeIterator outgoingEdges;
+    private EdgeIterator incomingEdges;
+    // nodes of the simple ways before the node settled by the backward search, see settleBackward
+    private TIntArrayList wayNodes = new TIntArrayList();
+    // weights, predecessors etc. of the backward search, the predecessor of a node is the next node to the target
+    private SearchState backwardState;
+    // weight of the shortest path found so far and the node where both searches meet on it
+    private double bestWeight;
+    private int meetingNode;
+
+
+    public BidirectionalDijkstra(Graph graph, Node source, Node target, DijkstraOptions options) {
+        super(graph, source, target, options);
+        this.targetId = (int) target.getId();
+        if (!graph.hasReverseEdges()) {
+            throw new IllegalStateException("A bidirectional search needs the incoming edges of the graph, " +
+                    "set reverseEdges: true.");
+        }
+        this.outgoingEdges = graph.createEdgeIterator();
+        this.incomingEdges = graph.createEdgeIterator(EdgeDirection.INCOMING);
+    }
+
+
+    @Override
+    protected boolean search() {
+        this.backwardState = SearchStatePool.acquire(this.graph.getNodesSize());
+        try {
+            if (!searchBothDirections()) {
+                return false;
+            }
+            joinPaths();
+            return true;
+        } finally {
+            SearchStatePool.release(this.backwardState);
+            this.backwardState = null;
+        }
+    }
+
+
+    /**
+     * @return true if a path from the source to the target or one of its next crossings has been found
+     */
+    private boolean searchBothDirections() {
+        this.bestWeight = Double.MAX_VALUE;
+        this.meetingNode = -1;
+
+        int sourceId = (int) this.source.getId();
+        NodeQueue forwardQueue = this.state.getQueue(this.options.getQueueType());
+        forwardQueue.push(sourceId, 0d);
+        this.state.setReached(sourceId, 0, -1, 0, 0);
+
+        if (!mayReachTarget()) {
+            logger.info("Target is not connected to the source.");
+            return false;
+        }
+
+        NodeQueue backwardQueue = this.backwardState.getQueue(this.options.getQueueType());
+        for (int targetNode : getTargetNodes()) {
+            backwardQueue.push(targetNode, 0d);
+            this.backwardState.setReached(targetNode, 0, -1, 0, 0);
+            updateBestWeight(targetNode, this.state.getWeight(targetNode), 0);
+        }
+
+        // if one queue is empty, all nodes of its direction are settled and each path has been a candidate already
+        while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+            double forwardWeight = forwardQueue.peekWeight();
+            double backwardWeight = backwardQueue.peekWeight();
+            if (forwardWeight + backwardWeight >= this.bestWeight) {
+                break;
+            }
+            if (forwardWeight <= backwardWeight) {
+                settleForward(forwardQueue);
+            } else {
+                settleBackward(backwardQueue);
+            }
+        }
+
+        return this.meetingNode != -1;
+    }
+
+
+    private void settleForward(NodeQueue queue) {
+        int node = queue.poll();
+        if (this.state.isSettled(node)) {
+            return;
+        }
+
+        double nodeWeight = this.state.getWeight(node);
+        EdgeIterator edges = this.outgoingEdges.setBaseNode(node);
+        while (edges.next()) {
+            int edgeTarget = edges.getTarget();
+            if (this.state.isSettled(edgeTarget)) {
+                continue;
+            }
+            int nextCrossing = edges.getNextCrossing();
+            int targetNodeId = nextCrossing > -1 ? nextCrossing : edgeTarget;
+
+            double weight = this.pathCalculator.calculateWeightToNeighbour(node, nodeWeight, edges, nextCrossing);
+            // NaN if the edge can't be used
+            if (Double.isNaN(weight)) {
+                continue;
+            }
+            if (weight < this.state.getWeight(targetNodeId)) {
+                this.state.setReached(targetNodeId, weight, node, this.pathCalculator.getDistance(),
+                        this.pathCalculator.getDistanceTime());
+                if (nextCrossing > -1) {
+                    this.state.setCrossingStart(targetNodeId, edgeTarget);
+                }
+                queue.push(targetNodeId, weight);
+            }
+            updateBestWeight(targetNodeId, weight, this.backwardState.getWeight(targetNodeId));
+        }
+
+        this.state.setSettled(node);
+        this.settledNodes++;
+    }
+
+
+    /**
+     * Settles the next node of the backward search. Its incoming edges aren't enough, since an edge is a shortcut to
+     * its next crossing: the node is reached by all edges of the simple ways before it whose next crossing is the
+     * node, or which end at the node if they don't have a next crossing. Hence the nodes of these ways are walked back
+     * until the previous crossing.
+     * <p>
+     * Most nodes between two crossings are only the start of shortcuts, so they are reached, because the forward
+     * search may start at them, but not settled. Only crossings and the nodes at which an edge without a next
+     * crossing ends are added to the queue.
+     */
+    private void settleBackward(NodeQueue queue) {
+        int node = queue.poll();
+        if (this.backwardState.isSettled(node)) {
+            return;
+        }
+
+        double nodeWeight = this.backwardState.getWeight(node);
+        this.wayNodes.resetQuick();
+        this.wayNodes.add(node);
+        while (!this.wayNodes.isEmpty()) {
+            int wayNode = this.wayNodes.removeAt(this.wayNodes.size() - 1);
+            boolean hasEdgesEndingHere = false;
+            EdgeIterator edges = this.incomingEdges.setBaseNode(wayNode);
+            while (edges.next()) {
+                int nextCrossing = edges.getNextCrossing();
+                hasEdgesEndingHere |= nextCrossing == -1;
+                if ((nextCrossing > -1 ? nextCrossing : wayNode) != node) {
+                    continue;
+                }
+                int edgeSource = edges.getTarget();
+                boolean isCrossing = this.graph.isCrossing(edgeSource);
+                if (edgeSource != node && edgeSource != wayNode && !isCrossing) {
+                    // the edges before this node are shortcuts to the same node
+                    this.wayNodes.add(edgeSource);
+                }
+                if (this.backwardState.isSettled(edgeSource)) {
+                    continue;
+                }
+
+                double weight = this.pathCalculator.calculateWeightToNeighbour(edgeSource, nodeWeight, edges,
+                        nextCrossing);
+                if (Double.isNaN(weight)) {
+                    continue;
+                }
+                if (weight < this.backwardState.getWeight(edgeSource)) {
+                    this.backwardState.setReached(edgeSource, weight, node, this.pathCalculator.getDistance(),
+                            this.pathCalculator.getDistanceTime());
+                    // the first node of the edge, it's the start of the shortcut if the edge has a next crossing
+                    this.backwardState.setCrossingStart(edgeSource, wayNode);
+                    if (isCrossing) {
+                        queue.push(edgeSource, weight);
+                    }
+                }
+                updateBestWeight(edgeSource, this.state.getWeight(edgeSource), weight);
+            }
+
+            if (wayNode != node && hasEdgesEndingHere && this.backwardState.isReached(wayNode) &&
+                    !this.backwardState.isSettled(wayNode)) {
+                // the edges without a next crossing are no shortcuts, so the search must continue at this node
+                queue.push(wayNode, this.backwardState.getWeight(wayNode));
+            }
+        }
+
+        this.backwardState.setSettled(node);
+        this.settledNodes++;
+    }
+
+
+    /**
+     * Remembers the node if the path through it is shorter than the best path so far.
+     */
+    private void updateBestWeight(int node, double forwardWeight, double backwardWeight) {
+        if (forwardWeight == Double.MAX_VALUE || backwardWeight == Double.MAX_VALUE) {
+            return;
+        }
+        double weight = forwardWeight + backwardWeight;
+        if (weight < this.bestWeight) {
+            this.bestWeight = weight;
+            this.meetingNode = node;
+        }
+    }
+
+
+    /**
+     * Appends the path of the backward search from the meeting node to the path of the forward search, so the
+     * predecessors in the forward state lead from the node where the path ends back to the source.
+     */
+    private void joinPaths() {
+        int node = this.meetingNode;
+        int next = this.backwardState.getPredecessor(node);
+        while (next != -1) {
+            this.state.setReached(next, this.bestWeight - this.backwardState.getWeight(next), node,
+                    this.backwardState.getDistance(node), this.backwardState.getDistanceTime(node));
+            this.state.setCrossingStart(next, this.backwardState.getCrossingStart(node));
+            node = next;
+            next = this.backwardState.getPredecessor(node);
+        }
+        // the path ends at the target or one of its next crossings
+        this.finalTargetCrossing = node == this.targetId ? -1 : node;
+    }
+}
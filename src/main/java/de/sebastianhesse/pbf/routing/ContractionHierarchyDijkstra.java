@@ -0,0 +1,233 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.storage.ContractionHierarchy;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.Node;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Query of a {@link ContractionHierarchy}: a forward search from the source over the up arcs and a backward search
+ * from the target and its next crossings over the down arcs, i.e. both searches only move to nodes of a higher rank.
+ * Each arc which connects a node of the forward search with a node of the backward search is a candidate for the
+ * shortest path. A search ends as soon as the min. weight of its queue isn't lower than the best candidate.
+ * <p>
+ * A node is stalled, i.e. not expanded, if it can be reached with a lower weight by an arc from a higher node of the
+ * same search, since then the shortest path doesn't pass it. Afterwards the arcs of the path are unpacked into edges
+ * and the path of edges is written into the search state like {@link Dijkstra} does, so the result contains the same
+ * nodes, distance and time.
+ * <p>
+ * Needs the hierarchy of the profile of the options, see {@link Graph#buildContractionHierarchies()}.
+ */
+public class ContractionHierarchyDijkstra extends Dijkstra {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractionHierarchyDijkstra.class);
+
+    private int targetId;
+    private ContractionHierarchy hierarchy;
+    // the predecessor of a node is the arc by which it has been reached, the arc to the target for the backward search
+    private SearchState backwardState;
+    // weight of the shortest path found so far and the node where both searches meet on it
+    private double bestWeight;
+    private int meetingNode;
+
+
+    public ContractionHierarchyDijkstra(Graph graph, Node source, Node target, DijkstraOptions options) {
+        super(graph, source, target, options);
+        this.targetId = (int) target.getId();
+        CostProfile profile = CostProfile.get(options.getAccessor(),
+                options.getCalculationType() == CalculationType.FASTEST);
+        this.hierarchy = graph.getContractionHierarchy(profile);
+        if (this.hierarchy == null) {
+            throw new IllegalStateException("There's no contraction hierarchy for " + profile +
+                    ", set contractionHierarchies: true.");
+        }
+    }
+
+
+    @Override
+    protected boolean search() {
+        this.backwardState = SearchStatePool.acquire(this.graph.getNodesSize());
+        try {
+            if (!searchBothDirections()) {
+                return false;
+            }
+            unpackPath();
+            return true;
+        } finally {
+            SearchStatePool.release(this.backwardState);
+            this.backwardState = null;
+        }
+    }
+
+
+    /**
+     * @return true if a path from the source to the target or one of its next crossings has been found
+     */
+    private boolean searchBothDirections() {
+        this.bestWeight = Double.MAX_VALUE;
+        this.meetingNode = -1;
+
+        int sourceId = (int) this.source.getId();
+        NodeQueue forwardQueue = this.state.getQueue(this.options.getQueueType());
+        forwardQueue.push(sourceId, 0d);
+        this.state.setReached(sourceId, 0, -1, 0, 0);
+
+        if (!mayReachTarget()) {
+            logger.info("Target is not connected to the source.");
+            return false;
+        }
+
+        NodeQueue backwardQueue = this.backwardState.getQueue(this.options.getQueueType());
+        for (int targetNode : getTargetNodes()) {
+            backwardQueue.push(targetNode, 0d);
+            this.backwardState.setReached(targetNode, 0, -1, 0, 0);
+            updateBestWeight(targetNode, this.state.getWeight(targetNode), 0);
+        }
+
+        while (true) {
+            boolean forwardFinished = forwardQueue.isEmpty() || forwardQueue.peekWeight() >= this.bestWeight;
+            boolean backwardFinished = backwardQueue.isEmpty() || backwardQueue.peekWeight() >= this.bestWeight;
+            if (forwardFinished && backwardFinished) {
+                break;
+            }
+            if (backwardFinished || (!forwardFinished && forwardQueue.peekWeight() <= backwardQueue.peekWeight())) {
+                settleForward(forwardQueue);
+            } else {
+                settleBackward(backwardQueue);
+            }
+        }
+
+        return this.meetingNode != -1;
+    }
+
+
+    private void settleForward(NodeQueue queue) {
+        int node = queue.poll();
+        if (this.state.isSettled(node)) {
+            return;
+        }
+        this.state.setSettled(node);
+        double nodeWeight = this.state.getWeight(node);
+
+        int end = this.hierarchy.getFirstDownArc(node + 1);
+        for (int i = this.hierarchy.getFirstDownArc(node); i < end; i++) {
+            int arc = this.hierarchy.getDownArc(i);
+            if (this.state.getWeight(this.hierarchy.getArcSource(arc)) + this.hierarchy.getArcWeight(arc) <
+                    nodeWeight) {
+                // stalled, a higher node of the forward search has a shorter path to this node
+                return;
+            }
+        }
+
+        end = this.hierarchy.getFirstUpArc(node + 1);
+        for (int i = this.hierarchy.getFirstUpArc(node); i < end; i++) {
+            int arc = this.hierarchy.getUpArc(i);
+            int target = this.hierarchy.getArcTarget(arc);
+            double weight = nodeWeight + this.hierarchy.getArcWeight(arc);
+            if (weight < this.state.getWeight(target)) {
+                this.state.setReached(target, weight, arc, 0, 0);
+                queue.push(target, weight);
+            }
+            updateBestWeight(target, weight, this.backwardState.getWeight(target));
+        }
+        this.settledNodes++;
+    }
+
+
+    private void settleBackward(NodeQueue queue) {
+        int node = queue.poll();
+        if (this.backwardState.isSettled(node)) {
+            return;
+        }
+        this.backwardState.setSettled(node);
+        double nodeWeight = this.backwardState.getWeight(node);
+
+        int end = this.hierarchy.getFirstUpArc(node + 1);
+        for (int i = this.hierarchy.getFirstUpArc(node); i < end; i++) {
+            int arc = this.hierarchy.getUpArc(i);
+            if (this.backwardState.getWeight(this.hierarchy.getArcTarget(arc)) + this.hierarchy.getArcWeight(arc) <
+                    nodeWeight) {
+                // stalled, this node has a shorter path to the target over a higher node of the backward search
+                return;
+            }
+        }
+
+        end = this.hierarchy.getFirstDownArc(node + 1);
+        for (int i = this.hierarchy.getFirstDownArc(node); i < end; i++) {
+            int arc = this.hierarchy.getDownArc(i);
+            int arcSource = this.hierarchy.getArcSource(arc);
+            double weight = nodeWeight + this.hierarchy.getArcWeight(arc);
+            if (weight < this.backwardState.getWeight(arcSource)) {
+                this.backwardState.setReached(arcSource, weight, arc, 0, 0);
+                queue.push(arcSource, weight);
+            }
+            updateBestWeight(arcSource, this.state.getWeight(arcSource), weight);
+        }
+        this.settledNodes++;
+    }
+
+
+    /**
+     * Remembers the node if the path through it is shorter than the best path so far.
+     */
+    private void updateBestWeight(int node, double forwardWeight, double backwardWeight) {
+        if (forwardWeight == Double.MAX_VALUE || backwardWeight == Double.MAX_VALUE) {
+            return;
+        }
+        double weight = forwardWeight + backwardWeight;
+        if (weight < this.bestWeight) {
+            this.bestWeight = weight;
+            this.meetingNode = node;
+        }
+    }
+
+
+    /**
+     * Collects the arcs from the source over the meeting node to the end of the path, replaces the shortcuts by the
+     * arcs they skip and writes the path of edges into the forward state.
+     */
+    private void unpackPath() {
+        TIntArrayList arcs = new TIntArrayList();
+        int node = this.meetingNode;
+        while (this.state.getPredecessor(node) != -1) {
+            int arc = this.state.getPredecessor(node);
+            arcs.add(arc);
+            node = this.hierarchy.getArcSource(arc);
+        }
+        arcs.reverse();
+        node = this.meetingNode;
+        while (this.backwardState.getPredecessor(node) != -1) {
+            int arc = this.backwardState.getPredecessor(node);
+            arcs.add(arc);
+            node = this.hierarchy.getArcTarget(arc);
+        }
+        // the path ends at the target or one of its next crossings
+        this.finalTargetCrossing = node == this.targetId ? -1 : node;
+
+        TIntArrayList edgeSources = new TIntArrayList();
+        TIntArrayList edges = new TIntArrayList();
+        TIntArrayList unpacked = new TIntArrayList();
+        for (int i = arcs.size() - 1; i >= 0; i--) {
+            unpacked.add(arcs.get(i));
+        }
+        // the arcs to unpack are a stack, so the next arc of the path is the last one
+        while (!unpacked.isEmpty()) {
+            int arc = unpacked.removeAt(unpacked.size() - 1);
+            int edge = this.hierarchy.getArcEdge(arc);
+            if (edge == -1) {
+                unpacked.add(this.hierarchy.getSkippedArc(arc, 1));
+                unpacked.add(this.hierarchy.getSkippedArc(arc, 0));
+                continue;
+            }
+            edgeSources.add(this.hierarchy.getArcSource(arc));
+            edges.add(edge);
+        }
+        writePath(edgeSources, edges);
+    }
+}
@@ -1,74 +1,95 @@
 package de.sebastianhesse.pbf.routing;
 
 import com.google.common.collect.Lists;
-import de.sebastianhesse.pbf.routing.calculators.CalculationResult;
-import de.sebastianhesse.pbf.storage.Edge;
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
 import de.sebastianhesse.pbf.storage.Graph;
 import de.sebastianhesse.pbf.storage.Node;
-import gnu.trove.map.TIntDoubleMap;
+import de.sebastianhesse.pbf.storage.StronglyConnectedComponents;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 
 
 /**
- * A simple Dijkstra implementation.
+ * A simple Dijkstra implementation. Subclasses can direct the search towards the target by a heuristic, see
+ * {@link #getPriority(int, double)}.
  */
 public class Dijkstra extends BaseDijkstra {
 
     private static final Logger logger = LoggerFactory.getLogger(Dijkstra.class);
 
-    private Node target;
-    private Map<Node, Node> targetCrossings;
-    private Node finalTargetCrossing = null;
-    private TIntIntMap crossingStarts;
-    private TIntDoubleMap distances;
-    private TIntDoubleMap distanceTimes;
+    private int targetId;
+    private TIntIntMap targetCrossings;
+    // the next crossing of the target at which the search ended, -1 if it ended at the target
+    protected int finalTargetCrossing = -1;
+    private EdgeIterator edgeIterator;
+    private DijkstraResult result;
+    protected int settledNodes = 0;
 
 
     public Dijkstra(Graph graph, Node source, Node target, DijkstraOptions options) {
         super(graph, source, options);
-        this.target = target;
-        this.targetCrossings = new HashMap<>();
-        this.crossingStarts = new TIntIntHashMap(this.nodes.length / 2);
-        this.distances = new TIntDoubleHashMap();
-        this.distanceTimes = new TIntDoubleHashMap();
+        this.targetId = (int) target.getId();
+        this.targetCrossings = new TIntIntHashMap();
+        this.edgeIterator = graph.createEdgeIterator();
+        findNextTargetCrossings();
     }
 
 
     @Override
     public void run() {
         long startTime = System.currentTimeMillis();
-        logger.info("Starting Dijkstra.");
+        logger.info("Starting {}.", this.options.getAlgorithm());
+
+        acquireState();
+        try {
+            if (search()) {
+                this.result = buildShortestPath();
+            } else {
+                logger.info("Can't find a way to target.");
+            }
+        } finally {
+            releaseState();
+        }
 
-        TLongSet settled = new TLongHashSet();
-        FibonacciHeap<Integer> unsettled = new FibonacciHeap<>();
-        unsettled.enqueue((int) source.getId(), 0d);
-        weights.put((int) source.getId(), 0);
-        predecessors.put((int) source.getId(), -1);
+        logger.info("Finished {} in {} ms, settled {} nodes.", this.options.getAlgorithm(),
+                (System.currentTimeMillis() - startTime), this.settledNodes);
+    }
 
-        findNextTargetCrossings();
+
+    /**
+     * @return true if the target or one of its next crossings has been reached
+     */
+    protected boolean search() {
+        int sourceId = (int) source.getId();
+        NodeQueue unsettled = this.state.getQueue(this.options.getQueueType());
+        unsettled.push(sourceId, getPriority(sourceId, 0d));
+        this.state.setReached(sourceId, 0, -1, 0, 0);
+
+        if (!mayReachTarget()) {
+            // avoid to explore the whole component of the source if the target is on an island
+            logger.info("Target is not connected to the source.");
+            return false;
+        }
 
         while (!unsettled.isEmpty()) {
-            Node node = nodes[unsettled.dequeueMin().getValue()];
+            double priority = unsettled.peekWeight();
+            int node = unsettled.poll();
 
-            if (settled.contains(node.getId())) {
+            if (this.state.isSettled(node)) {
                 // we've already visited this node, thus skip it;
                 continue;
             }
 
-            if (node.equals(target)) {
+            if (node == targetId) {
                 // stop here if we've found the target
                 break;
             }
@@ -79,118 +100,209 @@ public class Dijkstra extends BaseDijkstra {
             }
 
             // investigate all neighbours of the current node and update the weights, predecessors, etc
-            List<Edge> neighbours = this.graph.getNeighboursOfNode(node, settled);
-            iterateOverNeighbours(unsettled, node, neighbours);
+            iterateOverNeighbours(unsettled, node, priority);
 
             // we investigated all of the node's neighbours -> mark node as visited
-            settled.add(node.getId());
-        }
-
-        if (!weights.containsKey((int) target.getId()) && finalTargetCrossing == null) {
-            logger.info("Can't find a way to target.");
-            predecessors.clear();
-            weights.clear();
+            this.state.setSettled(node);
+            this.settledNodes++;
         }
 
-        logger.info("Finished Dijkstra in {} ms.", (System.currentTimeMillis() - startTime));
+        return this.state.isReached(targetId) || finalTargetCrossing != -1;
     }
 
 
     private void findNextTargetCrossings() {
-        if (!target.isCrossing()) {
-            List<Edge> neighbours = this.graph.getNeighboursOfNode(this.target);
-            for (Edge edge : neighbours) {
-                int nextCrossing = edge.getNextCrossing();
+        if (!this.graph.isCrossing(targetId)) {
+            EdgeIterator edges = this.edgeIterator.setBaseNode(targetId);
+            while (edges.next()) {
+                int nextCrossing = edges.getNextCrossing();
                 if (nextCrossing > -1) {
-                    this.targetCrossings.put(this.nodes[nextCrossing], this.nodes[edge.getTargetNode()]);
+                    this.targetCrossings.put(nextCrossing, edges.getTarget());
                 }
             }
         }
     }
 
 
-    private void iterateOverNeighbours(FibonacciHeap<Integer> unsettled, Node node, List<Edge> neighbours) {
-        for (Edge edge : neighbours) {
-            int targetNodeId = edge.getNextCrossing() > -1 ? edge.getNextCrossing() : edge.getTargetNode();
-            Node crossingNode = edge.getNextCrossing() > -1 ? this.nodes[targetNodeId] : null;
+    /**
+     * @param node   id of a reached node
+     * @param weight weight of the node, i.e. of the path from the source to it
+     * @return the priority of the node in the queue, here just its weight
+     */
+    protected double getPriority(int node, double weight) {
+        return weight;
+    }
+
+
+    /**
+     * @return ids of the nodes which end the search if they are settled, i.e. the target and its next crossings
+     */
+    protected int[] getTargetNodes() {
+        int[] nodes = Arrays.copyOf(this.targetCrossings.keys(), this.targetCrossings.size() + 1);
+        nodes[nodes.length - 1] = this.targetId;
+        return nodes;
+    }
+
+
+    /**
+     * @return number of nodes settled by the last search
+     */
+    public int getSettledNodes() {
+        return this.settledNodes;
+    }
+
+
+    /**
+     * @return false if neither the target nor one of its next crossings can be reached from the source
+     */
+    protected boolean mayReachTarget() {
+        StronglyConnectedComponents components = this.graph.getComponents(this.options.getAccessor());
+        if (components == null) {
+            return true;
+        }
+        int sourceId = (int) this.source.getId();
+        if (components.mayReach(sourceId, targetId)) {
+            return true;
+        }
+        for (int crossing : this.targetCrossings.keys()) {
+            if (components.mayReach(sourceId, crossing)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void iterateOverNeighbours(NodeQueue unsettled, int node, double priority) {
+        double nodeWeight = this.state.getWeight(node);
+        EdgeIterator edges = this.edgeIterator.setBaseNode(node);
+        while (edges.next()) {
+            int edgeTarget = edges.getTarget();
+            if (this.state.isSettled(edgeTarget)) {
+                continue;
+            }
+            int nextCrossing = edges.getNextCrossing();
+            int targetNodeId = nextCrossing > -1 ? nextCrossing : edgeTarget;
 
             try {
-                Optional<CalculationResult> result = this.pathCalculator.calculateCostsToNeighbour(node, edge, crossingNode);
-                result.ifPresent(calculationResult -> {
-                    weights.put(targetNodeId, calculationResult.weight);
-                    predecessors.put(targetNodeId, (int) node.getId());
-                    distances.put(targetNodeId, calculationResult.distance);
-                    distanceTimes.put(targetNodeId, calculationResult.distanceTime);
-
-                    if (edge.getNextCrossing() > -1) {
+                double weight = this.pathCalculator.calculateWeightToNeighbour(node, nodeWeight, edges, nextCrossing);
+                // NaN if the edge can't be used
+                if (!Double.isNaN(weight) && weight < this.state.getWeight(targetNodeId)) {
+                    this.state.setReached(targetNodeId, weight, node, this.pathCalculator.getDistance(),
+                            this.pathCalculator.getDistanceTime());
+
+                    if (nextCrossing > -1) {
                         // if current edge has a shortcut to a next crossing, we need to save the starting node
-                        crossingStarts.put(targetNodeId, edge.getTargetNode());
+                        this.state.setCrossingStart(targetNodeId, edgeTarget);
                     }
 
-                    // always put a new object on the heap and avoid a costly decreaseKey operation
-                    // -> when polling the heap, make sure to check if we already visited the node
-                    unsettled.enqueue(targetNodeId, calculationResult.weight);
-                });
+                    // adds the node or decreases its weight if it's in the queue already; the priority must not be
+                    // lower than the one of the current node, even if a heuristic is not exactly consistent due to
+                    // rounded distances
+                    unsettled.push(targetNodeId, Math.max(getPriority(targetNodeId, weight), priority));
+                }
             } catch (Exception e) {
-                Node neighbour = nodes[targetNodeId];
-                logger.info("Exception occurred. Current node: {}, neighbours: {}, current neighbour: {}",
-                        node.toString(), neighbours.size(), neighbour.toString());
+                logger.info("Exception occurred. Current node: {}, current neighbour: {}", node, targetNodeId);
                 logger.error("Exception: ", e);
             }
         }
     }
 
 
+    /**
+     * Resets the search state and writes a path of edges from the source into it, as if {@link #search()} had reached
+     * the next crossing resp. target of each edge. Used by searches which find the path on another graph.
+     *
+     * @param edgeSources source of each edge
+     * @param edges       ids of the edges in the order of the path
+     */
+    protected void writePath(TIntList edgeSources, TIntList edges) {
+        this.state.reset();
+        this.state.setReached((int) this.source.getId(), 0, -1, 0, 0);
+        double weight = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            int edgeSource = edgeSources.get(i);
+            EdgeIterator iterator = this.edgeIterator.setBaseNode(edgeSource);
+            while (iterator.next() && iterator.getEdge() != edges.get(i)) {
+                // find the edge
+            }
+            int nextCrossing = iterator.getNextCrossing();
+            int head = nextCrossing > -1 ? nextCrossing : iterator.getTarget();
+            weight = this.pathCalculator.calculateWeightToNeighbour(edgeSource, weight, iterator, nextCrossing);
+            this.state.setReached(head, weight, edgeSource, this.pathCalculator.getDistance(),
+                    this.pathCalculator.getDistanceTime());
+            if (nextCrossing > -1) {
+                this.state.setCrossingStart(head, iterator.getTarget());
+            }
+        }
+    }
+
+
+    /**
+     * @return the shortest path found by {@link #run()} or an empty path if there is none
+     */
     public DijkstraResult retrieveShortestPath() {
-        if (predecessors.isEmpty()) {
+        if (this.result == null) {
             return new DijkstraResult(Lists.newArrayList(), 0, 0);
         }
+        return this.result;
+    }
+
 
+    /**
+     * Collects the path from the search state, so it must be called before the state is released.
+     */
+    private DijkstraResult buildShortestPath() {
         long startTime = System.currentTimeMillis();
 
-        List<Node> path = new ArrayList<>();
+        int sourceId = (int) this.source.getId();
+        TIntList path = new TIntArrayList();
         double distance = 0;
         double timeInSeconds = 0;
-        Node routeNode = target;
+        int routeNode = targetId;
         boolean avoidAddingRouteNode = false;
-        if (!target.isCrossing() && finalTargetCrossing != null) {
-            path.add(target);
-            avoidAddingRouteNode = addNodesFromTargetToNextCrossing(path, finalTargetCrossing, target);
+        if (!this.graph.isCrossing(targetId) && finalTargetCrossing != -1) {
+            path.add(targetId);
+            avoidAddingRouteNode = addNodesFromTargetToNextCrossing(path, finalTargetCrossing, targetId);
             routeNode = finalTargetCrossing;
         }
-        distance += distances.get((int) routeNode.getId());
-        timeInSeconds += distanceTimes.get((int) routeNode.getId());
+        distance += this.state.getDistance(routeNode);
+        timeInSeconds += this.state.getDistanceTime(routeNode);
         while (isPredecessor(routeNode)) {
             if (!avoidAddingRouteNode) {
                 path.add(routeNode);
             }
-            Node tmpTarget = routeNode;
+            int tmpTarget = routeNode;
             routeNode = getPredecessor(routeNode);
-            distance += distances.get((int) routeNode.getId());
-            timeInSeconds += distanceTimes.get((int) routeNode.getId());
-            if (routeNode.isCrossing() || routeNode.equals(this.source)) {
+            distance += this.state.getDistance(routeNode);
+            timeInSeconds += this.state.getDistanceTime(routeNode);
+            if (this.graph.isCrossing(routeNode) || routeNode == sourceId) {
                 avoidAddingRouteNode = addNodesFromTargetToNextCrossing(path, routeNode, tmpTarget);
             }
         }
-        path.add(this.source);
+        path.add(sourceId);
+
         // nodes are ordered from target to source, but we want them in the direction from source to target
-        Collections.reverse(path);
+        List<Node> nodes = new ArrayList<>(path.size());
+        for (int i = path.size() - 1; i >= 0; i--) {
+            nodes.add(this.graph.getNode(path.get(i)));
+        }
         logger.info("It took {} ms to generate the complete list of points.", (System.currentTimeMillis() - startTime));
-        return new DijkstraResult(path, distance, timeInSeconds);
+        return new DijkstraResult(nodes, distance, timeInSeconds);
     }
 
 
-    private boolean addNodesFromTargetToNextCrossing(List<Node> path, Node startCrossing, Node target) {
-        if (startCrossing.isCrossing() && !this.crossingStarts.containsKey((int) target.getId())) {
+    private boolean addNodesFromTargetToNextCrossing(TIntList path, int startCrossing, int target) {
+        if (this.graph.isCrossing(startCrossing) && !this.state.hasCrossingStart(target)) {
             return false;
         }
 
         // retrieve the first node of the way between the final target crossing to the target
-        Node startNode = null;
-        if (this.crossingStarts.containsKey((int) target.getId())) {
-            startNode = this.nodes[this.crossingStarts.get((int) target.getId())];
+        int startNode;
+        if (this.state.hasCrossingStart(target)) {
+            startNode = this.state.getCrossingStart(target);
             // don't use crossings in this case as they have > 1 neighbours to start with...
-            if (startNode.equals(startCrossing) || startNode.equals(target)) {
+            if (startNode == startCrossing || startNode == target) {
                 return false;
             }
         } else {
@@ -201,9 +313,9 @@ public class Dijkstra extends BaseDijkstra {
         boolean avoidAddingStartCrossing = false;
 
         // then get all nodes between them
-        List<Node> nodes = this.graph.getNodesOfSimpleWay(startNode, target);
+        TIntList nodes = this.graph.getNodesOfSimpleWay(startNode, target);
         // nodes are order from crossing to target, but path expects the nodes to be in the other direction
-        Collections.reverse(nodes);
+        nodes.reverse();
         path.addAll(nodes);
         // return finalTargetCrossing which our new starting point
         return avoidAddingStartCrossing;
@@ -2,22 +2,40 @@ package de.sebastianhesse.pbf.routing;
 
 import de.sebastianhesse.pbf.reader.Accessor;
 import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.QueueType;
 
 
 /**
- * Options for Dijkstra. Accepts different accessors and calculation modes.
+ * Options for Dijkstra. Accepts different accessors, calculation modes, priority queues and algorithms.
  * @see Accessor for accessor types
  * @see CalculationType for calculation mode
+ * @see QueueType for priority queues
+ * @see RoutingAlgorithm for algorithms
  */
 public class DijkstraOptions {
 
     private Accessor accessor;
     private CalculationType calculationType;
+    private QueueType queueType;
+    private RoutingAlgorithm algorithm;
 
 
     public DijkstraOptions(Accessor accessor, CalculationType calculationType) {
+        this(accessor, calculationType, QueueType.DARY_HEAP);
+    }
+
+
+    public DijkstraOptions(Accessor accessor, CalculationType calculationType, QueueType queueType) {
+        this(accessor, calculationType, queueType, RoutingAlgorithm.DIJKSTRA);
+    }
+
+
+    public DijkstraOptions(Accessor accessor, CalculationType calculationType, QueueType queueType,
+                           RoutingAlgorithm algorithm) {
         this.accessor = accessor;
         this.calculationType = calculationType;
+        this.queueType = queueType;
+        this.algorithm = algorithm;
     }
 
 
@@ -49,4 +67,14 @@ public class DijkstraOptions {
     public CalculationType getCalculationType() {
         return calculationType;
     }
+
+
+    public QueueType getQueueType() {
+        return queueType;
+    }
+
+
+    public RoutingAlgorithm getAlgorithm() {
+        return algorithm;
+    }
 }
@@ -0,0 +1,95 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.Landmarks;
+import de.sebastianhesse.pbf.storage.Node;
+
+
+/**
+ * A* search with the lower bounds of {@link Landmarks} (ALT): the weight from a node v to a target t is at least
+ * d(v, L) - d(t, L) and d(L, t) - d(L, v) for each landmark L. These bounds are usually much tighter than the straight
+ * distance of {@link AStar}, especially for the fastest way, so the search settles less nodes.
+ * <p>
+ * Like {@link AStar}, the search ends at the target or one of its next crossings. Thus the bounds are calculated for
+ * all of them at once: d(t, L) is replaced by its max. and d(L, t) by its min. over these nodes, so none of them has a
+ * lower bound above 0. Only head nodes have weights, the others are skipped since the search can't end there. The weights of the landmarks are rounded down, hence the subtracted weights are rounded up to
+ * the next float. The landmarks are calculated without traffic, so the bounds are still valid if traffic increases the
+ * costs of edges. The lower bound of each node is only calculated once per search and kept in the
+ * {@link SearchState}.
+ * <p>
+ * Needs the landmarks of the profile of the options, see {@link Graph#buildLandmarks(int)}.
+ */
+public class LandmarkAStar extends Dijkstra {
+
+    private final Landmarks landmarks;
+    // max. weight from the target and its next crossings to each landmark, rounded up
+    private final double[] maxWeightsToLandmarks;
+    // min. weight from each landmark to the target and its next crossings
+    private final double[] minWeightsFromLandmarks;
+
+
+    public LandmarkAStar(Graph graph, Node source, Node target, DijkstraOptions options) {
+        super(graph, source, target, options);
+        CostProfile profile = CostProfile.get(options.getAccessor(),
+                options.getCalculationType() == CalculationType.FASTEST);
+        this.landmarks = graph.getLandmarks(profile);
+        if (this.landmarks == null) {
+            throw new IllegalStateException("There are no landmarks for " + profile + ", set landmarks: 16.");
+        }
+
+        int count = this.landmarks.getCount();
+        this.maxWeightsToLandmarks = new double[count];
+        this.minWeightsFromLandmarks = new double[count];
+        for (int landmark = 0; landmark < count; landmark++) {
+            double maxWeightTo = 0;
+            double minWeightFrom = Double.POSITIVE_INFINITY;
+            boolean hasWeights = false;
+            for (int targetNode : getTargetNodes()) {
+                // only head nodes have weights, the search can't end at other nodes
+                if (this.landmarks.hasWeights(targetNode)) {
+                    hasWeights = true;
+                    maxWeightTo = Math.max(maxWeightTo, Math.nextUp(this.landmarks.getWeightToLandmark(landmark,
+                            targetNode)));
+                    minWeightFrom = Math.min(minWeightFrom, this.landmarks.getWeightFromLandmark(landmark,
+                            targetNode));
+                }
+            }
+            // infinite weights skip the bounds of the landmark
+            this.maxWeightsToLandmarks[landmark] = hasWeights ? maxWeightTo : Double.POSITIVE_INFINITY;
+            this.minWeightsFromLandmarks[landmark] = minWeightFrom;
+        }
+    }
+
+
+    @Override
+    protected double getPriority(int node, double weight) {
+        if (!this.state.hasLowerBound(node)) {
+            this.state.setLowerBound(node, getLowerBound(node));
+        }
+        return weight + this.state.getLowerBound(node);
+    }
+
+
+    /**
+     * @return the min. weight of a path from the node to the target or one of its next crossings
+     */
+    private double getLowerBound(int node) {
+        double lowerBound = 0;
+        for (int landmark = 0; landmark < this.maxWeightsToLandmarks.length; landmark++) {
+            // a bound is skipped if one of its weights is infinite, since the difference is not defined then
+            float weightTo = this.landmarks.getWeightToLandmark(landmark, node);
+            if (weightTo != Float.POSITIVE_INFINITY &&
+                    this.maxWeightsToLandmarks[landmark] != Double.POSITIVE_INFINITY) {
+                lowerBound = Math.max(lowerBound, weightTo - this.maxWeightsToLandmarks[landmark]);
+            }
+            float weightFrom = this.landmarks.getWeightFromLandmark(landmark, node);
+            if (weightFrom != Float.POSITIVE_INFINITY &&
+                    this.minWeightsFromLandmarks[landmark] != Double.POSITIVE_INFINITY) {
+                lowerBound = Math.max(lowerBound, this.minWeightsFromLandmarks[landmark] - Math.nextUp(weightFrom));
+            }
+        }
+        return lowerBound;
+    }
+}
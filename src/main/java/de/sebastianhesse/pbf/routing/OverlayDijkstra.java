@@ -0,0 +1,179 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.calculators.CalculationType;
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.MultilevelPartition;
+import de.sebastianhesse.pbf.storage.Node;
+import de.sebastianhesse.pbf.storage.OverlayMetric;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Query of an {@link OverlayMetric} (multilevel Dijkstra): the search moves over the edges of the cells which contain
+ * the source or the target, but passes all other cells by their cliques. The query level of a node is the highest
+ * level on which its cell contains neither the source nor the target nor one of its next crossings. A node with a
+ * query level above 0 is left by the clique of its cell on this level, if it's an entry, and by the edges which leave
+ * this cell. Thus the search settles far less nodes than {@link Dijkstra}, while the overlay can be customized in
+ * seconds when the traffic changes, unlike a contraction hierarchy.
+ * <p>
+ * Afterwards the clique arcs of the path are unpacked into edges and the path of edges is written into the search
+ * state like {@link Dijkstra} does, so the result contains the same nodes, distance and time.
+ * <p>
+ * Needs the overlay of the profile of the options, see {@link Graph#buildPartition()}.
+ */
+public class OverlayDijkstra extends Dijkstra {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverlayDijkstra.class);
+
+    private int targetId;
+    private OverlayMetric metric;
+    private MultilevelPartition partition;
+    private EdgeIterator edgeIterator;
+
+
+    public OverlayDijkstra(Graph graph, Node source, Node target, DijkstraOptions options) {
+        super(graph, source, target, options);
+        this.targetId = (int) target.getId();
+        CostProfile profile = CostProfile.get(options.getAccessor(),
+                options.getCalculationType() == CalculationType.FASTEST);
+        this.metric = graph.getOverlayMetric(profile);
+        if (this.metric == null) {
+            throw new IllegalStateException("There's no overlay for " + profile +
+                    ", set customizableRoutePlanning: true.");
+        }
+        this.partition = this.metric.getPartition();
+        this.edgeIterator = graph.createEdgeIterator();
+    }
+
+
+    @Override
+    protected boolean search() {
+        int sourceId = (int) this.source.getId();
+        NodeQueue unsettled = this.state.getQueue(this.options.getQueueType());
+        unsettled.push(sourceId, 0d);
+        this.state.setReached(sourceId, 0, -1, 0, 0);
+
+        if (!mayReachTarget()) {
+            logger.info("Target is not connected to the source.");
+            return false;
+        }
+
+        int[] targetNodes = getTargetNodes();
+        int finalNode = -1;
+        while (!unsettled.isEmpty()) {
+            int node = unsettled.poll();
+            if (this.state.isSettled(node)) {
+                continue;
+            }
+            if (isTargetNode(node, targetNodes)) {
+                finalNode = node;
+                break;
+            }
+            this.state.setSettled(node);
+            this.settledNodes++;
+            double weight = this.state.getWeight(node);
+
+            int queryLevel = getQueryLevel(node, targetNodes);
+            if (queryLevel > 0) {
+                int cell = this.partition.getCell(queryLevel, node);
+                int entry = this.partition.getEntryIndex(queryLevel, cell, node);
+                if (entry > -1) {
+                    int exits = this.partition.getExitCount(queryLevel, cell);
+                    for (int exit = 0; exit < exits; exit++) {
+                        float cliqueWeight = this.metric.getCliqueWeight(queryLevel, cell, entry, exit);
+                        if (cliqueWeight != Float.POSITIVE_INFINITY) {
+                            reach(unsettled, this.partition.getExit(queryLevel, cell, exit), weight + cliqueWeight,
+                                    node);
+                        }
+                    }
+                }
+            }
+
+            EdgeIterator edges = this.edgeIterator.setBaseNode(node);
+            while (edges.next()) {
+                int nextCrossing = edges.getNextCrossing();
+                int head = nextCrossing > -1 ? nextCrossing : edges.getTarget();
+                // edges inside the cell of the query level are part of its clique
+                if (this.partition.getHighestDifferentLevel(node, head) < queryLevel) {
+                    continue;
+                }
+                float cost = this.metric.getCost(edges.getEdge());
+                if (cost != Float.POSITIVE_INFINITY) {
+                    reach(unsettled, head, weight + cost, node);
+                }
+            }
+        }
+
+        if (finalNode == -1) {
+            return false;
+        }
+        // the path ends at the target or one of its next crossings
+        this.finalTargetCrossing = finalNode == this.targetId ? -1 : finalNode;
+        return unpackPath(finalNode, targetNodes);
+    }
+
+
+    private static boolean isTargetNode(int node, int[] targetNodes) {
+        for (int targetNode : targetNodes) {
+            if (node == targetNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void reach(NodeQueue unsettled, int node, double weight, int predecessor) {
+        if (!this.state.isSettled(node) && weight < this.state.getWeight(node)) {
+            this.state.setReached(node, weight, predecessor, 0, 0);
+            unsettled.push(node, weight);
+        }
+    }
+
+
+    /**
+     * @return the highest level on which the cell of the node contains neither the source nor one of the target nodes
+     */
+    private int getQueryLevel(int node, int[] targetNodes) {
+        int queryLevel = this.partition.getHighestDifferentLevel((int) this.source.getId(), node);
+        for (int targetNode : targetNodes) {
+            queryLevel = Math.min(queryLevel, this.partition.getHighestDifferentLevel(targetNode, node));
+        }
+        return queryLevel;
+    }
+
+
+    /**
+     * Unpacks the clique arcs and edges from the source to the final node into edges and writes them into the state.
+     *
+     * @return false if a clique arc can't be unpacked
+     */
+    private boolean unpackPath(int finalNode, int[] targetNodes) {
+        TIntArrayList path = new TIntArrayList();
+        for (int node = finalNode; node != -1; node = this.state.getPredecessor(node)) {
+            path.add(node);
+        }
+        path.reverse();
+
+        TIntArrayList edgeSources = new TIntArrayList();
+        TIntArrayList edges = new TIntArrayList();
+        for (int i = 1; i < path.size(); i++) {
+            int previous = path.get(i - 1);
+            int node = path.get(i);
+            // the node has been reached by a clique arc if it's in the same cell as its predecessor on the query level
+            int queryLevel = getQueryLevel(previous, targetNodes);
+            boolean isClique = queryLevel > 0 && this.partition.getHighestDifferentLevel(previous, node) < queryLevel;
+            if (!this.metric.unpack(previous, node, isClique ? queryLevel : 0, edgeSources, edges)) {
+                logger.warn("Can't unpack the path from {} to {}.", previous, node);
+                return false;
+            }
+        }
+        writePath(edgeSources, edges);
+        return true;
+    }
+}
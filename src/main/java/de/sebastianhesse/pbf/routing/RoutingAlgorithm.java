@@ -0,0 +1,72 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.Node;
+
+
+/**
+ * The algorithms which can be used to find the shortest path. All of them find paths of the same weight.
+ */
+public enum RoutingAlgorithm {
+
+    /**
+     * plain Dijkstra, see {@link Dijkstra}
+     */
+    DIJKSTRA {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new Dijkstra(graph, source, target, options);
+        }
+    },
+    /**
+     * Dijkstra directed by the straight distance to the target, see {@link AStar}
+     */
+    ASTAR {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new AStar(graph, source, target, options);
+        }
+    },
+    /**
+     * Dijkstra directed by the lower bounds of precomputed landmarks, see {@link LandmarkAStar}
+     */
+    ALT {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new LandmarkAStar(graph, source, target, options);
+        }
+    },
+    /**
+     * Dijkstra from the source and backwards from the target at the same time, see {@link BidirectionalDijkstra}
+     */
+    BIDIRECTIONAL {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new BidirectionalDijkstra(graph, source, target, options);
+        }
+    },
+    /**
+     * query of a precomputed contraction hierarchy, see {@link ContractionHierarchyDijkstra}
+     */
+    CH {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new ContractionHierarchyDijkstra(graph, source, target, options);
+        }
+    },
+    /**
+     * multilevel Dijkstra on the customized overlay of a partition, see {@link OverlayDijkstra}
+     */
+    CRP {
+        @Override
+        public Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options) {
+            return new OverlayDijkstra(graph, source, target, options);
+        }
+    };
+
+
+    /**
+     * @return a new search from source to target, run it and retrieve the path afterwards
+     */
+    public abstract Dijkstra create(Graph graph, Node source, Node target, DijkstraOptions options);
+}
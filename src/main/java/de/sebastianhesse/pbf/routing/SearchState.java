@@ -0,0 +1,210 @@
+package de.sebastianhesse.pbf.routing;
+
+import de.sebastianhesse.pbf.routing.queues.NodeQueue;
+import de.sebastianhesse.pbf.routing.queues.QueueType;
+
+import java.util.Arrays;
+
+
+/**
+ * The state of a Dijkstra search in flat arrays indexed by node id: weight, predecessor, distance and time of each
+ * reached node, the settled nodes, the start node of shortcuts to a crossing, the lower bound of the remaining weight
+ * of each node for directed searches and the priority queue.
+ * <p>
+ * Instead of clearing all arrays, a state is reset in constant time by a new generation: each node has a stamp which
+ * contains the generation in which the node has been touched last and flags for the values set in this generation.
+ * Values of an older generation are treated as not set. The arrays are only cleared if the generation overflows.
+ * <p>
+ * A state is not thread safe. It's leased from a {@link SearchStatePool} for one search, so it's reused by the
+ * following searches and the arrays don't need to be allocated per request.
+ */
+public class SearchState {
+
+    private static final int REACHED = 1;
+    private static final int SETTLED = 1 << 1;
+    private static final int CROSSING_START = 1 << 2;
+    private static final int LOWER_BOUND = 1 << 3;
+    // the lower bits of a stamp are the flags, the others the generation
+    private static final int GENERATION_STEP = 1 << 4;
+    private static final int FLAGS = GENERATION_STEP - 1;
+
+    private final int nodes;
+    private final int[] stamps;
+    private final double[] weights;
+    private final int[] predecessors;
+    private final double[] distances;
+    private final double[] distanceTimes;
+    private final int[] crossingStarts;
+    private final double[] lowerBounds;
+    // created on demand, indexed by the ordinal of the queue type
+    private final NodeQueue[] queues = new NodeQueue[QueueType.values().length];
+    private int generation = GENERATION_STEP;
+
+
+    /**
+     * @param nodes number of nodes of the graph, all node ids must be smaller
+     */
+    public SearchState(int nodes) {
+        this.nodes = nodes;
+        this.stamps = new int[nodes];
+        this.weights = new double[nodes];
+        this.predecessors = new int[nodes];
+        this.distances = new double[nodes];
+        this.distanceTimes = new double[nodes];
+        this.crossingStarts = new int[nodes];
+        this.lowerBounds = new double[nodes];
+    }
+
+
+    public int getNodes() {
+        return this.nodes;
+    }
+
+
+    /**
+     * Forgets all values of the last search, so the state can be used by the next search.
+     */
+    public void reset() {
+        if (this.generation > Integer.MAX_VALUE - GENERATION_STEP) {
+            Arrays.fill(this.stamps, 0);
+            this.generation = 0;
+        }
+        this.generation += GENERATION_STEP;
+        for (NodeQueue queue : this.queues) {
+            if (queue != null) {
+                queue.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @param type type of the queue
+     * @return the queue of this state, it's empty after {@link #reset()}
+     */
+    public NodeQueue getQueue(QueueType type) {
+        NodeQueue queue = this.queues[type.ordinal()];
+        if (queue == null) {
+            queue = type.create(this.nodes);
+            this.queues[type.ordinal()] = queue;
+        }
+        return queue;
+    }
+
+
+    /**
+     * @return true if a weight has been set for the node in this search
+     */
+    public boolean isReached(int node) {
+        return hasFlag(node, REACHED);
+    }
+
+
+    /**
+     * Sets the values of a node which has been reached with a lower weight than before.
+     */
+    public void setReached(int node, double weight, int predecessor, double distance, double distanceTime) {
+        this.weights[node] = weight;
+        this.predecessors[node] = predecessor;
+        this.distances[node] = distance;
+        this.distanceTimes[node] = distanceTime;
+        setFlag(node, REACHED);
+    }
+
+
+    /**
+     * @return the weight of the node or {@link Double#MAX_VALUE} if the node has not been reached yet
+     */
+    public double getWeight(int node) {
+        return isReached(node) ? this.weights[node] : Double.MAX_VALUE;
+    }
+
+
+    /**
+     * @return the predecessor of the node, -1 for the source or if the node has not been reached yet
+     */
+    public int getPredecessor(int node) {
+        return isReached(node) ? this.predecessors[node] : -1;
+    }
+
+
+    /**
+     * @return the distance of the edge to the node in meters, 0 if the node has not been reached yet
+     */
+    public double getDistance(int node) {
+        return isReached(node) ? this.distances[node] : 0;
+    }
+
+
+    /**
+     * @return the time to travel the edge to the node in seconds, 0 if the node has not been reached yet
+     */
+    public double getDistanceTime(int node) {
+        return isReached(node) ? this.distanceTimes[node] : 0;
+    }
+
+
+    public boolean isSettled(int node) {
+        return hasFlag(node, SETTLED);
+    }
+
+
+    public void setSettled(int node) {
+        setFlag(node, SETTLED);
+    }
+
+
+    /**
+     * @return true if the node has been reached by a shortcut to a crossing
+     */
+    public boolean hasCrossingStart(int node) {
+        return hasFlag(node, CROSSING_START);
+    }
+
+
+    /**
+     * @return the first node after the start of the shortcut to the node, only valid if
+     * {@link #hasCrossingStart(int)} is true
+     */
+    public int getCrossingStart(int node) {
+        return this.crossingStarts[node];
+    }
+
+
+    public void setCrossingStart(int node, int start) {
+        this.crossingStarts[node] = start;
+        setFlag(node, CROSSING_START);
+    }
+
+
+    public boolean hasLowerBound(int node) {
+        return hasFlag(node, LOWER_BOUND);
+    }
+
+
+    /**
+     * @return the lower bound of the weight from the node to the target, only valid if {@link #hasLowerBound(int)}
+     * is true
+     */
+    public double getLowerBound(int node) {
+        return this.lowerBounds[node];
+    }
+
+
+    public void setLowerBound(int node, double lowerBound) {
+        this.lowerBounds[node] = lowerBound;
+        setFlag(node, LOWER_BOUND);
+    }
+
+
+    private boolean hasFlag(int node, int flag) {
+        int stamp = this.stamps[node];
+        return (stamp & ~FLAGS) == this.generation && (stamp & flag) != 0;
+    }
+
+
+    private void setFlag(int node, int flag) {
+        int stamp = this.stamps[node];
+        this.stamps[node] = (stamp & ~FLAGS) == this.generation ? stamp | flag : this.generation | flag;
+    }
+}
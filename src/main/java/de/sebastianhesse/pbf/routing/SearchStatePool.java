@@ -0,0 +1,79 @@
+package de.sebastianhesse.pbf.routing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * A bounded pool of {@link SearchState}s. A search acquires a state when it starts and releases it when it's
+ * finished, so concurrent searches use different states and the arrays of a state are reused by the next search
+ * instead of being allocated per request. At most {@link #getCapacity()} idle states are kept, further states are
+ * left to the garbage collector. If all states are in use, a new one is created, so a search never waits for a state.
+ */
+public final class SearchStatePool {
+
+    private static final Deque<SearchState> states = new ArrayDeque<>();
+    private static int capacity = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+
+    private SearchStatePool() {
+    }
+
+
+    /**
+     * @param nodes number of nodes of the graph to search
+     * @return a reset state for the graph, either from the pool or a new one
+     */
+    public static SearchState acquire(int nodes) {
+        SearchState state = null;
+        synchronized (states) {
+            while (!states.isEmpty() && state == null) {
+                SearchState candidate = states.pop();
+                // states of another graph, e.g. before the graph has been reloaded, are dropped
+                if (candidate.getNodes() == nodes) {
+                    state = candidate;
+                }
+            }
+        }
+        if (state == null) {
+            return new SearchState(nodes);
+        }
+        state.reset();
+        return state;
+    }
+
+
+    /**
+     * Returns the state to the pool. It must not be used after releasing it.
+     */
+    public static void release(SearchState state) {
+        synchronized (states) {
+            if (states.size() < capacity) {
+                states.push(state);
+            }
+        }
+    }
+
+
+    public static int getCapacity() {
+        synchronized (states) {
+            return capacity;
+        }
+    }
+
+
+    /**
+     * @param newCapacity maximum number of idle states to keep, usually the number of concurrent searches
+     */
+    public static void setCapacity(int newCapacity) {
+        if (newCapacity < 0) {
+            throw new IllegalArgumentException("The capacity must not be negative, but was " + newCapacity + ".");
+        }
+        synchronized (states) {
+            capacity = newCapacity;
+            while (states.size() > capacity) {
+                states.pop();
+            }
+        }
+    }
+}
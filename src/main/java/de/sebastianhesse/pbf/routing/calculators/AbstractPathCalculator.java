@@ -1,60 +1,54 @@
 package de.sebastianhesse.pbf.routing.calculators;
 
-import de.sebastianhesse.pbf.routing.accessors.WayAccessor;
-import de.sebastianhesse.pbf.storage.Edge;
-import de.sebastianhesse.pbf.storage.Node;
-import gnu.trove.map.TIntDoubleMap;
-
-import java.util.Optional;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.EdgeCosts;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
+import de.sebastianhesse.pbf.storage.Graph;
 
 
 /**
- * Abstract class for {@link PathCalculator}s providing basic functionality.
+ * Abstract class for {@link PathCalculator}s providing basic functionality. The weights of the edges are read from
+ * the {@link EdgeCosts} of the graph for the profile of the calculator.
  */
 public abstract class AbstractPathCalculator implements PathCalculator {
 
-    private TIntDoubleMap distances;
-    private WayAccessor wayAccessor;
+    protected Graph graph;
+    private CostProfile profile;
+    private EdgeCosts edgeCosts;
+    // the last calculated edge
+    private EdgeIterator edge;
 
 
-    public AbstractPathCalculator(TIntDoubleMap distances, WayAccessor wayAccessor) {
-        this.distances = distances;
-        this.wayAccessor = wayAccessor;
+    public AbstractPathCalculator(Graph graph, CostProfile profile) {
+        this.graph = graph;
+        this.profile = profile;
+        this.edgeCosts = graph.getEdgeCosts();
     }
 
 
-    protected double getExistingWeight(int nodeId) {
-        if (distances.containsKey(nodeId)) {
-            return distances.get(nodeId);
-        } else {
-            return Double.MAX_VALUE;
+    @Override
+    public double calculateWeightToNeighbour(int node, double nodeWeight, EdgeIterator edge, int crossingNode) {
+        float cost = this.edgeCosts.getCost(this.profile, edge.getEdge());
+        // the edge can't be accessed or it's closed
+        if (cost == Float.POSITIVE_INFINITY) {
+            return Double.NaN;
         }
+        this.edge = edge;
+        return nodeWeight + cost;
     }
 
 
+    /**
+     * @return the length of the last calculated edge resp. the distance to its crossing node in meters
+     */
     @Override
-    public Optional<CalculationResult> calculateCostsToNeighbour(Node node, Edge edge, Node crossingNode) {
-        // just allow this way if the edge can be accessed and it's not closed
-        if (wayAccessor.canAccessWay(edge) && edge.getAdditionalWeight() < 1.0) {
-            return checkNeighbourAndCosts(node, edge, crossingNode);
-        } else {
-            return Optional.empty();
-        }
+    public double getDistance() {
+        return this.edgeCosts.getLength(this.edge.getEdge());
     }
 
 
-    protected abstract Optional<CalculationResult> checkNeighbourAndCosts(Node node, Edge edge, Node crossingNode);
-
-
-    /**
-     * @param edge current edge to check
-     * @return the edge speed (or the max. speed of the way accessor) in meter per seconds
-     */
-    protected double getSpeedInMeterPerSeconds(Edge edge) {
-        short speed = edge.getSpeed();
-        if (speed > wayAccessor.getMaxSpeed()) {
-            speed = wayAccessor.getMaxSpeed();
-        }
-        return speed / 3.6;
+    @Override
+    public double getDistanceTime() {
+        return getDistance() / EdgeCosts.getSpeedInMeterPerSeconds(this.profile.getAccessor(), this.edge);
     }
 }
@@ -1,12 +1,8 @@
 package de.sebastianhesse.pbf.routing.calculators;
 
-import de.sebastianhesse.pbf.routing.accessors.WayAccessor;
-import de.sebastianhesse.pbf.storage.Edge;
-import de.sebastianhesse.pbf.storage.Node;
-import de.sebastianhesse.pbf.util.GraphUtil;
-import gnu.trove.map.TIntDoubleMap;
-
-import java.util.Optional;
+import de.sebastianhesse.pbf.reader.Accessor;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
 
 
 /**
@@ -15,23 +11,7 @@ import java.util.Optional;
 public class FastestPathCalculator extends AbstractPathCalculator {
 
 
-    public FastestPathCalculator(TIntDoubleMap distances, WayAccessor wayAccessor) {
-        super(distances, wayAccessor);
-    }
-
-
-    @Override
-    public Optional<CalculationResult> checkNeighbourAndCosts(Node node, Edge edge, Node crossingNode) {
-        if (getSpeedInMeterPerSeconds(edge) > 0) {
-            int targetNodeId = crossingNode == null ? edge.getTargetNode() : (int) crossingNode.getId();
-            double distance = crossingNode == null ? edge.getDistance() : GraphUtil.getDistance(node, crossingNode);
-            double distanceTime = distance / getSpeedInMeterPerSeconds(edge);
-            double weightToNeighbour = getExistingWeight((int) node.getId()) + distanceTime;
-            weightToNeighbour += 10 * weightToNeighbour * edge.getAdditionalWeight();
-            if (getExistingWeight(targetNodeId) > weightToNeighbour) {
-                return Optional.of(new CalculationResult(targetNodeId, weightToNeighbour, distance, distanceTime));
-            }
-        }
-        return Optional.empty();
+    public FastestPathCalculator(Graph graph, Accessor accessor) {
+        super(graph, CostProfile.get(accessor, true));
     }
 }
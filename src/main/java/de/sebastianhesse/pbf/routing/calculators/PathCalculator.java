@@ -1,24 +1,38 @@
 package de.sebastianhesse.pbf.routing.calculators;
 
-import de.sebastianhesse.pbf.storage.Edge;
-import de.sebastianhesse.pbf.storage.Node;
-
-import java.util.Optional;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
 
 
 /**
  * A calculator to process a strategy to check and compare the weight of a way. A strategy might be to find the
  * shortest or the fastest way (maybe depending on the vehicle as well).
+ * <p>
+ * The weights are returned as primitives and the distance and time of the last calculated edge are kept in the
+ * calculator, so relaxing an edge doesn't create any objects. Thus a calculator must only be used by one search.
  */
 public interface PathCalculator {
 
     /**
-     * Checks the costs to reach the neighbour {@link Edge#getTargetNode()} from {@code node}. If costs are below
-     * existing costs to {@link Edge#getTargetNode()}, the return value contains a {@link CalculationResult}.
+     * Calculates the weight to reach the neighbour {@link EdgeIterator#getTarget()} (or the crossing node) from
+     * {@code node}. Afterwards {@link #getDistance()} and {@link #getDistanceTime()} return the values of this edge.
      *
-     * @param node current visited node in Dijkstra
-     * @param edge edge from node to a neighbour
-     * @return maybe a {@link CalculationResult} if costs from {@code node} to neighbour are lower than existing costs
+     * @param node         id of the current visited node in Dijkstra
+     * @param nodeWeight   weight to reach {@code node}
+     * @param edge         iterator pointing to the edge from node to a neighbour
+     * @param crossingNode id of the next crossing if the edge is used as a shortcut, otherwise -1
+     * @return the weight to reach the neighbour via {@code node} or {@link Double#NaN} if the edge can't be used
+     */
+    double calculateWeightToNeighbour(int node, double nodeWeight, EdgeIterator edge, int crossingNode);
+
+
+    /**
+     * @return the distance of the last calculated edge in meters
+     */
+    double getDistance();
+
+
+    /**
+     * @return the time to travel the last calculated edge in seconds
      */
-    Optional<CalculationResult> calculateCostsToNeighbour(Node node, Edge edge, Node crossingNode);
+    double getDistanceTime();
 }
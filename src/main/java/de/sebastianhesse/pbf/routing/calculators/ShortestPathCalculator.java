@@ -1,12 +1,8 @@
 package de.sebastianhesse.pbf.routing.calculators;
 
-import de.sebastianhesse.pbf.routing.accessors.WayAccessor;
-import de.sebastianhesse.pbf.storage.Edge;
-import de.sebastianhesse.pbf.storage.Node;
-import de.sebastianhesse.pbf.util.GraphUtil;
-import gnu.trove.map.TIntDoubleMap;
-
-import java.util.Optional;
+import de.sebastianhesse.pbf.reader.Accessor;
+import de.sebastianhesse.pbf.storage.CostProfile;
+import de.sebastianhesse.pbf.storage.Graph;
 
 
 /**
@@ -14,21 +10,7 @@ import java.util.Optional;
  */
 public class ShortestPathCalculator extends AbstractPathCalculator {
 
-    public ShortestPathCalculator(TIntDoubleMap distances, WayAccessor wayAccessor) {
-        super(distances, wayAccessor);
-    }
-
-
-    @Override
-    public Optional<CalculationResult> checkNeighbourAndCosts(Node node, Edge edge, Node crossingNode) {
-        int targetNodeId = crossingNode == null ? edge.getTargetNode() : (int) crossingNode.getId();
-        // if we're using a shortcut, we have to calc the distance on the fly
-        double distance = crossingNode == null ? edge.getDistance() : GraphUtil.getDistance(node, crossingNode);
-        double calcDistanceToNeighbour = getExistingWeight((int) node.getId()) + distance;
-        if (getExistingWeight(targetNodeId) > calcDistanceToNeighbour) {
-            return Optional.of(new CalculationResult(targetNodeId, calcDistanceToNeighbour, distance,
-                    distance / getSpeedInMeterPerSeconds(edge)));
-        }
-        return Optional.empty();
+    public ShortestPathCalculator(Graph graph, Accessor accessor) {
+        super(graph, CostProfile.get(accessor, false));
     }
 }
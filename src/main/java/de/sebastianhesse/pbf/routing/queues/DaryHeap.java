@@ -0,0 +1,164 @@
+package de.sebastianhesse.pbf.routing.queues;
+
+import java.util.Arrays;
+
+
+/**
+ * An indexed d-ary min heap of node ids with real decrease-key. The heap is stored in two parallel arrays of nodes
+ * and weights, the children of index i are at {@code d * i + 1} to {@code d * i + d}. Another array stores the index
+ * of each node in the heap, so a node can be found and moved up if its weight decreases.
+ * <p>
+ * A 4-ary heap is flatter than a binary heap, so it needs fewer cache misses for the many pushes of a Dijkstra search,
+ * while polling only compares a few more children which are next to each other in memory.
+ */
+public class DaryHeap implements NodeQueue {
+
+    public static final int DEFAULT_ARITY = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int arity;
+    // index of each node in the heap, -1 if the node is not contained; indexed by node id
+    private final int[] positions;
+    private int[] nodes;
+    private double[] weights;
+    private int size = 0;
+
+
+    /**
+     * @param maxNodes number of nodes of the graph, all node ids must be smaller
+     */
+    public DaryHeap(int maxNodes) {
+        this(maxNodes, DEFAULT_ARITY);
+    }
+
+
+    /**
+     * @param maxNodes number of nodes of the graph, all node ids must be smaller
+     * @param arity    number of children of each entry
+     */
+    public DaryHeap(int maxNodes, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("A heap needs at least two children per entry, but was " + arity + ".");
+        }
+        this.arity = arity;
+        this.positions = new int[maxNodes];
+        Arrays.fill(this.positions, -1);
+        int capacity = Math.max(1, Math.min(maxNodes, INITIAL_CAPACITY));
+        this.nodes = new int[capacity];
+        this.weights = new double[capacity];
+    }
+
+
+    @Override
+    public void push(int node, double weight) {
+        int position = this.positions[node];
+        if (position == -1) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+                this.weights = Arrays.copyOf(this.weights, this.size * 2);
+            }
+            siftUp(this.size++, node, weight);
+        } else if (weight < this.weights[position]) {
+            siftUp(position, node, weight);
+        }
+    }
+
+
+    @Override
+    public int poll() {
+        if (this.size == 0) {
+            throw new IllegalStateException("Can't poll a node from an empty queue.");
+        }
+        int min = this.nodes[0];
+        this.positions[min] = -1;
+        if (--this.size > 0) {
+            siftDown(0, this.nodes[this.size], this.weights[this.size]);
+        }
+        return min;
+    }
+
+
+    @Override
+    public double peekWeight() {
+        if (this.size == 0) {
+            throw new IllegalStateException("Can't peek into an empty queue.");
+        }
+        return this.weights[0];
+    }
+
+
+    @Override
+    public boolean contains(int node) {
+        return this.positions[node] != -1;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+
+    @Override
+    public void clear() {
+        // only the contained nodes must be reset, this is cheaper than filling all positions
+        for (int i = 0; i < this.size; i++) {
+            this.positions[this.nodes[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+
+    /**
+     * Moves the node from the index towards the root until its parent has a lower weight.
+     */
+    private void siftUp(int index, int node, double weight) {
+        while (index > 0) {
+            int parent = (index - 1) / this.arity;
+            if (this.weights[parent] <= weight) {
+                break;
+            }
+            set(index, this.nodes[parent], this.weights[parent]);
+            index = parent;
+        }
+        set(index, node, weight);
+    }
+
+
+    /**
+     * Moves the node from the index towards the leaves until all children have a higher weight.
+     */
+    private void siftDown(int index, int node, double weight) {
+        while (true) {
+            int firstChild = index * this.arity + 1;
+            if (firstChild >= this.size) {
+                break;
+            }
+            int minChild = firstChild;
+            for (int child = firstChild + 1, end = Math.min(firstChild + this.arity, this.size); child < end; child++) {
+                if (this.weights[child] < this.weights[minChild]) {
+                    minChild = child;
+                }
+            }
+            if (this.weights[minChild] >= weight) {
+                break;
+            }
+            set(index, this.nodes[minChild], this.weights[minChild]);
+            index = minChild;
+        }
+        set(index, node, weight);
+    }
+
+
+    private void set(int index, int node, double weight) {
+        this.nodes[index] = node;
+        this.weights[index] = weight;
+        this.positions[node] = index;
+    }
+}
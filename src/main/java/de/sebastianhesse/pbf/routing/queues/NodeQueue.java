@@ -0,0 +1,49 @@
+package de.sebastianhesse.pbf.routing.queues;
+
+/**
+ * A priority queue of node ids ordered by a weight, e.g. the distance from the source of a Dijkstra search.
+ * A node is contained at most once: pushing it again with a lower weight decreases its weight instead of adding a
+ * second entry. Implementations work on primitive arrays, so they don't create objects per operation.
+ *
+ * @see QueueType for the available implementations
+ */
+public interface NodeQueue {
+
+    /**
+     * Adds a node or decreases its weight if it's contained already. A higher weight than the existing one is ignored.
+     *
+     * @param node   id of the node
+     * @param weight weight of the node, must not be negative
+     */
+    void push(int node, double weight);
+
+
+    /**
+     * Removes the node with the lowest weight.
+     *
+     * @return id of the removed node
+     * @throws IllegalStateException if the queue is empty
+     */
+    int poll();
+
+
+    /**
+     * @return the lowest weight of all nodes, the queue must not be empty
+     */
+    double peekWeight();
+
+
+    boolean contains(int node);
+
+
+    boolean isEmpty();
+
+
+    int size();
+
+
+    /**
+     * Removes all nodes, so the queue can be reused by another search.
+     */
+    void clear();
+}
@@ -0,0 +1,33 @@
+package de.sebastianhesse.pbf.routing.queues;
+
+/**
+ * The {@link NodeQueue} implementations which can be used by a Dijkstra search.
+ */
+public enum QueueType {
+
+    /**
+     * indexed 4-ary heap, see {@link DaryHeap}
+     */
+    DARY_HEAP {
+        @Override
+        public NodeQueue create(int maxNodes) {
+            return new DaryHeap(maxNodes);
+        }
+    },
+    /**
+     * radix heap with weights quantized to 1/1000, see {@link RadixHeap}
+     */
+    RADIX_HEAP {
+        @Override
+        public NodeQueue create(int maxNodes) {
+            return new RadixHeap(maxNodes);
+        }
+    };
+
+
+    /**
+     * @param maxNodes number of nodes of the graph, all node ids must be smaller
+     * @return a new, empty queue
+     */
+    public abstract NodeQueue create(int maxNodes);
+}
@@ -0,0 +1,193 @@
+package de.sebastianhesse.pbf.routing.queues;
+
+import java.util.Arrays;
+
+
+/**
+ * A radix heap of node ids for monotone searches like Dijkstra, i.e. a pushed weight must not be lower than the
+ * weight of the last polled node. Weights are quantized to integer keys with a fixed resolution, e.g. a resolution of
+ * 1000 orders meters by millimeters. Nodes with the same key are polled in no particular order.
+ * <p>
+ * Bucket 0 contains the nodes whose key equals the last polled key, bucket i > 0 the nodes whose key differs from it
+ * in bit i - 1 at the highest. If bucket 0 is empty, the first non-empty bucket is redistributed into the lower
+ * buckets, so each node moves at most 64 times. The buckets are doubly linked lists in arrays indexed by node id,
+ * hence pushing, decreasing a key and polling don't create any objects.
+ */
+public class RadixHeap implements NodeQueue {
+
+    public static final double DEFAULT_RESOLUTION = 1000;
+    private static final int BUCKETS = Long.SIZE + 1;
+    private static final int NONE = -1;
+
+    private final double resolution;
+    // linked lists of the buckets, indexed by node id; NONE marks the end of a list resp. a node not contained
+    private final int[] next;
+    private final int[] previous;
+    private final byte[] buckets;
+    private final long[] keys;
+    private final int[] firstNodes = new int[BUCKETS];
+    private long lastKey = 0;
+    private int size = 0;
+
+
+    /**
+     * @param maxNodes number of nodes of the graph, all node ids must be smaller
+     */
+    public RadixHeap(int maxNodes) {
+        this(maxNodes, DEFAULT_RESOLUTION);
+    }
+
+
+    /**
+     * @param maxNodes   number of nodes of the graph, all node ids must be smaller
+     * @param resolution number of keys per unit of the weight
+     */
+    public RadixHeap(int maxNodes, double resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("The resolution must be positive, but was " + resolution + ".");
+        }
+        this.resolution = resolution;
+        this.next = new int[maxNodes];
+        this.previous = new int[maxNodes];
+        this.buckets = new byte[maxNodes];
+        this.keys = new long[maxNodes];
+        Arrays.fill(this.buckets, (byte) NONE);
+        Arrays.fill(this.firstNodes, NONE);
+    }
+
+
+    @Override
+    public void push(int node, double weight) {
+        long key = Math.round(weight * this.resolution);
+        if (key < this.lastKey) {
+            throw new IllegalArgumentException("The weight " + weight + " of node " + node +
+                    " is lower than the weight of the last polled node.");
+        }
+        if (this.buckets[node] != NONE) {
+            if (key >= this.keys[node]) {
+                return;
+            }
+            unlink(node);
+            this.size--;
+        }
+        this.keys[node] = key;
+        link(node, getBucket(key));
+        this.size++;
+    }
+
+
+    @Override
+    public int poll() {
+        if (this.size == 0) {
+            throw new IllegalStateException("Can't poll a node from an empty queue.");
+        }
+        fillFirstBucket();
+        int node = this.firstNodes[0];
+        unlink(node);
+        this.size--;
+        return node;
+    }
+
+
+    @Override
+    public double peekWeight() {
+        if (this.size == 0) {
+            throw new IllegalStateException("Can't peek into an empty queue.");
+        }
+        fillFirstBucket();
+        return this.lastKey / this.resolution;
+    }
+
+
+    @Override
+    public boolean contains(int node) {
+        return this.buckets[node] != NONE;
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+
+    @Override
+    public void clear() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            for (int node = this.firstNodes[bucket]; node != NONE; node = this.next[node]) {
+                this.buckets[node] = NONE;
+            }
+            this.firstNodes[bucket] = NONE;
+        }
+        this.lastKey = 0;
+        this.size = 0;
+    }
+
+
+    /**
+     * Makes sure that bucket 0 contains the nodes with the lowest key, the queue must not be empty.
+     */
+    private void fillFirstBucket() {
+        if (this.firstNodes[0] != NONE) {
+            return;
+        }
+        int bucket = 1;
+        while (this.firstNodes[bucket] == NONE) {
+            bucket++;
+        }
+
+        long minKey = Long.MAX_VALUE;
+        for (int node = this.firstNodes[bucket]; node != NONE; node = this.next[node]) {
+            minKey = Math.min(minKey, this.keys[node]);
+        }
+        this.lastKey = minKey;
+
+        // all nodes of the bucket move into lower buckets relative to the new last key
+        int node = this.firstNodes[bucket];
+        this.firstNodes[bucket] = NONE;
+        while (node != NONE) {
+            int nextNode = this.next[node];
+            link(node, getBucket(this.keys[node]));
+            node = nextNode;
+        }
+    }
+
+
+    private int getBucket(long key) {
+        return key == this.lastKey ? 0 : Long.SIZE - Long.numberOfLeadingZeros(key ^ this.lastKey);
+    }
+
+
+    private void link(int node, int bucket) {
+        int first = this.firstNodes[bucket];
+        this.next[node] = first;
+        this.previous[node] = NONE;
+        if (first != NONE) {
+            this.previous[first] = node;
+        }
+        this.firstNodes[bucket] = node;
+        this.buckets[node] = (byte) bucket;
+    }
+
+
+    private void unlink(int node) {
+        int bucket = this.buckets[node];
+        int nextNode = this.next[node];
+        int previousNode = this.previous[node];
+        if (previousNode == NONE) {
+            this.firstNodes[bucket] = nextNode;
+        } else {
+            this.next[previousNode] = nextNode;
+        }
+        if (nextNode != NONE) {
+            this.previous[nextNode] = previousNode;
+        }
+        this.buckets[node] = NONE;
+    }
+}
@@ -0,0 +1,99 @@
+package de.sebastianhesse.pbf.storage;
+
+
+/**
+ * {@link EdgeIterator} over the uncompressed edge columns of a {@link Graph}.
+ */
+class ColumnEdgeIterator implements EdgeIterator {
+
+    private final Graph graph;
+    private int baseNode = -1;
+    private int edge = -1;
+    private int nextEdge = -1;
+    private int endEdge = -1;
+
+
+    ColumnEdgeIterator(Graph graph) {
+        this.graph = graph;
+    }
+
+
+    @Override
+    public EdgeIterator setBaseNode(int node) {
+        this.baseNode = node;
+        this.edge = -1;
+        this.nextEdge = this.graph.firstEdges.get(node);
+        this.endEdge = this.graph.firstEdges.get(node + 1);
+        return this;
+    }
+
+
+    @Override
+    public boolean next() {
+        if (this.nextEdge >= this.endEdge) {
+            return false;
+        }
+        this.edge = this.nextEdge++;
+        return true;
+    }
+
+
+    @Override
+    public int getEdge() {
+        return this.edge;
+    }
+
+
+    @Override
+    public int getBaseNode() {
+        return this.baseNode;
+    }
+
+
+    @Override
+    public int getTarget() {
+        return this.graph.edgeTargets.get(this.edge);
+    }
+
+
+    @Override
+    public int getNextCrossing() {
+        return this.graph.nextCrossings.get(this.edge);
+    }
+
+
+    @Override
+    public double getDistance() {
+        return this.graph.distances.get(this.edge);
+    }
+
+
+    @Override
+    public short getSpeed() {
+        return (short) (this.graph.speeds.get(this.edge) & 0xFF);
+    }
+
+
+    @Override
+    public String getType() {
+        return this.graph.edgeTypeNames.get(this.graph.edgeTypes.get(this.edge) & 0xFF);
+    }
+
+
+    @Override
+    public boolean isCarAllowed() {
+        return (this.graph.edgeFlags.get(this.edge) & Graph.CAR_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public boolean isPedestrianAllowed() {
+        return (this.graph.edgeFlags.get(this.edge) & Graph.PEDESTRIAN_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public double getAdditionalWeight() {
+        return this.graph.additionalWeights.get(this.edge);
+    }
+}
@@ -0,0 +1,137 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * {@link EdgeIterator} which decodes the {@link CompressedEdges} of a {@link Graph} on the fly.
+ */
+class CompressedEdgeIterator implements EdgeIterator {
+
+    private final Graph graph;
+    private final CompressedEdges edges;
+    private final ByteBuffer data;
+    private int baseNode = -1;
+    private int edge = -1;
+    private int lastEdge = -1;
+    private int position = 0;
+    private boolean firstEdge = true;
+
+    // values of the current edge
+    private int target;
+    private int nextCrossing;
+    private int distance;
+    private int speed;
+    private int typeAndFlags;
+
+
+    CompressedEdgeIterator(Graph graph, CompressedEdges edges) {
+        this.graph = graph;
+        this.edges = edges;
+        this.data = edges.data;
+    }
+
+
+    @Override
+    public EdgeIterator setBaseNode(int node) {
+        this.baseNode = node;
+        this.edge = this.edges.getFirstEdge(node) - 1;
+        this.lastEdge = this.edges.getFirstEdge(node + 1) - 1;
+        this.position = this.edges.blockOffsets.get(node);
+        this.target = node;
+        this.firstEdge = true;
+        return this;
+    }
+
+
+    @Override
+    public boolean next() {
+        if (this.edge >= this.lastEdge) {
+            return false;
+        }
+
+        this.edge++;
+        int targetDelta = readVarInt();
+        this.target = this.firstEdge ? this.baseNode + CompressedEdges.unZigZag(targetDelta) : this.target + targetDelta;
+        this.firstEdge = false;
+        int crossing = readVarInt();
+        this.nextCrossing = crossing == 0 ? -1 : this.baseNode + CompressedEdges.unZigZag(crossing - 1);
+        this.distance = readVarInt();
+        this.speed = this.data.get(this.position++) & 0xFF;
+        this.typeAndFlags = readVarInt();
+        return true;
+    }
+
+
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = this.data.get(this.position++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+
+    @Override
+    public int getEdge() {
+        return this.edge;
+    }
+
+
+    @Override
+    public int getBaseNode() {
+        return this.baseNode;
+    }
+
+
+    @Override
+    public int getTarget() {
+        return this.target;
+    }
+
+
+    @Override
+    public int getNextCrossing() {
+        return this.nextCrossing;
+    }
+
+
+    @Override
+    public double getDistance() {
+        return this.distance / 10d;
+    }
+
+
+    @Override
+    public short getSpeed() {
+        return (short) this.speed;
+    }
+
+
+    @Override
+    public String getType() {
+        return this.graph.edgeTypeNames.get(this.typeAndFlags >>> 2);
+    }
+
+
+    @Override
+    public boolean isCarAllowed() {
+        return (this.typeAndFlags & Graph.CAR_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public boolean isPedestrianAllowed() {
+        return (this.typeAndFlags & Graph.PEDESTRIAN_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public double getAdditionalWeight() {
+        return this.graph.additionalWeights.get(this.edge);
+    }
+}
@@ -0,0 +1,126 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+
+/**
+ * Compressed adjacency of a {@link Graph}. The outgoing edges of a node are stored in one block of bytes, the blocks
+ * are ordered by node id. The source of an edge is implied by its block, hence it's not stored at all. Each edge is
+ * encoded with variable length integers (7 bits per byte) as follows:
+ * <pre>
+ * target       first edge: zig-zag encoded difference to the source node, otherwise difference to the last target
+ * nextCrossing 0 if there is none, otherwise zig-zag encoded difference to the source node + 1
+ * distance     in decimeters
+ * speed        one unsigned byte in km/h
+ * typeAndFlags edge type index shifted by two bits, the lower two bits are the access flags
+ * </pre>
+ * Edge ids are the same as for uncompressed edges, i.e. the edges of node i have the ids
+ * {@code firstEdges[i]} to {@code firstEdges[i + 1] - 1}.
+ */
+class CompressedEdges {
+
+    // the data is one byte array and addressed by int offsets, the largest array some VMs allow is a bit smaller
+    static final int MAX_DATA_SIZE = Integer.MAX_VALUE - 8;
+    // three var ints of up to 5 bytes, the speed and a var int of up to 2 bytes for the type and flags
+    private static final int MAX_EDGE_SIZE = 3 * 5 + 1 + 2;
+    // initial capacity of the data, most edges need about 6 bytes
+    private static final long EXPECTED_EDGE_SIZE = 8;
+
+    // n + 1 entries, the last one is the number of edges
+    IntBuffer firstEdges;
+    // n entries, byte offset of the node's block in data
+    IntBuffer blockOffsets;
+    ByteBuffer data;
+
+
+    CompressedEdges(IntBuffer firstEdges, IntBuffer blockOffsets, ByteBuffer data) {
+        this.firstEdges = firstEdges;
+        this.blockOffsets = blockOffsets;
+        this.data = data;
+    }
+
+
+    /**
+     * Encodes the uncompressed edge columns of the graph. The graph must be sorted and connected.
+     *
+     * @param graph a graph with uncompressed edges
+     * @return the compressed edges of the graph
+     * @throws IllegalStateException if the compressed edges don't fit into {@link #MAX_DATA_SIZE} bytes
+     */
+    static CompressedEdges encode(Graph graph) {
+        int nodes = graph.getNodesSize();
+        IntBuffer blockOffsets = IntBuffer.allocate(nodes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                (int) Math.min(graph.getEdgesSize() * EXPECTED_EDGE_SIZE, MAX_DATA_SIZE));
+
+        int edge = 0;
+        for (int node = 0; node < nodes; node++) {
+            int end = graph.firstEdges.get(node + 1);
+            if (out.size() + (long) (end - edge) * MAX_EDGE_SIZE > MAX_DATA_SIZE) {
+                throw new IllegalStateException("The compressed edges of " + graph.getEdgesSize() + " edges need " +
+                        "more than " + MAX_DATA_SIZE + " bytes, which is the limit of compressed edges. Use " +
+                        "uncompressed or tiled edges instead.");
+            }
+            blockOffsets.put(node, out.size());
+
+            int lastTarget = node;
+            boolean first = true;
+            for (; edge < end; edge++) {
+                int target = graph.edgeTargets.get(edge);
+                // targets are sorted ascending within a block, so only the first difference can be negative
+                writeVarInt(out, first ? zigZag(target - node) : target - lastTarget);
+                lastTarget = target;
+                first = false;
+
+                int nextCrossing = graph.nextCrossings.get(edge);
+                writeVarInt(out, nextCrossing == -1 ? 0 : zigZag(nextCrossing - node) + 1);
+                writeVarInt(out, Math.round(graph.distances.get(edge) * 10));
+                out.write(graph.speeds.get(edge));
+                writeVarInt(out, (graph.edgeTypes.get(edge) & 0xFF) << 2 | graph.edgeFlags.get(edge));
+            }
+        }
+        // the edge ids don't change, so the first edges can be shared with the uncompressed graph
+        return new CompressedEdges(graph.firstEdges, blockOffsets, ByteBuffer.wrap(out.toByteArray()));
+    }
+
+
+    int getFirstEdge(int node) {
+        return this.firstEdges.get(node);
+    }
+
+
+    int getNumberOfEdges(int node) {
+        return this.firstEdges.get(node + 1) - this.firstEdges.get(node);
+    }
+
+
+    /**
+     * @return number of bytes used by the compressed edges, excluding the traffic weights
+     */
+    long getSizeInBytes() {
+        return (long) this.firstEdges.capacity() * Integer.BYTES + (long) this.blockOffsets.capacity() * Integer.BYTES +
+                this.data.capacity();
+    }
+
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        // values are treated as unsigned
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
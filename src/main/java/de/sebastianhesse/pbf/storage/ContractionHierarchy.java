@@ -0,0 +1,339 @@
+package de.sebastianhesse.pbf.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * A contraction hierarchy of a {@link Graph} for one {@link CostProfile}. All nodes are ranked by the order in which
+ * they have been contracted, see {@link ContractionHierarchyBuilder}. Contracting a node adds a shortcut arc between
+ * two of its neighbours if the path through the node is the only shortest path between them. A route is then found
+ * by a forward search from the source and a backward search from the target which only follow arcs to nodes of a
+ * higher rank and meet at the highest node of the route. They settle only a few hundred nodes even on long routes.
+ * <p>
+ * The arcs are the ones searched by a Dijkstra: an edge is an arc from its source to its next crossing, or to its
+ * target if it has none. Each arc is either such an edge or a shortcut of two other arcs, so a path of arcs can be
+ * unpacked into edges again. The up arcs of a node lead to nodes of a higher rank, the down arcs come from them.
+ * <p>
+ * The weights of the arcs are the {@link EdgeCosts} of the edges without traffic, so a hierarchy stays valid when the
+ * traffic weights change, see {@link Graph#setAdditionalWeight}, but its routes ignore traffic. A hierarchy
+ * can be written next to a snapshot of the graph and mapped into memory again, see {@link #write(File)}.
+ */
+public class ContractionHierarchy {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractionHierarchy.class);
+
+    public static final int MAGIC_NUMBER = 0x4F534D48; // "OSMH"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    final CostProfile profile;
+    // checksum of the costs of the profile which the hierarchy has been built for, see EdgeCosts#getFreeFlowChecksum
+    final long costsChecksum;
+    // indexed by node id
+    final IntBuffer ranks;
+    // arc ids grouped by their source resp. target, the arcs of a node start at the index of the node
+    final IntBuffer firstUpArcs;
+    final IntBuffer upArcs;
+    final IntBuffer firstDownArcs;
+    final IntBuffer downArcs;
+    // indexed by arc id
+    final IntBuffer arcSources;
+    final IntBuffer arcTargets;
+    final DoubleBuffer arcWeights;
+    // the edge of an arc or -1 for a shortcut
+    final IntBuffer arcEdges;
+    // the two arcs of a shortcut at index 2 * arc and 2 * arc + 1
+    final IntBuffer skippedArcs;
+
+
+    ContractionHierarchy(CostProfile profile, long costsChecksum, IntBuffer ranks, IntBuffer firstUpArcs,
+                         IntBuffer upArcs, IntBuffer firstDownArcs, IntBuffer downArcs, IntBuffer arcSources,
+                         IntBuffer arcTargets, DoubleBuffer arcWeights, IntBuffer arcEdges, IntBuffer skippedArcs) {
+        this.profile = profile;
+        this.costsChecksum = costsChecksum;
+        this.ranks = ranks;
+        this.firstUpArcs = firstUpArcs;
+        this.upArcs = upArcs;
+        this.firstDownArcs = firstDownArcs;
+        this.downArcs = downArcs;
+        this.arcSources = arcSources;
+        this.arcTargets = arcTargets;
+        this.arcWeights = arcWeights;
+        this.arcEdges = arcEdges;
+        this.skippedArcs = skippedArcs;
+    }
+
+
+    /**
+     * Groups the arcs by the node of the lower rank, i.e. each arc is an up arc of its source or a down arc of its
+     * target.
+     */
+    static ContractionHierarchy create(CostProfile profile, long costsChecksum, int[] ranks, int[] arcSources,
+                                       int[] arcTargets, double[] arcWeights, int[] arcEdges, int[] skippedArcs) {
+        int nodes = ranks.length;
+        int arcs = arcSources.length;
+        int[] firstUpArcs = new int[nodes + 1];
+        int[] firstDownArcs = new int[nodes + 1];
+        for (int arc = 0; arc < arcs; arc++) {
+            if (ranks[arcSources[arc]] < ranks[arcTargets[arc]]) {
+                firstUpArcs[arcSources[arc] + 1]++;
+            } else {
+                firstDownArcs[arcTargets[arc] + 1]++;
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            firstUpArcs[node + 1] += firstUpArcs[node];
+            firstDownArcs[node + 1] += firstDownArcs[node];
+        }
+        int[] upArcs = new int[firstUpArcs[nodes]];
+        int[] downArcs = new int[firstDownArcs[nodes]];
+        int[] upPositions = firstUpArcs.clone();
+        int[] downPositions = firstDownArcs.clone();
+        for (int arc = 0; arc < arcs; arc++) {
+            if (ranks[arcSources[arc]] < ranks[arcTargets[arc]]) {
+                upArcs[upPositions[arcSources[arc]]++] = arc;
+            } else {
+                downArcs[downPositions[arcTargets[arc]]++] = arc;
+            }
+        }
+        return new ContractionHierarchy(profile, costsChecksum, IntBuffer.wrap(ranks), IntBuffer.wrap(firstUpArcs),
+                IntBuffer.wrap(upArcs), IntBuffer.wrap(firstDownArcs), IntBuffer.wrap(downArcs),
+                IntBuffer.wrap(arcSources), IntBuffer.wrap(arcTargets), DoubleBuffer.wrap(arcWeights),
+                IntBuffer.wrap(arcEdges), IntBuffer.wrap(skippedArcs));
+    }
+
+
+    /**
+     * Contracts all nodes of a connected graph, see {@link ContractionHierarchyBuilder}.
+     *
+     * @param graph   a graph after the edges have been connected
+     * @param profile vehicle and weighting of the hierarchy
+     * @return the hierarchy, it's not added to the graph
+     */
+    public static ContractionHierarchy build(Graph graph, CostProfile profile) {
+        return new ContractionHierarchyBuilder(graph, profile).build();
+    }
+
+
+    public CostProfile getProfile() {
+        return this.profile;
+    }
+
+
+    public int getNodes() {
+        return this.ranks.limit();
+    }
+
+
+    public int getArcs() {
+        return this.arcSources.limit();
+    }
+
+
+    public int getRank(int node) {
+        return this.ranks.get(node);
+    }
+
+
+    /**
+     * @return index of the first up arc of the node, the up arcs of the node end at the first one of the next node
+     */
+    public int getFirstUpArc(int node) {
+        return this.firstUpArcs.get(node);
+    }
+
+
+    /**
+     * @return id of the up arc at the index
+     */
+    public int getUpArc(int index) {
+        return this.upArcs.get(index);
+    }
+
+
+    /**
+     * @return index of the first down arc of the node, the down arcs of the node end at the first one of the next
+     * node
+     */
+    public int getFirstDownArc(int node) {
+        return this.firstDownArcs.get(node);
+    }
+
+
+    /**
+     * @return id of the down arc at the index
+     */
+    public int getDownArc(int index) {
+        return this.downArcs.get(index);
+    }
+
+
+    public int getArcSource(int arc) {
+        return this.arcSources.get(arc);
+    }
+
+
+    public int getArcTarget(int arc) {
+        return this.arcTargets.get(arc);
+    }
+
+
+    public double getArcWeight(int arc) {
+        return this.arcWeights.get(arc);
+    }
+
+
+    /**
+     * @return id of the edge of the arc, -1 if the arc is a shortcut
+     */
+    public int getArcEdge(int arc) {
+        return this.arcEdges.get(arc);
+    }
+
+
+    /**
+     * @param arc   id of a shortcut
+     * @param index 0 for the arc from the source of the shortcut, 1 for the arc to its target
+     * @return id of one of the two arcs which are replaced by the shortcut
+     */
+    public int getSkippedArc(int arc, int index) {
+        return this.skippedArcs.get(2 * arc + index);
+    }
+
+
+    /**
+     * @param graph   the graph whose hierarchy is stored in the file
+     * @param profile vehicle and weighting of the hierarchy
+     * @return the file of the hierarchy next to the graph file, e.g. osm_data.graph.car_fastest.ch
+     */
+    public static File getFile(File graph, CostProfile profile) {
+        return new File(graph.getPath() + "." + profile.name().toLowerCase() + ".ch");
+    }
+
+
+    /**
+     * Writes the hierarchy into a file. The file starts with a header of {@link #HEADER_SIZE} bytes:
+     * <pre>
+     * int magic number, int format version, int ordinal of the profile, int number of nodes, int number of arcs,
+     * int 0, long checksum of the costs
+     * </pre>
+     * Afterwards the ranks, up arcs, down arcs and the columns of the arcs follow like in a {@link GraphSnapshot}.
+     *
+     * @param file file to write to, will be overwritten if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        int nodes = getNodes();
+        int arcs = getArcs();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+            GraphSnapshot.writeInts(channel, buffer, this.ranks, nodes);
+            GraphSnapshot.writeInts(channel, buffer, this.firstUpArcs, nodes + 1);
+            GraphSnapshot.writeInts(channel, buffer, this.upArcs, this.upArcs.limit());
+            GraphSnapshot.writeInts(channel, buffer, this.firstDownArcs, nodes + 1);
+            GraphSnapshot.writeInts(channel, buffer, this.downArcs, this.downArcs.limit());
+            GraphSnapshot.writeInts(channel, buffer, this.arcSources, arcs);
+            GraphSnapshot.writeInts(channel, buffer, this.arcTargets, arcs);
+            for (int i = 0; i < arcs; i++) {
+                GraphSnapshot.flushIfFull(channel, buffer, Double.BYTES).putDouble(this.arcWeights.get(i));
+            }
+            GraphSnapshot.flushAndAlign(channel, buffer);
+            GraphSnapshot.writeInts(channel, buffer, this.arcEdges, arcs);
+            GraphSnapshot.writeInts(channel, buffer, this.skippedArcs, 2 * arcs);
+
+            buffer.putInt(MAGIC_NUMBER).putInt(VERSION).putInt(this.profile.ordinal()).putInt(nodes).putInt(arcs)
+                    .putInt(0).putLong(this.costsChecksum);
+            buffer.flip();
+            channel.write(buffer, 0);
+        }
+        logger.info("Wrote contraction hierarchy {} ({} MB) in {} ms.", file, file.length() / (1024 * 1024),
+                System.currentTimeMillis() - start);
+    }
+
+
+    /**
+     * Maps a file created by {@link #write(File)} into memory. Add it to a graph by
+     * {@link Graph#setContractionHierarchy(ContractionHierarchy)} which checks that it matches the graph.
+     *
+     * @param file file of a hierarchy
+     * @return the hierarchy
+     * @throws IOException if the file can't be read
+     */
+    public static ContractionHierarchy read(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        ContractionHierarchy hierarchy;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = GraphSnapshot.map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC_NUMBER) {
+                throw new IllegalArgumentException("File " + file + " is not a contraction hierarchy.");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Contraction hierarchy " + file + " has version " + version +
+                        ", but only version " + VERSION + " is supported. Please create it again.");
+            }
+            CostProfile profile = CostProfile.values()[header.getInt(8)];
+            int nodes = header.getInt(12);
+            int arcs = header.getInt(16);
+
+            long position = HEADER_SIZE;
+            IntBuffer ranks = GraphSnapshot.map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) nodes * Integer.BYTES);
+            IntBuffer firstUpArcs = GraphSnapshot.map(channel, position, (long) (nodes + 1) * Integer.BYTES)
+                    .asIntBuffer();
+            position = GraphSnapshot.align(position + (long) (nodes + 1) * Integer.BYTES);
+            int up = firstUpArcs.get(nodes);
+            IntBuffer upArcs = GraphSnapshot.map(channel, position, (long) up * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) up * Integer.BYTES);
+            IntBuffer firstDownArcs = GraphSnapshot.map(channel, position, (long) (nodes + 1) * Integer.BYTES)
+                    .asIntBuffer();
+            position = GraphSnapshot.align(position + (long) (nodes + 1) * Integer.BYTES);
+            int down = firstDownArcs.get(nodes);
+            IntBuffer downArcs = GraphSnapshot.map(channel, position, (long) down * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) down * Integer.BYTES);
+            IntBuffer arcSources = GraphSnapshot.map(channel, position, (long) arcs * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) arcs * Integer.BYTES);
+            IntBuffer arcTargets = GraphSnapshot.map(channel, position, (long) arcs * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) arcs * Integer.BYTES);
+            DoubleBuffer arcWeights = GraphSnapshot.map(channel, position, (long) arcs * Double.BYTES)
+                    .asDoubleBuffer();
+            position = GraphSnapshot.align(position + (long) arcs * Double.BYTES);
+            IntBuffer arcEdges = GraphSnapshot.map(channel, position, (long) arcs * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) arcs * Integer.BYTES);
+            IntBuffer skippedArcs = GraphSnapshot.map(channel, position, 2L * arcs * Integer.BYTES).asIntBuffer();
+
+            hierarchy = new ContractionHierarchy(profile, header.getLong(24), ranks, firstUpArcs, upArcs,
+                    firstDownArcs, downArcs, arcSources, arcTargets, arcWeights, arcEdges, skippedArcs);
+        }
+        logger.info("Mapped contraction hierarchy {} with {} arcs in {} ms.", file, hierarchy.getArcs(),
+                System.currentTimeMillis() - start);
+        return hierarchy;
+    }
+
+
+    /**
+     * @return the size of all columns, named by the profile
+     */
+    MemoryEstimate estimateMemory() {
+        String name = this.profile.name().toLowerCase();
+        return new MemoryEstimate()
+                .add(name, this.ranks).add(name, this.firstUpArcs).add(name, this.upArcs)
+                .add(name, this.firstDownArcs).add(name, this.downArcs).add(name, this.arcSources)
+                .add(name, this.arcTargets).add(name, this.arcWeights).add(name, this.arcEdges)
+                .add(name, this.skippedArcs);
+    }
+}
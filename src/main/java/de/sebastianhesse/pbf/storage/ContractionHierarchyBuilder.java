@@ -0,0 +1,573 @@
+package de.sebastianhesse.pbf.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+
+/**
+ * Contracts the nodes of a {@link Graph} into a {@link ContractionHierarchy}. Contracting a node removes it from the
+ * remaining graph and adds a shortcut between two of its neighbours if no other path between them is as short as the
+ * path through the node. Such other paths are found by a witness search, a small Dijkstra which is cut off after
+ * {@link #WITNESS_SETTLED_LIMIT} nodes; then a shortcut is added which might not be necessary.
+ * <p>
+ * The order of the nodes decides how many shortcuts are added. The priority of a node is its edge difference, i.e.
+ * the number of shortcuts it would add minus the number of arcs which are removed with it, plus the number of its
+ * neighbours which have been contracted already, so the contraction spreads evenly over the graph. The nodes are
+ * contracted in rounds: each round contracts all nodes whose priority is lower than the one of all remaining
+ * neighbours. These nodes are independent, hence their shortcuts are searched in parallel, only the witness searches
+ * must not pass the other nodes of the round. Afterwards the priorities of their neighbours are updated.
+ * <p>
+ * Each thread needs 12 bytes per node for its witness search, the remaining graph about 40 bytes per arc.
+ */
+class ContractionHierarchyBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    private static final int WITNESS_SETTLED_LIMIT = 100;
+    // number of nodes a thread takes at once from the nodes which are processed in parallel
+    private static final int CHUNK_SIZE = 256;
+    private static final byte ACTIVE = 0;
+    private static final byte SELECTED = 1;
+    private static final byte CONTRACTED = 2;
+
+    private final Graph graph;
+    private final CostProfile profile;
+    private final int nodes;
+
+    // all arcs, shortcuts are appended while contracting
+    private int arcs = 0;
+    private int[] arcSources;
+    private int[] arcTargets;
+    private double[] arcWeights;
+    private int[] arcEdges;
+    private int[] skippedArcs;
+    // arcs of the hierarchy, i.e. arcs which were connected to a node when it has been contracted
+    private boolean[] hierarchyArcs;
+
+    // arcs between the remaining nodes, arcs of contracted nodes are removed after each round
+    private final int[][] outArcs;
+    private final int[] outSizes;
+    private final int[][] inArcs;
+    private final int[] inSizes;
+
+    private final byte[] states;
+    private final int[] priorities;
+    private final int[] contractedNeighbours;
+    private final int[] ranks;
+
+
+    ContractionHierarchyBuilder(Graph graph, CostProfile profile) {
+        if (graph.getEdgeCosts() == null) {
+            throw new IllegalStateException("Can't contract a graph which is not connected.");
+        }
+        this.graph = graph;
+        this.profile = profile;
+        this.nodes = graph.getNodesSize();
+        int capacity = graph.getEdgesSize() + this.nodes;
+        this.arcSources = new int[capacity];
+        this.arcTargets = new int[capacity];
+        this.arcWeights = new double[capacity];
+        this.arcEdges = new int[capacity];
+        this.skippedArcs = new int[2 * capacity];
+        this.hierarchyArcs = new boolean[capacity];
+        this.outArcs = new int[this.nodes][];
+        this.outSizes = new int[this.nodes];
+        this.inArcs = new int[this.nodes][];
+        this.inSizes = new int[this.nodes];
+        this.states = new byte[this.nodes];
+        this.priorities = new int[this.nodes];
+        this.contractedNeighbours = new int[this.nodes];
+        this.ranks = new int[this.nodes];
+    }
+
+
+    ContractionHierarchy build() {
+        long start = System.currentTimeMillis();
+        addEdges();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        WitnessSearch[] searches = new WitnessSearch[threads];
+        for (int i = 0; i < threads; i++) {
+            searches[i] = new WitnessSearch();
+        }
+        int rounds = 0;
+        try {
+            forEachParallel(executor, searches, this.nodes, (search, node) ->
+                    this.priorities[node] = calculatePriority(search, node));
+
+            int[] remaining = new int[this.nodes];
+            for (int node = 0; node < this.nodes; node++) {
+                remaining[node] = node;
+            }
+            int remainingSize = this.nodes;
+            boolean[] isTouched = new boolean[this.nodes];
+            int[] touched = new int[this.nodes];
+            int rank = 0;
+            while (remainingSize > 0) {
+                int[] selected = selectIndependentNodes(executor, searches, remaining, remainingSize);
+                Shortcuts[] shortcuts = new Shortcuts[selected.length];
+                forEachParallel(executor, searches, selected.length, (search, i) -> {
+                    shortcuts[i] = new Shortcuts();
+                    findShortcuts(search, selected[i], shortcuts[i]);
+                });
+
+                int touchedSize = 0;
+                for (int i = 0; i < selected.length; i++) {
+                    int node = selected[i];
+                    this.ranks[node] = rank++;
+                    this.states[node] = CONTRACTED;
+                    for (int j = 0; j < this.outSizes[node]; j++) {
+                        int arc = this.outArcs[node][j];
+                        int target = this.arcTargets[arc];
+                        if (this.states[target] == ACTIVE) {
+                            this.hierarchyArcs[arc] = true;
+                            this.contractedNeighbours[target]++;
+                            if (!isTouched[target]) {
+                                isTouched[target] = true;
+                                touched[touchedSize++] = target;
+                            }
+                        }
+                    }
+                    for (int j = 0; j < this.inSizes[node]; j++) {
+                        int arc = this.inArcs[node][j];
+                        int source = this.arcSources[arc];
+                        if (this.states[source] == ACTIVE) {
+                            this.hierarchyArcs[arc] = true;
+                            this.contractedNeighbours[source]++;
+                            if (!isTouched[source]) {
+                                isTouched[source] = true;
+                                touched[touchedSize++] = source;
+                            }
+                        }
+                    }
+                    shortcuts[i].addTo(this);
+                    this.outArcs[node] = null;
+                    this.outSizes[node] = 0;
+                    this.inArcs[node] = null;
+                    this.inSizes[node] = 0;
+                }
+
+                for (int i = 0; i < touchedSize; i++) {
+                    removeContractedArcs(touched[i]);
+                    isTouched[touched[i]] = false;
+                }
+                int[] touchedNodes = touched;
+                forEachParallel(executor, searches, touchedSize, (search, i) ->
+                        this.priorities[touchedNodes[i]] = calculatePriority(search, touchedNodes[i]));
+
+                int size = 0;
+                for (int i = 0; i < remainingSize; i++) {
+                    if (this.states[remaining[i]] == ACTIVE) {
+                        remaining[size++] = remaining[i];
+                    }
+                }
+                remainingSize = size;
+                rounds++;
+                logger.debug("Contracted {} nodes in round {}, {} nodes remaining.", selected.length, rounds,
+                        remainingSize);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ContractionHierarchy hierarchy = createHierarchy();
+        logger.info("Contracted {} nodes for {} in {} rounds and {} ms, the hierarchy has {} arcs.", this.nodes,
+                this.profile, rounds, System.currentTimeMillis() - start, hierarchy.getArcs());
+        return hierarchy;
+    }
+
+
+    /**
+     * Adds an arc for each edge which can be used by the profile: from its source to its next crossing, or to its
+     * target if it has none. Of several arcs between the same nodes, only the first one with the lowest weight is
+     * kept, like a Dijkstra would use it.
+     */
+    private void addEdges() {
+        EdgeCosts costs = this.graph.getEdgeCosts();
+        EdgeIterator edges = this.graph.createEdgeIterator();
+        for (int node = 0; node < this.nodes; node++) {
+            edges.setBaseNode(node);
+            while (edges.next()) {
+                // the hierarchy is kept when the traffic changes, hence it's built without traffic
+                float cost = costs.getFreeFlowCost(this.profile, edges);
+                if (cost == Float.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int nextCrossing = edges.getNextCrossing();
+                int target = nextCrossing > -1 ? nextCrossing : edges.getTarget();
+                if (target != node) {
+                    addArc(node, target, cost, edges.getEdge(), -1, -1);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds an arc between two remaining nodes unless they are connected by an arc with a lower or the same weight
+     * already. Such an arc with a higher weight is replaced.
+     */
+    private void addArc(int source, int target, double weight, int edge, int firstArc, int secondArc) {
+        for (int i = 0; i < this.outSizes[source]; i++) {
+            int arc = this.outArcs[source][i];
+            if (this.arcTargets[arc] == target) {
+                if (this.arcWeights[arc] <= weight) {
+                    return;
+                }
+                removeArc(this.outArcs, this.outSizes, source, arc);
+                removeArc(this.inArcs, this.inSizes, target, arc);
+                break;
+            }
+        }
+
+        if (this.arcs == this.arcSources.length) {
+            int capacity = this.arcs + (this.arcs >> 1) + 1;
+            this.arcSources = Arrays.copyOf(this.arcSources, capacity);
+            this.arcTargets = Arrays.copyOf(this.arcTargets, capacity);
+            this.arcWeights = Arrays.copyOf(this.arcWeights, capacity);
+            this.arcEdges = Arrays.copyOf(this.arcEdges, capacity);
+            this.skippedArcs = Arrays.copyOf(this.skippedArcs, 2 * capacity);
+            this.hierarchyArcs = Arrays.copyOf(this.hierarchyArcs, capacity);
+        }
+        int arc = this.arcs++;
+        this.arcSources[arc] = source;
+        this.arcTargets[arc] = target;
+        this.arcWeights[arc] = weight;
+        this.arcEdges[arc] = edge;
+        this.skippedArcs[2 * arc] = firstArc;
+        this.skippedArcs[2 * arc + 1] = secondArc;
+        addToList(this.outArcs, this.outSizes, source, arc);
+        addToList(this.inArcs, this.inSizes, target, arc);
+    }
+
+
+    private static void addToList(int[][] lists, int[] sizes, int node, int arc) {
+        int[] list = lists[node];
+        if (list == null) {
+            list = new int[4];
+            lists[node] = list;
+        } else if (sizes[node] == list.length) {
+            list = Arrays.copyOf(list, 2 * list.length);
+            lists[node] = list;
+        }
+        list[sizes[node]++] = arc;
+    }
+
+
+    private static void removeArc(int[][] lists, int[] sizes, int node, int arc) {
+        int[] list = lists[node];
+        for (int i = 0; i < sizes[node]; i++) {
+            if (list[i] == arc) {
+                list[i] = list[--sizes[node]];
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Removes all arcs from or to contracted nodes from the arcs of a remaining node.
+     */
+    private void removeContractedArcs(int node) {
+        int[] list = this.outArcs[node];
+        int size = 0;
+        for (int i = 0; i < this.outSizes[node]; i++) {
+            if (this.states[this.arcTargets[list[i]]] == ACTIVE) {
+                list[size++] = list[i];
+            }
+        }
+        this.outSizes[node] = size;
+
+        list = this.inArcs[node];
+        size = 0;
+        for (int i = 0; i < this.inSizes[node]; i++) {
+            if (this.states[this.arcSources[list[i]]] == ACTIVE) {
+                list[size++] = list[i];
+            }
+        }
+        this.inSizes[node] = size;
+    }
+
+
+    private int calculatePriority(WitnessSearch search, int node) {
+        int shortcuts = findShortcuts(search, node, null);
+        return shortcuts - this.outSizes[node] - this.inSizes[node] + this.contractedNeighbours[node];
+    }
+
+
+    /**
+     * Finds the shortcuts which are necessary if the node is contracted.
+     *
+     * @param shortcuts collects the shortcuts, may be null if they are just counted
+     * @return the number of shortcuts
+     */
+    private int findShortcuts(WitnessSearch search, int node, Shortcuts shortcuts) {
+        int count = 0;
+        for (int i = 0; i < this.inSizes[node]; i++) {
+            int inArc = this.inArcs[node][i];
+            int source = this.arcSources[inArc];
+            if (this.states[source] != ACTIVE) {
+                continue;
+            }
+            double inWeight = this.arcWeights[inArc];
+            double maxWeight = -1;
+            for (int j = 0; j < this.outSizes[node]; j++) {
+                int outArc = this.outArcs[node][j];
+                int target = this.arcTargets[outArc];
+                if (this.states[target] == ACTIVE && target != source) {
+                    maxWeight = Math.max(maxWeight, inWeight + this.arcWeights[outArc]);
+                }
+            }
+            if (maxWeight < 0) {
+                continue;
+            }
+
+            search.run(source, node, maxWeight);
+            for (int j = 0; j < this.outSizes[node]; j++) {
+                int outArc = this.outArcs[node][j];
+                int target = this.arcTargets[outArc];
+                if (this.states[target] != ACTIVE || target == source) {
+                    continue;
+                }
+                double weight = inWeight + this.arcWeights[outArc];
+                if (search.getWeight(target) > weight) {
+                    count++;
+                    if (shortcuts != null) {
+                        shortcuts.add(source, target, weight, inArc, outArc);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Marks the remaining nodes whose priority is lower than the one of all their remaining neighbours as selected.
+     * Equal priorities are ordered by a hash of the node ids, so there's always at least one node.
+     */
+    private int[] selectIndependentNodes(ExecutorService executor, WitnessSearch[] searches, int[] remaining,
+                                         int remainingSize) {
+        boolean[] isSelected = new boolean[remainingSize];
+        forEachParallel(executor, searches, remainingSize, (search, i) -> isSelected[i] = isLocalMinimum(remaining[i]));
+        int count = 0;
+        for (boolean selected : isSelected) {
+            if (selected) {
+                count++;
+            }
+        }
+        int[] selected = new int[count];
+        count = 0;
+        for (int i = 0; i < remainingSize; i++) {
+            if (isSelected[i]) {
+                selected[count++] = remaining[i];
+                this.states[remaining[i]] = SELECTED;
+            }
+        }
+        return selected;
+    }
+
+
+    private boolean isLocalMinimum(int node) {
+        for (int i = 0; i < this.outSizes[node]; i++) {
+            if (!isBefore(node, this.arcTargets[this.outArcs[node][i]])) {
+                return false;
+            }
+        }
+        for (int i = 0; i < this.inSizes[node]; i++) {
+            if (!isBefore(node, this.arcSources[this.inArcs[node][i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private boolean isBefore(int node, int other) {
+        if (this.priorities[node] != this.priorities[other]) {
+            return this.priorities[node] < this.priorities[other];
+        }
+        // a multiplication with an odd number is a bijection, so different nodes have different hashes
+        return node * 0x9E3779B9 < other * 0x9E3779B9;
+    }
+
+
+    /**
+     * Calls the action for each index from 0 to size in parallel, each thread with its own witness search.
+     */
+    private static void forEachParallel(ExecutorService executor, WitnessSearch[] searches, int size,
+                                        ObjIntConsumer<WitnessSearch> action) {
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(searches.length);
+        for (WitnessSearch search : searches) {
+            futures.add(executor.submit(() -> {
+                int start;
+                while ((start = next.getAndAdd(CHUNK_SIZE)) < size) {
+                    int end = Math.min(size, start + CHUNK_SIZE);
+                    for (int i = start; i < end; i++) {
+                        action.accept(search, i);
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Contraction has been interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Contraction failed.", e.getCause());
+        }
+    }
+
+
+    /**
+     * Keeps only the arcs of the hierarchy and numbers them again.
+     */
+    private ContractionHierarchy createHierarchy() {
+        int[] newIds = new int[this.arcs];
+        int size = 0;
+        for (int arc = 0; arc < this.arcs; arc++) {
+            newIds[arc] = this.hierarchyArcs[arc] ? size++ : -1;
+        }
+        int[] sources = new int[size];
+        int[] targets = new int[size];
+        double[] weights = new double[size];
+        int[] edges = new int[size];
+        int[] skipped = new int[2 * size];
+        for (int arc = 0; arc < this.arcs; arc++) {
+            int id = newIds[arc];
+            if (id == -1) {
+                continue;
+            }
+            sources[id] = this.arcSources[arc];
+            targets[id] = this.arcTargets[arc];
+            weights[id] = this.arcWeights[arc];
+            edges[id] = this.arcEdges[arc];
+            for (int i = 0; i < 2; i++) {
+                int skippedArc = this.skippedArcs[2 * arc + i];
+                skipped[2 * id + i] = skippedArc == -1 ? -1 : newIds[skippedArc];
+            }
+        }
+        long checksum = this.graph.getEdgeCosts().getFreeFlowChecksum(this.graph, this.profile);
+        return ContractionHierarchy.create(this.profile, checksum, this.ranks, sources, targets, weights, edges,
+                skipped);
+    }
+
+
+    /**
+     * The shortcuts of a node which are found in parallel and added afterwards.
+     */
+    private static class Shortcuts {
+
+        private int size = 0;
+        private int[] nodes = new int[8];
+        private double[] weights = new double[4];
+        private int[] arcs = new int[8];
+
+
+        void add(int source, int target, double weight, int firstArc, int secondArc) {
+            if (this.size == this.weights.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 4 * this.size);
+                this.weights = Arrays.copyOf(this.weights, 2 * this.size);
+                this.arcs = Arrays.copyOf(this.arcs, 4 * this.size);
+            }
+            this.nodes[2 * this.size] = source;
+            this.nodes[2 * this.size + 1] = target;
+            this.weights[this.size] = weight;
+            this.arcs[2 * this.size] = firstArc;
+            this.arcs[2 * this.size + 1] = secondArc;
+            this.size++;
+        }
+
+
+        void addTo(ContractionHierarchyBuilder builder) {
+            for (int i = 0; i < this.size; i++) {
+                builder.addArc(this.nodes[2 * i], this.nodes[2 * i + 1], this.weights[i], -1, this.arcs[2 * i],
+                        this.arcs[2 * i + 1]);
+            }
+        }
+    }
+
+
+    /**
+     * A Dijkstra between the remaining nodes which stops after {@link #WITNESS_SETTLED_LIMIT} nodes or at a max.
+     * weight.
+     */
+    private class WitnessSearch {
+
+        private final int[] stamps = new int[nodes];
+        private final double[] weights = new double[nodes];
+        private int stamp = 0;
+        private final NodeHeap heap = new NodeHeap();
+
+
+        /**
+         * @param source      start of the search
+         * @param ignoredNode the node which is contracted, paths through it are no witnesses
+         * @param maxWeight   nodes with a higher weight are not settled
+         */
+        void run(int source, int ignoredNode, double maxWeight) {
+            if (++this.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(this.stamps, 0);
+                this.stamp = 1;
+            }
+            this.heap.clear();
+            setWeight(source, 0);
+            this.heap.push(source, 0);
+
+            int settled = 0;
+            while (!this.heap.isEmpty() && settled < WITNESS_SETTLED_LIMIT) {
+                double weight = this.heap.peekWeight();
+                int node = this.heap.poll();
+                if (weight > getWeight(node)) {
+                    // the node has been pushed again with a lower weight
+                    continue;
+                }
+                if (weight > maxWeight) {
+                    break;
+                }
+                settled++;
+                for (int i = 0; i < outSizes[node]; i++) {
+                    int arc = outArcs[node][i];
+                    int target = arcTargets[arc];
+                    if (target == ignoredNode || states[target] != ACTIVE) {
+                        continue;
+                    }
+                    double targetWeight = weight + arcWeights[arc];
+                    if (targetWeight < getWeight(target)) {
+                        setWeight(target, targetWeight);
+                        this.heap.push(target, targetWeight);
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * @return the weight of the node found by the last search, infinite if it has not been reached
+         */
+        double getWeight(int node) {
+            return this.stamps[node] == this.stamp ? this.weights[node] : Double.POSITIVE_INFINITY;
+        }
+
+
+        private void setWeight(int node, double weight) {
+            this.stamps[node] = this.stamp;
+            this.weights[node] = weight;
+        }
+    }
+}
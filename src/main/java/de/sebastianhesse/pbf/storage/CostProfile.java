@@ -0,0 +1,55 @@
+package de.sebastianhesse.pbf.storage;
+
+import de.sebastianhesse.pbf.reader.Accessor;
+
+
+/**
+ * The combinations of a vehicle and a weighting for which the {@link EdgeCosts} are precomputed: the fastest way
+ * weights an edge by its travel time, the shortest way by its length.
+ */
+public enum CostProfile {
+
+    CAR_FASTEST(Accessor.CAR, true),
+    CAR_SHORTEST(Accessor.CAR, false),
+    PEDESTRIAN_FASTEST(Accessor.PEDESTRIAN, true),
+    PEDESTRIAN_SHORTEST(Accessor.PEDESTRIAN, false);
+
+    private final Accessor accessor;
+    private final boolean fastest;
+
+
+    CostProfile(Accessor accessor, boolean fastest) {
+        this.accessor = accessor;
+        this.fastest = fastest;
+    }
+
+
+    public static CostProfile get(Accessor accessor, boolean fastest) {
+        if (accessor == Accessor.CAR) {
+            return fastest ? CAR_FASTEST : CAR_SHORTEST;
+        }
+        return fastest ? PEDESTRIAN_FASTEST : PEDESTRIAN_SHORTEST;
+    }
+
+
+    public Accessor getAccessor() {
+        return this.accessor;
+    }
+
+
+    /**
+     * @return true if edges are weighted by their travel time in seconds, false if by their length in meters
+     */
+    public boolean isFastest() {
+        return this.fastest;
+    }
+
+
+    /**
+     * @param edge iterator pointing to an edge
+     * @return true if the vehicle is allowed to use the edge
+     */
+    public boolean canAccess(EdgeIterator edge) {
+        return this.accessor == Accessor.CAR ? edge.isCarAllowed() : edge.isPedestrianAllowed();
+    }
+}
@@ -8,6 +8,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 /**
  * Connection between a source and a target node. Has some certain properties like allowed speed,
  * distance (from source to target) or access rights for different vehicles.
+ * Only used to hand over the data of an edge to a {@link Graph} which stores it in primitive arrays.
  */
 public class Edge {
 
@@ -20,7 +21,6 @@ public class Edge {
     private int nextCrossing;
     private double distance = 0;
     private short speed = 0;
-    private double additionalWeight = 0;
     // allowed: car, pedestrian
     private boolean[] access = new boolean[] {false, false};
 
@@ -78,16 +78,6 @@ public class Edge {
     }
 
 
-    public double getAdditionalWeight() {
-        return additionalWeight;
-    }
-
-
-    public void setAdditionalWeight(double additionalWeight) {
-        this.additionalWeight = additionalWeight;
-    }
-
-
     public void setAccess(boolean[] access) {
         this.access = access;
     }
@@ -0,0 +1,180 @@
+package de.sebastianhesse.pbf.storage;
+
+import de.sebastianhesse.pbf.reader.Accessor;
+
+import java.nio.FloatBuffer;
+
+
+/**
+ * Precomputed weights of all edges for each {@link CostProfile}, so a search reads one float per edge instead of
+ * checking the access, clamping the speed and dividing the length by it for every relaxed edge. An edge which can't
+ * be used by the vehicle or which is closed by traffic has an infinite cost.
+ * <p>
+ * The length of an edge which is used as a shortcut to its next crossing is the straight distance from its source to
+ * the crossing, it's stored as well so the distance doesn't need to be calculated while searching. The costs include
+ * the traffic weights, hence they are updated whenever a traffic weight of an edge changes, see
+ * {@link Graph#setAdditionalWeight(EdgeIterator, double)}. Like the traffic weights, the costs are never stored in a
+ * snapshot, but rebuilt after loading it. Needs 20 bytes per edge. The edges of a tiled snapshot only have costs while
+ * their tile is loaded, see {@link TiledEdgeCosts}.
+ */
+public class EdgeCosts {
+
+    private static final CostProfile[] PROFILES = CostProfile.values();
+    static final int BYTES_PER_EDGE = (1 + PROFILES.length) * Float.BYTES;
+
+    // id of the first edge, the columns are indexed by edge id - first edge
+    final int firstEdge;
+    FloatBuffer lengths;
+    // indexed by the ordinal of the profile and then by edge id - first edge
+    FloatBuffer[] costs;
+
+
+    EdgeCosts(FloatBuffer lengths, FloatBuffer[] costs) {
+        this(0, lengths, costs);
+    }
+
+
+    EdgeCosts(int firstEdge, FloatBuffer lengths, FloatBuffer[] costs) {
+        this.firstEdge = firstEdge;
+        this.lengths = lengths;
+        this.costs = costs;
+    }
+
+
+    /**
+     * Calculates the lengths and costs of all edges of a connected graph.
+     */
+    static EdgeCosts build(Graph graph) {
+        return build(graph, graph.createEdgeIterator(), 0, graph.getNodesSize(), 0, graph.getEdgesSize(),
+                graph.offHeap);
+    }
+
+
+    /**
+     * Calculates the lengths and costs of the edges of a range of nodes, e.g. of a tile.
+     *
+     * @param iterator  iterator over the edges of the nodes
+     * @param firstNode first node of the range
+     * @param endNode   first node after the range
+     * @param firstEdge first edge of the first node
+     * @param edges     number of edges of all nodes of the range
+     * @param offHeap   true to allocate the columns outside of the heap like the other columns of the graph
+     */
+    static EdgeCosts build(Graph graph, EdgeIterator iterator, int firstNode, int endNode, int firstEdge,
+                           int edges, boolean offHeap) {
+        FloatBuffer lengths = offHeap ? graph.allocateFloats(edges) : FloatBuffer.allocate(edges);
+        FloatBuffer[] costs = new FloatBuffer[PROFILES.length];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = offHeap ? graph.allocateFloats(edges) : FloatBuffer.allocate(edges);
+        }
+        EdgeCosts edgeCosts = new EdgeCosts(firstEdge, lengths, costs);
+
+        for (int node = firstNode; node < endNode; node++) {
+            iterator.setBaseNode(node);
+            while (iterator.next()) {
+                int nextCrossing = iterator.getNextCrossing();
+                // if we're using a shortcut, the distance is the one between the node and the crossing
+                double length = nextCrossing == -1 ? iterator.getDistance() : graph.getDistance(node, nextCrossing);
+                lengths.put(iterator.getEdge() - firstEdge, (float) length);
+                edgeCosts.update(iterator);
+            }
+        }
+        return edgeCosts;
+    }
+
+
+    /**
+     * Calculates the costs of the current edge of the iterator again, e.g. because its traffic weight changed.
+     */
+    void update(EdgeIterator edge) {
+        int id = edge.getEdge() - this.firstEdge;
+        float length = this.lengths.get(id);
+        for (CostProfile profile : PROFILES) {
+            this.costs[profile.ordinal()].put(id, calculateCost(profile, edge, length, edge.getAdditionalWeight()));
+        }
+    }
+
+
+    /**
+     * @return the cost of the current edge of the iterator without traffic, it's not higher than its current cost
+     */
+    float getFreeFlowCost(CostProfile profile, EdgeIterator edge) {
+        return calculateCost(profile, edge, this.lengths.get(edge.getEdge() - this.firstEdge), 0);
+    }
+
+
+    private static float calculateCost(CostProfile profile, EdgeIterator edge, float length,
+                                       double additionalWeight) {
+        // just allow this way if the edge can be accessed and it's not closed
+        if (!profile.canAccess(edge) || additionalWeight >= 1.0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (!profile.isFastest()) {
+            return length;
+        }
+        double speed = getSpeedInMeterPerSeconds(profile.getAccessor(), edge);
+        if (speed <= 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) (length / speed * (1 + 10 * additionalWeight));
+    }
+
+
+    /**
+     * @param edge id of an edge
+     * @param profile vehicle and weighting
+     * @return the weight of the edge for the profile, {@link Float#POSITIVE_INFINITY} if it can't be used
+     */
+    public float getCost(CostProfile profile, int edge) {
+        return this.costs[profile.ordinal()].get(edge - this.firstEdge);
+    }
+
+
+    /**
+     * @return a hash of the costs without traffic of all edges for the profile, e.g. to check if a
+     * {@link ContractionHierarchy} has been built with the same costs
+     */
+    long getFreeFlowChecksum(Graph graph, CostProfile profile) {
+        long checksum = graph.getEdgesSize();
+        EdgeIterator edges = graph.createEdgeIterator();
+        // the edges of a node follow the edges of the previous node, so they are hashed by ascending id
+        for (int node = 0; node < graph.getNodesSize(); node++) {
+            edges.setBaseNode(node);
+            while (edges.next()) {
+                checksum = 31 * checksum + Float.floatToIntBits(getFreeFlowCost(profile, edges));
+            }
+        }
+        return checksum;
+    }
+
+
+    /**
+     * Copies the costs of all edges for the profile, indexed by edge id.
+     *
+     * @param target a column with one float per edge
+     */
+    void copyCosts(CostProfile profile, FloatBuffer target) {
+        FloatBuffer source = this.costs[profile.ordinal()].duplicate();
+        source.rewind();
+        target.duplicate().put(source);
+    }
+
+
+    /**
+     * @param edge id of an edge
+     * @return the length of the edge resp. the distance to its next crossing in meters
+     */
+    public float getLength(int edge) {
+        return this.lengths.get(edge - this.firstEdge);
+    }
+
+
+    /**
+     * @param accessor vehicle which uses the edge
+     * @param edge     iterator pointing to an edge
+     * @return the edge speed (or the max. speed of the vehicle) in meter per seconds
+     */
+    public static double getSpeedInMeterPerSeconds(Accessor accessor, EdgeIterator edge) {
+        return Math.min(edge.getSpeed(), accessor.getMaxSpeed()) / 3.6;
+    }
+}
@@ -0,0 +1,16 @@
+package de.sebastianhesse.pbf.storage;
+
+
+/**
+ * Direction of the edges an {@link EdgeIterator} iterates over, relative to its base node.
+ */
+public enum EdgeDirection {
+    /**
+     * edges starting at the base node, used by forward searches
+     */
+    OUTGOING,
+    /**
+     * edges ending at the base node, used by backward searches; needs {@link Graph#buildReverseEdges()}
+     */
+    INCOMING
+}
@@ -0,0 +1,74 @@
+package de.sebastianhesse.pbf.storage;
+
+
+/**
+ * Cursor over the outgoing edges of a node in a {@link Graph}. Create one with {@link Graph#createEdgeIterator()},
+ * move it to a node with {@link #setBaseNode(int)} and call {@link #next()} until it returns false. The getters
+ * return the values of the current edge. An iterator can be reused for several nodes, but not by several threads.
+ * <p>
+ * An iterator created with {@link Graph#createEdgeIterator(EdgeDirection)} and {@link EdgeDirection#INCOMING}
+ * iterates over the incoming edges of a node instead. Then {@link #getTarget()} returns the source of an edge, i.e.
+ * always the adjacent node of the base node.
+ */
+public interface EdgeIterator {
+
+    /**
+     * @param node id of the node whose edges should be iterated
+     * @return this iterator, positioned before the first edge of the node
+     */
+    EdgeIterator setBaseNode(int node);
+
+
+    /**
+     * @return true if the iterator moved to the next edge, false if there are no more edges
+     */
+    boolean next();
+
+
+    /**
+     * @return id of the current edge
+     */
+    int getEdge();
+
+
+    int getBaseNode();
+
+
+    /**
+     * @return the adjacent node of the base node, i.e. the target of an outgoing resp. the source of an incoming edge
+     */
+    int getTarget();
+
+
+    /**
+     * @return id of the next crossing reachable via the current edge, -1 if there is none
+     */
+    int getNextCrossing();
+
+
+    /**
+     * @return distance from source to target in meters
+     */
+    double getDistance();
+
+
+    /**
+     * @return allowed speed in km/h
+     */
+    short getSpeed();
+
+
+    /**
+     * @return highway type of the edge, e.g. motorway_link
+     */
+    String getType();
+
+
+    boolean isCarAllowed();
+
+
+    boolean isPedestrianAllowed();
+
+
+    double getAdditionalWeight();
+}
@@ -0,0 +1,387 @@
+package de.sebastianhesse.pbf.storage;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Loads the edges of a tiled {@link GraphSnapshot} on demand. A tile contains the outgoing edges of all nodes of one
+ * grid cell of {@link Graph#MAX_DIFF} degrees. The nodes are sorted by these cells, so the nodes of a tile are a
+ * range of node ids and its edges are a range of edge ids. Edges leaving a tile simply point to a node of another
+ * tile which is loaded as soon as a search expands into it.
+ * <p>
+ * Each tile is stored as {@link #BYTES_PER_EDGE} bytes per edge: the targets, next crossings, distances, speeds,
+ * flags and types of its edges, one column after another. Loaded tiles are kept on the heap until the size of all
+ * loaded tiles exceeds the budget, then the least recently used tiles are evicted. Nodes and the first edge of each
+ * node are not part of the tiles. The {@link EdgeCosts} of a tile are calculated when they are used first and count
+ * towards the budget from the start, so a loaded tile needs {@link #BYTES_PER_EDGE} plus
+ * {@link EdgeCosts#BYTES_PER_EDGE} bytes per edge.
+ * <p>
+ * Loaded tiles are looked up without locking, only loading and evicting a tile locks the cache. Instead of keeping
+ * the tiles in access order, a tile remembers the number of loads when it was used last, so the tile evicted is one
+ * which has not been used for the most loads.
+ */
+class EdgeTileCache implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EdgeTileCache.class);
+    static final int BYTES_PER_EDGE = 2 * Integer.BYTES + Float.BYTES + 3 * Byte.BYTES;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long dataOffset;
+    private final IntBuffer firstEdges;
+    // n + 1 entries, the first node of each tile and the number of nodes at the end
+    private final int[] tileFirstNodes;
+    // n + 1 entries, the first edge of each tile and the number of edges at the end
+    private final int[] tileFirstEdges;
+    private final long maxBytes;
+    // the loaded tiles indexed by tile id, null if a tile is not loaded
+    private final AtomicReferenceArray<Tile> tiles;
+    // ids of the loaded tiles, only changed while the cache is locked
+    private final TIntList loadedTiles = new TIntArrayList();
+    private long usedBytes = 0;
+    private volatile long loads = 0;
+    private long evictions = 0;
+
+
+    /**
+     * @param file           the snapshot file, it is kept open to load tiles
+     * @param dataOffset     position of the first tile in the file
+     * @param firstEdges     first edge of each node, n + 1 entries
+     * @param tileFirstNodes first node of each tile, contains one more entry with the number of nodes
+     * @param maxBytes       max. size of all loaded tiles; the last loaded tile is kept even if it's larger
+     */
+    EdgeTileCache(File file, long dataOffset, IntBuffer firstEdges, int[] tileFirstNodes, long maxBytes)
+            throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The tile cache size must be positive, but was " + maxBytes + ".");
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.dataOffset = dataOffset;
+        this.firstEdges = firstEdges;
+        this.tileFirstNodes = tileFirstNodes;
+        this.tileFirstEdges = new int[tileFirstNodes.length];
+        for (int tile = 0; tile < tileFirstNodes.length; tile++) {
+            this.tileFirstEdges[tile] = firstEdges.get(tileFirstNodes[tile]);
+        }
+        this.maxBytes = maxBytes;
+        this.tiles = new AtomicReferenceArray<>(tileFirstNodes.length - 1);
+    }
+
+
+    /**
+     * Cuts the sorted nodes of a graph into tiles along their grid cells.
+     *
+     * @param graph a graph whose nodes are sorted
+     * @return first node of each tile, contains one more entry with the number of nodes
+     */
+    static int[] partition(Graph graph) {
+        TIntList firstNodes = new TIntArrayList();
+        long lastCell = Long.MIN_VALUE;
+        for (int node = 0; node < graph.getNodesSize(); node++) {
+            long cell = (long) Graph.getGridCell(graph.getEncodedLat(node)) << 32 |
+                    (Graph.getGridCell(graph.getEncodedLon(node)) & 0xFFFFFFFFL);
+            if (cell != lastCell) {
+                firstNodes.add(node);
+                lastCell = cell;
+            }
+        }
+        firstNodes.add(graph.getNodesSize());
+        return firstNodes.toArray();
+    }
+
+
+    int getNumberOfTiles() {
+        return this.tileFirstNodes.length - 1;
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return the tile containing the edges of the node, loaded from disk if necessary
+     */
+    Tile getTileOfNode(int node) {
+        return getTile(findTile(this.tileFirstNodes, node));
+    }
+
+
+    /**
+     * @param edge id of an edge
+     * @return the tile containing the edge, loaded from disk if necessary
+     */
+    Tile getTileOfEdge(int edge) {
+        return getTile(findTile(this.tileFirstEdges, edge));
+    }
+
+
+    /**
+     * @param edge id of an edge
+     * @return the tile containing the edge or null if it's not loaded
+     */
+    Tile getLoadedTileOfEdge(int edge) {
+        return this.tiles.get(findTile(this.tileFirstEdges, edge));
+    }
+
+
+    /**
+     * Binary search for the last tile starting at or before the node resp. edge.
+     */
+    private static int findTile(int[] tileFirstIds, int id) {
+        int low = 0;
+        int high = tileFirstIds.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (tileFirstIds[middle] <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+
+    Tile getTile(int tile) {
+        Tile result = this.tiles.get(tile);
+        if (result == null) {
+            result = loadTile(tile);
+        }
+        long loads = this.loads;
+        // racy, a lost update only lets the tile look a bit older
+        if (result.lastUsed != loads) {
+            result.lastUsed = loads;
+        }
+        return result;
+    }
+
+
+    private synchronized Tile loadTile(int tile) {
+        Tile result = this.tiles.get(tile);
+        if (result != null) {
+            // loaded by another thread meanwhile
+            return result;
+        }
+        result = load(tile);
+        this.tiles.set(tile, result);
+        this.loadedTiles.add(tile);
+        this.usedBytes += result.getSizeInBytes();
+        this.loads++;
+        evictLeastRecentlyUsed(tile);
+        logger.debug("Loaded tile {} with {} edges, {} of {} tiles loaded ({} bytes), {} loads, {} evictions.",
+                tile, result.edges, this.loadedTiles.size(), getNumberOfTiles(), this.usedBytes, this.loads,
+                this.evictions);
+        return result;
+    }
+
+
+    private Tile load(int tile) {
+        int firstEdge = this.tileFirstEdges[tile];
+        int edges = this.tileFirstEdges[tile + 1] - firstEdge;
+        ByteBuffer data = ByteBuffer.allocate(edges * BYTES_PER_EDGE).order(ByteOrder.LITTLE_ENDIAN);
+        long position = this.dataOffset + (long) firstEdge * BYTES_PER_EDGE;
+        try {
+            while (data.hasRemaining()) {
+                int read = this.channel.read(data, position + data.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file while reading tile " + tile + ".");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load tile " + tile + " of " + this.file + ".", e);
+        }
+        return new Tile(this.tileFirstNodes[tile], this.tileFirstNodes[tile + 1], firstEdge, edges, data);
+    }
+
+
+    /**
+     * Evicts the tiles which have not been used for the most loads until the budget is met.
+     *
+     * @param loadedTile the tile loaded last, it's kept even if it's larger than the budget
+     */
+    private void evictLeastRecentlyUsed(int loadedTile) {
+        // iterators still reference an evicted tile, so it's only dropped here and not modified
+        while (this.usedBytes > this.maxBytes && this.loadedTiles.size() > 1) {
+            int oldest = -1;
+            long oldestUse = Long.MAX_VALUE;
+            for (int i = 0; i < this.loadedTiles.size(); i++) {
+                int tile = this.loadedTiles.get(i);
+                long lastUsed = this.tiles.get(tile).lastUsed;
+                if (tile != loadedTile && lastUsed < oldestUse) {
+                    oldest = i;
+                    oldestUse = lastUsed;
+                }
+            }
+            int tile = this.loadedTiles.removeAt(oldest);
+            this.usedBytes -= this.tiles.get(tile).getSizeInBytes();
+            this.tiles.set(tile, null);
+            this.evictions++;
+        }
+    }
+
+
+    synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+
+    /**
+     * Drops all loaded tiles and closes the snapshot file. Tiles can't be loaded anymore afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (int i = 0; i < this.loadedTiles.size(); i++) {
+            this.tiles.set(this.loadedTiles.get(i), null);
+        }
+        this.loadedTiles.clear();
+        this.usedBytes = 0;
+        this.channel.close();
+    }
+
+
+    /**
+     * Writes the edges of all tiles of a graph in the format of {@link #load(int)}.
+     *
+     * @param graph          a connected graph with any edge layout
+     * @param tileFirstNodes the tiles of the graph, see {@link #partition(Graph)}
+     * @param channel        channel to write to, at the position of the first tile
+     */
+    static void write(Graph graph, int[] tileFirstNodes, FileChannel channel) throws IOException {
+        EdgeIterator edges = graph.createEdgeIterator();
+        for (int tile = 0; tile < tileFirstNodes.length - 1; tile++) {
+            int firstEdge = graph.getFirstEdge(tileFirstNodes[tile]);
+            int size = graph.getFirstEdge(tileFirstNodes[tile + 1]) - firstEdge;
+            ByteBuffer data = ByteBuffer.allocate(size * BYTES_PER_EDGE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int node = tileFirstNodes[tile]; node < tileFirstNodes[tile + 1]; node++) {
+                edges.setBaseNode(node);
+                while (edges.next()) {
+                    int i = edges.getEdge() - firstEdge;
+                    byte flags = (byte) ((edges.isCarAllowed() ? Graph.CAR_ALLOWED : 0) |
+                            (edges.isPedestrianAllowed() ? Graph.PEDESTRIAN_ALLOWED : 0));
+                    data.putInt(i * Integer.BYTES, edges.getTarget())
+                            .putInt((size + i) * Integer.BYTES, edges.getNextCrossing())
+                            .putFloat(size * 2 * Integer.BYTES + i * Float.BYTES, (float) edges.getDistance())
+                            .put(size * (BYTES_PER_EDGE - 3) + i, (byte) edges.getSpeed())
+                            .put(size * (BYTES_PER_EDGE - 2) + i, flags)
+                            .put(size * (BYTES_PER_EDGE - 1) + i, (byte) graph.edgeTypeNames.indexOf(edges.getType()));
+                }
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+
+    /**
+     * The edges of one tile, see {@link EdgeTileCache} for the layout of the data.
+     */
+    static class Tile {
+
+        final int firstNode;
+        final int endNode;
+        final int firstEdge;
+        final int edges;
+        final ByteBuffer data;
+        // number of loads of the cache when the tile has been used last
+        volatile long lastUsed;
+        private volatile EdgeCosts costs;
+
+
+        Tile(int firstNode, int endNode, int firstEdge, int edges, ByteBuffer data) {
+            this.firstNode = firstNode;
+            this.endNode = endNode;
+            this.firstEdge = firstEdge;
+            this.edges = edges;
+            this.data = data;
+        }
+
+
+        /**
+         * @return the size of the edges and their costs
+         */
+        long getSizeInBytes() {
+            return this.data.capacity() + (long) this.edges * EdgeCosts.BYTES_PER_EDGE;
+        }
+
+
+        /**
+         * @return the costs of the edges of this tile, calculated with the current traffic weights on first use
+         */
+        EdgeCosts getCosts(Graph graph, EdgeTileCache cache) {
+            EdgeCosts result = this.costs;
+            if (result == null) {
+                synchronized (this) {
+                    if (this.costs == null) {
+                        this.costs = EdgeCosts.build(graph, new TiledEdgeIterator(graph, cache, this),
+                                this.firstNode, this.endNode, this.firstEdge, this.edges, false);
+                    }
+                    result = this.costs;
+                }
+            }
+            return result;
+        }
+
+
+        /**
+         * Calculates the costs of the current edge of the iterator again if the costs of this tile have been
+         * calculated already, otherwise they include the new traffic weight when they are calculated.
+         */
+        synchronized void updateCosts(EdgeIterator edge) {
+            if (this.costs != null) {
+                this.costs.update(edge);
+            }
+        }
+
+
+        /**
+         * @return true if the edge belongs to this tile
+         */
+        boolean contains(int edge) {
+            return edge >= this.firstEdge && edge < this.firstEdge + this.edges;
+        }
+
+
+        int getTarget(int edge) {
+            return this.data.getInt((edge - this.firstEdge) * Integer.BYTES);
+        }
+
+
+        int getNextCrossing(int edge) {
+            return this.data.getInt((this.edges + edge - this.firstEdge) * Integer.BYTES);
+        }
+
+
+        float getDistance(int edge) {
+            return this.data.getFloat(this.edges * 2 * Integer.BYTES + (edge - this.firstEdge) * Float.BYTES);
+        }
+
+
+        byte getSpeed(int edge) {
+            return this.data.get(this.edges * (BYTES_PER_EDGE - 3) + edge - this.firstEdge);
+        }
+
+
+        byte getFlags(int edge) {
+            return this.data.get(this.edges * (BYTES_PER_EDGE - 2) + edge - this.firstEdge);
+        }
+
+
+        byte getType(int edge) {
+            return this.data.get(this.edges * (BYTES_PER_EDGE - 1) + edge - this.firstEdge);
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package de.sebastianhesse.pbf.storage;
 
-import de.sebastianhesse.pbf.exceptions.OutOfRangeException;
+import de.sebastianhesse.pbf.reader.Accessor;
 import de.sebastianhesse.pbf.util.GraphUtil;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TObjectLongMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -19,277 +24,1033 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 /**
  * A Graph object contains nodes and edges. First add nodes {@link #addNode(Node)} and edges {@link #addEdge(Edge)},
- * then call {@link #sortAndConnectData()} which sorts the edges and adds an offset pointer to each node.
- * An offset pointer marks where the edges of a node start in the edge array.
+ * then call {@link #sortAndConnectData()} which sorts the edges by their source node (compressed sparse row format).
+ * The outgoing edges of node i are the edges from {@code firstEdges[i]} to {@code firstEdges[i + 1] - 1}.
+ * Optionally, {@link #buildReverseEdges()} adds the same index for incoming edges which is used by backward searches.
+ * {@link #buildContractionHierarchies()} adds a {@link ContractionHierarchy} of each profile for fast queries which
+ * ignore traffic,
+ * {@link #buildLandmarks(int)} adds {@link Landmarks} for goal directed searches which are still valid with traffic.
+ * <p>
+ * Nodes and edges are not stored as objects. Instead, all attributes are kept in parallel primitive columns which are
+ * indexed by the node id resp. edge id. Use the accessor methods like {@link #getLat(int)} or
+ * {@link #createEdgeIterator()} to read them. {@link Node} objects are only created on demand, e.g. for results.
+ * The columns are buffers backed by arrays while importing data, but they can also be mapped from a file created by
+ * {@link GraphSnapshot} or moved into direct buffers by {@link #moveOffHeap()}. The edges of a tiled snapshot are
+ * loaded on demand by an {@link EdgeTileCache}.
+ * <p>
+ * Coordinates are stored as fixed-point integers, see {@link GraphUtil#encodeCoordinate(double)}. The nodes are
+ * sorted into cells of {@link #MAX_DIFF} degrees, so nodes close to each other have similar ids. Positions are looked
+ * up with a {@link KdTree} for nearest nodes and a {@link UniformGrid} for all nodes within a distance.
+ * Nodes can also be looked up by their OSM id, see {@link OsmIdIndex}. The {@link StronglyConnectedComponents} of
+ * each accessor and the {@link EdgeCosts} of each profile are calculated while connecting the edges.
  */
-public class Graph {
+public class Graph implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(Graph.class);
     public static final double MAX_DIFF = 0.1;
-
-    private Node[] nodes = null;
-    private Edge[] edges = null;
-    private TObjectLongMap<Node> pois = new TObjectLongHashMap<>();
-
-    private int nodeIdx = 0;
-    private int edgeIdx = 0;
-
-    private Map<String, GridOffset> gridOffsets;
-    private GraphBoundary graphBoundary;
+    public static final double DEFAULT_GRID_CELL_SIZE = MAX_DIFF;
+    /**
+     * max. distance in meters to snap a position to a node
+     */
+    public static final double MAX_SNAP_DISTANCE = 1000;
+    private static final int GRID_CELL_SIZE = GraphUtil.encodeCoordinate(MAX_DIFF);
+    // grid cells are in the range of [-MAX_GRID_CELL, MAX_GRID_CELL] for lat and lon
+    private static final int MAX_GRID_CELL = GraphUtil.encodeCoordinate(180) / GRID_CELL_SIZE;
+
+    static final byte CROSSING = 1;
+    static final byte CAR_ALLOWED = 1;
+    static final byte PEDESTRIAN_ALLOWED = 1 << 1;
+
+    // columns and metadata are package-private, so GraphSnapshot can write and restore them
+
+    // node attributes, indexed by node id
+    IntBuffer lats;
+    IntBuffer lons;
+    // first edge of each node, contains one more entry for the end of the last node's edges
+    IntBuffer firstEdges;
+    ByteBuffer nodeFlags;
+    // only needed while the graph is built, i.e. until the edges are connected; afterwards the OSM ids are only
+    // available in the compact osmIdIndex
+    private long[] osmIds;
+    OsmIdIndex osmIdIndex;
+
+    // edge attributes, indexed by edge id; the sources are only needed until the edges are connected
+    IntBuffer edgeSources;
+    IntBuffer edgeTargets;
+    IntBuffer nextCrossings;
+    FloatBuffer distances;
+    FloatBuffer additionalWeights;
+    ByteBuffer speeds;
+    ByteBuffer edgeFlags;
+    ByteBuffer edgeTypes;
+    List<String> edgeTypeNames = new ArrayList<>();
+    // replaces the uncompressed edge columns and offset pointers if set
+    CompressedEdges compressedEdges;
+    // replaces the uncompressed edge columns if set, the first edges are still available
+    EdgeTileCache edgeTiles;
+    // optional reverse index, the incoming edges of node i are inEdges[firstInEdges[i]] to
+    // inEdges[firstInEdges[i + 1] - 1]; inEdgeSources contains the source of each of them
+    IntBuffer firstInEdges;
+    IntBuffer inEdges;
+    IntBuffer inEdgeSources;
+    // strongly connected components of the edges which can be accessed by car resp. pedestrians
+    StronglyConnectedComponents carComponents;
+    StronglyConnectedComponents pedestrianComponents;
+    // weights of the edges for each profile, rebuilt whenever the edges change
+    EdgeCosts edgeCosts;
+    // optional contraction hierarchy of each profile, indexed by the ordinal of the profile
+    ContractionHierarchy[] contractionHierarchies = new ContractionHierarchy[CostProfile.values().length];
+    // optional landmarks of each profile, indexed by the ordinal of the profile
+    Landmarks[] landmarks = new Landmarks[CostProfile.values().length];
+    // optional partition into cells and the overlay of each profile, indexed by the ordinal of the profile
+    MultilevelPartition partition;
+    // replaced as a whole after a customization, each metric carries the costs its cliques have been calculated with
+    volatile OverlayMetric[] overlayMetrics = new OverlayMetric[CostProfile.values().length];
+
+    TObjectLongMap<Node> pois = new TObjectLongHashMap<>();
+    // estimated size of the POI nodes, updated when a POI is added so the memory estimate doesn't iterate over them
+    private long poiNodeBytes = 0;
+    // columns which are calculated after loading, e.g. the costs, are allocated outside of the heap if set
+    boolean offHeap = false;
+
+    int nodeIdx = 0;
+    int edgeIdx = 0;
+
+    GraphBoundary graphBoundary;
+    // spatial indexes of the nodes, built after sorting the nodes
+    KdTree nodeIndex;
+    UniformGrid nodeGrid;
+    private double gridCellSize = DEFAULT_GRID_CELL_SIZE;
     private Map<String, Set<String>> poiTypes;
+    // spatial index of the POIs, built on demand after adding POIs
+    private Node[] poiNodes;
+    private UniformGrid poiGrid;
 
 
     public Graph(int nodes, int edges) {
-        this.nodes = new Node[nodes];
-        this.edges = new Edge[edges];
-        this.gridOffsets = new HashMap<>();
+        this.lats = IntBuffer.allocate(nodes);
+        this.lons = IntBuffer.allocate(nodes);
+        this.nodeFlags = ByteBuffer.allocate(nodes);
+        this.osmIds = new long[nodes];
+        this.edgeSources = IntBuffer.allocate(edges);
+        this.edgeTargets = IntBuffer.allocate(edges);
+        this.nextCrossings = IntBuffer.allocate(edges);
+        this.distances = FloatBuffer.allocate(edges);
+        this.speeds = ByteBuffer.allocate(edges);
+        this.edgeFlags = ByteBuffer.allocate(edges);
+        this.edgeTypes = ByteBuffer.allocate(edges);
         this.graphBoundary = new GraphBoundary();
         this.poiTypes = new HashMap<>();
     }
 
 
     /**
-     * Adds a new edge to the graph and returns the index where it has been inserted.
+     * Creates an empty graph whose columns are set by {@link GraphSnapshot}.
+     */
+    Graph() {
+        this.poiTypes = new HashMap<>();
+    }
+
+
+    /**
+     * Adds a new edge to the graph. The values of the edge are copied, i.e. the object is not referenced afterwards.
      *
      * @param edge an edge containing at least the source and target id of a node
      */
     public void addEdge(Edge edge) {
         if (edge != null && edge.getSourceNode() != edge.getTargetNode()) {
-            this.edges[this.edgeIdx] = edge;
+            this.edgeSources.put(this.edgeIdx, edge.getSourceNode());
+            this.edgeTargets.put(this.edgeIdx, edge.getTargetNode());
+            this.nextCrossings.put(this.edgeIdx, edge.getNextCrossing());
+            this.distances.put(this.edgeIdx, (float) edge.getDistance());
+            // speeds above 255 km/h are not relevant for any vehicle, so it's fine to store them in one byte
+            this.speeds.put(this.edgeIdx, (byte) Math.min(Math.max(edge.getSpeed(), 0), 255));
+            this.edgeFlags.put(this.edgeIdx, (byte) ((edge.isCarAllowed() ? CAR_ALLOWED : 0) |
+                    (edge.isPedestrianAllowed() ? PEDESTRIAN_ALLOWED : 0)));
+            this.edgeTypes.put(this.edgeIdx, getEdgeTypeIndex(edge.getType()));
             this.edgeIdx++;
         }
     }
 
 
+    private byte getEdgeTypeIndex(String type) {
+        int index = this.edgeTypeNames.indexOf(type);
+        if (index == -1) {
+            this.edgeTypeNames.add(type);
+            index = this.edgeTypeNames.size() - 1;
+        }
+        return (byte) index;
+    }
+
+
     /**
-     * Adds a new node to the graph and return the index where it has been inserted.
+     * Adds a new node to the graph and return the index where it has been inserted. The values of the node are
+     * copied, i.e. the object is not referenced afterwards.
      *
-     * @param node a node containing at least latitude and longitude values
+     * @param node a node containing at least latitude and longitude values; the id must be the OSM id
      * @return the index where the node has been inserted at
      */
     public int addNode(Node node) {
-        this.nodes[this.nodeIdx] = node;
+        this.lats.put(this.nodeIdx, node.getEncodedLat());
+        this.lons.put(this.nodeIdx, node.getEncodedLon());
+        this.nodeFlags.put(this.nodeIdx, node.isCrossing() ? CROSSING : 0);
+        this.osmIds[this.nodeIdx] = node.getId();
         return this.nodeIdx++;
     }
 
 
     /**
-     * Creates a grid based on lat and lon. E.g. all points of 48.x/10.x are in one grid cell.
-     * Also calculates the boundaries of the available OSM data.
+     * Sorts the nodes based on lat and lon. E.g. all points of 48.1x/10.1x are next to each other.
+     * Also calculates the boundaries of the available OSM data and builds the spatial indexes of the nodes.
      *
      * @return current graph
      */
     public Graph sortNodesAndSetGraphBoundaries() {
-        sortNodesIntoGridCells();
-        calcGridOffsetsOnNodesAndUpdateBoundaries();
-
+        long start = System.currentTimeMillis();
+        trimNodes();
+        int[] order = sortNodesIntoGridCells();
+        applyNodeOrderAndUpdateBoundaries(order);
+        logger.info("Sorted {} nodes in {} ms.", this.nodeIdx, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        this.nodeIndex = new KdTree(this.lats, this.lons, this.nodeIdx);
+        this.nodeGrid = new UniformGrid(this.lats, this.lons, this.nodeIdx, this.gridCellSize);
+        logger.info("Built spatial indexes of nodes in {} ms.", System.currentTimeMillis() - start);
         return this;
     }
 
 
-    private void sortNodesIntoGridCells() {
-        Arrays.sort(this.nodes, (node1, node2) -> {
-            if (node1 == null || node2 == null) {
-                return 0;
-            }
+    /**
+     * Sets the size of the cells of the grid which is used to find nodes and POIs within a distance.
+     * Rebuilds the grid if the nodes have been sorted already.
+     *
+     * @param gridCellSize size of a cell in degrees, {@link #DEFAULT_GRID_CELL_SIZE} by default
+     */
+    public synchronized void setGridCellSize(double gridCellSize) {
+        if (gridCellSize <= 0) {
+            throw new IllegalArgumentException("The grid cell size must be positive, but was " + gridCellSize + ".");
+        }
+        this.gridCellSize = gridCellSize;
+        if (this.nodeGrid != null && this.nodeGrid.getCellSize() != gridCellSize) {
+            this.nodeGrid = new UniformGrid(this.lats, this.lons, this.nodeIdx, gridCellSize);
+        }
+        this.poiGrid = null;
+    }
 
-            BigDecimal lat1 = BigDecimal.valueOf(node1.getLat());
-            BigDecimal lat2 = BigDecimal.valueOf(node2.getLat());
-            BigDecimal lon1 = BigDecimal.valueOf(node1.getLon());
-            BigDecimal lon2 = BigDecimal.valueOf(node2.getLon());
 
-            if (compare(lat1, lat2) == 0 && compare(lon1, lon2) == 0) {
-                return 0;
-            }
+    public double getGridCellSize() {
+        return this.nodeGrid != null ? this.nodeGrid.getCellSize() : this.gridCellSize;
+    }
 
-            if (compare(lat1, lat2) == 1 || (compare(lat1, lat2) == 0 && compare(lon1, lon2) == -1)) {
-                return -1;
-            }
 
-            if (compare(lat1, lat2) == -1 || (compare(lat1, lat2) == 0 && compare(lon1, lon2) == 1)) {
-                return 1;
-            }
+    private void trimNodes() {
+        // a way might reference nodes which are not part of the OSM file, so we have less nodes than expected
+        if (this.nodeIdx < this.osmIds.length) {
+            this.lats = IntBuffer.wrap(Arrays.copyOf(this.lats.array(), this.nodeIdx));
+            this.lons = IntBuffer.wrap(Arrays.copyOf(this.lons.array(), this.nodeIdx));
+            this.nodeFlags = ByteBuffer.wrap(Arrays.copyOf(this.nodeFlags.array(), this.nodeIdx));
+            this.osmIds = Arrays.copyOf(this.osmIds, this.nodeIdx);
+        }
+    }
 
-            return 0;
-        });
+
+    /**
+     * Sorts the nodes from north to south and then from west to east by their grid cell. Nodes of the same cell keep
+     * their order. Each node gets a key containing the sort order of its cell in the upper bits and its index in the
+     * lower 32 bits, so the keys can be sorted as primitives in parallel.
+     *
+     * @return node ids in sorted order
+     */
+    private int[] sortNodesIntoGridCells() {
+        long[] keys = new long[this.nodeIdx];
+        for (int i = 0; i < this.nodeIdx; i++) {
+            long latOrder = MAX_GRID_CELL - getGridCell(this.lats.get(i));
+            long lonOrder = MAX_GRID_CELL + getGridCell(this.lons.get(i));
+            keys[i] = (latOrder * (2 * MAX_GRID_CELL + 1) + lonOrder) << 32 | i;
+        }
+        Arrays.parallelSort(keys);
+
+        int[] order = new int[this.nodeIdx];
+        for (int i = 0; i < this.nodeIdx; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
     }
 
 
-    private void calcGridOffsetsOnNodesAndUpdateBoundaries() {
-        BigDecimal lat = BigDecimal.valueOf(this.nodes[0].getLat());
-        BigDecimal lon = BigDecimal.valueOf(this.nodes[0].getLon());
-        String gridCellName = getGridCellName(getGridCellPart(lat), getGridCellPart(lon));
-        GridOffset lastOffset = new GridOffset(gridCellName, 0);
-        this.gridOffsets.put(lastOffset.getName(), lastOffset);
-        BigDecimal maxDiff = BigDecimal.valueOf(MAX_DIFF);
+    /**
+     * Moves the nodes into sorted order and updates the boundaries at the same time.
+     *
+     * @param order node ids in sorted order
+     */
+    private void applyNodeOrderAndUpdateBoundaries(int[] order) {
+        int[] sortedLats = new int[this.nodeIdx];
+        int[] sortedLons = new int[this.nodeIdx];
+        byte[] sortedFlags = new byte[this.nodeIdx];
+        long[] sortedOsmIds = new long[this.nodeIdx];
+        for (int i = 0; i < order.length; i++) {
+            int lat = this.lats.get(order[i]);
+            int lon = this.lons.get(order[i]);
+            sortedLats[i] = lat;
+            sortedLons[i] = lon;
+            sortedFlags[i] = this.nodeFlags.get(order[i]);
+            sortedOsmIds[i] = this.osmIds[order[i]];
+
+            this.graphBoundary.updateCorners(GraphUtil.decodeCoordinate(lat), GraphUtil.decodeCoordinate(lon));
+        }
+        this.lats = IntBuffer.wrap(sortedLats);
+        this.lons = IntBuffer.wrap(sortedLons);
+        this.nodeFlags = ByteBuffer.wrap(sortedFlags);
+        this.osmIds = sortedOsmIds;
+    }
 
-        for (int i = 1; i < this.nodes.length; i++) {
-            Node node = this.nodes[i];
-            if (node == null) {
-                continue;
-            }
 
-            this.graphBoundary.updateCorners(node);
-            boolean updatedLatOrLong = false;
+    /**
+     * Sorts the edges according to their source and target node id's and connects nodes and edges by setting the
+     * first edge of each node. Uses a counting sort by source node, so it runs in linear time.
+     *
+     * @return the updated graph object (this)
+     */
+    public Graph sortAndConnectData() {
+        long start = System.currentTimeMillis();
+        int[] order = sortEdgesBySourceAndTarget();
+        applyEdgeOrder(order);
+
+        // the source of an edge is given by the first edges now; the OSM ids were only necessary to connect
+        // the edges to the nodes while reading the data, afterwards nodes are only looked up by their OSM id
+        this.edgeSources = null;
+        this.osmIdIndex = new OsmIdIndex(this.osmIds, this.nodeIdx);
+        this.osmIds = null;
+        logger.info("Sorted and connected {} edges in {} ms.", this.edgeIdx, System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        this.carComponents = StronglyConnectedComponents.build(this, CAR_ALLOWED);
+        this.pedestrianComponents = StronglyConnectedComponents.build(this, PEDESTRIAN_ALLOWED);
+        logger.info("Found {} components for cars and {} components for pedestrians in {} ms.",
+                this.carComponents.getNumberOfComponents(), this.pedestrianComponents.getNumberOfComponents(),
+                System.currentTimeMillis() - start);
+
+        buildEdgeCosts();
+        return this;
+    }
 
-            // every time the grid coordinates change, we add another offset entry
-            BigDecimal lat1 = BigDecimal.valueOf(node.getLat());
-            BigDecimal lon1 = BigDecimal.valueOf(node.getLon());
 
-            if (isNewDecimalRange(lat, lat1, maxDiff)) {
-                lat = BigDecimal.valueOf(node.getLat());
-                updatedLatOrLong = true;
+    /**
+     * Calculates the {@link EdgeCosts} of all edges. The costs of tiled edges are calculated per tile when it's used,
+     * see {@link TiledEdgeCosts}.
+     */
+    void buildEdgeCosts() {
+        long start = System.currentTimeMillis();
+        if (this.edgeTiles != null) {
+            this.edgeCosts = new TiledEdgeCosts(this, this.edgeTiles);
+        } else {
+            this.edgeCosts = EdgeCosts.build(this);
+            logger.info("Calculated the costs of {} edges in {} ms.", this.edgeIdx,
+                    System.currentTimeMillis() - start);
+        }
+        // the hierarchies and landmarks have been built with other costs
+        Arrays.fill(this.contractionHierarchies, null);
+        Arrays.fill(this.landmarks, null);
+        customizeOverlays();
+    }
+
+
+    /**
+     * Replaces the edge columns by a compressed adjacency, see {@link CompressedEdges}. This saves more than half of
+     * the memory needed for edges, but edges must be decoded while iterating over them.
+     * Distances are rounded to decimeters afterwards.
+     *
+     * @return the updated graph object (this)
+     */
+    public Graph compressEdges() {
+        if (this.compressedEdges != null) {
+            return this;
+        }
+        if (this.firstEdges == null) {
+            throw new IllegalStateException("Can't compress the edges of a graph which is not connected.");
+        }
+        if (this.edgeTiles != null) {
+            throw new IllegalStateException("Can't compress the edges of a graph whose edges are loaded from tiles.");
+        }
+
+        long start = System.currentTimeMillis();
+        long uncompressedSize = (long) (this.nodeIdx + 1) * Integer.BYTES +
+                (long) this.edgeIdx * (2 * Integer.BYTES + Float.BYTES + 3 * Byte.BYTES);
+        this.compressedEdges = CompressedEdges.encode(this);
+        this.firstEdges = null;
+        this.edgeTargets = null;
+        this.nextCrossings = null;
+        this.distances = null;
+        this.speeds = null;
+        this.edgeFlags = null;
+        this.edgeTypes = null;
+
+        logger.info("Compressed edges from {} to {} bytes in {} ms.", uncompressedSize,
+                this.compressedEdges.getSizeInBytes(), System.currentTimeMillis() - start);
+        // the distances are rounded now
+        buildEdgeCosts();
+        return this;
+    }
+
+
+    /**
+     * Builds an index of the incoming edges of each node, so backward searches don't need to scan all edges.
+     * Like the outgoing edges, the incoming edges are grouped by a counting sort, here by their target. The index
+     * only contains the id and source of each edge, all other attributes are shared with the outgoing edges.
+     * Needs 8 bytes per edge and 4 bytes per node.
+     *
+     * @return the updated graph object (this)
+     * @see #createEdgeIterator(EdgeDirection)
+     */
+    public Graph buildReverseEdges() {
+        if (this.inEdges != null) {
+            return this;
+        }
+        if (!isConnected()) {
+            throw new IllegalStateException("Can't build the reverse edges of a graph which is not connected.");
+        }
+
+        long start = System.currentTimeMillis();
+        int[] first = new int[this.nodeIdx + 1];
+        EdgeIterator edges = createEdgeIterator();
+        for (int node = 0; node < this.nodeIdx; node++) {
+            edges.setBaseNode(node);
+            while (edges.next()) {
+                first[edges.getTarget() + 1]++;
             }
+        }
+        for (int node = 0; node < this.nodeIdx; node++) {
+            first[node + 1] += first[node];
+        }
 
-            if (isNewDecimalRange(lon, lon1, maxDiff)) {
-                lon = BigDecimal.valueOf(node.getLon());
-                updatedLatOrLong = true;
+        // the sources are visited in ascending order, so the incoming edges of a node are sorted by their source
+        int[] ids = new int[this.edgeIdx];
+        int[] sources = new int[this.edgeIdx];
+        int[] next = Arrays.copyOf(first, this.nodeIdx);
+        for (int node = 0; node < this.nodeIdx; node++) {
+            edges.setBaseNode(node);
+            while (edges.next()) {
+                int position = next[edges.getTarget()]++;
+                ids[position] = edges.getEdge();
+                sources[position] = node;
             }
+        }
+        this.firstInEdges = IntBuffer.wrap(first);
+        this.inEdges = IntBuffer.wrap(ids);
+        this.inEdgeSources = IntBuffer.wrap(sources);
+
+        logger.info("Built reverse index of {} edges in {} ms.", this.edgeIdx, System.currentTimeMillis() - start);
+        return this;
+    }
 
 
-            // only update the offset if the current value belongs to the next grid
-            if (updatedLatOrLong) {
-                String nextOffsetName = getGridCellName(getGridCellPart(lat), getGridCellPart(lon));
-                lastOffset.setNextOffset(nextOffsetName);
-                this.gridOffsets.put(lastOffset.getName(), lastOffset);
-                lastOffset = new GridOffset(nextOffsetName, i);
-                this.gridOffsets.put(lastOffset.getName(), lastOffset);
+    /**
+     * Builds the {@link ContractionHierarchy} of each profile. This takes much longer than connecting the graph, so
+     * the hierarchies should be written next to a snapshot, see {@link ContractionHierarchy#write(java.io.File)}.
+     *
+     * @return the updated graph object (this)
+     */
+    public Graph buildContractionHierarchies() {
+        for (CostProfile profile : CostProfile.values()) {
+            if (this.contractionHierarchies[profile.ordinal()] == null) {
+                setContractionHierarchy(ContractionHierarchy.build(this, profile));
             }
         }
+        return this;
+    }
+
+
+    /**
+     * Adds the hierarchy of a profile, e.g. after reading it from a file. It replaces the previous hierarchy of
+     * the profile.
+     *
+     * @throws IllegalArgumentException if the hierarchy has been built for another graph or with other costs, traffic
+     *                                  weights don't matter
+     */
+    public void setContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy.getNodes() != this.nodeIdx) {
+            throw new IllegalArgumentException("Contraction hierarchy has " + hierarchy.getNodes() +
+                    " nodes, but the graph has " + this.nodeIdx + " nodes.");
+        }
+        if (this.edgeCosts == null ||
+                hierarchy.costsChecksum != this.edgeCosts.getFreeFlowChecksum(this, hierarchy.profile)) {
+            throw new IllegalArgumentException("Contraction hierarchy for " + hierarchy.profile +
+                    " has been built with other edge costs.");
+        }
+        this.contractionHierarchies[hierarchy.profile.ordinal()] = hierarchy;
+    }
+
+
+    /**
+     * @return the contraction hierarchy of the profile or null if it has not been built
+     */
+    public ContractionHierarchy getContractionHierarchy(CostProfile profile) {
+        return this.contractionHierarchies[profile.ordinal()];
     }
 
 
     /**
-     * Sorts the data according to their source and target node id's. Also connects nodes and edges by setting an
-     * offset pointer for each node. An offset pointer marks where the edges of a node start in the edge array.
+     * Selects the {@link Landmarks} of each profile and calculates their weights. They should be written next to a
+     * snapshot, see {@link Landmarks#write(java.io.File)}.
      *
+     * @param count number of landmarks per profile, e.g. 16
      * @return the updated graph object (this)
      */
-    public Graph sortAndConnectData() {
-        logger.debug("--- Start sorting ---");
-        logger.debug("1. Sort edges according to their source node...");
+    public Graph buildLandmarks(int count) {
+        for (CostProfile profile : CostProfile.values()) {
+            setLandmarks(Landmarks.build(this, profile, count));
+        }
+        return this;
+    }
 
-        sortEdgesBasedOnSourceAndTarget();
 
-        logger.debug("Done.");
-        logger.debug("2. Set offset pointer to nodes...");
+    /**
+     * Adds the landmarks of a profile, e.g. after reading them from a file. They replace the previous landmarks of
+     * the profile.
+     *
+     * @throws IllegalArgumentException if the landmarks have been calculated for another graph or with other costs,
+     *                                  traffic weights don't matter
+     */
+    public void setLandmarks(Landmarks landmarks) {
+        int words = (this.nodeIdx + Integer.SIZE - 1) / Integer.SIZE;
+        if (landmarks.headBits.limit() != words) {
+            throw new IllegalArgumentException("Landmarks have been calculated for " + landmarks.headBits.limit() *
+                    Integer.SIZE + " nodes at most, but the graph has " + this.nodeIdx + " nodes.");
+        }
+        if (this.edgeCosts == null ||
+                landmarks.costsChecksum != this.edgeCosts.getFreeFlowChecksum(this, landmarks.profile)) {
+            throw new IllegalArgumentException("Landmarks for " + landmarks.profile +
+                    " have been calculated with other edge costs.");
+        }
+        this.landmarks[landmarks.profile.ordinal()] = landmarks;
+    }
 
-        setOffsetPointerForNodes();
 
-        logger.debug("Done.");
-        logger.debug("--- End sorting ---");
+    /**
+     * @return the landmarks of the profile or null if they have not been built
+     */
+    public Landmarks getLandmarks(CostProfile profile) {
+        return this.landmarks[profile.ordinal()];
+    }
 
+
+    /**
+     * Partitions the graph into cells, see {@link MultilevelPartition}, and customizes the overlay of each profile.
+     *
+     * @return the updated graph object (this)
+     */
+    public Graph buildPartition() {
+        this.partition = MultilevelPartition.build(this, MultilevelPartition.DEFAULT_CELL_SIZES);
+        customizeOverlays();
         return this;
     }
 
 
-    private void sortEdgesBasedOnSourceAndTarget() {
-        Arrays.sort(this.edges, (edge1, edge2) -> {
-            if (edge1 == null || edge2 == null) {
-                return 0;
+    /**
+     * Calculates the {@link OverlayMetric} of each profile with the current edge costs, e.g. after the traffic
+     * changed. The previous overlays are replaced when all of them are calculated, so queries can use them meanwhile.
+     * Does nothing if the graph has not been partitioned.
+     */
+    public void customizeOverlays() {
+        MultilevelPartition partition = this.partition;
+        if (partition == null || this.edgeCosts == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        OverlayMetric[] metrics = new OverlayMetric[this.overlayMetrics.length];
+        for (CostProfile profile : CostProfile.values()) {
+            metrics[profile.ordinal()] = OverlayMetric.customize(this, partition, profile);
+        }
+        this.overlayMetrics = metrics;
+        logger.info("Customized the overlays of {} profiles in {} ms.", metrics.length,
+                System.currentTimeMillis() - start);
+    }
+
+
+    /**
+     * @return the partition or null if the graph has not been partitioned
+     */
+    public MultilevelPartition getPartition() {
+        return this.partition;
+    }
+
+
+    /**
+     * @return the overlay of the profile or null if the graph has not been partitioned
+     */
+    public OverlayMetric getOverlayMetric(CostProfile profile) {
+        return this.overlayMetrics[profile.ordinal()];
+    }
+
+
+    /**
+     * Moves all columns of the graph into direct buffers outside of the Java heap. Afterwards the heap only holds
+     * small objects like the POIs, so it can be much smaller and the garbage collector doesn't need to copy or scan
+     * the graph anymore. Columns which are mapped from a {@link GraphSnapshot} are outside of the heap already and
+     * are not copied. A column can't be larger than 2 GB. The max. size of all direct buffers is limited by the JVM
+     * option -XX:MaxDirectMemorySize, which defaults to the max. heap size.
+     *
+     * @return the updated graph object (this)
+     */
+    public Graph moveOffHeap() {
+        if (!isConnected()) {
+            throw new IllegalStateException("Can't move a graph off heap which is not connected.");
+        }
+
+        long start = System.currentTimeMillis();
+        this.offHeap = true;
+        this.lats = toDirect(this.lats);
+        this.lons = toDirect(this.lons);
+        this.nodeFlags = toDirect(this.nodeFlags);
+        this.nodeIndex = new KdTree(this.lats, this.lons, toDirect(this.nodeIndex.ids));
+        UniformGrid grid = this.nodeGrid;
+        this.nodeGrid = new UniformGrid(this.lats, this.lons, grid.cellSize, grid.minLat, grid.minLon, grid.rows,
+                grid.columns, toDirect(grid.cellStarts), toDirect(grid.cellPoints));
+
+        if (this.compressedEdges != null) {
+            this.compressedEdges = new CompressedEdges(toDirect(this.compressedEdges.firstEdges),
+                    toDirect(this.compressedEdges.blockOffsets), toDirect(this.compressedEdges.data));
+        } else if (this.edgeTiles == null) {
+            this.firstEdges = toDirect(this.firstEdges);
+            this.edgeTargets = toDirect(this.edgeTargets);
+            this.nextCrossings = toDirect(this.nextCrossings);
+            this.distances = toDirect(this.distances);
+            this.speeds = toDirect(this.speeds);
+            this.edgeFlags = toDirect(this.edgeFlags);
+            this.edgeTypes = toDirect(this.edgeTypes);
+        }
+        this.additionalWeights = toDirect(this.additionalWeights);
+        this.firstInEdges = toDirect(this.firstInEdges);
+        this.inEdges = toDirect(this.inEdges);
+        this.inEdgeSources = toDirect(this.inEdgeSources);
+        this.carComponents = toDirect(this.carComponents);
+        this.pedestrianComponents = toDirect(this.pedestrianComponents);
+        // the costs of tiled edges are part of their tiles
+        if (this.edgeCosts != null && this.edgeTiles == null) {
+            FloatBuffer[] costs = new FloatBuffer[this.edgeCosts.costs.length];
+            for (int i = 0; i < costs.length; i++) {
+                costs[i] = toDirect(this.edgeCosts.costs[i]);
             }
-            if (edge1.getSourceNode() < edge2.getSourceNode() ||
-                    (edge1.getSourceNode() == edge2.getSourceNode() && edge1.getTargetNode() < edge2.getTargetNode())) {
-                return -1;
-            } else if (edge1.getSourceNode() == edge2.getSourceNode() && edge1.getTargetNode() == edge2.getTargetNode()) {
-                return 0;
-            } else {
-                return 1;
+            this.edgeCosts = new EdgeCosts(toDirect(this.edgeCosts.lengths), costs);
+        }
+        for (int i = 0; i < this.contractionHierarchies.length; i++) {
+            this.contractionHierarchies[i] = toDirect(this.contractionHierarchies[i]);
+        }
+        for (int i = 0; i < this.landmarks.length; i++) {
+            this.landmarks[i] = toDirect(this.landmarks[i]);
+        }
+        if (this.partition != null) {
+            this.partition = toDirect(this.partition);
+            OverlayMetric[] metrics = new OverlayMetric[this.overlayMetrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                metrics[i] = toDirect(this.overlayMetrics[i]);
             }
-        });
+            this.overlayMetrics = metrics;
+        }
+        if (this.osmIdIndex != null) {
+            this.osmIdIndex = new OsmIdIndex(this.osmIdIndex.minOsmId, toDirect(this.osmIdIndex.bucketStarts),
+                    toDirect(this.osmIdIndex.lowIds), toDirect(this.osmIdIndex.nodes));
+        }
+
+        logger.info("Moved graph off heap in {} ms.", System.currentTimeMillis() - start);
+        return this;
     }
 
 
-    private void setOffsetPointerForNodes() {
-        int j = 0;
-        boolean foundOffset = false;
-        for (int i = 0; i < this.nodeIdx; i++) {
-            Node node = this.nodes[i];
-            updateNodeId(i, node);
-
-            for (; j < this.edgeIdx; j++) {
-                Edge edge = this.edges[j];
-                if (!foundOffset && edge.getSourceNode() == i) {
-                    node.setOffsetPointer(j);
-                    foundOffset = true;
-                } else if (edge.getSourceNode() != i) {
-                    // reset foundOffset
-                    foundOffset = false;
-                    break;
-                }
-            }
+    /**
+     * @return a column of floats outside of the heap if the graph has been moved off heap, otherwise on the heap
+     */
+    FloatBuffer allocateFloats(int size) {
+        return this.offHeap ? allocateDirect((long) size * Float.BYTES).asFloatBuffer() : FloatBuffer.allocate(size);
+    }
+
+
+    private static ByteBuffer allocateDirect(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("A column of " + bytes + " bytes is too large for a direct buffer.");
         }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
     }
 
 
-    private void updateNodeId(int i, Node node) {
-        // check if node is a POI and then also update the POI data; otherwise just update the id
-        if (node.isPoi() && this.pois.containsKey(node)) {
-            node.setId(i);
-            this.pois.put(node, node.getId());
-        } else {
-            node.setId(i);
+    private static IntBuffer toDirect(IntBuffer column) {
+        if (column == null || column.isDirect()) {
+            return column;
         }
+        IntBuffer source = column.duplicate();
+        source.rewind();
+        IntBuffer result = allocateDirect((long) source.limit() * Integer.BYTES).asIntBuffer();
+        result.put(source).flip();
+        return result;
     }
 
 
-    public Node[] getNodes() {
-        return nodes;
+    private static FloatBuffer toDirect(FloatBuffer column) {
+        if (column == null || column.isDirect()) {
+            return column;
+        }
+        FloatBuffer source = column.duplicate();
+        source.rewind();
+        FloatBuffer result = allocateDirect((long) source.limit() * Float.BYTES).asFloatBuffer();
+        result.put(source).flip();
+        return result;
     }
 
 
-    public Edge[] getEdges() {
-        return edges;
+    private static DoubleBuffer toDirect(DoubleBuffer column) {
+        if (column == null || column.isDirect()) {
+            return column;
+        }
+        DoubleBuffer source = column.duplicate();
+        source.rewind();
+        DoubleBuffer result = allocateDirect((long) source.limit() * Double.BYTES).asDoubleBuffer();
+        result.put(source).flip();
+        return result;
     }
 
 
-    public int getNodesSize() {
-        return this.nodes.length;
+    private static ContractionHierarchy toDirect(ContractionHierarchy hierarchy) {
+        if (hierarchy == null) {
+            return null;
+        }
+        return new ContractionHierarchy(hierarchy.profile, hierarchy.costsChecksum, toDirect(hierarchy.ranks),
+                toDirect(hierarchy.firstUpArcs), toDirect(hierarchy.upArcs), toDirect(hierarchy.firstDownArcs),
+                toDirect(hierarchy.downArcs), toDirect(hierarchy.arcSources), toDirect(hierarchy.arcTargets),
+                toDirect(hierarchy.arcWeights), toDirect(hierarchy.arcEdges), toDirect(hierarchy.skippedArcs));
     }
 
 
-    public int getEdgesSize() {
-        return this.edgeIdx;
+    private static Landmarks toDirect(Landmarks landmarks) {
+        if (landmarks == null) {
+            return null;
+        }
+        return new Landmarks(landmarks.profile, landmarks.costsChecksum, toDirect(landmarks.nodes),
+                toDirect(landmarks.headBits), toDirect(landmarks.headRanks), toDirect(landmarks.fromLandmarks),
+                toDirect(landmarks.toLandmarks));
     }
 
 
-    public Node[][] getGraphBoundaries() {
-        return this.graphBoundary.getBoundaryNodes();
+    private static MultilevelPartition toDirect(MultilevelPartition partition) {
+        int levels = partition.getLevels();
+        IntBuffer[] parentCells = new IntBuffer[levels - 1];
+        for (int i = 0; i < parentCells.length; i++) {
+            parentCells[i] = toDirect(partition.parentCells[i]);
+        }
+        IntBuffer[] firstEntries = new IntBuffer[levels];
+        IntBuffer[] entries = new IntBuffer[levels];
+        IntBuffer[] firstExits = new IntBuffer[levels];
+        IntBuffer[] exits = new IntBuffer[levels];
+        IntBuffer[] firstWeights = new IntBuffer[levels];
+        for (int i = 0; i < levels; i++) {
+            firstEntries[i] = toDirect(partition.firstEntries[i]);
+            entries[i] = toDirect(partition.entries[i]);
+            firstExits[i] = toDirect(partition.firstExits[i]);
+            exits[i] = toDirect(partition.exits[i]);
+            firstWeights[i] = toDirect(partition.firstWeights[i]);
+        }
+        return new MultilevelPartition(toDirect(partition.cells), parentCells, firstEntries, entries, firstExits,
+                exits, firstWeights);
     }
 
 
-    public List<Edge> getNeighboursOfNode(Node node) {
-        return this.getNeighboursOfNode(node, new TLongHashSet());
+    /**
+     * @return the metric on the moved partition of the graph
+     */
+    private OverlayMetric toDirect(OverlayMetric metric) {
+        if (metric == null) {
+            return null;
+        }
+        FloatBuffer[] weights = new FloatBuffer[metric.weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = toDirect(metric.weights[i]);
+        }
+        return new OverlayMetric(this, this.partition, metric.profile, weights, toDirect(metric.costs));
+    }
+
+
+    private static StronglyConnectedComponents toDirect(StronglyConnectedComponents components) {
+        if (components == null) {
+            return null;
+        }
+        return new StronglyConnectedComponents(toDirect(components.labels), toDirect(components.flags),
+                components.largest);
+    }
+
+
+    private static ByteBuffer toDirect(ByteBuffer column) {
+        if (column == null || column.isDirect()) {
+            return column;
+        }
+        ByteBuffer source = column.duplicate();
+        source.rewind();
+        ByteBuffer result = allocateDirect(source.limit());
+        result.put(source).flip();
+        return result;
     }
 
 
-    public List<Edge> getNeighboursOfNode(Node node, TLongSet settled) {
-        int edgeOffset = node.getOffsetPointer();
+    /**
+     * @return the strongly connected components of the edges which can be accessed by the accessor
+     */
+    public StronglyConnectedComponents getComponents(Accessor accessor) {
+        return accessor == Accessor.CAR ? this.carComponents : this.pedestrianComponents;
+    }
+
+
+    public boolean hasReverseEdges() {
+        return this.inEdges != null;
+    }
+
+
+    boolean isConnected() {
+        return this.firstEdges != null || this.compressedEdges != null;
+    }
+
+
+    /**
+     * Counting sort of the edges by their source node which also sets the first edges. Afterwards the few edges of
+     * each node are sorted by their target in parallel. Edges with the same source and target keep their order.
+     *
+     * @return edge ids in sorted order
+     */
+    private int[] sortEdgesBySourceAndTarget() {
+        int[] first = new int[this.nodeIdx + 1];
+        for (int edge = 0; edge < this.edgeIdx; edge++) {
+            first[this.edgeSources.get(edge) + 1]++;
+        }
+        for (int node = 0; node < this.nodeIdx; node++) {
+            first[node + 1] += first[node];
+        }
 
-        if (edgeOffset == -1) {
-            // this might happen if a street ends and the street has just one way/direction
-            return new ArrayList<>();
+        int[] order = new int[this.edgeIdx];
+        int[] next = Arrays.copyOf(first, this.nodeIdx);
+        for (int edge = 0; edge < this.edgeIdx; edge++) {
+            order[next[this.edgeSources.get(edge)]++] = edge;
         }
 
-        List<Edge> neighbours = new ArrayList<>();
-        for (int i = edgeOffset; i < this.edgeIdx; i++) {
-            Edge edge = this.edges[i];
-            if (edge.getSourceNode() == node.getId()) {
-                if (!settled.contains(edge.getTargetNode())) {
-                    neighbours.add(edge);
+        IntStream.range(0, this.nodeIdx).parallel().forEach(node -> {
+            // insertion sort, because a node only has a few edges
+            for (int i = first[node] + 1; i < first[node + 1]; i++) {
+                int edge = order[i];
+                int target = this.edgeTargets.get(edge);
+                int j = i - 1;
+                for (; j >= first[node] && this.edgeTargets.get(order[j]) > target; j--) {
+                    order[j + 1] = order[j];
                 }
-            } else {
-                // this happens if there are no further edges for the node, so we can break out and return neighbours
-                break;
+                order[j + 1] = edge;
             }
+        });
+
+        this.firstEdges = IntBuffer.wrap(first);
+        return order;
+    }
+
+
+    private void applyEdgeOrder(int[] order) {
+        int[] sortedTargets = new int[this.edgeIdx];
+        int[] sortedNextCrossings = new int[this.edgeIdx];
+        float[] sortedDistances = new float[this.edgeIdx];
+        byte[] sortedSpeeds = new byte[this.edgeIdx];
+        byte[] sortedFlags = new byte[this.edgeIdx];
+        byte[] sortedTypes = new byte[this.edgeIdx];
+        IntStream.range(0, this.edgeIdx).parallel().forEach(i -> {
+            int edge = order[i];
+            sortedTargets[i] = this.edgeTargets.get(edge);
+            sortedNextCrossings[i] = this.nextCrossings.get(edge);
+            sortedDistances[i] = this.distances.get(edge);
+            sortedSpeeds[i] = this.speeds.get(edge);
+            sortedFlags[i] = this.edgeFlags.get(edge);
+            sortedTypes[i] = this.edgeTypes.get(edge);
+        });
+        this.edgeTargets = IntBuffer.wrap(sortedTargets);
+        this.nextCrossings = IntBuffer.wrap(sortedNextCrossings);
+        this.distances = FloatBuffer.wrap(sortedDistances);
+        this.speeds = ByteBuffer.wrap(sortedSpeeds);
+        this.edgeFlags = ByteBuffer.wrap(sortedFlags);
+        this.edgeTypes = ByteBuffer.wrap(sortedTypes);
+        this.additionalWeights = FloatBuffer.allocate(this.edgeIdx);
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return a new {@link Node} object containing the data of the node
+     */
+    public Node getNode(int node) {
+        Node result = Node.fromEncoded(this.lats.get(node), this.lons.get(node));
+        result.setId(node);
+        result.setCrossing(isCrossing(node));
+        return result;
+    }
+
+
+    public double getLat(int node) {
+        return GraphUtil.decodeCoordinate(this.lats.get(node));
+    }
+
+
+    public double getLon(int node) {
+        return GraphUtil.decodeCoordinate(this.lons.get(node));
+    }
+
+
+    public int getEncodedLat(int node) {
+        return this.lats.get(node);
+    }
+
+
+    public int getEncodedLon(int node) {
+        return this.lons.get(node);
+    }
+
+
+    /**
+     * @return distance in meters between two nodes of the graph
+     */
+    public double getDistance(int node1, int node2) {
+        return GraphUtil.getEncodedDistance(this.lats.get(node1), this.lons.get(node1),
+                this.lats.get(node2), this.lons.get(node2));
+    }
+
+
+    public boolean isCrossing(int node) {
+        return (this.nodeFlags.get(node) & CROSSING) != 0;
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return id of the first outgoing edge of the node or -1 if the node has no outgoing edges
+     */
+    public int getOffsetPointer(int node) {
+        return getNumberOfEdges(node) > 0 ? getFirstEdge(node) : -1;
+    }
+
+
+    int getFirstEdge(int node) {
+        if (this.compressedEdges != null) {
+            return this.compressedEdges.getFirstEdge(node);
         }
+        return this.firstEdges.get(node);
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return number of outgoing edges of the node
+     */
+    public int getNumberOfEdges(int node) {
+        if (this.compressedEdges != null) {
+            return this.compressedEdges.getNumberOfEdges(node);
+        }
+        return this.firstEdges.get(node + 1) - this.firstEdges.get(node);
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return number of incoming edges of the node; needs {@link #buildReverseEdges()}
+     */
+    public int getNumberOfIncomingEdges(int node) {
+        checkReverseEdges();
+        return this.firstInEdges.get(node + 1) - this.firstInEdges.get(node);
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return the OSM id of the node; only available until {@link #sortAndConnectData()} was called
+     * @see #findNodeByOsmId(long)
+     */
+    public long getOsmId(int node) {
+        if (this.osmIds == null) {
+            throw new IllegalStateException("OSM ids are not available anymore after the graph has been connected.");
+        }
+        return this.osmIds[node];
+    }
+
+
+    /**
+     * @return a new iterator to access the outgoing edges of a node
+     */
+    public EdgeIterator createEdgeIterator() {
+        if (this.compressedEdges != null) {
+            return new CompressedEdgeIterator(this, this.compressedEdges);
+        }
+        if (this.edgeTiles != null) {
+            return new TiledEdgeIterator(this, this.edgeTiles);
+        }
+        return new ColumnEdgeIterator(this);
+    }
+
+
+    /**
+     * @param direction whether the outgoing or incoming edges of a node should be iterated; incoming edges are only
+     *                  available after {@link #buildReverseEdges()} has been called
+     * @return a new iterator to access the edges of a node in the given direction
+     */
+    public EdgeIterator createEdgeIterator(EdgeDirection direction) {
+        if (direction == EdgeDirection.INCOMING) {
+            checkReverseEdges();
+            return new ReverseEdgeIterator(this, createEdgeIterator());
+        }
+        return createEdgeIterator();
+    }
+
+
+    private void checkReverseEdges() {
+        if (this.inEdges == null) {
+            throw new IllegalStateException("Incoming edges are not available, the reverse edges must be built first.");
+        }
+    }
+
+
+    public double getAdditionalWeight(int edge) {
+        return this.additionalWeights.get(edge);
+    }
+
+
+    /**
+     * Sets the traffic weight of the current edge of the iterator and updates its {@link EdgeCosts}. The contraction
+     * hierarchies and landmarks use the costs without traffic, so they are kept. The overlays keep their weights and
+     * costs until {@link #customizeOverlays()} is called after all traffic weights have been set.
+     *
+     * @param edge             iterator pointing to an outgoing edge
+     * @param additionalWeight 0 for free flow, 1 or more if the edge is closed
+     */
+    public void setAdditionalWeight(EdgeIterator edge, double additionalWeight) {
+        this.additionalWeights.put(edge.getEdge(), (float) additionalWeight);
+        if (this.edgeCosts != null) {
+            this.edgeCosts.update(edge);
+        }
+    }
+
+
+    /**
+     * @return the precomputed weights of the edges, only available after the edges have been connected
+     */
+    public EdgeCosts getEdgeCosts() {
+        return this.edgeCosts;
+    }
+
+
+    public int getNodesSize() {
+        return this.nodeIdx;
+    }
 
-        return neighbours;
+
+    public int getEdgesSize() {
+        return this.edgeIdx;
+    }
+
+
+    public Node[][] getGraphBoundaries() {
+        return this.graphBoundary.getBoundaryNodes();
     }
 
 
@@ -299,26 +1060,22 @@ public class Graph {
      *
      * @param source the first node of the way
      * @param target the node to end the way with; must be reachable from source
-     * @return list of nodes, exclusively source and target node;
+     * @return list of node ids, exclusively source and target node;
      * if target is the direct successor of source, the list just contains the source node
      */
-    public List<Node> getNodesOfSimpleWay(Node source, Node target) {
-        List<Node> nodes = new ArrayList<>();
-        if (source.equals(target)) {
+    public TIntList getNodesOfSimpleWay(int source, int target) {
+        TIntList nodes = new TIntArrayList();
+        EdgeIterator edges = createEdgeIterator().setBaseNode(source);
+        if (source == target || !edges.next()) {
             return nodes;
         }
-        int offset = source.getOffsetPointer();
-        Edge edge = this.edges[offset];
-        while (edge.getTargetNode() != (int) target.getId()) {
-            Node n = this.nodes[edge.getTargetNode()];
-            List<Edge> neighbours = this.getNeighboursOfNode(n);
-            if (neighbours.size() > 1) {
+        while (edges.getTarget() != target) {
+            int next = edges.getTarget();
+            if (getNumberOfEdges(next) > 1) {
                 break;
             }
-            offset = this.nodes[edge.getTargetNode()].getOffsetPointer();
-            if (offset > -1) {
-                edge = this.edges[offset];
-                nodes.add(this.nodes[edge.getSourceNode()]);
+            if (edges.setBaseNode(next).next()) {
+                nodes.add(next);
             } else {
                 break;
             }
@@ -337,87 +1094,101 @@ public class Graph {
 
 
     public Optional<Node> findClosestNode(int id, double lat, double lon) {
-        if (id > -1 && id < this.nodes.length) {
-            return Optional.ofNullable(this.nodes[id]);
+        if (id > -1 && id < this.nodeIdx) {
+            return Optional.of(getNode(id));
         } else {
             return findClosestNode(lat, lon);
         }
     }
 
 
+    /**
+     * @param osmId OSM id of a node
+     * @return the node with this OSM id or an empty optional if the node has not been imported, e.g. because it's
+     * not part of a way; only available after {@link #sortAndConnectData()} was called
+     */
+    public Optional<Node> findNodeByOsmId(long osmId) {
+        if (this.osmIdIndex == null) {
+            throw new IllegalStateException("OSM ids are only indexed after the graph has been connected.");
+        }
+        int node = this.osmIdIndex.findNode(osmId);
+        return node > -1 ? Optional.of(getNode(node)) : Optional.empty();
+    }
+
+
+    /**
+     * @return the closest node within {@link #MAX_SNAP_DISTANCE} meters
+     */
     public Optional<Node> findClosestNode(double lat, double lon) {
-        try {
-            List<GridOffset> cells = getGridCellsAround(lat, lon);
-            Node searchNode = new Node(lat, lon);
-            double distance = 1000;
-            Node selectedNode = null;
-
-            // search in all grids around the searchNode
-            for (GridOffset offset : cells) {
-                GridOffset nextOffset = null;
-                int upperBound = nodeIdx;
-                try {
-                    nextOffset = getGridCellOffset(offset.getNextOffset());
-                    upperBound = nextOffset.getOffset();
-                } catch (OutOfRangeException e) {
-                    logger.debug("No next offset available.");
-                }
+        int node = this.nodeIndex.findNearest(GraphUtil.encodeCoordinate(lat), GraphUtil.encodeCoordinate(lon),
+                MAX_SNAP_DISTANCE);
+        return node > -1 ? Optional.of(getNode(node)) : Optional.empty();
+    }
 
-                for (int i = offset.getOffset(); i < upperBound; i++) {
-                    Node node = this.nodes[i];
-                    if (node.getLat() == lat && node.getLon() == lon) {
-                        return Optional.of(node);
-                    }
-
-                    double tmpDistance = Math.abs(GraphUtil.getDistance(searchNode, node));
-                    if (tmpDistance < distance) {
-                        selectedNode = node;
-                        distance = tmpDistance;
-                    }
-                }
-            }
 
-            // maybe we still haven't found the node yet, thus use ofNullable
-            return Optional.ofNullable(selectedNode);
-        } catch (OutOfRangeException e) {
-            // if grid cell was not found, just return an empty optional
-            return Optional.empty();
-        }
+    /**
+     * Same as {@link #findClosestNode(double, double)}, but only snaps to nodes of the largest component of the
+     * accessor. This avoids to start or end a route on an island, e.g. a parking lot without an accessible exit.
+     *
+     * @return the closest node of the largest component within {@link #MAX_SNAP_DISTANCE} meters
+     */
+    public Optional<Node> findClosestNode(double lat, double lon, Accessor accessor) {
+        StronglyConnectedComponents components = getComponents(accessor);
+        int node = this.nodeIndex.findNearest(GraphUtil.encodeCoordinate(lat), GraphUtil.encodeCoordinate(lon),
+                MAX_SNAP_DISTANCE, components::isInLargestComponent);
+        return node > -1 ? Optional.of(getNode(node)) : Optional.empty();
+    }
+
+
+    /**
+     * @param maxNodes    max. number of nodes to return
+     * @param maxDistance max. distance of the nodes in meters
+     * @return the closest nodes, ordered by distance ASC
+     */
+    public List<Node> findClosestNodes(double lat, double lon, int maxNodes, double maxDistance) {
+        return getNodes(this.nodeIndex.findNearest(GraphUtil.encodeCoordinate(lat), GraphUtil.encodeCoordinate(lon),
+                maxNodes, maxDistance));
     }
 
 
-    private List<GridOffset> getGridCellsAround(double lat, double lon) {
-        BigDecimal lat1 = BigDecimal.valueOf(lat);
-        BigDecimal lon1 = BigDecimal.valueOf(lon);
-        List<GridOffset> offsets = new ArrayList<>(9);
+    /**
+     * @param maxDistance max. distance of the nodes in meters
+     * @return all nodes within the distance, in no particular order
+     */
+    public List<Node> findNodesWithin(double lat, double lon, double maxDistance) {
+        return getNodes(this.nodeGrid.findWithin(GraphUtil.encodeCoordinate(lat), GraphUtil.encodeCoordinate(lon),
+                maxDistance));
+    }
 
-        for (short i = -1; i < 2; i++) {
-            for (short j = -1; j < 2; j++) {
-                try {
-                    BigDecimal lat2 = BigDecimal.valueOf(i * MAX_DIFF);
-                    BigDecimal lon2 = BigDecimal.valueOf(j * MAX_DIFF);
-                    offsets.add(getGridCellOffset(getGridCellName(lat1.subtract(lat2), lon1.add(lon2))));
-                } catch (OutOfRangeException e) {
-                    // do nothing, it just means we're out of the grid range
-                }
-            }
-        }
 
-        return offsets;
+    private List<Node> getNodes(TIntList ids) {
+        List<Node> nodes = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            nodes.add(getNode(ids.get(i)));
+        }
+        return nodes;
     }
 
 
     public void addPoi(Node node, long idx) {
-        // if we already know the node, then use that node object instead of storing a copy
-        if (idx > -1 && idx < this.nodes.length) {
-            int i = Long.valueOf(idx).intValue();
-            Node existingNode = this.nodes[i];
+        // if we already know the node, then use the graph's node data instead of storing a copy
+        if (idx > -1 && idx < this.nodeIdx) {
+            Node existingNode = getNode((int) idx);
             existingNode.setPoi(true);
             existingNode.setType(node.getTypeKey(), node.getTypeValue());
-            this.pois.put(existingNode, idx);
+            putPoi(existingNode, idx);
         } else {
-            this.pois.put(node, idx);
+            putPoi(node, idx);
         }
+        this.poiGrid = null;
+    }
+
+
+    void putPoi(Node node, long idx) {
+        if (!this.pois.containsKey(node)) {
+            this.poiNodeBytes += MemoryEstimate.getNodeSize(node);
+        }
+        this.pois.put(node, idx);
     }
 
 
@@ -426,11 +1197,39 @@ public class Graph {
     }
 
 
+    /**
+     * @param maxDistance max. distance of the POIs in kilometers
+     * @return all POIs of the type within the distance, in no particular order
+     */
     public List<Node> getPoisAround(Node source, short maxDistance, Pair<String, String> type) {
-        return this.pois.keySet().parallelStream()
-                .filter(node -> GraphUtil.getDistance(source, node) <= maxDistance * 1000 &&
-                        node.isTypeOf(type.getKey(), type.getValue()))
-                .collect(Collectors.toList());
+        UniformGrid poiGrid = getPoiGrid();
+        Node[] poiNodes = this.poiNodes;
+        TIntList ids = poiGrid.findWithin(source.getEncodedLat(), source.getEncodedLon(), maxDistance * 1000);
+        List<Node> result = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Node poi = poiNodes[ids.get(i)];
+            if (poi.isTypeOf(type.getKey(), type.getValue())) {
+                result.add(poi);
+            }
+        }
+        return result;
+    }
+
+
+    private synchronized UniformGrid getPoiGrid() {
+        if (this.poiGrid == null) {
+            Node[] poiNodes = this.pois.keySet().toArray(new Node[this.pois.size()]);
+            int[] lats = new int[poiNodes.length];
+            int[] lons = new int[poiNodes.length];
+            for (int i = 0; i < poiNodes.length; i++) {
+                lats[i] = poiNodes[i].getEncodedLat();
+                lons[i] = poiNodes[i].getEncodedLon();
+            }
+            this.poiNodes = poiNodes;
+            this.poiGrid = new UniformGrid(IntBuffer.wrap(lats), IntBuffer.wrap(lons), poiNodes.length,
+                    getGridCellSize());
+        }
+        return this.poiGrid;
     }
 
 
@@ -445,73 +1244,138 @@ public class Graph {
 
 
     /**
-     * @return the first 100 items of nodes and edges
+     * Estimates the memory used by the columns, indexes and POIs of the graph. Node and edge columns are named with
+     * the prefix "nodes." resp. "edges.", indexes with "index.".
+     *
+     * @return a new estimate
      */
-    public String toSampleString() {
-        StringBuilder builder = new StringBuilder("--- Nodes: ").append(this.nodeIdx).append(" ---\n");
-        for (int i = 0; i < 100 && i < this.nodes.length; i++) {
-            Node node = this.nodes[i];
-            builder.append(node.toString()).append("\n");
+    public MemoryEstimate estimateMemory() {
+        MemoryEstimate estimate = new MemoryEstimate()
+                .add("nodes.lats", this.lats)
+                .add("nodes.lons", this.lons)
+                .add("nodes.flags", this.nodeFlags)
+                .add("nodes.firstEdges", this.firstEdges)
+                .add("nodes.firstIncomingEdges", this.firstInEdges)
+                .add("edges.sources", this.edgeSources)
+                .add("edges.targets", this.edgeTargets)
+                .add("edges.nextCrossings", this.nextCrossings)
+                .add("edges.distances", this.distances)
+                .add("edges.additionalWeights", this.additionalWeights)
+                .add("edges.speeds", this.speeds)
+                .add("edges.flags", this.edgeFlags)
+                .add("edges.types", this.edgeTypes)
+                .add("edges.incomingEdges", this.inEdges)
+                .add("edges.incomingEdgeSources", this.inEdgeSources);
+        if (this.osmIds != null) {
+            estimate.add("nodes.osmIds", (long) this.osmIds.length * Long.BYTES);
         }
-
-        builder.append("\n").append("--- Edges: ").append(this.edgeIdx).append(" ---\n");
-        for (int i = 0; i < 100 && i < this.edgeIdx; i++) {
-            Edge edge = this.edges[i];
-            builder.append(edge.toString()).append("\n");
+        if (this.compressedEdges != null) {
+            // the first edges are shared with the uncompressed edges until they are dropped
+            if (this.compressedEdges.firstEdges != this.firstEdges) {
+                estimate.add("nodes.firstEdges", this.compressedEdges.firstEdges);
+            }
+            estimate.add("nodes.blockOffsets", this.compressedEdges.blockOffsets)
+                    .add("edges.compressed", this.compressedEdges.data);
         }
-        return builder.toString();
-    }
-
-
-    /**
-     * Returns the {@link GridOffset} containing the first point of a grid cell in the node list.
-     * If lat/lon can't be matched to a cell, it means this point is out of range.
-     *
-     * @param name comma separated lat lon value
-     * @return the {@link GridOffset} containing the first point of a grid cell
-     * @throws OutOfRangeException if lat/lon can't be matched to a cell
-     */
-    private GridOffset getGridCellOffset(String name) throws OutOfRangeException {
-        if (StringUtils.isBlank(name) || !this.gridOffsets.containsKey(name)) {
-            throw new OutOfRangeException("The lat and lon you've provided is out of range.");
+        if (this.edgeTiles != null) {
+            estimate.add("edges.loadedTiles", this.edgeTiles.getUsedBytes());
         }
-        return this.gridOffsets.get(name);
-    }
 
+        if (this.edgeCosts != null && this.edgeTiles == null) {
+            estimate.add("edges.lengths", this.edgeCosts.lengths);
+            for (FloatBuffer costs : this.edgeCosts.costs) {
+                estimate.add("edges.costs", costs);
+            }
+        }
 
-    private String getGridCellName(BigDecimal one, BigDecimal two) {
-        return getGridCellPart(one) + "," + getGridCellPart(two);
-    }
+        for (ContractionHierarchy hierarchy : this.contractionHierarchies) {
+            if (hierarchy != null) {
+                estimate.addAll("contractionHierarchies.", hierarchy.estimateMemory());
+            }
+        }
+        for (Landmarks landmarks : this.landmarks) {
+            if (landmarks != null) {
+                estimate.addAll("landmarks.", landmarks.estimateMemory());
+            }
+        }
+        if (this.partition != null) {
+            estimate.addAll("partition.", this.partition.estimateMemory());
+        }
+        for (OverlayMetric metric : this.overlayMetrics) {
+            if (metric != null) {
+                estimate.addAll("overlayMetrics.", metric.estimateMemory());
+            }
+        }
 
+        if (this.nodeIndex != null) {
+            estimate.add("index.kdTree", this.nodeIndex.ids);
+        }
+        for (StronglyConnectedComponents components : Arrays.asList(this.carComponents, this.pedestrianComponents)) {
+            if (components != null) {
+                estimate.add("index.components", components.labels).add("index.components", components.flags);
+            }
+        }
+        if (this.osmIdIndex != null) {
+            estimate.add("index.osmIds", this.osmIdIndex.bucketStarts).add("index.osmIds", this.osmIdIndex.lowIds)
+                    .add("index.osmIds", this.osmIdIndex.nodes);
+        }
+        if (this.nodeGrid != null) {
+            estimate.add("index.grid", this.nodeGrid.cellStarts).add("index.grid", this.nodeGrid.cellPoints);
+        }
+        UniformGrid poiGrid = this.poiGrid;
+        if (poiGrid != null) {
+            estimate.add("index.poiGrid", poiGrid.cellStarts).add("index.poiGrid", poiGrid.cellPoints)
+                    .add("index.poiGrid", (long) this.poiNodes.length * (MemoryEstimate.REFERENCE + 2 * Integer.BYTES));
+        }
 
-    private String getGridCellName(String lat, String lon) {
-        return lat + "," + lon;
+        return estimate.add("pois", MemoryEstimate.getHashMapSize(this.pois.size(), MemoryEstimate.REFERENCE,
+                Long.BYTES) + this.poiNodeBytes);
     }
 
 
-    private String getGridCellPart(BigDecimal decimal) {
-        return getScaledDecimal(decimal, 1).toString();
+    /**
+     * Releases the resources of the graph which are not released by the garbage collector, i.e. the snapshot file
+     * of a tiled graph. The graph must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.edgeTiles != null) {
+            this.edgeTiles.close();
+        }
     }
 
 
-    private boolean isNewDecimalRange(BigDecimal one, BigDecimal two, BigDecimal maxDiff) {
-        // number of decimal parts, e.g 1.123 => 3 decimal parts
-        int roundingSize = 1;
-        one = getScaledDecimal(one, roundingSize);
-        two = getScaledDecimal(two, roundingSize);
-        return one.subtract(two).abs().compareTo(maxDiff) > -1;
-    }
-
+    /**
+     * @return the first 100 items of nodes and edges
+     */
+    public String toSampleString() {
+        StringBuilder builder = new StringBuilder("--- Nodes: ").append(this.nodeIdx).append(" ---\n");
+        for (int i = 0; i < 100 && i < this.nodeIdx; i++) {
+            builder.append(getNode(i).toString()).append("\n");
+        }
 
-    private int compare(BigDecimal one, BigDecimal two) {
-        int roundingSize = 1;
-        one = getScaledDecimal(one, roundingSize);
-        two = getScaledDecimal(two, roundingSize);
-        return one.compareTo(two);
+        builder.append("\n").append("--- Edges: ").append(this.edgeIdx).append(" ---\n");
+        if (isConnected()) {
+            EdgeIterator edges = createEdgeIterator();
+            for (int i = 0, count = 0; i < this.nodeIdx && count < 100; i++) {
+                edges.setBaseNode(i);
+                while (edges.next() && count++ < 100) {
+                    builder.append("Edge[sourceNode=").append(i)
+                            .append(",targetNode=").append(edges.getTarget()).append("]\n");
+                }
+            }
+        } else {
+            for (int i = 0; i < 100 && i < this.edgeIdx; i++) {
+                builder.append("Edge[sourceNode=").append(this.edgeSources.get(i))
+                        .append(",targetNode=").append(this.edgeTargets.get(i)).append("]\n");
+            }
+        }
+        return builder.toString();
     }
 
 
-    private BigDecimal getScaledDecimal(BigDecimal decimal, int roundingSize) {
-        return decimal.setScale(roundingSize, BigDecimal.ROUND_DOWN);
+    static int getGridCell(int coordinate) {
+        // rounds towards zero, e.g. 48.19 => 48.1 and -48.19 => -48.1
+        return coordinate / GRID_CELL_SIZE;
     }
 }
@@ -24,23 +24,29 @@ public class GraphBoundary {
     }
 
 
-    public void updateCorners(Node node) {
-        if (node != null) {
-            if (upperLat < node.getLat()) {
-                upperLat = node.getLat();
-            }
-
-            if (upperLon < node.getLon()) {
-                upperLon = node.getLon();
-            }
-
-            if (lowerLat > node.getLat()) {
-                lowerLat = node.getLat();
-            }
-
-            if (lowerLon > node.getLon()) {
-                lowerLon = node.getLon();
-            }
+    public GraphBoundary(double upperLat, double upperLon, double lowerLat, double lowerLon) {
+        this.upperLat = upperLat;
+        this.upperLon = upperLon;
+        this.lowerLat = lowerLat;
+        this.lowerLon = lowerLon;
+    }
+
+
+    public void updateCorners(double lat, double lon) {
+        if (upperLat < lat) {
+            upperLat = lat;
+        }
+
+        if (upperLon < lon) {
+            upperLon = lon;
+        }
+
+        if (lowerLat > lat) {
+            lowerLat = lat;
+        }
+
+        if (lowerLon > lon) {
+            lowerLon = lon;
         }
     }
 
@@ -0,0 +1,488 @@
+package de.sebastianhesse.pbf.storage;
+
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Writes a connected {@link Graph} into a binary file and maps it back into memory. This avoids to import an OSM file
+ * every time the server starts. The file starts with a header of {@link #HEADER_SIZE} bytes:
+ * <pre>
+ * int magic number, int format version, int number of nodes, int number of edges, long offset of the metadata,
+ * int edge layout (uncompressed columns, {@link CompressedEdges} or tiles), long size of the compressed edge data,
+ * int cell size, min. lat, min. lon, rows and columns of the {@link UniformGrid} of the nodes,
+ * int 1 if the reverse index of the edges is contained, otherwise 0, int number of tiles,
+ * long min. OSM id and int number of buckets of the {@link OsmIdIndex},
+ * int number of components and largest component of the {@link StronglyConnectedComponents} for cars and pedestrians
+ * </pre>
+ * Afterwards all node columns (including the {@link KdTree} and {@link UniformGrid} of the nodes), edge columns,
+ * the optional reverse index, the {@link OsmIdIndex} and the components follow in little endian order, each aligned
+ * to 8 bytes.
+ * The metadata at the end of the file contains edge types, graph boundaries, POIs and POI types.
+ * <p>
+ * The columns are mapped read only via {@link FileChannel#map}, i.e. they are not copied onto the heap and several
+ * processes can share the same pages of the file. Only the traffic weights and the {@link EdgeCosts} of the edges
+ * live on the heap.
+ * <p>
+ * In a tiled snapshot the edges are not mapped, but loaded per tile by an {@link EdgeTileCache} with a limited size.
+ * This keeps the memory usage predictable if the graph is too large to be kept in memory.
+ */
+public class GraphSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphSnapshot.class);
+
+    public static final int MAGIC_NUMBER = 0x4F534D47; // "OSMG"
+    public static final int VERSION = 10;
+    static final int HEADER_SIZE = 128;
+    private static final int ALIGNMENT = 8;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int LAYOUT_COLUMNS = 0;
+    private static final int LAYOUT_COMPRESSED = 1;
+    private static final int LAYOUT_TILED = 2;
+    /**
+     * default max. size of the tiles loaded from a tiled snapshot
+     */
+    public static final long DEFAULT_TILE_CACHE_SIZE = 256L * 1024 * 1024;
+
+
+    /**
+     * Checks if the given file is a graph snapshot by verifying its magic number.
+     *
+     * @param file any file
+     * @return true if the file starts with {@link #MAGIC_NUMBER}
+     */
+    public static boolean isSnapshot(File file) {
+        if (file == null || !file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            return header.getInt(0) == MAGIC_NUMBER;
+        } catch (IOException e) {
+            logger.debug("Could not read file {}.", file, e);
+            return false;
+        }
+    }
+
+
+    /**
+     * Writes the graph into a snapshot file. The graph must be sorted and connected.
+     *
+     * @param graph a graph after {@link Graph#sortAndConnectData()} has been called
+     * @param file  file to write to, will be overwritten if it exists
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Graph graph, File file) throws IOException {
+        write(graph, file, false);
+    }
+
+
+    /**
+     * Writes the graph into a snapshot file. The graph must be sorted and connected.
+     *
+     * @param graph     a graph after {@link Graph#sortAndConnectData()} has been called
+     * @param file      file to write to, will be overwritten if it exists
+     * @param tileEdges if true, the edges are written in tiles which are loaded on demand, see {@link EdgeTileCache}
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Graph graph, File file, boolean tileEdges) throws IOException {
+        if (!graph.isConnected()) {
+            throw new IllegalStateException("Can't write a snapshot of a graph which is not connected.");
+        }
+        if (graph.edgeTiles != null && !tileEdges) {
+            throw new IllegalStateException("The edges of a graph loaded from tiles can only be written in tiles.");
+        }
+
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int nodes = graph.nodeIdx;
+            int edges = graph.edgeIdx;
+
+            channel.position(HEADER_SIZE);
+            writeInts(channel, buffer, graph.lats, nodes);
+            writeInts(channel, buffer, graph.lons, nodes);
+            writeBytes(channel, buffer, graph.nodeFlags, nodes);
+            writeInts(channel, buffer, graph.nodeIndex.ids, nodes);
+            UniformGrid grid = graph.nodeGrid;
+            writeInts(channel, buffer, grid.cellStarts, grid.cellStarts.limit());
+            writeInts(channel, buffer, grid.cellPoints, nodes);
+
+            CompressedEdges compressedEdges = graph.compressedEdges;
+            int[] tileFirstNodes = tileEdges ? EdgeTileCache.partition(graph) : new int[1];
+            int layout = tileEdges ? LAYOUT_TILED : (compressedEdges == null ? LAYOUT_COLUMNS : LAYOUT_COMPRESSED);
+            if (layout == LAYOUT_TILED) {
+                for (int i = 0; i <= nodes; i++) {
+                    flushIfFull(channel, buffer, Integer.BYTES).putInt(graph.getFirstEdge(i));
+                }
+                flushAndAlign(channel, buffer);
+                writeInts(channel, buffer, IntBuffer.wrap(tileFirstNodes), tileFirstNodes.length);
+                EdgeTileCache.write(graph, tileFirstNodes, channel);
+                flushAndAlign(channel, buffer);
+            } else if (layout == LAYOUT_COLUMNS) {
+                writeInts(channel, buffer, graph.firstEdges, nodes + 1);
+                writeInts(channel, buffer, graph.edgeTargets, edges);
+                writeInts(channel, buffer, graph.nextCrossings, edges);
+                for (int i = 0; i < edges; i++) {
+                    flushIfFull(channel, buffer, Float.BYTES).putFloat(graph.distances.get(i));
+                }
+                flushAndAlign(channel, buffer);
+                writeBytes(channel, buffer, graph.speeds, edges);
+                writeBytes(channel, buffer, graph.edgeFlags, edges);
+                writeBytes(channel, buffer, graph.edgeTypes, edges);
+            } else {
+                writeInts(channel, buffer, compressedEdges.firstEdges, nodes + 1);
+                writeInts(channel, buffer, compressedEdges.blockOffsets, nodes);
+                writeBytes(channel, buffer, compressedEdges.data, compressedEdges.data.capacity());
+            }
+            if (graph.hasReverseEdges()) {
+                writeInts(channel, buffer, graph.firstInEdges, nodes + 1);
+                writeInts(channel, buffer, graph.inEdges, edges);
+                writeInts(channel, buffer, graph.inEdgeSources, edges);
+            }
+            OsmIdIndex osmIdIndex = graph.osmIdIndex;
+            writeInts(channel, buffer, osmIdIndex.bucketStarts, osmIdIndex.getBuckets() + 1);
+            writeInts(channel, buffer, osmIdIndex.lowIds, nodes);
+            writeInts(channel, buffer, osmIdIndex.nodes, nodes);
+            for (StronglyConnectedComponents components : new StronglyConnectedComponents[]{graph.carComponents,
+                    graph.pedestrianComponents}) {
+                writeInts(channel, buffer, components.labels, nodes);
+                writeBytes(channel, buffer, components.flags, components.getNumberOfComponents());
+            }
+
+            long metadataOffset = channel.position();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            writeMetadata(graph, out);
+            out.flush();
+
+            buffer.putInt(MAGIC_NUMBER).putInt(VERSION).putInt(nodes).putInt(edges).putLong(metadataOffset)
+                    .putInt(layout).putLong(layout == LAYOUT_COMPRESSED ? compressedEdges.data.capacity() : 0)
+                    .putInt(grid.cellSize).putInt(grid.minLat).putInt(grid.minLon).putInt(grid.rows)
+                    .putInt(grid.columns).putInt(graph.hasReverseEdges() ? 1 : 0).putInt(tileFirstNodes.length - 1)
+                    .putLong(osmIdIndex.minOsmId).putInt(osmIdIndex.getBuckets())
+                    .putInt(graph.carComponents.getNumberOfComponents()).putInt(graph.carComponents.largest)
+                    .putInt(graph.pedestrianComponents.getNumberOfComponents())
+                    .putInt(graph.pedestrianComponents.largest);
+            buffer.flip();
+            channel.write(buffer, 0);
+        }
+
+        logger.info("Wrote graph snapshot {} ({} MB) in {} ms.", file, file.length() / (1024 * 1024),
+                System.currentTimeMillis() - start);
+    }
+
+
+    private static void writeMetadata(Graph graph, DataOutputStream out) throws IOException {
+        out.writeInt(graph.edgeTypeNames.size());
+        for (String type : graph.edgeTypeNames) {
+            out.writeUTF(type);
+        }
+
+        out.writeDouble(graph.graphBoundary.getUpperLat());
+        out.writeDouble(graph.graphBoundary.getUpperLon());
+        out.writeDouble(graph.graphBoundary.getLowerLat());
+        out.writeDouble(graph.graphBoundary.getLowerLon());
+
+        Map<String, Set<String>> poiTypes = graph.getPoiTypes();
+        out.writeInt(poiTypes.size());
+        for (Map.Entry<String, Set<String>> entry : poiTypes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+
+        out.writeInt(graph.pois.size());
+        TObjectLongIterator<Node> iterator = graph.pois.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            Node poi = iterator.key();
+            out.writeLong(iterator.value());
+            out.writeLong(poi.getId());
+            out.writeInt(poi.getEncodedLat());
+            out.writeInt(poi.getEncodedLon());
+            out.writeBoolean(poi.isCrossing());
+            out.writeUTF(poi.getTypeKey());
+            out.writeUTF(poi.getTypeValue());
+        }
+    }
+
+
+    /**
+     * Maps a snapshot file into memory and creates a graph from it.
+     *
+     * @param file a file created by {@link #write(Graph, File)}
+     * @return a graph which can be used for routing
+     * @throws IOException if the file can't be read
+     */
+    public static Graph read(File file) throws IOException {
+        return read(file, DEFAULT_TILE_CACHE_SIZE);
+    }
+
+
+    /**
+     * Maps a snapshot file into memory and creates a graph from it.
+     *
+     * @param file          a file created by {@link #write(Graph, File, boolean)}
+     * @param tileCacheSize max. number of bytes of the edge tiles kept in memory, only used for tiled snapshots
+     * @return a graph which can be used for routing
+     * @throws IOException if the file can't be read
+     */
+    public static Graph read(File file, long tileCacheSize) throws IOException {
+        return read(file, tileCacheSize, false);
+    }
+
+
+    /**
+     * Maps a snapshot file into memory and creates a graph from it. The traffic weights and costs are not part of the
+     * snapshot, with offHeap they are allocated outside of the heap right away instead of being copied by
+     * {@link Graph#moveOffHeap()}, so the heap doesn't need to hold them while loading.
+     *
+     * @param file          a file created by {@link #write(Graph, File, boolean)}
+     * @param tileCacheSize max. number of bytes of the edge tiles kept in memory, only used for tiled snapshots
+     * @param offHeap       true to allocate the traffic weights and costs outside of the heap
+     * @return a graph which can be used for routing
+     * @throws IOException if the file can't be read
+     */
+    public static Graph read(File file, long tileCacheSize, boolean offHeap) throws IOException {
+        long start = System.currentTimeMillis();
+        Graph graph = new Graph();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC_NUMBER) {
+                throw new IllegalArgumentException("File " + file + " is not a graph snapshot.");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Graph snapshot " + file + " has version " + version +
+                        ", but only version " + VERSION + " is supported. Please create the snapshot again.");
+            }
+            int nodes = header.getInt(8);
+            int edges = header.getInt(12);
+            long metadataOffset = header.getLong(16);
+            int layout = header.getInt(24);
+            long compressedSize = header.getLong(28);
+            int cells = header.getInt(48) * header.getInt(52);
+
+            long position = HEADER_SIZE;
+            graph.lats = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) nodes * Integer.BYTES);
+            graph.lons = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) nodes * Integer.BYTES);
+            graph.nodeFlags = map(channel, position, nodes);
+            position = align(position + nodes);
+            graph.nodeIndex = new KdTree(graph.lats, graph.lons,
+                    map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer());
+            position = align(position + (long) nodes * Integer.BYTES);
+            IntBuffer cellStarts = map(channel, position, (long) (cells + 1) * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) (cells + 1) * Integer.BYTES);
+            IntBuffer cellPoints = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) nodes * Integer.BYTES);
+            graph.nodeGrid = new UniformGrid(graph.lats, graph.lons, header.getInt(36), header.getInt(40),
+                    header.getInt(44), header.getInt(48), header.getInt(52), cellStarts, cellPoints);
+
+            if (layout == LAYOUT_TILED) {
+                int tiles = header.getInt(60);
+                graph.firstEdges = map(channel, position, (long) (nodes + 1) * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) (nodes + 1) * Integer.BYTES);
+                int[] tileFirstNodes = new int[tiles + 1];
+                map(channel, position, (long) (tiles + 1) * Integer.BYTES).asIntBuffer().get(tileFirstNodes);
+                position = align(position + (long) (tiles + 1) * Integer.BYTES);
+                graph.edgeTiles = new EdgeTileCache(file, position, graph.firstEdges, tileFirstNodes, tileCacheSize);
+                position = align(position + (long) edges * EdgeTileCache.BYTES_PER_EDGE);
+            } else if (layout == LAYOUT_COMPRESSED) {
+                IntBuffer firstEdges = map(channel, position, (long) (nodes + 1) * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) (nodes + 1) * Integer.BYTES);
+                IntBuffer blockOffsets = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) nodes * Integer.BYTES);
+                graph.compressedEdges = new CompressedEdges(firstEdges, blockOffsets,
+                        map(channel, position, compressedSize));
+                position = align(position + compressedSize);
+            } else {
+                graph.firstEdges = map(channel, position, (long) (nodes + 1) * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) (nodes + 1) * Integer.BYTES);
+                graph.edgeTargets = map(channel, position, (long) edges * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) edges * Integer.BYTES);
+                graph.nextCrossings = map(channel, position, (long) edges * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) edges * Integer.BYTES);
+                graph.distances = map(channel, position, (long) edges * Float.BYTES).asFloatBuffer();
+                position = align(position + (long) edges * Float.BYTES);
+                graph.speeds = map(channel, position, edges);
+                position = align(position + edges);
+                graph.edgeFlags = map(channel, position, edges);
+                position = align(position + edges);
+                graph.edgeTypes = map(channel, position, edges);
+                position = align(position + edges);
+            }
+            if (header.getInt(56) == 1) {
+                graph.firstInEdges = map(channel, position, (long) (nodes + 1) * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) (nodes + 1) * Integer.BYTES);
+                graph.inEdges = map(channel, position, (long) edges * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) edges * Integer.BYTES);
+                graph.inEdgeSources = map(channel, position, (long) edges * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) edges * Integer.BYTES);
+            }
+            int buckets = header.getInt(72);
+            IntBuffer bucketStarts = map(channel, position, (long) (buckets + 1) * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) (buckets + 1) * Integer.BYTES);
+            IntBuffer lowIds = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+            position = align(position + (long) nodes * Integer.BYTES);
+            graph.osmIdIndex = new OsmIdIndex(header.getLong(64), bucketStarts, lowIds,
+                    map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer());
+            position = align(position + (long) nodes * Integer.BYTES);
+            StronglyConnectedComponents[] components = new StronglyConnectedComponents[2];
+            for (int i = 0; i < components.length; i++) {
+                int count = header.getInt(76 + i * 8);
+                IntBuffer labels = map(channel, position, (long) nodes * Integer.BYTES).asIntBuffer();
+                position = align(position + (long) nodes * Integer.BYTES);
+                components[i] = new StronglyConnectedComponents(labels, map(channel, position, count),
+                        header.getInt(80 + i * 8));
+                position = align(position + count);
+            }
+            graph.carComponents = components[0];
+            graph.pedestrianComponents = components[1];
+
+            // traffic weights change at runtime, hence they can't be shared with other servers
+            graph.offHeap = offHeap;
+            graph.additionalWeights = graph.allocateFloats(edges);
+            graph.nodeIdx = nodes;
+            graph.edgeIdx = edges;
+
+            channel.position(metadataOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            readMetadata(graph, in);
+        }
+        // the costs depend on the traffic weights, so they are calculated again like the traffic weights are reset,
+        // tiled edges get their costs when their tile is loaded
+        graph.buildEdgeCosts();
+
+        logger.info("Mapped graph snapshot {} with {} nodes and {} edges in {} ms.", file, graph.getNodesSize(),
+                graph.getEdgesSize(), System.currentTimeMillis() - start);
+        return graph;
+    }
+
+
+    private static void readMetadata(Graph graph, DataInputStream in) throws IOException {
+        int types = in.readInt();
+        List<String> edgeTypeNames = new ArrayList<>(types);
+        for (int i = 0; i < types; i++) {
+            edgeTypeNames.add(in.readUTF());
+        }
+        graph.edgeTypeNames = edgeTypeNames;
+
+        graph.graphBoundary = new GraphBoundary(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+
+        int poiTypeKeys = in.readInt();
+        Map<String, Set<String>> poiTypes = new HashMap<>(poiTypeKeys * 2);
+        for (int i = 0; i < poiTypeKeys; i++) {
+            String key = in.readUTF();
+            int values = in.readInt();
+            Set<String> valueSet = new HashSet<>(values * 2);
+            for (int j = 0; j < values; j++) {
+                valueSet.add(in.readUTF());
+            }
+            poiTypes.put(key, valueSet);
+        }
+        graph.setPoiTypes(poiTypes);
+
+        int pois = in.readInt();
+        graph.pois = new TObjectLongHashMap<>(pois * 2);
+        for (int i = 0; i < pois; i++) {
+            long idx = in.readLong();
+            long id = in.readLong();
+            Node poi = Node.fromEncoded(in.readInt(), in.readInt());
+            poi.setId(id);
+            poi.setCrossing(in.readBoolean());
+            poi.setPoi(true);
+            poi.setType(in.readUTF(), in.readUTF());
+            graph.putPoi(poi, idx);
+        }
+    }
+
+
+    static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("A column of " + size + " bytes is too large to be mapped at once.");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+
+    static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+
+    static void writeInts(FileChannel channel, ByteBuffer buffer, IntBuffer column, int size)
+            throws IOException {
+        for (int i = 0; i < size; i++) {
+            flushIfFull(channel, buffer, Integer.BYTES).putInt(column.get(i));
+        }
+        flushAndAlign(channel, buffer);
+    }
+
+
+    private static void writeBytes(FileChannel channel, ByteBuffer buffer, ByteBuffer column, int size)
+            throws IOException {
+        for (int i = 0; i < size; i++) {
+            flushIfFull(channel, buffer, Byte.BYTES).put(column.get(i));
+        }
+        flushAndAlign(channel, buffer);
+    }
+
+
+    static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+        return buffer;
+    }
+
+
+    static void flushAndAlign(FileChannel channel, ByteBuffer buffer) throws IOException {
+        flush(channel, buffer);
+        long end = channel.position();
+        for (long i = end; i < align(end); i++) {
+            buffer.put((byte) 0);
+        }
+        flush(channel, buffer);
+    }
+
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,339 @@
+package de.sebastianhesse.pbf.storage;
+
+import de.sebastianhesse.pbf.util.GraphUtil;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.IntBuffer;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+
+/**
+ * A static KD-tree over encoded coordinates, e.g. the nodes of a {@link Graph}. The tree is packed into one array of
+ * point ids: the median of a range is the split point, the ranges left and right of it are the subtrees and the split
+ * axis alternates between latitude and longitude. Ranges of up to {@link #LEAF_SIZE} points are not split anymore.
+ * The coordinates are not copied, they are read from the given columns.
+ * <p>
+ * Queries return points ordered by their distance to a position. Subtrees are visited in the order of a lower bound
+ * of their distance, so only the subtrees close to the position are visited.
+ */
+public class KdTree {
+
+    static final int LEAF_SIZE = 64;
+    private static final int MIN_LAT = GraphUtil.encodeCoordinate(-90);
+    private static final int MAX_LAT = GraphUtil.encodeCoordinate(90);
+    private static final int MIN_LON = GraphUtil.encodeCoordinate(-180);
+    private static final int MAX_LON = GraphUtil.encodeCoordinate(180);
+
+    private final IntBuffer lats;
+    private final IntBuffer lons;
+    final IntBuffer ids;
+
+
+    /**
+     * Builds a new tree over the first points of the given columns.
+     *
+     * @param lats encoded latitudes, indexed by point id
+     * @param lons encoded longitudes, indexed by point id
+     * @param size number of points
+     */
+    public KdTree(IntBuffer lats, IntBuffer lons, int size) {
+        this.lats = lats;
+        this.lons = lons;
+
+        int[] ids = new int[size];
+        int[][] coordinates = new int[][]{new int[size], new int[size]};
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+            coordinates[0][i] = lats.get(i);
+            coordinates[1][i] = lons.get(i);
+        }
+        sort(ids, coordinates, 0, size - 1, 0);
+        this.ids = IntBuffer.wrap(ids);
+    }
+
+
+    /**
+     * Restores a tree whose ids have been sorted before, see {@link GraphSnapshot}.
+     */
+    KdTree(IntBuffer lats, IntBuffer lons, IntBuffer ids) {
+        this.lats = lats;
+        this.lons = lons;
+        this.ids = ids;
+    }
+
+
+    public int size() {
+        return this.ids.limit();
+    }
+
+
+    /**
+     * @param lat         encoded latitude
+     * @param lon         encoded longitude
+     * @param maxDistance max. distance of the point in meters
+     * @return id of the closest point or -1 if there is no point within the distance
+     */
+    public int findNearest(int lat, int lon, double maxDistance) {
+        TIntList result = findNearest(lat, lon, 1, maxDistance);
+        return result.isEmpty() ? -1 : result.get(0);
+    }
+
+
+    /**
+     * @param lat         encoded latitude
+     * @param lon         encoded longitude
+     * @param maxDistance max. distance of the point in meters
+     * @param filter      only points accepted by the filter are returned
+     * @return id of the closest accepted point or -1 if there is no such point within the distance
+     */
+    public int findNearest(int lat, int lon, double maxDistance, IntPredicate filter) {
+        TIntList result = findNearest(lat, lon, 1, maxDistance, filter);
+        return result.isEmpty() ? -1 : result.get(0);
+    }
+
+
+    /**
+     * @param lat         encoded latitude
+     * @param lon         encoded longitude
+     * @param maxResults  max. number of points to return
+     * @param maxDistance max. distance of the points in meters
+     * @return ids of the closest points, ordered by distance ASC
+     */
+    public TIntList findNearest(int lat, int lon, int maxResults, double maxDistance) {
+        return findNearest(lat, lon, maxResults, maxDistance, null);
+    }
+
+
+    private TIntList findNearest(int lat, int lon, int maxResults, double maxDistance, IntPredicate filter) {
+        TIntList result = new TIntArrayList();
+        int size = size();
+        if (size == 0 || maxResults <= 0) {
+            return result;
+        }
+
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+        queue.add(new QueueEntry(0, size - 1, 0, MIN_LAT, MAX_LAT, MIN_LON, MAX_LON, 0));
+
+        while (!queue.isEmpty()) {
+            QueueEntry entry = queue.poll();
+            if (entry.distance > maxDistance) {
+                break;
+            }
+
+            if (entry.isPoint()) {
+                result.add(entry.point);
+                if (result.size() == maxResults) {
+                    break;
+                }
+                continue;
+            }
+
+            if (entry.right - entry.left <= LEAF_SIZE) {
+                for (int i = entry.left; i <= entry.right; i++) {
+                    addPoint(queue, this.ids.get(i), lat, lon, maxDistance, filter);
+                }
+                continue;
+            }
+
+            int median = (entry.left + entry.right) >>> 1;
+            int point = this.ids.get(median);
+            addPoint(queue, point, lat, lon, maxDistance, filter);
+
+            int nextAxis = 1 - entry.axis;
+            if (entry.axis == 0) {
+                int split = this.lats.get(point);
+                addRange(queue, entry.left, median - 1, nextAxis, entry.minLat, split, entry.minLon, entry.maxLon,
+                        lat, lon, maxDistance);
+                addRange(queue, median + 1, entry.right, nextAxis, split, entry.maxLat, entry.minLon, entry.maxLon,
+                        lat, lon, maxDistance);
+            } else {
+                int split = this.lons.get(point);
+                addRange(queue, entry.left, median - 1, nextAxis, entry.minLat, entry.maxLat, entry.minLon, split,
+                        lat, lon, maxDistance);
+                addRange(queue, median + 1, entry.right, nextAxis, entry.minLat, entry.maxLat, split, entry.maxLon,
+                        lat, lon, maxDistance);
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @param lat         encoded latitude
+     * @param lon         encoded longitude
+     * @param maxDistance max. distance of the points in meters
+     * @return ids of all points within the distance, ordered by distance ASC
+     */
+    public TIntList findWithin(int lat, int lon, double maxDistance) {
+        return findNearest(lat, lon, Integer.MAX_VALUE, maxDistance);
+    }
+
+
+    private void addPoint(PriorityQueue<QueueEntry> queue, int point, int lat, int lon, double maxDistance,
+                          IntPredicate filter) {
+        if (filter != null && !filter.test(point)) {
+            return;
+        }
+        double distance = GraphUtil.getEncodedDistance(lat, lon, this.lats.get(point), this.lons.get(point));
+        if (distance <= maxDistance) {
+            queue.add(new QueueEntry(point, distance));
+        }
+    }
+
+
+    private void addRange(PriorityQueue<QueueEntry> queue, int left, int right, int axis, int minLat, int maxLat,
+                          int minLon, int maxLon, int lat, int lon, double maxDistance) {
+        if (left > right) {
+            return;
+        }
+        double distance = getMinDistance(lat, lon, minLat, maxLat, minLon, maxLon);
+        if (distance <= maxDistance) {
+            queue.add(new QueueEntry(left, right, axis, minLat, maxLat, minLon, maxLon, distance));
+        }
+    }
+
+
+    /**
+     * Calculates a lower bound of the distance between a position and any point in a box. The haversine formula is
+     * used with the smallest latitude and longitude difference and the latitude of the box farthest from the equator.
+     */
+    static double getMinDistance(int lat, int lon, int minLat, int maxLat, int minLon, int maxLon) {
+        long dLat = lat < minLat ? (long) minLat - lat : (lat > maxLat ? (long) lat - maxLat : 0);
+        long dLon = lon < minLon ? (long) minLon - lon : (lon > maxLon ? (long) lon - maxLon : 0);
+        if (dLat == 0 && dLon == 0) {
+            return 0;
+        }
+
+        double sinLat = Math.sin(dLat * GraphUtil.ENCODED_TO_RADIANS / 2);
+        double sinLon = Math.sin(Math.min(dLon * GraphUtil.ENCODED_TO_RADIANS, Math.PI) / 2);
+        double farthestLat = Math.max(Math.abs((long) minLat), Math.abs((long) maxLat)) * GraphUtil.ENCODED_TO_RADIANS;
+        double a = sinLat * sinLat +
+                Math.cos(lat * GraphUtil.ENCODED_TO_RADIANS) * Math.max(Math.cos(farthestLat), 0) * sinLon * sinLon;
+        return 2 * GraphUtil.EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(a, 1)));
+    }
+
+
+    private static void sort(int[] ids, int[][] coordinates, int left, int right, int axis) {
+        if (right - left <= LEAF_SIZE) {
+            return;
+        }
+        int median = (left + right) >>> 1;
+        select(ids, coordinates, median, left, right, axis);
+        sort(ids, coordinates, left, median - 1, 1 - axis);
+        sort(ids, coordinates, median + 1, right, 1 - axis);
+    }
+
+
+    /**
+     * Rearranges the range, so the k-th smallest value of the axis is at index k, no greater values before and no
+     * smaller values after it. Each round splits the range into the values less than, equal to and greater than the
+     * pivot (three-way partition), so many nodes with the same coordinate, e.g. on a straight road, don't make it
+     * quadratic.
+     */
+    private static void select(int[] ids, int[][] coordinates, int k, int left, int right, int axis) {
+        int[] values = coordinates[axis];
+        while (right > left) {
+            // median of three as pivot, moved to the right end
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left]) {
+                swap(ids, coordinates, middle, left);
+            }
+            if (values[right] < values[left]) {
+                swap(ids, coordinates, right, left);
+            }
+            if (values[middle] < values[right]) {
+                swap(ids, coordinates, middle, right);
+            }
+            int pivot = values[right];
+
+            // [left, less) < pivot, [less, i) == pivot, (greater, right] > pivot
+            int less = left;
+            int greater = right;
+            int i = left;
+            while (i <= greater) {
+                if (values[i] < pivot) {
+                    swap(ids, coordinates, i++, less++);
+                } else if (values[i] > pivot) {
+                    swap(ids, coordinates, i, greater--);
+                } else {
+                    i++;
+                }
+            }
+
+            if (k < less) {
+                right = less - 1;
+            } else if (k > greater) {
+                left = greater + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+
+    private static void swap(int[] ids, int[][] coordinates, int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        for (int[] values : coordinates) {
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+
+    /**
+     * Either a range of the tree with its bounding box or a single point.
+     */
+    private static class QueueEntry implements Comparable<QueueEntry> {
+
+        final int left;
+        final int right;
+        final int axis;
+        final int minLat;
+        final int maxLat;
+        final int minLon;
+        final int maxLon;
+        final int point;
+        final double distance;
+
+
+        QueueEntry(int left, int right, int axis, int minLat, int maxLat, int minLon, int maxLon, double distance) {
+            this(left, right, axis, minLat, maxLat, minLon, maxLon, -1, distance);
+        }
+
+
+        QueueEntry(int point, double distance) {
+            this(0, -1, 0, 0, 0, 0, 0, point, distance);
+        }
+
+
+        private QueueEntry(int left, int right, int axis, int minLat, int maxLat, int minLon, int maxLon, int point,
+                           double distance) {
+            this.left = left;
+            this.right = right;
+            this.axis = axis;
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.point = point;
+            this.distance = distance;
+        }
+
+
+        boolean isPoint() {
+            return this.point > -1;
+        }
+
+
+        @Override
+        public int compareTo(QueueEntry o) {
+            return Double.compare(this.distance, o.distance);
+        }
+    }
+}
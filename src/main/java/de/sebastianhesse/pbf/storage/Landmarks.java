@@ -0,0 +1,440 @@
+package de.sebastianhesse.pbf.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+
+/**
+ * Landmarks of a {@link Graph} for one {@link CostProfile} and the weights of the shortest paths from each landmark to
+ * all nodes and from all nodes to each landmark. By the triangle inequality, the weight of a path from a node v to a
+ * target t is at least d(v, L) - d(t, L) and d(L, t) - d(L, v) for each landmark L, which is a lower bound for an A*
+ * search (ALT: A*, landmarks and the triangle inequality). The bounds are best if the landmarks are far away
+ * behind the target, hence the landmarks are selected one after another as the node which is the farthest from the
+ * landmarks selected so far.
+ * <p>
+ * The weights are calculated on the edge costs without traffic weights. Traffic only increases the costs, so the
+ * bounds stay valid and the landmarks don't need to be calculated again when the traffic changes. They are stored as
+ * floats rounded down, the exact weight is less than the next float above.
+ * <p>
+ * A search only reaches the heads of edges, i.e. crossings and the ends of ways, so the weights are only stored for
+ * these head nodes. They are indexed by a compact id, which is the number of head nodes with a lower node id. The
+ * weights of a head node are stored next to each other, so it needs 8 bytes per landmark, other nodes need 2 bits.
+ * Landmarks can be written next to a snapshot of the graph and mapped into memory again, see {@link #write(File)}.
+ */
+public class Landmarks {
+
+    private static final Logger logger = LoggerFactory.getLogger(Landmarks.class);
+
+    public static final int MAGIC_NUMBER = 0x4F534D4C; // "OSML"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private static final long SEED = 42;
+
+    final CostProfile profile;
+    // checksum of the costs of the profile which the weights have been calculated for, see
+    // EdgeCosts#getFreeFlowChecksum
+    final long costsChecksum;
+    // node ids of the landmarks
+    final IntBuffer nodes;
+    // one bit per node which is set for head nodes, 32 nodes per int
+    final IntBuffer headBits;
+    // number of head nodes before each int of the bits, i.e. the compact id of the first head node in it
+    final IntBuffer headRanks;
+    // indexed by compact id * number of landmarks + landmark, infinite if there's no path
+    final FloatBuffer fromLandmarks;
+    final FloatBuffer toLandmarks;
+
+
+    Landmarks(CostProfile profile, long costsChecksum, IntBuffer nodes, IntBuffer headBits, IntBuffer headRanks,
+              FloatBuffer fromLandmarks, FloatBuffer toLandmarks) {
+        this.profile = profile;
+        this.costsChecksum = costsChecksum;
+        this.nodes = nodes;
+        this.headBits = headBits;
+        this.headRanks = headRanks;
+        this.fromLandmarks = fromLandmarks;
+        this.toLandmarks = toLandmarks;
+    }
+
+
+    /**
+     * Selects the landmarks and calculates their weights with a Dijkstra from and to each of them.
+     *
+     * @param graph   a graph after the edges have been connected
+     * @param profile vehicle and weighting of the weights
+     * @param count   number of landmarks, e.g. 16
+     * @return the landmarks, they are not added to the graph
+     */
+    public static Landmarks build(Graph graph, CostProfile profile, int count) {
+        if (graph.getEdgeCosts() == null) {
+            throw new IllegalStateException("Can't select landmarks of a graph which is not connected.");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one landmark is needed, but got " + count + ".");
+        }
+        long start = System.currentTimeMillis();
+        int nodes = graph.getNodesSize();
+        Arcs outgoing = new Arcs(graph, profile, false);
+        Arcs incoming = new Arcs(graph, profile, true);
+
+        int words = (nodes + Integer.SIZE - 1) / Integer.SIZE;
+        int[] headBits = new int[words];
+        for (int head : outgoing.heads) {
+            headBits[head >>> 5] |= 1 << head;
+        }
+        int[] headRanks = new int[words];
+        int heads = 0;
+        for (int word = 0; word < words; word++) {
+            headRanks[word] = heads;
+            heads += Integer.bitCount(headBits[word]);
+        }
+        if ((long) heads * count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The weights of " + count + " landmarks for " + heads +
+                    " head nodes are too large for a column.");
+        }
+        // compact id of each node or -1 if it's not a head node, only needed while the weights are copied
+        int[] headIds = new int[nodes];
+        for (int node = 0, id = 0; node < nodes; node++) {
+            headIds[node] = (headBits[node >>> 5] & (1 << node)) != 0 ? id++ : -1;
+        }
+        StronglyConnectedComponents components = graph.getComponents(profile.getAccessor());
+
+        // the farthest node from a random node of the largest component is the first landmark
+        Random random = new Random(SEED);
+        int startNode = random.nextInt(nodes);
+        while (components != null && !components.isInLargestComponent(startNode)) {
+            startNode = random.nextInt(nodes);
+        }
+        double[] weights = new double[nodes];
+        outgoing.search(startNode, weights, new NodeHeap());
+        double[] minWeights = new double[nodes];
+        Arrays.fill(minWeights, Double.POSITIVE_INFINITY);
+        int landmark = findFarthestNode(weights, components);
+
+        int[] landmarks = new int[count];
+        float[] fromLandmarks = new float[heads * count];
+        for (int i = 0; i < count; i++) {
+            landmarks[i] = landmark;
+            outgoing.search(landmark, weights, new NodeHeap());
+            for (int node = 0; node < nodes; node++) {
+                if (headIds[node] > -1) {
+                    fromLandmarks[headIds[node] * count + i] = roundDown(weights[node]);
+                }
+                minWeights[node] = Math.min(minWeights[node], weights[node]);
+            }
+            landmark = findFarthestNode(minWeights, components);
+        }
+
+        float[] toLandmarks = new float[heads * count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            double[] landmarkWeights = new double[nodes];
+            incoming.search(landmarks[i], landmarkWeights, new NodeHeap());
+            for (int node = 0; node < nodes; node++) {
+                if (headIds[node] > -1) {
+                    toLandmarks[headIds[node] * count + i] = roundDown(landmarkWeights[node]);
+                }
+            }
+        });
+
+        logger.info("Selected {} landmarks for {} with weights of {} head nodes in {} ms.", count, profile, heads,
+                System.currentTimeMillis() - start);
+        return new Landmarks(profile, graph.getEdgeCosts().getFreeFlowChecksum(graph, profile),
+                IntBuffer.wrap(landmarks), IntBuffer.wrap(headBits), IntBuffer.wrap(headRanks),
+                FloatBuffer.wrap(fromLandmarks), FloatBuffer.wrap(toLandmarks));
+    }
+
+
+    /**
+     * @return the node with the highest finite weight, only nodes of the largest component are considered
+     */
+    private static int findFarthestNode(double[] weights, StronglyConnectedComponents components) {
+        int farthest = 0;
+        double maxWeight = -1;
+        for (int node = 0; node < weights.length; node++) {
+            if (weights[node] > maxWeight && weights[node] != Double.POSITIVE_INFINITY &&
+                    (components == null || components.isInLargestComponent(node))) {
+                farthest = node;
+                maxWeight = weights[node];
+            }
+        }
+        return farthest;
+    }
+
+
+    private static float roundDown(double weight) {
+        float rounded = (float) weight;
+        return rounded > weight ? Math.nextDown(rounded) : rounded;
+    }
+
+
+    public CostProfile getProfile() {
+        return this.profile;
+    }
+
+
+    public int getCount() {
+        return this.nodes.limit();
+    }
+
+
+    /**
+     * @return node id of the landmark
+     */
+    public int getNode(int landmark) {
+        return this.nodes.get(landmark);
+    }
+
+
+    /**
+     * @return number of head nodes which have weights
+     */
+    public int getHeads() {
+        return this.fromLandmarks.limit() / getCount();
+    }
+
+
+    /**
+     * @return true if the weights of the node are stored, i.e. if it's the head of an edge which can be accessed
+     */
+    public boolean hasWeights(int node) {
+        return getHeadId(node) > -1;
+    }
+
+
+    /**
+     * @return the compact id of a head node or -1 if the node is no head node
+     */
+    private int getHeadId(int node) {
+        int bits = this.headBits.get(node >>> 5);
+        int bit = 1 << node;
+        if ((bits & bit) == 0) {
+            return -1;
+        }
+        return this.headRanks.get(node >>> 5) + Integer.bitCount(bits & (bit - 1));
+    }
+
+
+    /**
+     * @return the weight of the shortest path from the landmark to the node rounded down,
+     * {@link Float#POSITIVE_INFINITY} if there's none or if the node is no head node
+     */
+    public float getWeightFromLandmark(int landmark, int node) {
+        int id = getHeadId(node);
+        return id > -1 ? this.fromLandmarks.get(id * getCount() + landmark) : Float.POSITIVE_INFINITY;
+    }
+
+
+    /**
+     * @return the weight of the shortest path from the node to the landmark rounded down,
+     * {@link Float#POSITIVE_INFINITY} if there's none or if the node is no head node
+     */
+    public float getWeightToLandmark(int landmark, int node) {
+        int id = getHeadId(node);
+        return id > -1 ? this.toLandmarks.get(id * getCount() + landmark) : Float.POSITIVE_INFINITY;
+    }
+
+
+    /**
+     * @param graph   the graph whose landmarks are stored in the file
+     * @param profile vehicle and weighting of the landmarks
+     * @return the file of the landmarks next to the graph file, e.g. osm_data.graph.car_fastest.landmarks
+     */
+    public static File getFile(File graph, CostProfile profile) {
+        return new File(graph.getPath() + "." + profile.name().toLowerCase() + ".landmarks");
+    }
+
+
+    /**
+     * Writes the landmarks into a file. The file starts with a header of {@link #HEADER_SIZE} bytes:
+     * <pre>
+     * int magic number, int format version, int ordinal of the profile, int number of landmarks,
+     * int number of ints of the head bits, int number of head nodes, long checksum of the costs
+     * </pre>
+     * Afterwards the landmarks, the head bits and ranks and the weights follow like in a {@link GraphSnapshot}.
+     *
+     * @param file file to write to, will be overwritten if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        int count = getCount();
+        int words = this.headBits.limit();
+        int heads = getHeads();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+            GraphSnapshot.writeInts(channel, buffer, this.nodes, count);
+            GraphSnapshot.writeInts(channel, buffer, this.headBits, words);
+            GraphSnapshot.writeInts(channel, buffer, this.headRanks, words);
+            writeFloats(channel, buffer, this.fromLandmarks, heads * count);
+            writeFloats(channel, buffer, this.toLandmarks, heads * count);
+
+            buffer.putInt(MAGIC_NUMBER).putInt(VERSION).putInt(this.profile.ordinal()).putInt(count).putInt(words)
+                    .putInt(heads).putLong(this.costsChecksum);
+            buffer.flip();
+            channel.write(buffer, 0);
+        }
+        logger.info("Wrote landmarks {} ({} MB) in {} ms.", file, file.length() / (1024 * 1024),
+                System.currentTimeMillis() - start);
+    }
+
+
+    private static void writeFloats(FileChannel channel, ByteBuffer buffer, FloatBuffer column, int size)
+            throws IOException {
+        for (int i = 0; i < size; i++) {
+            GraphSnapshot.flushIfFull(channel, buffer, Float.BYTES).putFloat(column.get(i));
+        }
+        GraphSnapshot.flushAndAlign(channel, buffer);
+    }
+
+
+    /**
+     * Maps a file created by {@link #write(File)} into memory. Add it to a graph by
+     * {@link Graph#setLandmarks(Landmarks)} which checks that it matches the graph.
+     *
+     * @param file file of landmarks
+     * @return the landmarks
+     * @throws IOException if the file can't be read
+     */
+    public static Landmarks read(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        Landmarks landmarks;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = GraphSnapshot.map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC_NUMBER) {
+                throw new IllegalArgumentException("File " + file + " doesn't contain landmarks.");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Landmarks " + file + " have version " + version +
+                        ", but only version " + VERSION + " is supported. Please create them again.");
+            }
+            CostProfile profile = CostProfile.values()[header.getInt(8)];
+            int count = header.getInt(12);
+            int words = header.getInt(16);
+            long weights = (long) header.getInt(20) * count;
+
+            long position = HEADER_SIZE;
+            IntBuffer nodes = GraphSnapshot.map(channel, position, (long) count * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) count * Integer.BYTES);
+            IntBuffer headBits = GraphSnapshot.map(channel, position, (long) words * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) words * Integer.BYTES);
+            IntBuffer headRanks = GraphSnapshot.map(channel, position, (long) words * Integer.BYTES).asIntBuffer();
+            position = GraphSnapshot.align(position + (long) words * Integer.BYTES);
+            FloatBuffer fromLandmarks = GraphSnapshot.map(channel, position, weights * Float.BYTES).asFloatBuffer();
+            position = GraphSnapshot.align(position + weights * Float.BYTES);
+            FloatBuffer toLandmarks = GraphSnapshot.map(channel, position, weights * Float.BYTES).asFloatBuffer();
+
+            landmarks = new Landmarks(profile, header.getLong(24), nodes, headBits, headRanks, fromLandmarks,
+                    toLandmarks);
+        }
+        logger.info("Mapped landmarks {} with weights of {} head nodes in {} ms.", file, landmarks.getHeads(),
+                System.currentTimeMillis() - start);
+        return landmarks;
+    }
+
+
+    /**
+     * @return the size of all columns, named by the profile
+     */
+    MemoryEstimate estimateMemory() {
+        String name = this.profile.name().toLowerCase();
+        return new MemoryEstimate()
+                .add(name, this.nodes).add(name, this.headBits).add(name, this.headRanks)
+                .add(name, this.fromLandmarks).add(name, this.toLandmarks);
+    }
+
+
+    /**
+     * The arcs searched by a Dijkstra, i.e. from the source of an edge to its next crossing or to its target if it has
+     * none, grouped by their source or, if they are reversed, by their target.
+     */
+    private static class Arcs {
+
+        private final int[] firstArcs;
+        // the heads of the arcs, or their sources if they are reversed
+        private final int[] heads;
+        private final float[] costs;
+
+
+        Arcs(Graph graph, CostProfile profile, boolean reversed) {
+            int nodes = graph.getNodesSize();
+            EdgeCosts edgeCosts = graph.getEdgeCosts();
+            EdgeIterator edges = graph.createEdgeIterator();
+            this.firstArcs = new int[nodes + 1];
+            for (int node = 0; node < nodes; node++) {
+                edges.setBaseNode(node);
+                while (edges.next()) {
+                    if (edgeCosts.getFreeFlowCost(profile, edges) != Float.POSITIVE_INFINITY) {
+                        this.firstArcs[(reversed ? getHead(edges) : node) + 1]++;
+                    }
+                }
+            }
+            for (int node = 0; node < nodes; node++) {
+                this.firstArcs[node + 1] += this.firstArcs[node];
+            }
+
+            this.heads = new int[this.firstArcs[nodes]];
+            this.costs = new float[this.firstArcs[nodes]];
+            int[] next = Arrays.copyOf(this.firstArcs, nodes);
+            for (int node = 0; node < nodes; node++) {
+                edges.setBaseNode(node);
+                while (edges.next()) {
+                    float cost = edgeCosts.getFreeFlowCost(profile, edges);
+                    if (cost != Float.POSITIVE_INFINITY) {
+                        int position = reversed ? next[getHead(edges)]++ : next[node]++;
+                        this.heads[position] = reversed ? node : getHead(edges);
+                        this.costs[position] = cost;
+                    }
+                }
+            }
+        }
+
+
+        private static int getHead(EdgeIterator edge) {
+            int nextCrossing = edge.getNextCrossing();
+            return nextCrossing > -1 ? nextCrossing : edge.getTarget();
+        }
+
+
+        /**
+         * Calculates the weights of the shortest paths from the start to all nodes, infinite if there's none.
+         */
+        void search(int start, double[] weights, NodeHeap heap) {
+            Arrays.fill(weights, Double.POSITIVE_INFINITY);
+            weights[start] = 0;
+            heap.push(start, 0);
+            while (!heap.isEmpty()) {
+                double weight = heap.peekWeight();
+                int node = heap.poll();
+                if (weight > weights[node]) {
+                    // the node has been pushed again with a lower weight
+                    continue;
+                }
+                for (int i = this.firstArcs[node]; i < this.firstArcs[node + 1]; i++) {
+                    int head = this.heads[i];
+                    double headWeight = weight + this.costs[i];
+                    if (headWeight < weights[head]) {
+                        weights[head] = headWeight;
+                        heap.push(head, headWeight);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Estimates the memory used by the data structures of the server, e.g. to size instances or to compare storage
+ * layouts. Columns are counted exactly by their capacity. Objects and hash maps are estimated with the sizes of a
+ * 64 bit JVM with compressed references. Buffers outside of the heap, i.e. direct and mapped buffers, are counted
+ * separately, because they are not limited by the max. heap size and mapped pages are shared between processes.
+ * <p>
+ * Entries are named after the structure they belong to, e.g. "nodes.lats". The names of node and edge columns start
+ * with "nodes." resp. "edges.", which allows to calculate the bytes per node and edge by {@link #getBytes(String)}.
+ */
+public class MemoryEstimate {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+    // trove hash maps have a load factor of 0.5 by default, i.e. twice as many slots as entries
+    static final int HASH_SLOTS_PER_ENTRY = 2;
+
+    private final Map<String, Long> heap = new LinkedHashMap<>();
+    private final Map<String, Long> offHeap = new LinkedHashMap<>();
+
+
+    /**
+     * @param name  name of the structure
+     * @param bytes estimated size on the heap
+     * @return this estimate
+     */
+    public MemoryEstimate add(String name, long bytes) {
+        this.heap.merge(name, bytes, Long::sum);
+        return this;
+    }
+
+
+    /**
+     * Adds the size of a column, nothing is added if it is null.
+     *
+     * @param name   name of the structure
+     * @param column a heap, direct or mapped buffer
+     * @return this estimate
+     */
+    public MemoryEstimate add(String name, Buffer column) {
+        if (column != null) {
+            long bytes = (long) column.capacity() * getElementSize(column);
+            if (column.isDirect()) {
+                this.offHeap.merge(name, bytes, Long::sum);
+            } else {
+                this.heap.merge(name, bytes + ARRAY_HEADER, Long::sum);
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Adds all entries of another estimate, their names are prefixed by the given prefix.
+     *
+     * @return this estimate
+     */
+    public MemoryEstimate addAll(String prefix, MemoryEstimate other) {
+        other.heap.forEach((name, bytes) -> this.heap.merge(prefix + name, bytes, Long::sum));
+        other.offHeap.forEach((name, bytes) -> this.offHeap.merge(prefix + name, bytes, Long::sum));
+        return this;
+    }
+
+
+    /**
+     * @param prefix prefix of the entry names, e.g. "nodes."
+     * @return the sum of all entries on and off the heap whose names start with the prefix
+     */
+    public long getBytes(String prefix) {
+        long bytes = 0;
+        for (Map.Entry<String, Long> entry : this.heap.entrySet()) {
+            bytes += entry.getKey().startsWith(prefix) ? entry.getValue() : 0;
+        }
+        for (Map.Entry<String, Long> entry : this.offHeap.entrySet()) {
+            bytes += entry.getKey().startsWith(prefix) ? entry.getValue() : 0;
+        }
+        return bytes;
+    }
+
+
+    /**
+     * @param prefix prefix of the entry names, e.g. "nodes."
+     * @param count  number of elements, e.g. nodes
+     * @return bytes of the entries per element, 0 if there are no elements
+     */
+    public double getBytesPer(String prefix, int count) {
+        return count > 0 ? getBytes(prefix) / (double) count : 0;
+    }
+
+
+    public long getHeapBytes() {
+        return this.heap.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+
+    public long getOffHeapBytes() {
+        return this.offHeap.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+
+    public Map<String, Long> getHeap() {
+        return Collections.unmodifiableMap(this.heap);
+    }
+
+
+    public Map<String, Long> getOffHeap() {
+        return Collections.unmodifiableMap(this.offHeap);
+    }
+
+
+    /**
+     * @param fieldBytes size of all fields of the object
+     * @return the size of an object including its header and the padding to 8 bytes
+     */
+    public static long getObjectSize(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+
+    /**
+     * @return the size of a string including its char array or 0 if it is empty, because empty strings are usually
+     * shared
+     */
+    public static long getStringSize(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        return getObjectSize(REFERENCE + Integer.BYTES) + align(ARRAY_HEADER + (long) value.length() * Character.BYTES);
+    }
+
+
+    /**
+     * @return the size of the slots of a trove hash map, excluding the objects referenced by it
+     */
+    public static long getHashMapSize(int entries, int keyBytes, int valueBytes) {
+        // primitive maps have an additional byte per slot for its state, it's counted for all maps for simplicity
+        return (long) entries * HASH_SLOTS_PER_ENTRY * (keyBytes + valueBytes + Byte.BYTES) + 3 * ARRAY_HEADER;
+    }
+
+
+    /**
+     * @return the size of a {@link Node} object including its POI type
+     */
+    public static long getNodeSize(Node node) {
+        return getObjectSize(Long.BYTES + 2 * Integer.BYTES + 2 + 2 * REFERENCE) + getStringSize(node.getTypeKey()) +
+                getStringSize(node.getTypeValue());
+    }
+
+
+    private static int getElementSize(Buffer column) {
+        if (column instanceof ByteBuffer) {
+            return Byte.BYTES;
+        } else if (column instanceof LongBuffer || column instanceof DoubleBuffer) {
+            return Long.BYTES;
+        }
+        // int and float buffers, other types are not used by the graph
+        return Integer.BYTES;
+    }
+
+
+    private static long align(long bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("heap ").append(getHeapBytes() / (1024 * 1024)).append(" MB, off heap ")
+                .append(getOffHeapBytes() / (1024 * 1024)).append(" MB");
+        this.heap.forEach((name, bytes) -> builder.append("\n  ").append(name).append(": ").append(bytes / 1024)
+                .append(" KB"));
+        this.offHeap.forEach((name, bytes) -> builder.append("\n  ").append(name).append(" (off heap): ")
+                .append(bytes / 1024).append(" KB"));
+        return builder.toString();
+    }
+}
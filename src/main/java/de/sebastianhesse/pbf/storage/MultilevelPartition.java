@@ -0,0 +1,416 @@
+package de.sebastianhesse.pbf.storage;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+
+/**
+ * A nested partition of the nodes of a {@link Graph} into cells on several levels: each cell of a level is the union of
+ * cells of the level below, level 1 has the smallest cells. It doesn't depend on the edge costs, so it's built once
+ * and only the {@link OverlayMetric} of each profile is calculated again when the costs change.
+ * <p>
+ * The cells are built by recursive bisection of the node coordinates: a range of nodes is split at the median of
+ * its longer side until it fits into a cell of a level. This needs no external partitioner, but cuts more edges than
+ * a partition which minimizes the cut. An edge whose source and next crossing (or target) are in different cells of a
+ * level makes its source an exit of the source's cell and the crossing an entry of the other cell. The entries and
+ * exits of each cell are stored sorted by node id. Needs about 4 bytes per node plus 4 bytes per entry and exit.
+ */
+public class MultilevelPartition {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultilevelPartition.class);
+
+    /**
+     * max. number of nodes in a cell of each level, from level 1 to the top level
+     */
+    public static final int[] DEFAULT_CELL_SIZES = {1 << 8, 1 << 12, 1 << 16};
+    // a customization uses one search per thread of the common pool
+    private static final int SEARCH_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    // level 1 cell of each node
+    final IntBuffer cells;
+    // the cell of the next level of each cell, indexed by level - 1, there's none for the top level
+    final IntBuffer[] parentCells;
+    // the entries resp. exits of the cells of a level, indexed by level - 1, the entries of cell c are
+    // entries[firstEntries[c]] to entries[firstEntries[c + 1] - 1]
+    final IntBuffer[] firstEntries;
+    final IntBuffer[] entries;
+    final IntBuffer[] firstExits;
+    final IntBuffer[] exits;
+    // index of the first clique weight of each cell in the weights of its level, see OverlayMetric
+    final IntBuffer[] firstWeights;
+    // searches for customization and unpacking which are reused, each needs about 48 bytes per node of a cell
+    private final Deque<OverlaySearch> searches = new ArrayDeque<>();
+
+
+    MultilevelPartition(IntBuffer cells, IntBuffer[] parentCells, IntBuffer[] firstEntries, IntBuffer[] entries,
+                        IntBuffer[] firstExits, IntBuffer[] exits, IntBuffer[] firstWeights) {
+        this.cells = cells;
+        this.parentCells = parentCells;
+        this.firstEntries = firstEntries;
+        this.entries = entries;
+        this.firstExits = firstExits;
+        this.exits = exits;
+        this.firstWeights = firstWeights;
+    }
+
+
+    /**
+     * Partitions the nodes of a connected graph.
+     *
+     * @param graph     a graph after the edges have been connected
+     * @param cellSizes max. number of nodes in a cell of each level in ascending order, e.g.
+     *                  {@link #DEFAULT_CELL_SIZES}
+     * @return the partition, it's not added to the graph
+     */
+    public static MultilevelPartition build(Graph graph, int[] cellSizes) {
+        if (!graph.isConnected()) {
+            throw new IllegalStateException("Can't partition a graph which is not connected.");
+        }
+        for (int level = 1; level < cellSizes.length; level++) {
+            if (cellSizes[level] <= cellSizes[level - 1]) {
+                throw new IllegalArgumentException("The cell sizes must be ascending: " +
+                        Arrays.toString(cellSizes));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Bisection bisection = new Bisection(graph, cellSizes);
+        int levels = cellSizes.length;
+        IntBuffer[] parentCells = new IntBuffer[levels - 1];
+        for (int level = 1; level < levels; level++) {
+            parentCells[level - 1] = IntBuffer.wrap(bisection.parentCells[level - 1].toArray());
+        }
+        MultilevelPartition partition = new MultilevelPartition(IntBuffer.wrap(bisection.cells), parentCells,
+                new IntBuffer[levels], new IntBuffer[levels], new IntBuffer[levels], new IntBuffer[levels],
+                new IntBuffer[levels]);
+        partition.findBoundaryNodes(graph, bisection.cellCounts);
+
+        int boundaryNodes = 0;
+        for (int level = 1; level <= levels; level++) {
+            boundaryNodes += partition.entries[level - 1].limit() + partition.exits[level - 1].limit();
+        }
+        logger.info("Partitioned {} nodes into {} cells on {} levels with {} entries and exits in {} ms.",
+                graph.getNodesSize(), Arrays.toString(bisection.cellCounts), levels, boundaryNodes,
+                System.currentTimeMillis() - start);
+        return partition;
+    }
+
+
+    /**
+     * Sets the entries and exits of all cells and the positions of their clique weights.
+     */
+    private void findBoundaryNodes(Graph graph, int[] cellCounts) {
+        int nodes = graph.getNodesSize();
+        // highest level on which a node is an entry resp. exit of its cell
+        byte[] entryLevels = new byte[nodes];
+        byte[] exitLevels = new byte[nodes];
+        EdgeIterator edges = graph.createEdgeIterator();
+        for (int node = 0; node < nodes; node++) {
+            edges.setBaseNode(node);
+            while (edges.next()) {
+                int nextCrossing = edges.getNextCrossing();
+                int head = nextCrossing > -1 ? nextCrossing : edges.getTarget();
+                int level = getHighestDifferentLevel(node, head);
+                exitLevels[node] = (byte) Math.max(exitLevels[node], level);
+                entryLevels[head] = (byte) Math.max(entryLevels[head], level);
+            }
+        }
+
+        for (int level = 1; level <= getLevels(); level++) {
+            int cellCount = cellCounts[level - 1];
+            int[] firstEntryIds = groupByCell(entryLevels, level, cellCount);
+            int[] firstExitIds = groupByCell(exitLevels, level, cellCount);
+            int[] entryIds = new int[firstEntryIds[cellCount]];
+            int[] exitIds = new int[firstExitIds[cellCount]];
+            int[] nextEntries = Arrays.copyOf(firstEntryIds, cellCount);
+            int[] nextExits = Arrays.copyOf(firstExitIds, cellCount);
+            // the nodes are visited in ascending order, so the entries and exits of a cell are sorted
+            for (int node = 0; node < nodes; node++) {
+                if (entryLevels[node] >= level) {
+                    entryIds[nextEntries[getCell(level, node)]++] = node;
+                }
+                if (exitLevels[node] >= level) {
+                    exitIds[nextExits[getCell(level, node)]++] = node;
+                }
+            }
+
+            int[] firstWeightIds = new int[cellCount + 1];
+            for (int cell = 0; cell < cellCount; cell++) {
+                long weights = firstWeightIds[cell] + (long) (firstEntryIds[cell + 1] - firstEntryIds[cell]) *
+                        (firstExitIds[cell + 1] - firstExitIds[cell]);
+                if (weights > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("The cliques of level " + level + " are too large, use " +
+                            "smaller cells.");
+                }
+                firstWeightIds[cell + 1] = (int) weights;
+            }
+            this.firstEntries[level - 1] = IntBuffer.wrap(firstEntryIds);
+            this.entries[level - 1] = IntBuffer.wrap(entryIds);
+            this.firstExits[level - 1] = IntBuffer.wrap(firstExitIds);
+            this.exits[level - 1] = IntBuffer.wrap(exitIds);
+            this.firstWeights[level - 1] = IntBuffer.wrap(firstWeightIds);
+        }
+    }
+
+
+    /**
+     * @return the index of the first node of each cell of the level whose node level is at least the level, the
+     * last index is the number of these nodes
+     */
+    private int[] groupByCell(byte[] nodeLevels, int level, int cellCount) {
+        int[] first = new int[cellCount + 1];
+        for (int node = 0; node < nodeLevels.length; node++) {
+            if (nodeLevels[node] >= level) {
+                first[getCell(level, node) + 1]++;
+            }
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            first[cell + 1] += first[cell];
+        }
+        return first;
+    }
+
+
+    public int getLevels() {
+        return this.firstEntries.length;
+    }
+
+
+    /**
+     * @return number of cells of the level
+     */
+    public int getCellCount(int level) {
+        return this.firstEntries[level - 1].limit() - 1;
+    }
+
+
+    /**
+     * @param level level from 1 to {@link #getLevels()}
+     * @return the cell of the node on the level
+     */
+    public int getCell(int level, int node) {
+        int cell = this.cells.get(node);
+        for (int i = 1; i < level; i++) {
+            cell = this.parentCells[i - 1].get(cell);
+        }
+        return cell;
+    }
+
+
+    /**
+     * @return the highest level on which the nodes are in different cells, 0 if they are in the same cell of level 1
+     */
+    public int getHighestDifferentLevel(int node, int other) {
+        int cell = this.cells.get(node);
+        int otherCell = this.cells.get(other);
+        int level = 0;
+        while (cell != otherCell) {
+            level++;
+            if (level == getLevels()) {
+                break;
+            }
+            cell = this.parentCells[level - 1].get(cell);
+            otherCell = this.parentCells[level - 1].get(otherCell);
+        }
+        return level;
+    }
+
+
+    public int getEntryCount(int level, int cell) {
+        IntBuffer first = this.firstEntries[level - 1];
+        return first.get(cell + 1) - first.get(cell);
+    }
+
+
+    /**
+     * @return the position of the node in the entries of the cell, -1 if it's not an entry
+     */
+    public int getEntryIndex(int level, int cell, int node) {
+        IntBuffer cellEntries = this.entries[level - 1];
+        int low = this.firstEntries[level - 1].get(cell);
+        int high = this.firstEntries[level - 1].get(cell + 1) - 1;
+        int first = low;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = cellEntries.get(middle);
+            if (entry < node) {
+                low = middle + 1;
+            } else if (entry > node) {
+                high = middle - 1;
+            } else {
+                return middle - first;
+            }
+        }
+        return -1;
+    }
+
+
+    public int getExitCount(int level, int cell) {
+        IntBuffer first = this.firstExits[level - 1];
+        return first.get(cell + 1) - first.get(cell);
+    }
+
+
+    /**
+     * @param index position in the exits of the cell
+     * @return node id of the exit
+     */
+    public int getExit(int level, int cell, int index) {
+        return this.exits[level - 1].get(this.firstExits[level - 1].get(cell) + index);
+    }
+
+
+    /**
+     * @param index position in the entries of the cell
+     * @return node id of the entry
+     */
+    public int getEntry(int level, int cell, int index) {
+        return this.entries[level - 1].get(this.firstEntries[level - 1].get(cell) + index);
+    }
+
+
+    int getFirstWeight(int level, int cell) {
+        return this.firstWeights[level - 1].get(cell);
+    }
+
+
+    /**
+     * @return number of clique weights of all cells of the level
+     */
+    int getWeightCount(int level) {
+        return getFirstWeight(level, getCellCount(level));
+    }
+
+
+    /**
+     * @return a search from the pool or a new one, must be released afterwards
+     */
+    OverlaySearch acquireSearch(Graph graph) {
+        synchronized (this.searches) {
+            if (!this.searches.isEmpty()) {
+                return this.searches.pop();
+            }
+        }
+        return new OverlaySearch(graph, this);
+    }
+
+
+    void releaseSearch(OverlaySearch search) {
+        synchronized (this.searches) {
+            if (this.searches.size() < SEARCH_POOL_SIZE) {
+                this.searches.push(search);
+            }
+        }
+    }
+
+
+    MemoryEstimate estimateMemory() {
+        MemoryEstimate estimate = new MemoryEstimate().add("cells", this.cells);
+        for (int i = 0; i < this.parentCells.length; i++) {
+            estimate.add("cells", this.parentCells[i]);
+        }
+        for (int i = 0; i < getLevels(); i++) {
+            estimate.add("boundaryNodes", this.firstEntries[i]).add("boundaryNodes", this.entries[i])
+                    .add("boundaryNodes", this.firstExits[i]).add("boundaryNodes", this.exits[i])
+                    .add("boundaryNodes", this.firstWeights[i]);
+        }
+        return estimate;
+    }
+
+
+    /**
+     * Recursive bisection of the nodes by their coordinates.
+     */
+    private static class Bisection {
+
+        private final Graph graph;
+        private final int[] cellSizes;
+        private final int[] order;
+        private final long[] keys;
+        final int[] cells;
+        final TIntArrayList[] parentCells;
+        final int[] cellCounts;
+
+
+        Bisection(Graph graph, int[] cellSizes) {
+            this.graph = graph;
+            this.cellSizes = cellSizes;
+            int nodes = graph.getNodesSize();
+            this.order = new int[nodes];
+            for (int node = 0; node < nodes; node++) {
+                this.order[node] = node;
+            }
+            this.keys = new long[nodes];
+            this.cells = new int[nodes];
+            this.parentCells = new TIntArrayList[cellSizes.length - 1];
+            for (int i = 0; i < this.parentCells.length; i++) {
+                this.parentCells[i] = new TIntArrayList();
+            }
+            this.cellCounts = new int[cellSizes.length];
+            // all nodes are in the cell 0 of a virtual level above the top level
+            split(0, nodes, cellSizes.length + 1, 0);
+        }
+
+
+        /**
+         * Opens the cells of the range on all levels it fits in, then it's assigned to a level 1 cell or split.
+         *
+         * @param parentLevel level of the smallest cell which contains the range
+         * @param parentCell  the cell on this level
+         */
+        private void split(int from, int to, int parentLevel, int parentCell) {
+            int level = parentLevel;
+            int cell = parentCell;
+            while (level > 1 && to - from <= this.cellSizes[level - 2]) {
+                level--;
+                if (level < this.cellSizes.length) {
+                    this.parentCells[level - 1].add(cell);
+                }
+                cell = this.cellCounts[level - 1]++;
+            }
+            if (level == 1) {
+                for (int i = from; i < to; i++) {
+                    this.cells[this.order[i]] = cell;
+                }
+                return;
+            }
+
+            sortByLongerSide(from, to);
+            int middle = (from + to) >>> 1;
+            split(from, middle, level, cell);
+            split(middle, to, level, cell);
+        }
+
+
+        private void sortByLongerSide(int from, int to) {
+            int minLat = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE;
+            int maxLon = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int node = this.order[i];
+                minLat = Math.min(minLat, this.graph.getEncodedLat(node));
+                maxLat = Math.max(maxLat, this.graph.getEncodedLat(node));
+                minLon = Math.min(minLon, this.graph.getEncodedLon(node));
+                maxLon = Math.max(maxLon, this.graph.getEncodedLon(node));
+            }
+            // a degree of longitude is shorter than one of latitude, but this only changes the shape of the cells
+            boolean byLat = (long) maxLat - minLat >= (long) maxLon - minLon;
+            for (int i = from; i < to; i++) {
+                int node = this.order[i];
+                long coordinate = byLat ? this.graph.getEncodedLat(node) : this.graph.getEncodedLon(node);
+                this.keys[i] = coordinate << 32 | node;
+            }
+            Arrays.sort(this.keys, from, to);
+            for (int i = from; i < to; i++) {
+                this.order[i] = (int) this.keys[i];
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.sebastianhesse.pbf.storage;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import de.sebastianhesse.pbf.util.GraphUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -7,15 +9,15 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 
 
 /**
- * A {@link Graph} node containing latitude and longitude information. Also holds an offset pointer with the index
- * of the nodes first {@link Edge} within the edge array of a {@link Graph}. This is used for routing.
+ * A {@link Graph} node containing latitude and longitude information. A {@link Graph} does not store node objects,
+ * it creates them on demand, e.g. to return the nodes of a route. POIs are stored as node objects though.
+ * Latitude and longitude are stored as fixed-point integers, see {@link GraphUtil#encodeCoordinate(double)}.
  */
 public class Node implements Comparable<Node> {
 
     private long id = -1;
-    private double lat;
-    private double lon;
-    private int offsetPointer = -1;
+    private int lat;
+    private int lon;
     /**
      * if this node is a junction or node
      */
@@ -35,38 +37,53 @@ public class Node implements Comparable<Node> {
 
 
     public Node(double lat, double lon) {
-        this.lat = lat;
-        this.lon = lon;
+        this.lat = GraphUtil.encodeCoordinate(lat);
+        this.lon = GraphUtil.encodeCoordinate(lon);
+    }
+
+
+    /**
+     * @param lat encoded latitude
+     * @param lon encoded longitude
+     * @return a new node with the given coordinates
+     */
+    public static Node fromEncoded(int lat, int lon) {
+        Node node = new Node(0, 0);
+        node.lat = lat;
+        node.lon = lon;
+        return node;
     }
 
 
     public double getLat() {
-        return lat;
+        return GraphUtil.decodeCoordinate(lat);
     }
 
 
     public double getLon() {
-        return lon;
+        return GraphUtil.decodeCoordinate(lon);
     }
 
 
-    public long getId() {
-        return id;
+    @JsonIgnore
+    public int getEncodedLat() {
+        return lat;
     }
 
 
-    public void setId(long id) {
-        this.id = id;
+    @JsonIgnore
+    public int getEncodedLon() {
+        return lon;
     }
 
 
-    public int getOffsetPointer() {
-        return offsetPointer;
+    public long getId() {
+        return id;
     }
 
 
-    public void setOffsetPointer(int offsetPointer) {
-        this.offsetPointer = offsetPointer;
+    public void setId(long id) {
+        this.id = id;
     }
 
 
@@ -150,9 +167,8 @@ public class Node implements Comparable<Node> {
     public String toString() {
         return new ToStringBuilder(this)
                 .append("id", id)
-                .append("lat", lat)
-                .append("lon", lon)
-                .append("offsetPointer", offsetPointer)
+                .append("lat", getLat())
+                .append("lon", getLon())
                 .toString();
     }
 }
@@ -0,0 +1,82 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.util.Arrays;
+
+
+/**
+ * A binary min heap of node ids and weights for the searches while preprocessing the graph. It may contain a node
+ * several times instead of decreasing its weight, so a search must skip a polled node whose weight is outdated.
+ */
+class NodeHeap {
+
+    private int size = 0;
+    private int[] nodes = new int[64];
+    private double[] weights = new double[64];
+
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+
+    void clear() {
+        this.size = 0;
+    }
+
+
+    void push(int node, double weight) {
+        if (this.size == this.nodes.length) {
+            this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+            this.weights = Arrays.copyOf(this.weights, 2 * this.size);
+        }
+        int position = this.size++;
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (this.weights[parent] <= weight) {
+                break;
+            }
+            this.nodes[position] = this.nodes[parent];
+            this.weights[position] = this.weights[parent];
+            position = parent;
+        }
+        this.nodes[position] = node;
+        this.weights[position] = weight;
+    }
+
+
+    /**
+     * @return the weight of the node which is polled next
+     */
+    double peekWeight() {
+        return this.weights[0];
+    }
+
+
+    /**
+     * @return the node with the lowest weight, it's removed from the heap
+     */
+    int poll() {
+        int result = this.nodes[0];
+        int node = this.nodes[--this.size];
+        double weight = this.weights[this.size];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && this.weights[child + 1] < this.weights[child]) {
+                child++;
+            }
+            if (this.weights[child] >= weight) {
+                break;
+            }
+            this.nodes[position] = this.nodes[child];
+            this.weights[position] = this.weights[child];
+            position = child;
+        }
+        this.nodes[position] = node;
+        this.weights[position] = weight;
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Maps the OSM ids of the nodes of a {@link Graph} to their node ids. The OSM ids are sorted and split into a high
+ * and a low part: the high 32 bits of {@code osmId - minOsmId} select a bucket, the low 32 bits are stored as int in
+ * {@link #lowIds}. The entries of bucket b are stored from index {@code bucketStarts[b]} until
+ * {@code bucketStarts[b + 1]} and are found by a binary search. {@link #nodes} contains the node id of each entry.
+ * <p>
+ * OSM ids fit into a few buckets, so the index needs about 8 bytes per node, compared to more than 20 bytes per node
+ * of a {@code TLongIntHashMap} with its load factor.
+ */
+class OsmIdIndex {
+
+    /**
+     * max. number of buckets, i.e. the OSM ids of a graph must not be spread too much
+     */
+    static final int MAX_BUCKETS = 1 << 20;
+
+    final long minOsmId;
+    // number of buckets + 1 entries, the last one is the number of nodes
+    final IntBuffer bucketStarts;
+    final IntBuffer lowIds;
+    final IntBuffer nodes;
+
+
+    /**
+     * Builds a new index over the OSM ids of the first nodes.
+     *
+     * @param osmIds OSM ids, indexed by node id
+     * @param size   number of nodes
+     */
+    OsmIdIndex(long[] osmIds, int size) {
+        long[] sorted = Arrays.copyOf(osmIds, size);
+        Arrays.sort(sorted);
+        for (int i = 1; i < size; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                throw new IllegalArgumentException("The OSM id " + sorted[i] + " belongs to more than one node.");
+            }
+        }
+
+        this.minOsmId = size > 0 ? sorted[0] : 0;
+        long buckets = size > 0 ? ((sorted[size - 1] - this.minOsmId) >>> 32) + 1 : 0;
+        if (buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException("The OSM ids from " + this.minOsmId + " to " + sorted[size - 1] +
+                    " are spread too much to be indexed.");
+        }
+
+        int[] starts = new int[(int) buckets + 1];
+        int[] lowIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            long key = sorted[i] - this.minOsmId;
+            starts[(int) (key >>> 32) + 1]++;
+            lowIds[i] = (int) key;
+        }
+        for (int b = 0; b < buckets; b++) {
+            starts[b + 1] += starts[b];
+        }
+
+        // the OSM ids are unique, so the position of a node in the sorted ids is found by a binary search
+        int[] nodes = new int[size];
+        for (int node = 0; node < size; node++) {
+            nodes[Arrays.binarySearch(sorted, osmIds[node])] = node;
+        }
+
+        this.bucketStarts = IntBuffer.wrap(starts);
+        this.lowIds = IntBuffer.wrap(lowIds);
+        this.nodes = IntBuffer.wrap(nodes);
+    }
+
+
+    /**
+     * Restores an index which has been built before, see {@link GraphSnapshot}.
+     */
+    OsmIdIndex(long minOsmId, IntBuffer bucketStarts, IntBuffer lowIds, IntBuffer nodes) {
+        this.minOsmId = minOsmId;
+        this.bucketStarts = bucketStarts;
+        this.lowIds = lowIds;
+        this.nodes = nodes;
+    }
+
+
+    int getBuckets() {
+        return this.bucketStarts.limit() - 1;
+    }
+
+
+    /**
+     * @param osmId OSM id of a node
+     * @return id of the node or -1 if there is no node with this OSM id
+     */
+    int findNode(long osmId) {
+        long key = osmId - this.minOsmId;
+        if (osmId < this.minOsmId || (key >>> 32) >= getBuckets()) {
+            return -1;
+        }
+
+        int bucket = (int) (key >>> 32);
+        int low = this.bucketStarts.get(bucket);
+        int high = this.bucketStarts.get(bucket + 1) - 1;
+        int lowId = (int) key;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = Integer.compareUnsigned(this.lowIds.get(middle), lowId);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return this.nodes.get(middle);
+            }
+        }
+        return -1;
+    }
+}
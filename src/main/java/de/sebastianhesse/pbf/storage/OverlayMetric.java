@@ -0,0 +1,139 @@
+package de.sebastianhesse.pbf.storage;
+
+import gnu.trove.list.TIntList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+
+/**
+ * The overlay graph of a {@link MultilevelPartition} for one {@link CostProfile}: each cell is replaced by a clique
+ * of arcs from each of its entries to each of its exits, weighted by the shortest path inside the cell. This is the
+ * customization of customizable route planning (CRP). The cliques of a level are calculated from the cliques of the
+ * level below, the cells of a level are calculated in parallel. It uses the current edge costs including traffic, so
+ * after a traffic update only the customization runs again, which takes seconds instead of rebuilding the partition.
+ * <p>
+ * The costs of the edges are copied when the customization starts and the queries and unpacking of this metric only
+ * use the copy, so they never mix the cliques with costs which changed after the customization. The copy needs
+ * 4 bytes per edge. The costs and weights are allocated like the other columns of the graph, i.e. outside of the
+ * heap after {@link Graph#moveOffHeap()}.
+ * <p>
+ * The weights of a cell are stored row by row, i.e. from its first entry to all exits, then from the second entry.
+ * They are stored as floats like the {@link EdgeCosts}, so each weight needs 4 bytes.
+ */
+public class OverlayMetric {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverlayMetric.class);
+
+    final CostProfile profile;
+    final MultilevelPartition partition;
+    // clique weights of all cells of a level, indexed by level - 1, infinite if there's no path
+    final FloatBuffer[] weights;
+    // costs of the profile when the metric has been customized, indexed by edge id
+    final FloatBuffer costs;
+    private final Graph graph;
+
+
+    OverlayMetric(Graph graph, MultilevelPartition partition, CostProfile profile, FloatBuffer[] weights,
+                  FloatBuffer costs) {
+        this.graph = graph;
+        this.partition = partition;
+        this.profile = profile;
+        this.weights = weights;
+        this.costs = costs;
+    }
+
+
+    /**
+     * Calculates the clique weights of all cells with the current edge costs.
+     *
+     * @return the metric, it's not added to the graph
+     */
+    static OverlayMetric customize(Graph graph, MultilevelPartition partition, CostProfile profile) {
+        long start = System.currentTimeMillis();
+        FloatBuffer costs = graph.allocateFloats(graph.getEdgesSize());
+        graph.getEdgeCosts().copyCosts(profile, costs);
+        OverlayMetric metric = new OverlayMetric(graph, partition, profile,
+                new FloatBuffer[partition.getLevels()], costs);
+        for (int level = 1; level <= partition.getLevels(); level++) {
+            int cellLevel = level;
+            // the cells write disjoint ranges of the weights
+            FloatBuffer levelWeights = graph.allocateFloats(partition.getWeightCount(level));
+            IntStream.range(0, partition.getCellCount(level)).parallel().forEach(cell -> {
+                OverlaySearch search = partition.acquireSearch(graph);
+                try {
+                    search.customize(metric, cellLevel, cell, levelWeights);
+                } finally {
+                    partition.releaseSearch(search);
+                }
+            });
+            metric.weights[level - 1] = levelWeights;
+        }
+        logger.info("Customized the overlay for {} in {} ms.", profile, System.currentTimeMillis() - start);
+        return metric;
+    }
+
+
+    public CostProfile getProfile() {
+        return this.profile;
+    }
+
+
+    public MultilevelPartition getPartition() {
+        return this.partition;
+    }
+
+
+    /**
+     * @param edge id of an edge
+     * @return the cost of the edge when the metric has been customized, {@link Float#POSITIVE_INFINITY} if it can't
+     * be used
+     */
+    public float getCost(int edge) {
+        return this.costs.get(edge);
+    }
+
+
+    /**
+     * @param entry position in the entries of the cell
+     * @param exit  position in the exits of the cell
+     * @return the weight of the shortest path from the entry to the exit inside the cell, infinite if there's none
+     */
+    public float getCliqueWeight(int level, int cell, int entry, int exit) {
+        return this.weights[level - 1].get(this.partition.getFirstWeight(level, cell) +
+                entry * this.partition.getExitCount(level, cell) + exit);
+    }
+
+
+    /**
+     * Appends the edges of the shortest path from a node to another node inside their cell of the level, i.e. an arc of
+     * a clique is unpacked recursively. Each edge is appended with its source.
+     *
+     * @param level level of the cell, 0 if the nodes are connected by an edge
+     * @return false if there's no path
+     */
+    public boolean unpack(int from, int to, int level, TIntList edgeSources, TIntList edges) {
+        OverlaySearch search = this.partition.acquireSearch(this.graph);
+        try {
+            return search.unpack(this, from, to, level, edgeSources, edges);
+        } finally {
+            this.partition.releaseSearch(search);
+        }
+    }
+
+
+    /**
+     * @return the size of the weights and costs, named by the profile
+     */
+    MemoryEstimate estimateMemory() {
+        String name = this.profile.name().toLowerCase();
+        MemoryEstimate estimate = new MemoryEstimate();
+        for (FloatBuffer levelWeights : this.weights) {
+            estimate.add(name, levelWeights);
+        }
+        estimate.add(name + ".costs", this.costs);
+        return estimate;
+    }
+}
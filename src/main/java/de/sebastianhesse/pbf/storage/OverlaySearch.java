@@ -0,0 +1,265 @@
+package de.sebastianhesse.pbf.storage;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+
+/**
+ * A Dijkstra inside one cell of a {@link MultilevelPartition} which calculates the clique weights of the cell resp.
+ * unpacks a clique arc into edges. It moves over the cliques of the levels below: a node whose cell on a lower level
+ * differs from the cell of the source is only left by the clique of this cell, if it's an entry, and by the edges which
+ * leave this cell.
+ * <p>
+ * A search only reaches the nodes of one cell, hence the reached nodes are kept in a hash table with linear probing
+ * whose slots are the local ids of the nodes. It grows with the largest cell which has been searched, so a search needs
+ * about 48 bytes per node of this cell instead of arrays for all nodes of the graph. Slots are marked by stamps, so
+ * the table is only filled once.
+ */
+class OverlaySearch {
+
+    private static final int INITIAL_SLOT_BITS = 10;
+
+    private final MultilevelPartition partition;
+    private final EdgeIterator edges;
+    // node of each slot, the slot is used if its reached stamp is the current stamp
+    private int slotBits = INITIAL_SLOT_BITS;
+    private int[] slotNodes = new int[1 << INITIAL_SLOT_BITS];
+    private int[] reachedStamps = new int[1 << INITIAL_SLOT_BITS];
+    private int[] settledStamps = new int[1 << INITIAL_SLOT_BITS];
+    private double[] weights = new double[1 << INITIAL_SLOT_BITS];
+    // node id of the predecessor of each slot
+    private int[] predecessors = new int[1 << INITIAL_SLOT_BITS];
+    private int reachedNodes = 0;
+    private final NodeHeap heap = new NodeHeap();
+    private int stamp = 0;
+
+
+    OverlaySearch(Graph graph, MultilevelPartition partition) {
+        this.partition = partition;
+        this.edges = graph.createEdgeIterator();
+    }
+
+
+    /**
+     * Calculates the weights from each entry to each exit of the cell, the cliques of the levels below must have been
+     * calculated before.
+     *
+     * @param weights the weights of all cells of the level, see {@link OverlayMetric}
+     */
+    void customize(OverlayMetric metric, int level, int cell, FloatBuffer weights) {
+        int first = this.partition.getFirstWeight(level, cell);
+        int entries = this.partition.getEntryCount(level, cell);
+        int exits = this.partition.getExitCount(level, cell);
+        for (int entry = 0; entry < entries; entry++) {
+            run(metric, this.partition.getEntry(level, cell, entry), level, -1);
+            for (int exit = 0; exit < exits; exit++) {
+                weights.put(first + entry * exits + exit, (float) getWeight(this.partition.getExit(level, cell, exit)));
+            }
+        }
+    }
+
+
+    /**
+     * Appends the edges of the shortest path from a node to another node inside their cell of the level.
+     *
+     * @param level level of the cell, 0 if the nodes are connected by an edge
+     * @return false if there's no path
+     */
+    boolean unpack(OverlayMetric metric, int from, int to, int level, TIntList edgeSources, TIntList edgeIds) {
+        if (level == 0) {
+            int edge = findEdge(metric, from, to);
+            if (edge == -1) {
+                return false;
+            }
+            edgeSources.add(from);
+            edgeIds.add(edge);
+            return true;
+        }
+
+        run(metric, from, level, to);
+        int slot = findSlot(to);
+        if (!isReached(slot) || this.settledStamps[slot] != this.stamp) {
+            return false;
+        }
+        // the search is reused for the lower levels, so the path must be collected before
+        TIntArrayList path = new TIntArrayList();
+        for (int node = to; node != -1; node = this.predecessors[findSlot(node)]) {
+            path.add(node);
+        }
+        path.reverse();
+        for (int i = 1; i < path.size(); i++) {
+            int previous = path.get(i - 1);
+            int node = path.get(i);
+            int queryLevel = Math.min(level - 1, this.partition.getHighestDifferentLevel(from, previous));
+            boolean isClique = queryLevel > 0 &&
+                    this.partition.getHighestDifferentLevel(previous, node) < queryLevel;
+            if (!unpack(metric, previous, node, isClique ? queryLevel : 0, edgeSources, edgeIds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Dijkstra from the source to all nodes of its cell of the level.
+     *
+     * @param target the search stops when it's settled, -1 to search the whole cell
+     */
+    private void run(OverlayMetric metric, int source, int level, int target) {
+        if (++this.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.reachedStamps, 0);
+            Arrays.fill(this.settledStamps, 0);
+            this.stamp = 1;
+        }
+        this.reachedNodes = 0;
+        this.heap.clear();
+        reach(source, 0, -1);
+
+        while (!this.heap.isEmpty()) {
+            double weight = this.heap.peekWeight();
+            int node = this.heap.poll();
+            int slot = findSlot(node);
+            if (this.settledStamps[slot] == this.stamp) {
+                continue;
+            }
+            this.settledStamps[slot] = this.stamp;
+            if (node == target) {
+                return;
+            }
+
+            // the cell of the node on this level doesn't contain the source, so it's passed by its clique
+            int queryLevel = Math.min(level - 1, this.partition.getHighestDifferentLevel(source, node));
+            if (queryLevel > 0) {
+                int cell = this.partition.getCell(queryLevel, node);
+                int entry = this.partition.getEntryIndex(queryLevel, cell, node);
+                if (entry > -1) {
+                    int exits = this.partition.getExitCount(queryLevel, cell);
+                    for (int exit = 0; exit < exits; exit++) {
+                        float cliqueWeight = metric.getCliqueWeight(queryLevel, cell, entry, exit);
+                        if (cliqueWeight != Float.POSITIVE_INFINITY) {
+                            reach(this.partition.getExit(queryLevel, cell, exit), weight + cliqueWeight, node);
+                        }
+                    }
+                }
+            }
+
+            this.edges.setBaseNode(node);
+            while (this.edges.next()) {
+                int head = getHead(this.edges);
+                int differentLevel = this.partition.getHighestDifferentLevel(node, head);
+                // edges inside the cell of the query level are part of its clique, edges leaving the cell are skipped
+                if (differentLevel < queryLevel || differentLevel >= level) {
+                    continue;
+                }
+                float cost = metric.getCost(this.edges.getEdge());
+                if (cost != Float.POSITIVE_INFINITY) {
+                    reach(head, weight + cost, node);
+                }
+            }
+        }
+    }
+
+
+    private void reach(int node, double weight, int predecessor) {
+        int slot = findSlot(node);
+        if (!isReached(slot)) {
+            if (2 * (this.reachedNodes + 1) > this.slotNodes.length) {
+                grow();
+                slot = findSlot(node);
+            }
+            this.reachedNodes++;
+            this.slotNodes[slot] = node;
+            this.reachedStamps[slot] = this.stamp;
+        } else if (weight >= this.weights[slot]) {
+            return;
+        }
+        this.weights[slot] = weight;
+        this.predecessors[slot] = predecessor;
+        this.heap.push(node, weight);
+    }
+
+
+    /**
+     * @return the weight of the shortest path from the source of the last search, infinite if there's none
+     */
+    private double getWeight(int node) {
+        int slot = findSlot(node);
+        return isReached(slot) ? this.weights[slot] : Double.POSITIVE_INFINITY;
+    }
+
+
+    private boolean isReached(int slot) {
+        return this.reachedStamps[slot] == this.stamp;
+    }
+
+
+    /**
+     * @return the slot of the node if it has been reached by the current search, otherwise the free slot for it
+     */
+    private int findSlot(int node) {
+        int mask = this.slotNodes.length - 1;
+        // Fibonacci hashing, the upper bits of the product are mixed best
+        int slot = node * 0x9E3779B9 >>> (32 - this.slotBits);
+        while (isReached(slot) && this.slotNodes[slot] != node) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Doubles the slots, so at least half of them are free.
+     */
+    private void grow() {
+        int[] oldNodes = this.slotNodes;
+        int[] oldReachedStamps = this.reachedStamps;
+        int[] oldSettledStamps = this.settledStamps;
+        double[] oldWeights = this.weights;
+        int[] oldPredecessors = this.predecessors;
+        this.slotBits++;
+        int slots = 1 << this.slotBits;
+        this.slotNodes = new int[slots];
+        this.reachedStamps = new int[slots];
+        this.settledStamps = new int[slots];
+        this.weights = new double[slots];
+        this.predecessors = new int[slots];
+        for (int oldSlot = 0; oldSlot < oldNodes.length; oldSlot++) {
+            if (oldReachedStamps[oldSlot] == this.stamp) {
+                int slot = findSlot(oldNodes[oldSlot]);
+                this.slotNodes[slot] = oldNodes[oldSlot];
+                this.reachedStamps[slot] = this.stamp;
+                this.settledStamps[slot] = oldSettledStamps[oldSlot];
+                this.weights[slot] = oldWeights[oldSlot];
+                this.predecessors[slot] = oldPredecessors[oldSlot];
+            }
+        }
+    }
+
+
+    /**
+     * @return the cheapest edge from the source to the head, i.e. its next crossing or target, -1 if there's none
+     */
+    private int findEdge(OverlayMetric metric, int source, int head) {
+        int edge = -1;
+        float minCost = Float.POSITIVE_INFINITY;
+        this.edges.setBaseNode(source);
+        while (this.edges.next()) {
+            float cost = metric.getCost(this.edges.getEdge());
+            if (getHead(this.edges) == head && cost < minCost) {
+                edge = this.edges.getEdge();
+                minCost = cost;
+            }
+        }
+        return edge;
+    }
+
+
+    private static int getHead(EdgeIterator edge) {
+        int nextCrossing = edge.getNextCrossing();
+        return nextCrossing > -1 ? nextCrossing : edge.getTarget();
+    }
+}
@@ -0,0 +1,118 @@
+package de.sebastianhesse.pbf.storage;
+
+
+/**
+ * {@link EdgeIterator} over the incoming edges of a node. The reverse index of a {@link Graph} only contains the id
+ * and source of each incoming edge, all other attributes are read by moving an iterator over the outgoing edges of
+ * the source to the same edge. A node only has a few edges, so this is cheap and works for all edge layouts.
+ */
+class ReverseEdgeIterator implements EdgeIterator {
+
+    private final Graph graph;
+    private final EdgeIterator outgoing;
+    private int baseNode = -1;
+    private int edge = -1;
+    private int source = -1;
+    private int position = -1;
+    private int endPosition = -1;
+
+
+    ReverseEdgeIterator(Graph graph, EdgeIterator outgoing) {
+        this.graph = graph;
+        this.outgoing = outgoing;
+    }
+
+
+    @Override
+    public EdgeIterator setBaseNode(int node) {
+        this.baseNode = node;
+        this.edge = -1;
+        this.source = -1;
+        this.position = this.graph.firstInEdges.get(node);
+        this.endPosition = this.graph.firstInEdges.get(node + 1);
+        return this;
+    }
+
+
+    @Override
+    public boolean next() {
+        if (this.position >= this.endPosition) {
+            return false;
+        }
+        this.edge = this.graph.inEdges.get(this.position);
+        this.source = this.graph.inEdgeSources.get(this.position);
+        this.position++;
+
+        this.outgoing.setBaseNode(this.source);
+        while (this.outgoing.next()) {
+            if (this.outgoing.getEdge() == this.edge) {
+                return true;
+            }
+        }
+        throw new IllegalStateException("Edge " + this.edge + " is not an outgoing edge of node " + this.source +
+                ", the reverse index doesn't match the graph.");
+    }
+
+
+    @Override
+    public int getEdge() {
+        return this.edge;
+    }
+
+
+    @Override
+    public int getBaseNode() {
+        return this.baseNode;
+    }
+
+
+    /**
+     * @return the source of the current edge, since the base node is its target
+     */
+    @Override
+    public int getTarget() {
+        return this.source;
+    }
+
+
+    @Override
+    public int getNextCrossing() {
+        return this.outgoing.getNextCrossing();
+    }
+
+
+    @Override
+    public double getDistance() {
+        return this.outgoing.getDistance();
+    }
+
+
+    @Override
+    public short getSpeed() {
+        return this.outgoing.getSpeed();
+    }
+
+
+    @Override
+    public String getType() {
+        return this.outgoing.getType();
+    }
+
+
+    @Override
+    public boolean isCarAllowed() {
+        return this.outgoing.isCarAllowed();
+    }
+
+
+    @Override
+    public boolean isPedestrianAllowed() {
+        return this.outgoing.isPedestrianAllowed();
+    }
+
+
+    @Override
+    public double getAdditionalWeight() {
+        return this.outgoing.getAdditionalWeight();
+    }
+}
@@ -0,0 +1,180 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Labels the nodes of a {@link Graph} with their strongly connected component, i.e. a node can reach every node of
+ * its own component. Only edges which allow a certain access, e.g. {@link Graph#CAR_ALLOWED}, are considered.
+ * <p>
+ * The components are found with an iterative version of Tarjan's algorithm which numbers them in reverse topological
+ * order: if there's a path from component a to another component b, then b < a. Together with flags for edges into
+ * and out of a component, this rejects most pairs of nodes without a path in constant time, see
+ * {@link #mayReach(int, int)}.
+ */
+public class StronglyConnectedComponents {
+
+    static final byte HAS_INCOMING = 1;
+    static final byte HAS_OUTGOING = 1 << 1;
+
+    // component of each node, indexed by node id
+    final IntBuffer labels;
+    // flags of each component, indexed by component id
+    final ByteBuffer flags;
+    final int largest;
+
+
+    StronglyConnectedComponents(IntBuffer labels, ByteBuffer flags, int largest) {
+        this.labels = labels;
+        this.flags = flags;
+        this.largest = largest;
+    }
+
+
+    /**
+     * Finds the components of a connected graph which still has its uncompressed edge columns.
+     *
+     * @param graph  a graph after the edges have been connected
+     * @param access access flag of the edges to consider, e.g. {@link Graph#CAR_ALLOWED}
+     * @return the components of the graph
+     */
+    static StronglyConnectedComponents build(Graph graph, byte access) {
+        int nodes = graph.nodeIdx;
+        IntBuffer firstEdges = graph.firstEdges;
+        IntBuffer edgeTargets = graph.edgeTargets;
+        ByteBuffer edgeFlags = graph.edgeFlags;
+
+        int[] labels = new int[nodes];
+        int[] index = new int[nodes];
+        int[] lowLink = new int[nodes];
+        Arrays.fill(labels, -1);
+        Arrays.fill(index, -1);
+        // nodes which have been visited, but are not part of a component yet
+        int[] stack = new int[nodes];
+        int stackSize = 0;
+        // replaces the recursion: node and next edge to visit of each frame
+        int[] frameNodes = new int[nodes];
+        int[] frameEdges = new int[nodes];
+        int counter = 0;
+        int components = 0;
+
+        for (int root = 0; root < nodes; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            index[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            frameNodes[0] = root;
+            frameEdges[0] = firstEdges.get(root);
+            int depth = 1;
+
+            while (depth > 0) {
+                int node = frameNodes[depth - 1];
+                int edge = frameEdges[depth - 1];
+                if (edge < firstEdges.get(node + 1)) {
+                    frameEdges[depth - 1]++;
+                    if ((edgeFlags.get(edge) & access) == 0) {
+                        continue;
+                    }
+                    int target = edgeTargets.get(edge);
+                    if (index[target] == -1) {
+                        index[target] = lowLink[target] = counter++;
+                        stack[stackSize++] = target;
+                        frameNodes[depth] = target;
+                        frameEdges[depth] = firstEdges.get(target);
+                        depth++;
+                    } else if (labels[target] == -1) {
+                        // the target is still on the stack
+                        lowLink[node] = Math.min(lowLink[node], index[target]);
+                    }
+                    continue;
+                }
+
+                if (lowLink[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        labels[member] = components;
+                    } while (member != node);
+                    components++;
+                }
+                depth--;
+                if (depth > 0) {
+                    int parent = frameNodes[depth - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+            }
+        }
+
+        byte[] flags = new byte[components];
+        int[] sizes = new int[components];
+        for (int node = 0; node < nodes; node++) {
+            int component = labels[node];
+            sizes[component]++;
+            for (int edge = firstEdges.get(node), end = firstEdges.get(node + 1); edge < end; edge++) {
+                int targetComponent = labels[edgeTargets.get(edge)];
+                if ((edgeFlags.get(edge) & access) != 0 && targetComponent != component) {
+                    flags[component] |= HAS_OUTGOING;
+                    flags[targetComponent] |= HAS_INCOMING;
+                }
+            }
+        }
+        int largest = -1;
+        for (int c = 0; c < components; c++) {
+            if (largest == -1 || sizes[c] > sizes[largest]) {
+                largest = c;
+            }
+        }
+
+        return new StronglyConnectedComponents(IntBuffer.wrap(labels), ByteBuffer.wrap(flags), largest);
+    }
+
+
+    public int getNumberOfComponents() {
+        return this.flags.limit();
+    }
+
+
+    /**
+     * @param node id of a node
+     * @return id of the node's component
+     */
+    public int getComponent(int node) {
+        return this.labels.get(node);
+    }
+
+
+    /**
+     * @return id of the component with the most nodes or -1 if the graph is empty
+     */
+    public int getLargestComponent() {
+        return this.largest;
+    }
+
+
+    public boolean isInLargestComponent(int node) {
+        return this.labels.get(node) == this.largest;
+    }
+
+
+    /**
+     * Checks in constant time if there might be a path between two nodes. If this returns false, there is no path
+     * at all. If it returns true, there is a path if both nodes are in the same component, otherwise it's unknown.
+     *
+     * @param source id of the source node
+     * @param target id of the target node
+     * @return false if the target can't be reached from the source
+     */
+    public boolean mayReach(int source, int target) {
+        int sourceComponent = this.labels.get(source);
+        int targetComponent = this.labels.get(target);
+        if (sourceComponent == targetComponent) {
+            return true;
+        }
+        // components are in reverse topological order and a path must leave resp. enter the components
+        return targetComponent < sourceComponent && (this.flags.get(sourceComponent) & HAS_OUTGOING) != 0 &&
+                (this.flags.get(targetComponent) & HAS_INCOMING) != 0;
+    }
+}
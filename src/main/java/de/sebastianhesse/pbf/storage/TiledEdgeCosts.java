@@ -0,0 +1,65 @@
+package de.sebastianhesse.pbf.storage;
+
+import java.nio.FloatBuffer;
+
+/**
+ * {@link EdgeCosts} of a tiled snapshot: the costs of an edge are calculated with the costs of all edges of its tile
+ * when they are read first and dropped when the tile is evicted, so they are bounded by the tile cache size instead
+ * of needing 20 bytes per edge of the whole graph. A traffic update of an edge whose tile isn't loaded doesn't need
+ * to update anything, since the costs include the traffic weight when the tile is loaded again.
+ */
+class TiledEdgeCosts extends EdgeCosts {
+
+    private final Graph graph;
+    private final EdgeTileCache tiles;
+
+
+    TiledEdgeCosts(Graph graph, EdgeTileCache tiles) {
+        super(null, null);
+        this.graph = graph;
+        this.tiles = tiles;
+    }
+
+
+    private EdgeCosts getCostsOfEdge(int edge) {
+        return this.tiles.getTileOfEdge(edge).getCosts(this.graph, this.tiles);
+    }
+
+
+    @Override
+    void update(EdgeIterator edge) {
+        EdgeTileCache.Tile tile = this.tiles.getLoadedTileOfEdge(edge.getEdge());
+        if (tile != null) {
+            tile.updateCosts(edge);
+        }
+    }
+
+
+    @Override
+    float getFreeFlowCost(CostProfile profile, EdgeIterator edge) {
+        return getCostsOfEdge(edge.getEdge()).getFreeFlowCost(profile, edge);
+    }
+
+
+    @Override
+    public float getCost(CostProfile profile, int edge) {
+        return getCostsOfEdge(edge).getCost(profile, edge);
+    }
+
+
+    @Override
+    public float getLength(int edge) {
+        return getCostsOfEdge(edge).getLength(edge);
+    }
+
+
+    /**
+     * Loads all tiles once.
+     */
+    @Override
+    void copyCosts(CostProfile profile, FloatBuffer target) {
+        for (int edge = 0; edge < this.graph.getEdgesSize(); edge++) {
+            target.put(edge, getCost(profile, edge));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.sebastianhesse.pbf.storage;
+
+
+/**
+ * {@link EdgeIterator} over the edges of a {@link Graph} whose edges are loaded by an {@link EdgeTileCache}.
+ * The tile of a node is loaded as soon as the iterator moves to a node with edges. The iterator keeps its last tile,
+ * even if the cache evicts it meanwhile, so moving to another node of the same tile doesn't access the cache.
+ */
+class TiledEdgeIterator implements EdgeIterator {
+
+    private final Graph graph;
+    private final EdgeTileCache tiles;
+    private EdgeTileCache.Tile tile;
+    private int baseNode = -1;
+    private int edge = -1;
+    private int nextEdge = -1;
+    private int endEdge = -1;
+
+
+    TiledEdgeIterator(Graph graph, EdgeTileCache tiles) {
+        this.graph = graph;
+        this.tiles = tiles;
+    }
+
+
+    /**
+     * @param tile the tile of the nodes the iterator moves to, the cache isn't accessed for them
+     */
+    TiledEdgeIterator(Graph graph, EdgeTileCache tiles, EdgeTileCache.Tile tile) {
+        this(graph, tiles);
+        this.tile = tile;
+    }
+
+
+    @Override
+    public EdgeIterator setBaseNode(int node) {
+        this.baseNode = node;
+        this.edge = -1;
+        this.nextEdge = this.graph.firstEdges.get(node);
+        this.endEdge = this.graph.firstEdges.get(node + 1);
+        // the cache is only locked if the edges are not part of the last tile, e.g. when the search leaves it
+        if (this.nextEdge < this.endEdge && (this.tile == null || !this.tile.contains(this.nextEdge))) {
+            this.tile = this.tiles.getTileOfNode(node);
+        }
+        return this;
+    }
+
+
+    @Override
+    public boolean next() {
+        if (this.nextEdge >= this.endEdge) {
+            return false;
+        }
+        this.edge = this.nextEdge++;
+        return true;
+    }
+
+
+    @Override
+    public int getEdge() {
+        return this.edge;
+    }
+
+
+    @Override
+    public int getBaseNode() {
+        return this.baseNode;
+    }
+
+
+    @Override
+    public int getTarget() {
+        return this.tile.getTarget(this.edge);
+    }
+
+
+    @Override
+    public int getNextCrossing() {
+        return this.tile.getNextCrossing(this.edge);
+    }
+
+
+    @Override
+    public double getDistance() {
+        return this.tile.getDistance(this.edge);
+    }
+
+
+    @Override
+    public short getSpeed() {
+        return (short) (this.tile.getSpeed(this.edge) & 0xFF);
+    }
+
+
+    @Override
+    public String getType() {
+        return this.graph.edgeTypeNames.get(this.tile.getType(this.edge) & 0xFF);
+    }
+
+
+    @Override
+    public boolean isCarAllowed() {
+        return (this.tile.getFlags(this.edge) & Graph.CAR_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public boolean isPedestrianAllowed() {
+        return (this.tile.getFlags(this.edge) & Graph.PEDESTRIAN_ALLOWED) != 0;
+    }
+
+
+    @Override
+    public double getAdditionalWeight() {
+        return this.graph.additionalWeights.get(this.edge);
+    }
+}
@@ -0,0 +1,183 @@
+package de.sebastianhesse.pbf.storage;
+
+import de.sebastianhesse.pbf.util.GraphUtil;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.IntBuffer;
+
+
+/**
+ * A uniform grid over encoded coordinates, e.g. the nodes of a {@link Graph}. The grid covers the extent of all points
+ * with square cells of a configurable size. Cells are numbered row by row, starting at the south west corner.
+ * The points of cell c are stored in {@link #cellPoints} from index {@code cellStarts[c]} until
+ * {@code cellStarts[c + 1]}, so the points of a cell don't need to be contiguous in the columns.
+ * Finding the cell of a position is pure arithmetic.
+ */
+public class UniformGrid {
+
+    /**
+     * max. number of cells, i.e. the cell size must be large enough for the extent of the points
+     */
+    public static final int MAX_CELLS = 1 << 26;
+
+    private final IntBuffer lats;
+    private final IntBuffer lons;
+    final int cellSize;
+    final int minLat;
+    final int minLon;
+    final int rows;
+    final int columns;
+    final IntBuffer cellStarts;
+    final IntBuffer cellPoints;
+
+
+    /**
+     * Builds a new grid over the first points of the given columns.
+     *
+     * @param lats     encoded latitudes, indexed by point id
+     * @param lons     encoded longitudes, indexed by point id
+     * @param size     number of points
+     * @param cellSize size of a cell in degrees
+     */
+    public UniformGrid(IntBuffer lats, IntBuffer lons, int size, double cellSize) {
+        this.lats = lats;
+        this.lons = lons;
+        this.cellSize = GraphUtil.encodeCoordinate(cellSize);
+        if (this.cellSize <= 0) {
+            throw new IllegalArgumentException("The cell size must be positive, but was " + cellSize + ".");
+        }
+
+        int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minLat = Math.min(minLat, lats.get(i));
+            maxLat = Math.max(maxLat, lats.get(i));
+            minLon = Math.min(minLon, lons.get(i));
+            maxLon = Math.max(maxLon, lons.get(i));
+        }
+        this.minLat = size > 0 ? minLat : 0;
+        this.minLon = size > 0 ? minLon : 0;
+        this.rows = size > 0 ? (int) (((long) maxLat - minLat) / this.cellSize + 1) : 0;
+        this.columns = size > 0 ? (int) (((long) maxLon - minLon) / this.cellSize + 1) : 0;
+        if ((long) this.rows * this.columns > MAX_CELLS) {
+            throw new IllegalArgumentException("A cell size of " + cellSize + " results in " + this.rows + "x" +
+                    this.columns + " cells, but only " + MAX_CELLS + " cells are supported.");
+        }
+
+        // counting sort of the points by their cell
+        int cells = this.rows * this.columns;
+        int[] cellOfPoint = new int[size];
+        int[] starts = new int[cells + 1];
+        for (int i = 0; i < size; i++) {
+            cellOfPoint[i] = getCell(lats.get(i), lons.get(i));
+            starts[cellOfPoint[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            starts[c + 1] += starts[c];
+        }
+        int[] points = new int[size];
+        int[] next = new int[cells];
+        System.arraycopy(starts, 0, next, 0, cells);
+        for (int i = 0; i < size; i++) {
+            points[next[cellOfPoint[i]]++] = i;
+        }
+        this.cellStarts = IntBuffer.wrap(starts);
+        this.cellPoints = IntBuffer.wrap(points);
+    }
+
+
+    /**
+     * Restores a grid which has been built before, see {@link GraphSnapshot}.
+     */
+    UniformGrid(IntBuffer lats, IntBuffer lons, int cellSize, int minLat, int minLon, int rows, int columns,
+                IntBuffer cellStarts, IntBuffer cellPoints) {
+        this.lats = lats;
+        this.lons = lons;
+        this.cellSize = cellSize;
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellStarts = cellStarts;
+        this.cellPoints = cellPoints;
+    }
+
+
+    /**
+     * @return size of a cell in degrees
+     */
+    public double getCellSize() {
+        return GraphUtil.decodeCoordinate(this.cellSize);
+    }
+
+
+    /**
+     * @param lat encoded latitude
+     * @param lon encoded longitude
+     * @return the cell containing the position or -1 if the position is outside of the grid
+     */
+    public int getCell(int lat, int lon) {
+        int row = getRow(lat);
+        int column = getColumn(lon);
+        if (row < 0 || row >= this.rows || column < 0 || column >= this.columns) {
+            return -1;
+        }
+        return row * this.columns + column;
+    }
+
+
+    /**
+     * Iterates only over the cells covered by the circle around the position.
+     *
+     * @param lat         encoded latitude
+     * @param lon         encoded longitude
+     * @param maxDistance max. distance of the points in meters
+     * @return ids of all points within the distance, in no particular order
+     */
+    public TIntList findWithin(int lat, int lon, double maxDistance) {
+        TIntList result = new TIntArrayList();
+        if (this.rows == 0 || maxDistance < 0) {
+            return result;
+        }
+
+        // extent of the circle in encoded degrees, longitudes get closer towards the poles
+        double angle = maxDistance / GraphUtil.EARTH_RADIUS;
+        long latRadius = (long) Math.ceil(angle / GraphUtil.ENCODED_TO_RADIANS);
+        double farthestLat = Math.min(Math.abs((long) lat) + latRadius, GraphUtil.encodeCoordinate(90)) *
+                GraphUtil.ENCODED_TO_RADIANS;
+        double cos = Math.cos(farthestLat);
+        long lonRadius = cos > 1e-9 ? (long) Math.ceil(latRadius / cos) : Integer.MAX_VALUE;
+
+        int firstRow = Math.max(getRow(lat - latRadius), 0);
+        int lastRow = Math.min(getRow(lat + latRadius), this.rows - 1);
+        int firstColumn = Math.max(getColumn(lon - lonRadius), 0);
+        int lastColumn = Math.min(getColumn(lon + lonRadius), this.columns - 1);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * this.columns + column;
+                for (int i = this.cellStarts.get(cell), end = this.cellStarts.get(cell + 1); i < end; i++) {
+                    int point = this.cellPoints.get(i);
+                    if (GraphUtil.getEncodedDistance(lat, lon, this.lats.get(point), this.lons.get(point)) <=
+                            maxDistance) {
+                        result.add(point);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private int getRow(long lat) {
+        return (int) Math.max(Math.min(Math.floorDiv(lat - this.minLat, (long) this.cellSize), Integer.MAX_VALUE),
+                Integer.MIN_VALUE);
+    }
+
+
+    private int getColumn(long lon) {
+        return (int) Math.max(Math.min(Math.floorDiv(lon - this.minLon, (long) this.cellSize), Integer.MAX_VALUE),
+                Integer.MIN_VALUE);
+    }
+}
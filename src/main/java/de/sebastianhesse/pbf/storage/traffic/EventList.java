@@ -1,5 +1,6 @@
 package de.sebastianhesse.pbf.storage.traffic;
 
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
@@ -12,6 +13,8 @@ public class EventList {
 
     private TIntObjectMap<EventRow> eventList;
     private int rows = 0;
+    // estimated size of the rows, updated when a row is added
+    private long rowBytes = 0;
 
 
     public EventList() {
@@ -20,8 +23,9 @@ public class EventList {
 
 
     public void add(EventRow row) {
-        this.eventList.put(row.getId(), row);
+        EventRow previous = this.eventList.put(row.getId(), row);
         this.rows++;
+        this.rowBytes += getRowSize(row) - (previous != null ? getRowSize(previous) : 0);
     }
 
 
@@ -36,4 +40,19 @@ public class EventList {
     public int size() {
         return this.rows;
     }
+
+
+    /**
+     * @return estimated bytes used by the rows and the map containing them
+     */
+    public long estimateMemory() {
+        return MemoryEstimate.getHashMapSize(this.eventList.size(), Integer.BYTES, MemoryEstimate.REFERENCE) +
+                this.rowBytes;
+    }
+
+
+    private static long getRowSize(EventRow row) {
+        return MemoryEstimate.getObjectSize(Integer.BYTES + 2 * MemoryEstimate.REFERENCE + Double.BYTES) +
+                MemoryEstimate.getStringSize(row.getText()) + MemoryEstimate.getStringSize(row.getTextDe());
+    }
 }
@@ -1,5 +1,6 @@
 package de.sebastianhesse.pbf.storage.traffic;
 
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
@@ -9,18 +10,23 @@ import gnu.trove.map.hash.TIntObjectHashMap;
  */
 public class LocationList {
 
+    private static final int INITIAL_CAPACITY = 67000;
+
     private TIntObjectMap<LocationRow> locations;
     private int rows = 0;
+    // estimated size of the rows, updated when a row is added
+    private long rowBytes = 0;
 
 
     public LocationList() {
-        locations = new TIntObjectHashMap<>(67000);
+        locations = new TIntObjectHashMap<>(INITIAL_CAPACITY);
     }
 
 
     public void add(LocationRow row) {
-        this.locations.put(row.getId(), row);
+        LocationRow previous = this.locations.put(row.getId(), row);
         this.rows++;
+        this.rowBytes += getRowSize(row) - (previous != null ? getRowSize(previous) : 0);
     }
 
 
@@ -36,4 +42,19 @@ public class LocationList {
         return this.rows;
     }
 
+
+    /**
+     * @return estimated bytes used by the rows and the map containing them
+     */
+    public long estimateMemory() {
+        return MemoryEstimate.getHashMapSize(Math.max(this.locations.size(), INITIAL_CAPACITY), Integer.BYTES,
+                MemoryEstimate.REFERENCE) + this.rowBytes;
+    }
+
+
+    private static long getRowSize(LocationRow row) {
+        return MemoryEstimate.getObjectSize(3 * Integer.BYTES + MemoryEstimate.REFERENCE + 2 * Double.BYTES) +
+                MemoryEstimate.getStringSize(row.getType());
+    }
+
 }
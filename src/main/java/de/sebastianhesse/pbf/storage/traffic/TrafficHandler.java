@@ -1,8 +1,9 @@
 package de.sebastianhesse.pbf.storage.traffic;
 
 
-import de.sebastianhesse.pbf.storage.Edge;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
 import de.sebastianhesse.pbf.storage.Graph;
+import de.sebastianhesse.pbf.storage.MemoryEstimate;
 import de.sebastianhesse.pbf.storage.Node;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -11,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -27,8 +29,11 @@ public class TrafficHandler {
     private EventList eventList;
     private TmcMessageMap tmcMessageMap;
     private Graph graph;
-    private short lastHour = -1;
-    private List<Pair<Node, Node>> lastUpdatedWays = new ArrayList<>();
+    private volatile short lastHour = -1;
+    // replaced as a whole and never modified afterwards, so readers can iterate over it while the traffic changes
+    private volatile List<Pair<Node, Node>> lastUpdatedWays = Collections.emptyList();
+    // estimated size of the last updated ways, updated together with them
+    private volatile long lastUpdatedWaysBytes = 0;
 
 
     public TrafficHandler(LocationList locationList, EventList eventList, TmcMessageMap tmcMessageMap) {
@@ -45,7 +50,7 @@ public class TrafficHandler {
 
     /**
      * Updates the traffic data on the graph for a given hour. Loads the traffic data from the related file for
-     * a given hour.
+     * a given hour. Afterwards the overlays of the graph are customized with the new costs.
      *
      * @param hour 0 - 23
      * @return a list of node-node pairs indicating which ways have been updated
@@ -54,7 +59,7 @@ public class TrafficHandler {
     public List<Pair<Node, Node>> updateTraffic(short hour) throws IOException {
         logger.debug("Updating traffic data for hour {}", hour);
         // first, remove existing traffic data!
-        removeTrafficData();
+        resetTrafficData();
 
         // then read traffic data from file
         List<TmcEvent> events = this.tmcMessageMap.readFile(hour);
@@ -83,9 +88,11 @@ public class TrafficHandler {
 
         // save the state of the last change
         this.lastHour = hour;
+        this.lastUpdatedWaysBytes = estimateMemory(updatedWays);
         this.lastUpdatedWays = updatedWays;
 
         logger.debug("Updated {} ways for hour {}.", lastUpdatedWays.size(), lastHour);
+        this.graph.customizeOverlays();
 
         return updatedWays;
     }
@@ -98,12 +105,12 @@ public class TrafficHandler {
             if (row.getLat() > 0 && row.getLon() > 0) {
                 Optional<Node> closestNode = graph.findClosestNode(row.getLat(), row.getLon());
                 closestNode.ifPresent(node -> {
-                    List<Edge> neighboursOfNode = graph.getNeighboursOfNode(node);
-                    logger.debug("Found node {} with {} neighbours in graph.", node, neighboursOfNode.size());
-                    neighboursOfNode.forEach(edge -> {
-                        edge.setAdditionalWeight(eventRow.getWeight());
-                        updatedWays.add(new ImmutablePair<>(node, graph.getNodes()[edge.getTargetNode()]));
-                    });
+                    logger.debug("Found node {} in graph.", node);
+                    EdgeIterator edges = graph.createEdgeIterator().setBaseNode((int) node.getId());
+                    while (edges.next()) {
+                        graph.setAdditionalWeight(edges, eventRow.getWeight());
+                        updatedWays.add(new ImmutablePair<>(node, graph.getNode(edges.getTarget())));
+                    }
                 });
             }
         }
@@ -131,16 +138,54 @@ public class TrafficHandler {
 
 
     /**
-     * Removes all traffic related data from all edges.
+     * Removes all traffic related data from all edges and customizes the overlays of the graph again.
      */
     public void removeTrafficData() {
+        resetTrafficData();
+        this.graph.customizeOverlays();
+    }
+
+
+    private void resetTrafficData() {
         this.lastUpdatedWays.forEach(nodePair -> {
             // update both neighbours, because otherwise the edges are not updated appropriately...
-            this.graph.getNeighboursOfNode(nodePair.getKey()).forEach(edge -> edge.setAdditionalWeight(0));
-            this.graph.getNeighboursOfNode(nodePair.getValue()).forEach(edge -> edge.setAdditionalWeight(0));
+            resetAdditionalWeights(nodePair.getKey());
+            resetAdditionalWeights(nodePair.getValue());
         });
         this.lastHour = -1;
-        this.lastUpdatedWays.clear();
+        this.lastUpdatedWays = Collections.emptyList();
+        this.lastUpdatedWaysBytes = 0;
+    }
+
+
+    private void resetAdditionalWeights(Node node) {
+        EdgeIterator edges = this.graph.createEdgeIterator().setBaseNode((int) node.getId());
+        while (edges.next()) {
+            this.graph.setAdditionalWeight(edges, 0);
+        }
+    }
+
+
+    /**
+     * Estimates the memory used by the TMC location and event lists and the last updated ways.
+     *
+     * @return a new estimate
+     */
+    public MemoryEstimate estimateMemory() {
+        return new MemoryEstimate()
+                .add("locationList", this.locationList.estimateMemory())
+                .add("eventList", this.eventList.estimateMemory())
+                .add("lastUpdatedWays", this.lastUpdatedWaysBytes);
+    }
+
+
+    private static long estimateMemory(List<Pair<Node, Node>> ways) {
+        long bytes = MemoryEstimate.REFERENCE * (long) ways.size();
+        for (Pair<Node, Node> way : ways) {
+            bytes += MemoryEstimate.getObjectSize(2 * MemoryEstimate.REFERENCE) +
+                    MemoryEstimate.getNodeSize(way.getKey()) + MemoryEstimate.getNodeSize(way.getValue());
+        }
+        return bytes;
     }
 
 
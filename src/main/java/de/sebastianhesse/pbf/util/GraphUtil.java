@@ -5,20 +5,58 @@ import de.sebastianhesse.pbf.storage.Node;
 
 /**
  * Utility class for Graphs.
+ * <p>
+ * Coordinates are stored as fixed-point integers with a precision of 1e-7 degrees (the precision of OSM data),
+ * see {@link #encodeCoordinate(double)} and {@link #decodeCoordinate(int)}.
  */
 public class GraphUtil {
 
+    public static final double COORDINATE_FACTOR = 1e7;
+    public static final double EARTH_RADIUS = 6372800; // metres
+    public static final double ENCODED_TO_RADIANS = Math.PI / 180 / COORDINATE_FACTOR;
+
+
+    public static int encodeCoordinate(double coordinate) {
+        return (int) Math.round(coordinate * COORDINATE_FACTOR);
+    }
+
+
+    public static double decodeCoordinate(int coordinate) {
+        return coordinate / COORDINATE_FACTOR;
+    }
+
+
     public static double getDistance(Node node, Node target) {
-        double R = 6372800; // metres
-        double lat1 = node.getLat();
-        double lat2 = target.getLat();
+        return getEncodedDistance(node.getEncodedLat(), node.getEncodedLon(),
+                target.getEncodedLat(), target.getEncodedLon());
+    }
+
+
+    public static double getDistance(double lat1, double lon1, double lat2, double lon2) {
         double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(target.getLon() - node.getLon());
+        double dLon = Math.toRadians(lon2 - lon1);
         lat1 = Math.toRadians(lat1);
         lat2 = Math.toRadians(lat2);
+        return getHaversineDistance(dLat, dLon, lat1, lat2);
+    }
+
+
+    /**
+     * Same as {@link #getDistance(double, double, double, double)}, but works on encoded coordinates.
+     * The differences are calculated on integers, so there is no loss of precision for nearby points.
+     */
+    public static double getEncodedDistance(int lat1, int lon1, int lat2, int lon2) {
+        double dLat = (lat2 - lat1) * ENCODED_TO_RADIANS;
+        double dLon = ((long) lon2 - lon1) * ENCODED_TO_RADIANS;
+        return getHaversineDistance(dLat, dLon, lat1 * ENCODED_TO_RADIANS, lat2 * ENCODED_TO_RADIANS);
+    }
+
 
-        double a = Math.pow(Math.sin(dLat / 2), 2) + Math.pow(Math.sin(dLon / 2), 2) * Math.cos(lat1) * Math.cos(lat2);
+    private static double getHaversineDistance(double dLat, double dLon, double lat1, double lat2) {
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat + sinLon * sinLon * Math.cos(lat1) * Math.cos(lat2);
         double c = 2 * Math.asin(Math.sqrt(a));
-        return R * c;
+        return EARTH_RADIUS * c;
     }
 }
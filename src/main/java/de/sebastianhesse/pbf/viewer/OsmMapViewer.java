@@ -7,7 +7,7 @@ import de.sebastianhesse.pbf.reader.SimpleNodeEdgeReader;
 import de.sebastianhesse.pbf.routing.Dijkstra;
 import de.sebastianhesse.pbf.routing.DijkstraOptions;
 import de.sebastianhesse.pbf.routing.calculators.CalculationType;
-import de.sebastianhesse.pbf.storage.Edge;
+import de.sebastianhesse.pbf.storage.EdgeIterator;
 import de.sebastianhesse.pbf.storage.Graph;
 import de.sebastianhesse.pbf.storage.Node;
 import org.apache.commons.lang3.StringUtils;
@@ -299,10 +299,9 @@ public class OsmMapViewer extends JFrame implements JMapViewerEventListener {
 
     private JScrollPane createNodeScrollPane() {
         String[] nodeColumnNames = new String[]{"#", "Latitude", "Longitude", "Offset"};
-        Node[] nodes = this.graph.getNodes();
-        Object[][] rows = new Object[nodes.length][];
+        Object[][] rows = new Object[this.graph.getNodesSize()][];
         for (int i = 0; i < rows.length; i++) {
-            rows[i] = new Object[]{i, nodes[i].getLat(), nodes[i].getLon(), nodes[i].getOffsetPointer()};
+            rows[i] = new Object[]{i, this.graph.getLat(i), this.graph.getLon(i), this.graph.getOffsetPointer(i)};
             if (i % 100000 == 0) {
                 logger.debug(i + " nodes.");
             }
@@ -316,16 +315,15 @@ public class OsmMapViewer extends JFrame implements JMapViewerEventListener {
 
     private JScrollPane createEdgeScrollPane() {
         String[] edgeColumnNames = new String[]{"#", "Source", "Target", "Distance", "Speed"};
-        Edge[] edges = this.graph.getEdges();
         Object[][] edgeData = new Object[graph.getEdgesSize()][];
-        for (int i = 0; i < graph.getEdgesSize(); i++) {
-            Edge edge = edges[i];
-            if (edge == null) {
-                logger.debug("Edge was null at " + i);
-            } else {
-                edgeData[i] = new Object[]{i, edge.getSourceNode(), edge.getTargetNode(), edge.getDistance(), edge.getSpeed()};
-                if (i % 100000 == 0) {
-                    logger.debug(i + " edges.");
+        EdgeIterator edges = graph.createEdgeIterator();
+        for (int i = 0; i < graph.getNodesSize(); i++) {
+            edges.setBaseNode(i);
+            while (edges.next()) {
+                int edge = edges.getEdge();
+                edgeData[edge] = new Object[]{edge, i, edges.getTarget(), edges.getDistance(), edges.getSpeed()};
+                if (edge % 100000 == 0) {
+                    logger.debug(edge + " edges.");
                 }
             }
         }
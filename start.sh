@@ -43,8 +43,26 @@ cd osm-routing-examples
 mvn clean install -DskipTests
 
 
+## CONFIGURATION
+# the commands below need a conf.yml in the working directory, e.g. based on the default configuration;
+# with offHeap: true the server allocates the graph columns outside of the heap
+cp src/main/resources/dropwizard.yml conf.yml
+sed -i 's/^offHeap: false/offHeap: true/' conf.yml
+
+
+## CREATE SNAPSHOT
+# importing the OSM file needs a large heap, but only once
+java -Xmx26g -jar target/osm-routing.jar snapshot conf.yml germany-latest.osm.pbf germany-latest.graph
+
+
 ## START SERVER
+# the heap still holds the POIs, the search states (about 44 bytes per node each, up to searchStatePoolSize idle
+# ones plus two per running bidirectional query) and the hierarchies, landmarks and partition while they're built.
+# Start with the heap of the import, then lower HEAP to the heap bytes reported by GET /api/meta/memory plus the
+# search states. DIRECT must hold the off heap bytes reported there.
+HEAP=26g
+DIRECT=26g
 # without TMC
-sudo java -Xmx26g  -jar target/osm-routing.jar server conf.yml germany-latest.osm.pbf > output.log 2>&1 &
+sudo java -Xmx$HEAP -XX:MaxDirectMemorySize=$DIRECT -jar target/osm-routing.jar server conf.yml germany-latest.graph > output.log 2>&1 &
 # with TMC
-sudo java -Xmx26g  -jar target/osm-routing.jar server conf.yml germany-latest.osm.pbf ~/lcl.csv ~/event_list.csv ~/cdat_files  > output.log 2>&1 &
+sudo java -Xmx$HEAP -XX:MaxDirectMemorySize=$DIRECT -jar target/osm-routing.jar server conf.yml germany-latest.graph ~/lcl.csv ~/event_list.csv ~/cdat_files  > output.log 2>&1 &